@@ -12,6 +12,7 @@ import android.app.Application;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonGenerator;
 import com.google.api.client.json.JsonParser;
+import com.octo.android.robospice.persistence.WriteBehindQueue;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 import com.octo.android.robospice.persistence.file.InFileObjectPersister;
@@ -85,21 +86,13 @@ public final class JsonObjectPersister<T> extends InFileObjectPersister<T> {
 
         try {
             if (isAsyncSaveEnabled()) {
-                Thread t = new Thread() {
+                saveDataAsynchronously(cacheKey, new WriteBehindQueue.Write() {
                     @Override
-                    public void run() {
-                        try {
-                            saveData(data, cacheKey);
-                        } catch (IOException e) {
-                            Ln.e(e, "An error occured on saving request "
-                                + cacheKey + " data asynchronously");
-                        } catch (CacheSavingException e) {
-                            Ln.e(e, "An error occured on saving request "
-                                + cacheKey + " data asynchronously");
-                        }
-                    };
-                };
-                t.start();
+                    public void write() throws IOException,
+                        CacheSavingException {
+                        saveData(data, cacheKey);
+                    }
+                });
             } else {
                 saveData(data, cacheKey);
             }
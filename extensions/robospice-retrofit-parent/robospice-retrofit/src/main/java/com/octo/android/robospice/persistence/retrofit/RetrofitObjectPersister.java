@@ -13,6 +13,7 @@ import retrofit.io.TypedBytes;
 import roboguice.util.temp.Ln;
 import android.app.Application;
 
+import com.octo.android.robospice.persistence.WriteBehindQueue;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 import com.octo.android.robospice.persistence.file.InFileObjectPersister;
@@ -84,21 +85,13 @@ public class RetrofitObjectPersister<T> extends InFileObjectPersister<T> {
 
         try {
             if (isAsyncSaveEnabled()) {
-                Thread t = new Thread() {
+                saveDataAsynchronously(cacheKey, new WriteBehindQueue.Write() {
                     @Override
-                    public void run() {
-                        try {
-                            saveData(data, cacheKey);
-                        } catch (IOException e) {
-                            Ln.e(e, "An error occured on saving request "
-                                + cacheKey + " data asynchronously");
-                        } catch (CacheSavingException e) {
-                            Ln.e(e, "An error occured on saving request "
-                                + cacheKey + " data asynchronously");
-                        }
-                    };
-                };
-                t.start();
+                    public void write() throws IOException,
+                        CacheSavingException {
+                        saveData(data, cacheKey);
+                    }
+                });
             } else {
                 saveData(data, cacheKey);
             }
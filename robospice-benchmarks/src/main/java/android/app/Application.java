@@ -0,0 +1,21 @@
+package android.app;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+/**
+ * Fake of the Android application. It has no base context : subclasses
+ * provide the directories it gives access to.
+ * @author sni
+ */
+public class Application extends ContextWrapper {
+
+    public Application() {
+        super(null);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+}
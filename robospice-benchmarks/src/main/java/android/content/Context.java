@@ -0,0 +1,15 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Fake of the Android context, to run persisters on a plain JVM. Only what
+ * RoboSpice uses is faked.
+ * @author sni
+ */
+public abstract class Context {
+
+    public abstract File getCacheDir();
+
+    public abstract Context getApplicationContext();
+}
@@ -0,0 +1,30 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Fake of the Android context wrapper, delegating to a base {@link Context}.
+ * @author sni
+ */
+public class ContextWrapper extends Context {
+
+    private final Context base;
+
+    public ContextWrapper(final Context base) {
+        this.base = base;
+    }
+
+    public Context getBaseContext() {
+        return base;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return base.getCacheDir();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return base.getApplicationContext();
+    }
+}
@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * Fake of the Android handler, posting messages to a fake {@link Looper}.
+ * @author sni
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(final Looper looper) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+        }
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(final Runnable runnable) {
+        return postDelayed(runnable, 0);
+    }
+
+    public final boolean postDelayed(final Runnable runnable, final long delayMillis) {
+        looper.post(runnable, delayMillis);
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package android.os;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fake of the Android looper, to run the request engine on a plain JVM : the
+ * main looper is a daemon thread that runs the messages posted to it, in
+ * order. Only what RoboSpice uses is faked.
+ * @author sni
+ */
+public final class Looper {
+
+    private static final Looper MAIN_LOOPER = new Looper("main");
+
+    private final ScheduledThreadPoolExecutor executor;
+    private volatile Thread thread;
+
+    private Looper(final String name) {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread newThread = new Thread(runnable, name);
+                newThread.setDaemon(true);
+                thread = newThread;
+                return newThread;
+            }
+        });
+        executor.prestartAllCoreThreads();
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN_LOOPER;
+    }
+
+    /**
+     * @return the main looper on the main thread, null on any other thread.
+     */
+    public static Looper myLooper() {
+        return Thread.currentThread() == MAIN_LOOPER.thread ? MAIN_LOOPER : null;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    /* package private */void post(final Runnable runnable, final long delayMillis) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (final RuntimeException e) {
+                    // a message that fails would crash an android application
+                    e.printStackTrace();
+                }
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+}
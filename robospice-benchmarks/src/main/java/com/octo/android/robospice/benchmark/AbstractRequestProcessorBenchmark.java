@@ -0,0 +1,96 @@
+package com.octo.android.robospice.benchmark;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import roboguice.util.temp.Ln;
+import android.util.Log;
+
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.memory.LruCacheStringObjectPersister;
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.RequestProcessor;
+import com.octo.android.robospice.request.RequestProcessorListener;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * A {@link RequestProcessor} set up as in a SpiceService, with a cache in
+ * memory : requests go through their cache, network and persist stages, and
+ * listeners are notified on the (fake) main looper. Each benchmark operation
+ * waits for all its listeners to be notified.
+ * @author sni
+ */
+public abstract class AbstractRequestProcessorBenchmark {
+
+    public static final int NETWORK_THREAD_COUNT = 4;
+    private static final int CACHE_SIZE = 1 << 20;
+    private static final long NOTIFICATION_TIME_OUT = 10000;
+
+    private final AtomicLong cacheKeyCount = new AtomicLong();
+    private ExecutorService executorService;
+    private ExecutorService cacheExecutorService;
+    private ExecutorService persistExecutorService;
+    protected RequestProcessor requestProcessor;
+
+    @Setup(Level.Trial)
+    public void setUpRequestProcessor() {
+        // logs would be most of what is measured
+        Ln.getConfig().setLoggingLevel(Log.ASSERT);
+        final CacheManager cacheManager = new CacheManager();
+        cacheManager.addPersister(new LruCacheStringObjectPersister(CACHE_SIZE));
+        executorService = Executors.newFixedThreadPool(NETWORK_THREAD_COUNT);
+        cacheExecutorService = Executors.newSingleThreadExecutor();
+        persistExecutorService = Executors.newSingleThreadExecutor();
+        requestProcessor = new RequestProcessor(null, cacheManager, executorService, cacheExecutorService, persistExecutorService,
+            new RequestProcessorListener() {
+                @Override
+                public void allRequestComplete() {
+                    // nothing to stop
+                }
+            }, new AlwaysAvailableNetworkStateChecker());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownRequestProcessor() {
+        executorService.shutdownNow();
+        cacheExecutorService.shutdownNow();
+        persistExecutorService.shutdownNow();
+    }
+
+    /**
+     * @return a cache key that was never used : data is never found in cache
+     *         and requests don't aggregate unless they share it on purpose.
+     */
+    protected String newCacheKey() {
+        return "key-" + cacheKeyCount.incrementAndGet();
+    }
+
+    /**
+     * @return a request that is always loaded from network, then saved in
+     *         cache.
+     */
+    protected CachedSpiceRequest<String> newRequest(final String cacheKey, final CountDownLatch gate) {
+        return new CachedSpiceRequest<String>(new BenchmarkRequest(gate), cacheKey, DurationInMillis.NEVER);
+    }
+
+    protected void addRequest(final CachedSpiceRequest<String> request, final RequestListener<String> requestListener) {
+        final Set<RequestListener<?>> listeners = Collections.<RequestListener<?>> singleton(requestListener);
+        requestProcessor.addRequest(request, listeners);
+    }
+
+    protected static void awaitNotifications(final CountDownLatch notificationLatch) throws InterruptedException {
+        if (!notificationLatch.await(NOTIFICATION_TIME_OUT, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(notificationLatch.getCount() + " listeners were not notified in time.");
+        }
+    }
+}
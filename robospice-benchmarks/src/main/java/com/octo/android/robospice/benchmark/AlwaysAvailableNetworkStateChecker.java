@@ -0,0 +1,21 @@
+package com.octo.android.robospice.benchmark;
+
+import android.content.Context;
+
+import com.octo.android.robospice.networkstate.NetworkStateChecker;
+
+/**
+ * Network is always available on a JVM, and needs no permission.
+ * @author sni
+ */
+public final class AlwaysAvailableNetworkStateChecker implements NetworkStateChecker {
+    @Override
+    public boolean isNetworkAvailable(final Context context) {
+        return true;
+    }
+
+    @Override
+    public void checkPermissions(final Context context) {
+        // no permission on a JVM
+    }
+}
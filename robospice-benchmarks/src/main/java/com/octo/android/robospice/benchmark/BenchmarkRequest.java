@@ -0,0 +1,34 @@
+package com.octo.android.robospice.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.octo.android.robospice.request.SpiceRequest;
+
+/**
+ * A request whose network call returns at once, or when its gate opens : the
+ * benchmarks measure the engine, not the network.
+ * @author sni
+ */
+public final class BenchmarkRequest extends SpiceRequest<String> {
+
+    public static final String RESULT = "result";
+
+    private final CountDownLatch gate;
+
+    /**
+     * @param gate
+     *            the network call waits for it to reach 0, may be null.
+     */
+    public BenchmarkRequest(final CountDownLatch gate) {
+        super(String.class);
+        this.gate = gate;
+    }
+
+    @Override
+    public String loadDataFromNetwork() throws Exception {
+        if (gate != null) {
+            gate.await();
+        }
+        return RESULT;
+    }
+}
@@ -0,0 +1,149 @@
+package com.octo.android.robospice.benchmark;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.ObjectPersister;
+import com.octo.android.robospice.persistence.ObjectPersisterFactory;
+
+/**
+ * Cost of resolving the persister of a class, which every cache access does.
+ * The chain holds persisters of other classes, then a factory of persisters
+ * for all result classes : the worst case for a walk of the chain. Result
+ * classes are arrays of 1 to n dimensions, as many distinct classes as needed.
+ * <br/>
+ * The lookup is measured through
+ * {@link CacheManager#loadDataFromMemoryCache(Class, Object, long)}, that does
+ * nothing else when the persister is not an in-memory one.
+ * @author sni
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheManagerBenchmark {
+
+    private static final int RESULT_CLASS_COUNT = 64;
+    private static final String CACHE_KEY = "key";
+
+    @Param({ "1", "10", "20" })
+    public int persisterCount;
+
+    private CacheManager cacheManager;
+    private List<Class<?>> resultClasses;
+
+    @Setup
+    public void setUp() {
+        resultClasses = createArrayClasses(String.class, RESULT_CLASS_COUNT);
+        cacheManager = new CacheManager();
+        for (final Class<?> otherClass : createArrayClasses(Integer.class, persisterCount - 1)) {
+            cacheManager.addPersister(new NoOpObjectPersister<Object>(otherClass));
+        }
+        cacheManager.addPersister(new NoOpObjectPersisterFactory(resultClasses));
+        // persisters are created by the factory beforehand
+        for (final Class<?> resultClass : resultClasses) {
+            cacheManager.loadDataFromMemoryCache(resultClass, CACHE_KEY, DurationInMillis.ALWAYS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESULT_CLASS_COUNT)
+    public void resolvePersister(final Blackhole blackhole) {
+        for (final Class<?> resultClass : resultClasses) {
+            blackhole.consume(cacheManager.loadDataFromMemoryCache(resultClass, CACHE_KEY, DurationInMillis.ALWAYS));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(RESULT_CLASS_COUNT)
+    public void resolvePersister_contended(final Blackhole blackhole) {
+        resolvePersister(blackhole);
+    }
+
+    private static List<Class<?>> createArrayClasses(final Class<?> componentClass, final int count) {
+        final List<Class<?>> arrayClasses = new ArrayList<Class<?>>(count);
+        Class<?> arrayClass = componentClass;
+        for (int i = 0; i < count; i++) {
+            arrayClass = Array.newInstance(arrayClass, 0).getClass();
+            arrayClasses.add(arrayClass);
+        }
+        return arrayClasses;
+    }
+
+    private static final class NoOpObjectPersisterFactory extends ObjectPersisterFactory {
+        public NoOpObjectPersisterFactory(final List<Class<?>> handledClasses) {
+            super(null, handledClasses);
+        }
+
+        @Override
+        public <DATA> ObjectPersister<DATA> createObjectPersister(final Class<DATA> clazz) {
+            return new NoOpObjectPersister<DATA>(clazz);
+        }
+    }
+
+    /** Handles a single class, and caches nothing. */
+    private static final class NoOpObjectPersister<T> extends ObjectPersister<T> {
+        @SuppressWarnings("unchecked")
+        public NoOpObjectPersister(final Class<?> clazz) {
+            super(null, (Class<T>) clazz);
+        }
+
+        @Override
+        public T loadDataFromCache(final Object cacheKey, final long maxTimeInCache) {
+            return null;
+        }
+
+        @Override
+        public List<T> loadAllDataFromCache() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Object> getAllCacheKeys() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public T saveDataToCacheAndReturnData(final T data, final Object cacheKey) {
+            return data;
+        }
+
+        @Override
+        public boolean removeDataFromCache(final Object cacheKey) {
+            return false;
+        }
+
+        @Override
+        public void removeAllDataFromCache() {
+            // nothing cached
+        }
+
+        @Override
+        public long getCreationDateInCache(final Object cacheKey) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.octo.android.robospice.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * Counts down a latch when notified of the success or the failure of a
+ * request.
+ * @author sni
+ */
+public final class CountingRequestListener implements RequestListener<String> {
+
+    private final CountDownLatch notificationLatch;
+
+    public CountingRequestListener(final CountDownLatch notificationLatch) {
+        this.notificationLatch = notificationLatch;
+    }
+
+    @Override
+    public void onRequestSuccess(final String result) {
+        notificationLatch.countDown();
+    }
+
+    @Override
+    public void onRequestFailure(final SpiceException spiceException) {
+        notificationLatch.countDown();
+    }
+}
@@ -0,0 +1,47 @@
+package com.octo.android.robospice.benchmark;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * Throughput of requests, in requests per second, when each of them has many
+ * listeners to notify on the main looper.
+ * @author sni
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ListenerFanOutBenchmark extends AbstractRequestProcessorBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int listenerCount;
+
+    @Benchmark
+    public void addRequest() throws InterruptedException {
+        final CountDownLatch notificationLatch = new CountDownLatch(listenerCount);
+        final Set<RequestListener<?>> listeners = new HashSet<RequestListener<?>>();
+        for (int i = 0; i < listenerCount; i++) {
+            listeners.add(new CountingRequestListener(notificationLatch));
+        }
+        requestProcessor.addRequest(newRequest(newCacheKey(), null), listeners);
+        awaitNotifications(notificationLatch);
+    }
+}
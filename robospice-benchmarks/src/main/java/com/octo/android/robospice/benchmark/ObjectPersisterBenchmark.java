@@ -0,0 +1,94 @@
+package com.octo.android.robospice.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import roboguice.util.temp.Ln;
+import android.util.Log;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.ObjectPersister;
+import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.persistence.exception.CacheSavingException;
+
+/**
+ * Latency of saving, loading and removing an entry of each persister, for
+ * payloads from 100 B to 5 MB. Files are written in a temporary directory.
+ * @author sni
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectPersisterBenchmark {
+
+    private static final String CACHE_KEY = "entry";
+    private static final String REMOVED_CACHE_KEY = "removed";
+
+    @Param
+    public PersisterType persisterType;
+
+    @Param({ "100", "10000", "1000000", "5000000" })
+    public int payloadSize;
+
+    private TemporaryDirectoryApplication application;
+    private ObjectPersister<Object> objectPersister;
+    private String data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CacheSavingException {
+        // logs would be most of what is measured
+        Ln.getConfig().setLoggingLevel(Log.ASSERT);
+        application = new TemporaryDirectoryApplication();
+        objectPersister = persisterType.createPersister(application);
+        data = Payload.createData(payloadSize);
+        objectPersister.saveDataToCacheAndReturnData(persisterType.createData(data), CACHE_KEY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        objectPersister.removeAllDataFromCache();
+        application.deleteCacheDir();
+    }
+
+    @Benchmark
+    public Object saveDataToCacheAndReturnData() throws CacheSavingException {
+        return objectPersister.saveDataToCacheAndReturnData(persisterType.createData(data), CACHE_KEY);
+    }
+
+    @Benchmark
+    public void loadDataFromCache(final Blackhole blackhole) throws CacheLoadingException, IOException {
+        persisterType.consume(objectPersister.loadDataFromCache(CACHE_KEY, DurationInMillis.ALWAYS), blackhole);
+    }
+
+    @Benchmark
+    public boolean removeDataFromCache(final SavedEntry savedEntry) {
+        return objectPersister.removeDataFromCache(REMOVED_CACHE_KEY);
+    }
+
+    /** An entry saved before each removal, outside of the measure. */
+    @State(Scope.Thread)
+    public static class SavedEntry {
+        @Setup(Level.Invocation)
+        public void save(final ObjectPersisterBenchmark benchmark) throws CacheSavingException {
+            benchmark.objectPersister.saveDataToCacheAndReturnData(benchmark.persisterType.createData(benchmark.data), REMOVED_CACHE_KEY);
+        }
+    }
+}
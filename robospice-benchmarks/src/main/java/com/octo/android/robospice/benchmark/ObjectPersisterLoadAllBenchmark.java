@@ -0,0 +1,82 @@
+package com.octo.android.robospice.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import roboguice.util.temp.Ln;
+import android.util.Log;
+
+import com.octo.android.robospice.persistence.ObjectPersister;
+import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.persistence.exception.CacheSavingException;
+
+/**
+ * Latency of listing and loading all entries of each persister, for up to 10k
+ * entries of 100 B.
+ * @author sni
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectPersisterLoadAllBenchmark {
+
+    private static final int PAYLOAD_SIZE = 100;
+
+    @Param
+    public PersisterType persisterType;
+
+    @Param({ "10", "1000", "10000" })
+    public int entryCount;
+
+    private TemporaryDirectoryApplication application;
+    private ObjectPersister<Object> objectPersister;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CacheSavingException {
+        // logs would be most of what is measured
+        Ln.getConfig().setLoggingLevel(Log.ASSERT);
+        application = new TemporaryDirectoryApplication();
+        objectPersister = persisterType.createPersister(application);
+        final String data = Payload.createData(PAYLOAD_SIZE);
+        for (int i = 0; i < entryCount; i++) {
+            objectPersister.saveDataToCacheAndReturnData(persisterType.createData(data), "entry-" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        objectPersister.removeAllDataFromCache();
+        application.deleteCacheDir();
+    }
+
+    @Benchmark
+    public List<Object> getAllCacheKeys() {
+        return objectPersister.getAllCacheKeys();
+    }
+
+    @Benchmark
+    public void loadAllDataFromCache(final Blackhole blackhole) throws CacheLoadingException, IOException {
+        for (final Object data : objectPersister.loadAllDataFromCache()) {
+            persisterType.consume(data, blackhole);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.octo.android.robospice.benchmark;
+
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.Root;
+
+import com.google.api.client.util.Key;
+
+/**
+ * The data saved by persisters that serialize objects. Its annotations let all
+ * of them (Jackson, Gson, Simple XML, google-http-client) handle it.
+ * @author sni
+ */
+@Root(name = "payload")
+public class Payload {
+
+    @Key
+    @Element
+    public String data;
+
+    public Payload() {
+    }
+
+    public Payload(final String data) {
+        this.data = data;
+    }
+
+    /**
+     * @return a text of the given length, in ASCII : its size in bytes is its
+     *         length.
+     */
+    public static String createData(final int size) {
+        final StringBuilder stringBuilder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            stringBuilder.append((char) ('a' + i % 26));
+        }
+        return stringBuilder.toString();
+    }
+}
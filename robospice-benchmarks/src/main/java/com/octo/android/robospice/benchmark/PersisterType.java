@@ -0,0 +1,129 @@
+package com.octo.android.robospice.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.infra.Blackhole;
+
+import android.app.Application;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.octo.android.robospice.persistence.ObjectPersister;
+import com.octo.android.robospice.persistence.binary.InFileInputStreamObjectPersister;
+import com.octo.android.robospice.persistence.googlehttpclient.json.JsonObjectPersister;
+import com.octo.android.robospice.persistence.memory.LruCacheStringObjectPersister;
+import com.octo.android.robospice.persistence.springandroid.json.gson.GsonObjectPersister;
+import com.octo.android.robospice.persistence.springandroid.json.jackson.JacksonObjectPersister;
+import com.octo.android.robospice.persistence.springandroid.xml.SimpleSerializerObjectPersister;
+import com.octo.android.robospice.persistence.string.InFileStringObjectPersister;
+
+/**
+ * The persisters compared by the benchmarks, and how to build the data each
+ * of them handles. RetrofitObjectPersister is not part of it as the retrofit
+ * module is not built, nor InDatabaseObjectPersister that needs the SQLite
+ * database of a device.
+ * @author sni
+ */
+public enum PersisterType {
+
+    LRU_CACHE {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new LruCacheStringObjectPersister(LRU_CACHE_SIZE));
+        }
+
+        @Override
+        public Object createData(final String data) {
+            return data;
+        }
+    },
+    IN_FILE_STRING {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new InFileStringObjectPersister(application));
+        }
+
+        @Override
+        public Object createData(final String data) {
+            return data;
+        }
+    },
+    /**
+     * Loading all data of this persister opens a file per entry : many entries
+     * need a high limit of open files.
+     */
+    IN_FILE_INPUT_STREAM {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new InFileInputStreamObjectPersister(application));
+        }
+
+        @Override
+        public Object createData(final String data) {
+            return new ByteArrayInputStream(data.getBytes(UTF_8));
+        }
+
+        @Override
+        public void consume(final Object data, final Blackhole blackhole) throws IOException {
+            // data is only read when the stream is
+            final InputStream inputStream = (InputStream) data;
+            try {
+                blackhole.consume(IOUtils.toByteArray(inputStream));
+            } finally {
+                inputStream.close();
+            }
+        }
+    },
+    SPRING_ANDROID_JACKSON {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new JacksonObjectPersister<Payload>(application, Payload.class, name()));
+        }
+    },
+    SPRING_ANDROID_GSON {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new GsonObjectPersister<Payload>(application, Payload.class, name()));
+        }
+    },
+    SPRING_ANDROID_SIMPLE_XML {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new SimpleSerializerObjectPersister<Payload>(application, Payload.class, name()));
+        }
+    },
+    GOOGLE_HTTP_CLIENT_JSON {
+        @Override
+        public ObjectPersister<Object> createPersister(final Application application) {
+            return untyped(new JsonObjectPersister<Payload>(application, Payload.class, name(), new JacksonFactory()));
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int LRU_CACHE_SIZE = 64 * 1024 * 1024;
+
+    public abstract ObjectPersister<Object> createPersister(Application application);
+
+    /**
+     * @return data that the persister handles, holding the given text.
+     */
+    public Object createData(final String data) {
+        return new Payload(data);
+    }
+
+    /**
+     * Consume data loaded by the persister, so that lazy loadings are
+     * measured too.
+     */
+    public void consume(final Object data, final Blackhole blackhole) throws IOException {
+        blackhole.consume(data);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ObjectPersister<Object> untyped(final ObjectPersister<?> objectPersister) {
+        return (ObjectPersister<Object>) objectPersister;
+    }
+}
@@ -0,0 +1,77 @@
+package com.octo.android.robospice.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.octo.android.robospice.request.CachedSpiceRequest;
+
+/**
+ * Throughput of {@link com.octo.android.robospice.request.RequestProcessor},
+ * in requests per second, from their submission to the notification of their
+ * listeners. Each operation submits a batch of requests.
+ * @author sni
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RequestProcessorBenchmark extends AbstractRequestProcessorBenchmark {
+
+    public static final int REQUEST_COUNT = 100;
+
+    /** Distinct requests, processed concurrently. */
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_COUNT)
+    public void addRequest() throws InterruptedException {
+        final CountDownLatch notificationLatch = new CountDownLatch(REQUEST_COUNT);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            addRequest(newRequest(newCacheKey(), null), new CountingRequestListener(notificationLatch));
+        }
+        awaitNotifications(notificationLatch);
+    }
+
+    /**
+     * Requests with the same cache key, submitted while the first one is
+     * loading : they are aggregated to it and processed once.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_COUNT)
+    public void addRequest_aggregated() throws InterruptedException {
+        final CountDownLatch notificationLatch = new CountDownLatch(REQUEST_COUNT);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final String cacheKey = newCacheKey();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            addRequest(newRequest(cacheKey, gate), new CountingRequestListener(notificationLatch));
+        }
+        gate.countDown();
+        awaitNotifications(notificationLatch);
+    }
+
+    /** Requests cancelled right after their submission. */
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_COUNT)
+    public void addRequest_cancelled() throws InterruptedException {
+        final CountDownLatch notificationLatch = new CountDownLatch(REQUEST_COUNT);
+        final CountDownLatch gate = new CountDownLatch(1);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            final CachedSpiceRequest<String> request = newRequest(newCacheKey(), gate);
+            addRequest(request, new CountingRequestListener(notificationLatch));
+            request.cancel();
+        }
+        gate.countDown();
+        awaitNotifications(notificationLatch);
+    }
+}
@@ -0,0 +1,333 @@
+package com.octo.android.robospice.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+import android.util.Log;
+
+import com.octo.android.robospice.InProcessSpiceHost;
+import com.octo.android.robospice.SpiceManager;
+import com.octo.android.robospice.exception.RequestCancelledException;
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.persistence.memory.LruCacheStringObjectPersister;
+import com.octo.android.robospice.request.LatencyHistogram;
+import com.octo.android.robospice.request.SpiceRequest;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * Drives a single {@link SpiceManager}, hosted in process, from many threads at
+ * once : they execute requests, cancel them, stop listening to them and remove
+ * their data from cache, at random, for a given duration. Requests are stubs
+ * that sleep a few milliseconds instead of using the network, and share a few
+ * cache keys so that they aggregate and hit the cache. <br/>
+ * Every listener must be notified exactly once, unless it stopped listening
+ * before. The harness measures the latency from submission to notification,
+ * and counts lost and duplicate notifications. It writes a report of stable
+ * keys, in a stable order, that can be compared between releases, and exits
+ * with a non zero status if any notification was lost or duplicated. <br/>
+ * Arguments : [duration in seconds] [thread count] [report file]. It is run by
+ * the <tt>stress</tt> profile of this module.
+ * @author sni
+ */
+public final class SpiceManagerStressHarness {
+
+    public static final int DEFAULT_DURATION_IN_SECONDS = 30;
+    public static final int DEFAULT_THREAD_COUNT = 16;
+    public static final String DEFAULT_REPORT_FILE = "stress-report.txt";
+
+    private static final int NETWORK_THREAD_COUNT = 4;
+    private static final int CACHE_KEY_COUNT = 64;
+    private static final int CACHE_SIZE = 1024 * 1024;
+    private static final int MAX_NETWORK_CALL_DURATION_IN_MILLIS = 3;
+    /** Workers wait while that many listeners are not notified yet. */
+    private static final int MAX_PENDING_LISTENER_COUNT = 2000;
+    /** Requests a worker may still cancel or stop listening to. */
+    private static final int RECENT_REQUEST_COUNT = 32;
+    private static final long DRAIN_TIME_OUT = 30 * DurationInMillis.ONE_SECOND;
+    private static final long STOP_TIME_OUT = 5 * DurationInMillis.ONE_SECOND;
+
+    // operation mix, in percents
+    private static final int EXECUTE_PERCENTAGE = 60;
+    private static final int CANCEL_PERCENTAGE = 15;
+    private static final int DONT_NOTIFY_PERCENTAGE = 15;
+
+    private static final double[] PERCENTILES = {50, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999" };
+
+    private final int durationInSeconds;
+    private final int threadCount;
+
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private final Set<StressListener> pendingListeners = Collections.newSetFromMap(new ConcurrentHashMap<StressListener, Boolean>());
+    private final AtomicLong executeCount = new AtomicLong();
+    private final AtomicLong cancelCount = new AtomicLong();
+    private final AtomicLong dontNotifyCount = new AtomicLong();
+    private final AtomicLong removeDataFromCacheCount = new AtomicLong();
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong cancellationCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong mutedCount = new AtomicLong();
+
+    private SpiceManager spiceManager;
+    private volatile boolean isStopped;
+
+    public SpiceManagerStressHarness(final int durationInSeconds, final int threadCount) {
+        this.durationInSeconds = durationInSeconds;
+        this.threadCount = threadCount;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int durationInSeconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DURATION_IN_SECONDS;
+        final int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREAD_COUNT;
+        final File reportFile = new File(args.length > 2 ? args[2] : DEFAULT_REPORT_FILE);
+
+        final Report report = new SpiceManagerStressHarness(durationInSeconds, threadCount).run();
+        report.writeTo(reportFile);
+        System.out.print(report);
+        if (!report.isSuccessful()) {
+            System.err.println("Some listeners were not notified exactly once, see " + reportFile);
+        }
+        // idle threads of the spice manager would delay the end of the run
+        System.exit(report.isSuccessful() ? 0 : 1);
+    }
+
+    public Report run() throws Exception {
+        Ln.getConfig().setLoggingLevel(Log.ASSERT);
+        final TemporaryDirectoryApplication application = new TemporaryDirectoryApplication();
+        final CacheManager cacheManager = new CacheManager();
+        cacheManager.addPersister(new LruCacheStringObjectPersister(CACHE_SIZE));
+        final InProcessSpiceHost spiceHost = new InProcessSpiceHost(application, cacheManager, NETWORK_THREAD_COUNT,
+            new AlwaysAvailableNetworkStateChecker());
+        spiceManager = new SpiceManager(spiceHost);
+        spiceManager.start(application);
+        try {
+            final long startTime = System.nanoTime();
+            final CountDownLatch workersStopped = new CountDownLatch(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                final Thread worker = new Thread(new Worker(workersStopped), "stress-worker-" + i);
+                worker.setDaemon(true);
+                worker.start();
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationInSeconds));
+            isStopped = true;
+            workersStopped.await();
+            final boolean isDrained = awaitPendingListeners();
+            final long elapsedTime = System.nanoTime() - startTime;
+            return new Report(elapsedTime, isDrained);
+        } finally {
+            spiceManager.shouldStopAndJoin(STOP_TIME_OUT);
+            spiceHost.destroy();
+            application.deleteCacheDir();
+        }
+    }
+
+    private boolean awaitPendingListeners() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + DRAIN_TIME_OUT;
+        while (!pendingListeners.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(DurationInMillis.ONE_SECOND / 10);
+        }
+        return true;
+    }
+
+    private final class Worker implements Runnable {
+        private final CountDownLatch workersStopped;
+        private final StressListener[] recentListeners = new StressListener[RECENT_REQUEST_COUNT];
+        private int recentListenerCount;
+
+        public Worker(final CountDownLatch workersStopped) {
+            this.workersStopped = workersStopped;
+        }
+
+        @Override
+        public void run() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                while (!isStopped) {
+                    final int operation = random.nextInt(100);
+                    if (operation < EXECUTE_PERCENTAGE || recentListenerCount == 0) {
+                        execute(random);
+                    } else if (operation < EXECUTE_PERCENTAGE + CANCEL_PERCENTAGE) {
+                        cancelCount.incrementAndGet();
+                        spiceManager.cancel(getRecentListener(random).request);
+                    } else if (operation < EXECUTE_PERCENTAGE + CANCEL_PERCENTAGE + DONT_NOTIFY_PERCENTAGE) {
+                        dontNotify(getRecentListener(random));
+                    } else {
+                        removeDataFromCacheCount.incrementAndGet();
+                        spiceManager.removeDataFromCache(String.class, random.nextInt(CACHE_KEY_COUNT));
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                workersStopped.countDown();
+            }
+        }
+
+        private void execute(final ThreadLocalRandom random) throws InterruptedException {
+            while (pendingListeners.size() >= MAX_PENDING_LISTENER_COUNT && !isStopped) {
+                Thread.sleep(1);
+            }
+            final StressRequest request = new StressRequest();
+            final StressListener listener = new StressListener(request);
+            final long cacheExpiryDuration = random.nextBoolean() ? DurationInMillis.ALWAYS : DurationInMillis.NEVER;
+            pendingListeners.add(listener);
+            executeCount.incrementAndGet();
+            spiceManager.execute(request, random.nextInt(CACHE_KEY_COUNT), cacheExpiryDuration, listener);
+            recentListeners[recentListenerCount % RECENT_REQUEST_COUNT] = listener;
+            recentListenerCount++;
+        }
+
+        private StressListener getRecentListener(final ThreadLocalRandom random) {
+            return recentListeners[random.nextInt(Math.min(recentListenerCount, RECENT_REQUEST_COUNT))];
+        }
+
+        private void dontNotify(final StressListener listener) {
+            dontNotifyCount.incrementAndGet();
+            // a notification may still be on its way : it is then neither
+            // lost nor duplicated
+            if (pendingListeners.remove(listener)) {
+                mutedCount.incrementAndGet();
+            }
+            spiceManager.dontNotifyRequestListenersForRequest(listener.request);
+        }
+    }
+
+    private static final class StressRequest extends SpiceRequest<String> {
+        public StressRequest() {
+            super(String.class);
+        }
+
+        @Override
+        public String loadDataFromNetwork() throws Exception {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(MAX_NETWORK_CALL_DURATION_IN_MILLIS + 1));
+            return BenchmarkRequest.RESULT;
+        }
+    }
+
+    private final class StressListener implements RequestListener<String> {
+        private final StressRequest request;
+        private final long submissionTime = System.nanoTime();
+        private final AtomicInteger notificationCount = new AtomicInteger();
+
+        public StressListener(final StressRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onRequestSuccess(final String result) {
+            if (onNotification()) {
+                successCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onRequestFailure(final SpiceException spiceException) {
+            if (onNotification()) {
+                if (spiceException instanceof RequestCancelledException) {
+                    cancellationCount.incrementAndGet();
+                } else {
+                    failureCount.incrementAndGet();
+                }
+            }
+        }
+
+        /** @return whether it is the first notification of this listener. */
+        private boolean onNotification() {
+            if (notificationCount.incrementAndGet() > 1) {
+                duplicateCount.incrementAndGet();
+                return false;
+            }
+            latencyHistogram.record(System.nanoTime() - submissionTime, TimeUnit.NANOSECONDS);
+            pendingListeners.remove(this);
+            return true;
+        }
+    }
+
+    /**
+     * The outcome of a run : one <tt>key=value</tt> line per measure, always
+     * the same keys in the same order. Latencies are in microseconds.
+     */
+    public final class Report {
+        private final long elapsedTime;
+        private final boolean isDrained;
+        private final long lostCount;
+
+        private Report(final long elapsedTime, final boolean isDrained) {
+            this.elapsedTime = elapsedTime;
+            this.isDrained = isDrained;
+            this.lostCount = pendingListeners.size();
+        }
+
+        public boolean isSuccessful() {
+            return isDrained && lostCount == 0 && duplicateCount.get() == 0;
+        }
+
+        public long getLostCount() {
+            return lostCount;
+        }
+
+        public long getDuplicateCount() {
+            return duplicateCount.get();
+        }
+
+        public void writeTo(final File file) throws IOException {
+            final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+            try {
+                writer.print(toString());
+            } finally {
+                writer.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder stringBuilder = new StringBuilder();
+            append(stringBuilder, "config.duration.seconds", durationInSeconds);
+            append(stringBuilder, "config.threads", threadCount);
+            append(stringBuilder, "config.network.threads", NETWORK_THREAD_COUNT);
+            append(stringBuilder, "config.cache.keys", CACHE_KEY_COUNT);
+            append(stringBuilder, "operations.execute", executeCount.get());
+            append(stringBuilder, "operations.cancel", cancelCount.get());
+            append(stringBuilder, "operations.dontNotify", dontNotifyCount.get());
+            append(stringBuilder, "operations.removeDataFromCache", removeDataFromCacheCount.get());
+            append(stringBuilder, "operations.per.second", (executeCount.get() + cancelCount.get() + dontNotifyCount.get()
+                + removeDataFromCacheCount.get())
+                * TimeUnit.SECONDS.toNanos(1) / elapsedTime);
+            append(stringBuilder, "notifications.success", successCount.get());
+            append(stringBuilder, "notifications.failure", failureCount.get());
+            append(stringBuilder, "notifications.cancelled", cancellationCount.get());
+            append(stringBuilder, "notifications.muted", mutedCount.get());
+            append(stringBuilder, "notifications.lost", lostCount);
+            append(stringBuilder, "notifications.duplicate", duplicateCount.get());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                append(stringBuilder, "latency." + PERCENTILE_NAMES[i] + ".us", latencyHistogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+            append(stringBuilder, "latency.max.us", latencyHistogram.getMax());
+            append(stringBuilder, "result", isSuccessful() ? "PASSED" : "FAILED");
+            return stringBuilder.toString();
+        }
+
+        private void append(final StringBuilder stringBuilder, final String key, final Object value) {
+            stringBuilder.append(key).append('=').append(value).append('\n');
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.octo.android.robospice.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import android.app.Application;
+
+/**
+ * An application whose cache directory is a new temporary directory, so that
+ * persisters write files without any device.
+ * @author sni
+ */
+public class TemporaryDirectoryApplication extends Application {
+
+    private final File cacheDir;
+
+    public TemporaryDirectoryApplication() throws IOException {
+        cacheDir = Files.createTempDirectory("robospice-benchmark").toFile();
+    }
+
+    @Override
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public void deleteCacheDir() throws IOException {
+        FileUtils.deleteDirectory(cacheDir);
+    }
+}
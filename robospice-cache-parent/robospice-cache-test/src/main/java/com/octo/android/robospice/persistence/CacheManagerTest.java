@@ -1,13 +1,20 @@
 package com.octo.android.robospice.persistence;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
+import com.octo.android.robospice.persistence.memory.LruCacheStringObjectPersister;
 
 @SmallTest
 public class CacheManagerTest extends AndroidTestCase {
@@ -34,6 +41,23 @@ public class CacheManagerTest extends AndroidTestCase {
         }
     }
 
+    public void testLoadDataFromMemoryCache_returns_data_of_in_memory_persister_only() throws CacheSavingException {
+        // given
+        cacheManager.addPersister(new LruCacheStringObjectPersister(TEST_PERSISTED_STRING.length() * 2));
+        cacheManager.addPersister(new MockIntegerPersistenceManager());
+        cacheManager.saveDataToCacheAndReturnData(TEST_PERSISTED_STRING, TEST_PERSISTED_STRING);
+
+        // when
+        String actualString = cacheManager.loadDataFromMemoryCache(String.class, TEST_PERSISTED_STRING, DurationInMillis.ALWAYS);
+        Integer actualInteger = cacheManager.loadDataFromMemoryCache(Integer.class, TEST_PERSISTED_STRING, DurationInMillis.ALWAYS);
+        Object actualObject = cacheManager.loadDataFromMemoryCache(Object.class, TEST_PERSISTED_STRING, DurationInMillis.ALWAYS);
+
+        // then
+        assertEquals(TEST_PERSISTED_STRING, actualString);
+        assertNull(actualInteger);
+        assertNull(actualObject);
+    }
+
     public void testGetObjectPersister_returns_a_persister_when_one_persister_is_registered() {
         // given
         MockStringPersistenceManager mockStringPersistenceManager = new MockStringPersistenceManager();
@@ -122,6 +146,70 @@ public class CacheManagerTest extends AndroidTestCase {
         assertEquals(mockIntegerPersistenceManager, persisterInteger);
     }
 
+    public void testGetObjectPersister_returns_new_persister_when_resolved_persister_has_been_replaced() {
+        // given
+        MockStringPersistenceManager mockStringPersistenceManager = new MockStringPersistenceManager();
+        cacheManager.addPersister(mockStringPersistenceManager);
+        cacheManager.getObjectPersister(String.class);
+        cacheManager.removePersister(mockStringPersistenceManager);
+        MockStringPersistenceManager mockStringPersistenceManager2 = new MockStringPersistenceManager();
+        cacheManager.addPersister(mockStringPersistenceManager2);
+
+        // when
+        ObjectPersister<?> actual = cacheManager.getObjectPersister(String.class);
+
+        // then
+        assertSame(mockStringPersistenceManager2, actual);
+    }
+
+    public void testGetObjectPersister_creates_a_single_persister_per_class_when_called_concurrently() throws InterruptedException {
+        // given
+        final int threadCount = 8;
+        final MockPersisterFactory mockPersisterFactory = new MockPersisterFactory();
+        cacheManager.addPersister(mockPersisterFactory);
+        final Set<ObjectPersister<?>> persisters = Collections.newSetFromMap(new ConcurrentHashMap<ObjectPersister<?>, Boolean>());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+
+        // when
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        persisters.add(cacheManager.getObjectPersister(String.class));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+
+        // then
+        assertTrue(endLatch.await(1, TimeUnit.SECONDS));
+        assertEquals(1, persisters.size());
+        assertEquals(1, mockPersisterFactory.createdPersisterCount.get());
+    }
+
+    private class MockPersisterFactory extends ObjectPersisterFactory {
+        private final AtomicInteger createdPersisterCount = new AtomicInteger();
+
+        public MockPersisterFactory() {
+            super(null);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <DATA> ObjectPersister<DATA> createObjectPersister(Class<DATA> clazz) {
+            createdPersisterCount.incrementAndGet();
+            return (ObjectPersister<DATA>) new MockStringPersistenceManager();
+        }
+    }
+
     private class MockStringPersistenceManager extends ObjectPersister<String> {
 
         public MockStringPersistenceManager() {
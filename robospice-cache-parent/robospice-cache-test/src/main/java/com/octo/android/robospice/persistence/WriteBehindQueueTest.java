@@ -0,0 +1,196 @@
+package com.octo.android.robospice.persistence;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.Application;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.octo.android.robospice.persistence.string.InFileStringObjectPersister;
+
+@MediumTest
+public class WriteBehindQueueTest extends InstrumentationTestCase {
+
+    private static final String TEST_CACHE_KEY = "TEST_CACHE_KEY";
+    private static final String TEST_CACHE_KEY2 = "TEST_CACHE_KEY2";
+    private static final long FLUSH_TIME_OUT = 2000;
+    private static final long WRITE_DURATION = 200;
+    private static final int WRITE_COUNT = 50;
+
+    private WriteBehindQueue writeBehindQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        writeBehindQueue = new WriteBehindQueue();
+    }
+
+    public void testEnqueue_pending_writes_of_same_key_are_coalesced() throws Exception {
+        // given
+        final AtomicInteger writeCount = new AtomicInteger();
+        final AtomicInteger lastWrittenValue = new AtomicInteger();
+
+        // when
+        // the first write holds the key while all others are enqueued
+        CountDownLatch firstWriteLatch = enqueueBlockingWrite(writeCount);
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            final int value = i;
+            writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, new WriteBehindQueue.Write() {
+                @Override
+                public void write() {
+                    writeCount.incrementAndGet();
+                    lastWrittenValue.set(value);
+                }
+            });
+        }
+        firstWriteLatch.countDown();
+        boolean isFlushed = writeBehindQueue.flush(FLUSH_TIME_OUT);
+
+        // then
+        assertTrue(isFlushed);
+        assertEquals(2, writeCount.get());
+        assertEquals(WRITE_COUNT - 1, lastWrittenValue.get());
+        assertEquals(WRITE_COUNT - 1, writeBehindQueue.getCoalescedWriteCount());
+        assertEquals(0, writeBehindQueue.getPendingKeyCount());
+    }
+
+    public void testEnqueue_writes_of_same_key_never_overlap() throws Exception {
+        // given
+        final AtomicBoolean isWriting = new AtomicBoolean();
+        final AtomicBoolean hasOverlapped = new AtomicBoolean();
+        WriteBehindQueue.Write write = new WriteBehindQueue.Write() {
+            @Override
+            public void write() throws Exception {
+                if (!isWriting.compareAndSet(false, true)) {
+                    hasOverlapped.set(true);
+                }
+                Thread.sleep(WRITE_DURATION / WRITE_COUNT);
+                isWriting.set(false);
+            }
+        };
+
+        // when
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, write);
+            Thread.sleep(1);
+        }
+        boolean isFlushed = writeBehindQueue.flush(FLUSH_TIME_OUT);
+
+        // then
+        assertTrue(isFlushed);
+        assertFalse(hasOverlapped.get());
+    }
+
+    public void testEnqueue_writes_of_different_keys_run_in_parallel() throws Exception {
+        // given
+        final CountDownLatch bothWritesStartedLatch = new CountDownLatch(2);
+        WriteBehindQueue.Write write = new WriteBehindQueue.Write() {
+            @Override
+            public void write() throws Exception {
+                bothWritesStartedLatch.countDown();
+                bothWritesStartedLatch.await(FLUSH_TIME_OUT, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        // when
+        writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, write);
+        writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY2, write);
+
+        // then
+        assertTrue(bothWritesStartedLatch.await(FLUSH_TIME_OUT, TimeUnit.MILLISECONDS));
+    }
+
+    public void testEnqueue_after_shutdown_writes_on_calling_thread() throws Exception {
+        // given
+        final AtomicBoolean isWrittenOnCallingThread = new AtomicBoolean();
+        final Thread callingThread = Thread.currentThread();
+        writeBehindQueue.shutdown();
+
+        // when
+        writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, new WriteBehindQueue.Write() {
+            @Override
+            public void write() {
+                isWrittenOnCallingThread.set(Thread.currentThread() == callingThread);
+            }
+        });
+
+        // then
+        assertTrue(isWrittenOnCallingThread.get());
+        assertEquals(0, writeBehindQueue.getPendingKeyCount());
+    }
+
+    public void testDiscardWrites_pending_write_is_dropped() throws Exception {
+        // given
+        final AtomicBoolean isDiscardedWriteRun = new AtomicBoolean();
+        final CountDownLatch firstWriteLatch = enqueueBlockingWrite(new AtomicInteger());
+        writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, new WriteBehindQueue.Write() {
+            @Override
+            public void write() {
+                isDiscardedWriteRun.set(true);
+            }
+        });
+
+        // when
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(WRITE_DURATION);
+                } catch (InterruptedException e) {
+                    interrupt();
+                }
+                firstWriteLatch.countDown();
+            }
+        }.start();
+        writeBehindQueue.discardWrites(String.class, TEST_CACHE_KEY);
+
+        // then
+        assertTrue(writeBehindQueue.flush(FLUSH_TIME_OUT));
+        assertFalse(isDiscardedWriteRun.get());
+    }
+
+    public void testLoadDataFromCache_is_consistent_with_asynchronous_save() throws Exception {
+        // given
+        Application application = (Application) getInstrumentation().getTargetContext().getApplicationContext();
+        InFileStringObjectPersister inFileStringObjectPersister = new InFileStringObjectPersister(application);
+        inFileStringObjectPersister.setAsyncSaveEnabled(true);
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.addPersister(inFileStringObjectPersister);
+
+        try {
+            // when
+            for (int i = 0; i < WRITE_COUNT; i++) {
+                cacheManager.saveDataToCacheAndReturnData("coucou" + i, TEST_CACHE_KEY);
+            }
+            String actual = cacheManager.loadDataFromCache(String.class, TEST_CACHE_KEY, DurationInMillis.ALWAYS);
+
+            // then
+            assertEquals("coucou" + (WRITE_COUNT - 1), actual);
+            assertTrue(cacheManager.flushPendingWrites(FLUSH_TIME_OUT));
+        } finally {
+            cacheManager.removeAllDataFromCache();
+        }
+    }
+
+    /**
+     * Enqueue a write that blocks until the returned latch is released, and
+     * wait for it to start.
+     */
+    private CountDownLatch enqueueBlockingWrite(final AtomicInteger writeCount) throws InterruptedException {
+        final CountDownLatch writeStartedLatch = new CountDownLatch(1);
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        writeBehindQueue.enqueue(String.class, TEST_CACHE_KEY, new WriteBehindQueue.Write() {
+            @Override
+            public void write() throws Exception {
+                writeStartedLatch.countDown();
+                writeLatch.await();
+                writeCount.incrementAndGet();
+            }
+        });
+        assertTrue(writeStartedLatch.await(FLUSH_TIME_OUT, TimeUnit.MILLISECONDS));
+        return writeLatch;
+    }
+}
@@ -61,4 +61,19 @@ public class LruCacheObjectPersisterTest extends InstrumentationTestCase {
         assertNotNull(testPersisterWithFallback.loadDataFromCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
     }
 
+    public void testLoadDataFromMemoryCache_follows_expiry_rules() throws Exception {
+        testPersister.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        assertEquals(TEST_DATA, testPersister.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
+        assertNull(testPersister.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.NEVER));
+        Thread.sleep(TEST_EXPIRATION_DURATION_LONG);
+        assertNull(testPersister.loadDataFromMemoryCache(TEST_CACHE_KEY_1, TEST_EXPIRATION_DURATION_SHORT));
+    }
+
+    public void testLoadDataFromMemoryCache_doesnt_fall_back_to_decorated_persister() throws Exception {
+        testPersisterWithFallback.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersisterWithFallback.getLruCache().evictAll();
+        assertNull(testPersisterWithFallback.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
+        assertNull(testPersisterWithFallback.getLruCache().get(TEST_CACHE_KEY_1));
+        testPersisterWithFallback.removeAllDataFromCache();
+    }
 }
@@ -0,0 +1,106 @@
+package com.octo.android.robospice.persistence.memory;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+
+@SmallTest
+public class MemoryCacheBudgetTest extends AndroidTestCase {
+
+    private static final String TEST_CACHE_KEY_1 = "cacheKey1";
+    private static final String TEST_CACHE_KEY_2 = "cacheKey2";
+    private static final String TEST_CACHE_KEY_3 = "cacheKey3";
+    private static final String TEST_DATA = "hello world!";
+    private static final String TEST_DATA_2 = "hello";
+    private static final int TEST_DATA_SIZE_IN_BYTES = TEST_DATA.length() * 2;
+    // each persister could hold much more than the budget
+    private static final int TEST_LRU_CACHE_SIZE = TEST_DATA.length() * 10;
+
+    private MemoryCacheBudget memoryCacheBudget;
+    private LruCacheStringObjectPersister testPersister1;
+    private LruCacheStringObjectPersister testPersister2;
+
+    @Override
+    protected void setUp() throws Exception {
+        memoryCacheBudget = new MemoryCacheBudget(TEST_DATA_SIZE_IN_BYTES * 3);
+        testPersister1 = new LruCacheStringObjectPersister(TEST_LRU_CACHE_SIZE);
+        testPersister2 = new LruCacheStringObjectPersister(TEST_LRU_CACHE_SIZE);
+        memoryCacheBudget.register(testPersister1);
+        memoryCacheBudget.register(testPersister2);
+    }
+
+    public void testSaveDataToCacheAndReturnData_evicts_least_recently_used_data_of_all_persisters() throws Exception {
+        // given
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersister2.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_2);
+        testPersister1.loadDataFromCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS);
+
+        // when
+        testPersister2.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_2);
+
+        // then
+        assertNull(testPersister2.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
+        assertNotNull(testPersister1.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
+        assertNotNull(testPersister1.loadDataFromMemoryCache(TEST_CACHE_KEY_2, DurationInMillis.ALWAYS));
+        assertNotNull(testPersister2.loadDataFromMemoryCache(TEST_CACHE_KEY_2, DurationInMillis.ALWAYS));
+        assertEquals(TEST_DATA_SIZE_IN_BYTES * 3, memoryCacheBudget.getSizeInBytes());
+    }
+
+    public void testGetSizeInBytes_follows_replacements_and_removals() throws Exception {
+        // given
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersister2.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+
+        // when
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA_2, TEST_CACHE_KEY_1);
+        testPersister2.removeDataFromCache(TEST_CACHE_KEY_1);
+
+        // then
+        assertEquals(TEST_DATA_2.length() * 2, memoryCacheBudget.getSizeInBytes());
+        assertEquals(1, memoryCacheBudget.getEntryCount());
+    }
+
+    public void testRegister_accounts_data_already_in_memory() throws Exception {
+        // given
+        LruCacheStringObjectPersister testPersister3 = new LruCacheStringObjectPersister(TEST_LRU_CACHE_SIZE);
+        testPersister3.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+
+        // when
+        memoryCacheBudget.register(testPersister3);
+
+        // then
+        assertEquals(TEST_DATA_SIZE_IN_BYTES, memoryCacheBudget.getSizeInBytes());
+    }
+
+    public void testOnTrimMemory_keeps_a_fraction_of_data_under_moderate_pressure() throws Exception {
+        // given
+        memoryCacheBudget.setTrimFraction(0.5f);
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersister2.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_2);
+
+        // when
+        memoryCacheBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        // then
+        assertNull(testPersister1.loadDataFromMemoryCache(TEST_CACHE_KEY_1, DurationInMillis.ALWAYS));
+        assertNotNull(testPersister2.loadDataFromMemoryCache(TEST_CACHE_KEY_2, DurationInMillis.ALWAYS));
+        assertEquals(TEST_DATA_SIZE_IN_BYTES, memoryCacheBudget.getSizeInBytes());
+    }
+
+    public void testOnTrimMemory_evicts_all_data_before_process_is_killed() throws Exception {
+        // given
+        testPersister1.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_1);
+        testPersister2.saveDataToCacheAndReturnData(TEST_DATA, TEST_CACHE_KEY_3);
+
+        // when
+        memoryCacheBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        // then
+        assertEquals(0, testPersister1.getLruCache().size());
+        assertEquals(0, testPersister2.getLruCache().size());
+        assertEquals(0, memoryCacheBudget.getSizeInBytes());
+    }
+}
@@ -1,14 +1,14 @@
 package com.octo.android.robospice.persistence;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
+import com.octo.android.robospice.persistence.memory.LruCacheObjectPersister;
 
 /**
  * An entity responsible for loading/saving data from/to cache. It implements a
@@ -24,40 +24,93 @@ import com.octo.android.robospice.persistence.exception.CacheSavingException;
  * Note to maintainers : concurrency must be taken care of as persister can be
  * created by factories at any time. Thx to Henri Tremblay from EasyMock for
  * peer review and concurrency checks.
+ *
+ * Every cache access resolves the persister of a class : resolutions are
+ * memoized, so that the chain is only walked once per class. The chain is
+ * modified, and walked, while holding the lock of the cache manager : a
+ * factory creates a single persister per class, and a resolution can't be
+ * memoized after the chain changed.
  */
 public class CacheManager implements ICacheManager {
 
     /** The Chain of Responsibility list of all {@link Persister}. */
-    private Collection<Persister> listPersister = new ArrayList<Persister>();
-    private Map<ObjectPersisterFactory, List<ObjectPersister<?>>> mapFactoryToPersister = new HashMap<ObjectPersisterFactory, List<ObjectPersister<?>>>();
+    private final Collection<Persister> listPersister = new CopyOnWriteArrayList<Persister>();
+    private final Map<ObjectPersisterFactory, List<ObjectPersister<?>>> mapFactoryToPersister = new ConcurrentHashMap<ObjectPersisterFactory, List<ObjectPersister<?>>>();
+    /** The persister of each class already resolved. */
+    private final Map<Class<?>, ObjectPersister<?>> mapClassToPersister = new ConcurrentHashMap<Class<?>, ObjectPersister<?>>();
+
+    /** Asynchronous saves of all persisters. */
+    private final WriteBehindQueue writeBehindQueue;
+
+    public CacheManager() {
+        this(new WriteBehindQueue());
+    }
+
+    /**
+     * @param writeBehindQueue
+     *            the queue that will be used by all persisters to save data
+     *            asynchronously.
+     */
+    public CacheManager(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
 
     /** {@inheritDoc} */
     @Override
-    public void addPersister(Persister persister) {
-        listPersister.add(persister);
+    public synchronized void addPersister(Persister persister) {
         if (persister instanceof ObjectPersisterFactory) {
             // will lead the list to be copied whenever we add a persister to it
             // but there won't be any overhead while iterating through the list.
             mapFactoryToPersister.put((ObjectPersisterFactory) persister, new CopyOnWriteArrayList<ObjectPersister<?>>());
-        } else if (!(persister instanceof ObjectPersister)) {
+        } else if (persister instanceof ObjectPersister) {
+            ((ObjectPersister<?>) persister).setWriteBehindQueue(writeBehindQueue);
+        } else {
             throw new RuntimeException(getClass().getSimpleName() + " only supports " + ObjectPersister.class.getSimpleName() + " or "
                 + ObjectPersisterFactory.class.getSimpleName() + " instances.");
         }
+        listPersister.add(persister);
+        // a class may now be handled by another persister
+        mapClassToPersister.clear();
     }
 
     /** {@inheritDoc} */
     @Override
-    public void removePersister(Persister persister) {
+    public synchronized void removePersister(Persister persister) {
         listPersister.remove(persister);
         if (persister instanceof ObjectPersisterFactory) {
             mapFactoryToPersister.remove(persister);
         }
+        mapClassToPersister.clear();
     }
 
     /** {@inheritDoc} */
     @Override
     public <T> T loadDataFromCache(Class<T> clazz, Object cacheKey, long maxTimeInCacheBeforeExpiry) throws CacheLoadingException {
-        return getObjectPersister(clazz).loadDataFromCache(cacheKey, maxTimeInCacheBeforeExpiry);
+        ObjectPersister<T> objectPersister = getObjectPersister(clazz);
+        try {
+            // don't read data that is being written
+            writeBehindQueue.awaitWrites(objectPersister.getHandledClass(), cacheKey);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoadingException("Interrupted while waiting for data to be saved in cache", e);
+        }
+        return objectPersister.loadDataFromCache(cacheKey, maxTimeInCacheBeforeExpiry);
+    }
+
+    /**
+     * Loads data from the memory of an {@link LruCacheObjectPersister}, without
+     * any disk access nor waiting for pending writes : memory is updated
+     * synchronously when data is saved. Expiry rules are the same as
+     * {@link #loadDataFromCache(Class, Object, long)}.
+     * @return the data in memory, or null if it is not in memory, is expired,
+     *         or if the class is not handled by an in-memory persister.
+     */
+    public <T> T loadDataFromMemoryCache(Class<T> clazz, Object cacheKey, long maxTimeInCacheBeforeExpiry) {
+        ObjectPersister<T> objectPersister = findObjectPersister(clazz);
+        if (!(objectPersister instanceof LruCacheObjectPersister)) {
+            return null;
+        }
+        return ((LruCacheObjectPersister<T>) objectPersister).loadDataFromMemoryCache(cacheKey, maxTimeInCacheBeforeExpiry);
     }
 
     @Override
@@ -72,13 +125,17 @@ public class CacheManager implements ICacheManager {
     /** {@inheritDoc} */
     @Override
     public boolean removeDataFromCache(Class<?> clazz, Object cacheKey) {
-        return getObjectPersister(clazz).removeDataFromCache(cacheKey);
+        ObjectPersister<?> objectPersister = getObjectPersister(clazz);
+        discardWrites(objectPersister.getHandledClass(), cacheKey);
+        return objectPersister.removeDataFromCache(cacheKey);
     }
 
     /** {@inheritDoc} */
     @Override
     public void removeAllDataFromCache(Class<?> clazz) {
-        getObjectPersister(clazz).removeAllDataFromCache();
+        ObjectPersister<?> objectPersister = getObjectPersister(clazz);
+        discardWrites(objectPersister.getHandledClass(), null);
+        objectPersister.removeAllDataFromCache();
     }
 
     /** {@inheritDoc} */
@@ -96,12 +153,17 @@ public class CacheManager implements ICacheManager {
     /** {@inheritDoc} */
     @Override
     public void removeAllDataFromCache() {
+        discardWrites(null, null);
         for (Persister persister : this.listPersister) {
             if (persister instanceof ObjectPersister) {
                 ((ObjectPersister<?>) persister).removeAllDataFromCache();
             } else if (persister instanceof ObjectPersisterFactory) {
                 ObjectPersisterFactory factory = (ObjectPersisterFactory) persister;
                 List<ObjectPersister<?>> listPersisterForFactory = mapFactoryToPersister.get(factory);
+                if (listPersisterForFactory == null) {
+                    // removed meanwhile
+                    continue;
+                }
                 for (ObjectPersister<?> objectPersister : listPersisterForFactory) {
                     objectPersister.removeAllDataFromCache();
                 }
@@ -109,8 +171,80 @@ public class CacheManager implements ICacheManager {
         }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Wait for all data saved asynchronously to reach the cache. It blocks
+     * until the disk is written : don't call it on the main thread. Services
+     * do it on a background thread when they are destroyed.
+     * @param timeOutInMillis
+     *            the maximum duration to wait.
+     * @return true if all data was saved, false if the time out elapsed
+     *         before.
+     */
+    public boolean flushPendingWrites(long timeOutInMillis) {
+        try {
+            return writeBehindQueue.flush(timeOutInMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Drop pending writes so that removed data is not written back.
+     * @param clazz
+     *            the class of data, null for all classes.
+     * @param cacheKey
+     *            the cache key of data, null for all keys of clazz.
+     */
+    private void discardWrites(Class<?> clazz, Object cacheKey) {
+        try {
+            if (cacheKey == null) {
+                writeBehindQueue.discardAllWrites(clazz);
+            } else {
+                writeBehindQueue.discardWrites(clazz, cacheKey);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     protected <T> ObjectPersister<T> getObjectPersister(Class<T> clazz) {
+        ObjectPersister<T> objectPersister = findObjectPersister(clazz);
+        if (objectPersister == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not handled by any registered factoryList");
+        }
+        return objectPersister;
+    }
+
+    /**
+     * @return the persister of a class, or null if no persister handles it.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ObjectPersister<T> findObjectPersister(Class<T> clazz) {
+        ObjectPersister<T> objectPersister = (ObjectPersister<T>) mapClassToPersister.get(clazz);
+        if (objectPersister != null) {
+            return objectPersister;
+        }
+        synchronized (this) {
+            objectPersister = resolveObjectPersister(clazz);
+            if (objectPersister != null) {
+                mapClassToPersister.put(clazz, objectPersister);
+            }
+            return objectPersister;
+        }
+    }
+
+    /**
+     * Walk the chain of responsibility. Must be called while holding the lock
+     * of this cache manager.
+     * @return the persister of a class, or null if no persister handles it.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ObjectPersister<T> resolveObjectPersister(Class<T> clazz) {
         for (Persister persister : this.listPersister) {
             if (persister.canHandleClass(clazz)) {
                 if (persister instanceof ObjectPersister) {
@@ -128,12 +262,13 @@ public class CacheManager implements ICacheManager {
                             }
                         }
                         ObjectPersister<T> newPersister = factory.createObjectPersister(clazz);
+                        newPersister.setWriteBehindQueue(writeBehindQueue);
                         listPersisterForFactory.add(newPersister);
                         return newPersister;
                     }
                 }
             }
         }
-        throw new RuntimeException("Class " + clazz.getName() + " is not handled by any registered factoryList");
+        return null;
     }
 }
@@ -18,6 +18,7 @@ import com.octo.android.robospice.persistence.exception.CacheSavingException;
 public abstract class ObjectPersister<T> implements Persister {
 
     private boolean isAsyncSaveEnabled;
+    private WriteBehindQueue writeBehindQueue;
     private Application application;
     private Class<T> clazz;
 
@@ -81,4 +82,33 @@ public abstract class ObjectPersister<T> implements Persister {
         this.isAsyncSaveEnabled = isAsyncSaveEnabled;
     }
 
+    /**
+     * @return the queue used to save data asynchronously. It is shared by all
+     *         persisters of a {@link CacheManager}. A persister used on its
+     *         own creates its own queue.
+     */
+    public synchronized WriteBehindQueue getWriteBehindQueue() {
+        if (writeBehindQueue == null) {
+            writeBehindQueue = new WriteBehindQueue();
+        }
+        return writeBehindQueue;
+    }
+
+    public synchronized void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    /**
+     * Save data asynchronously, when async save is enabled. Writes of the
+     * same cache key are serialized and coalesced by the
+     * {@link WriteBehindQueue} of this persister.
+     * @param cacheKey
+     *            the cache key of the data to save.
+     * @param write
+     *            the save of the data.
+     */
+    protected void saveDataAsynchronously(Object cacheKey, WriteBehindQueue.Write write) {
+        getWriteBehindQueue().enqueue(getHandledClass(), cacheKey, write);
+    }
+
 }
@@ -0,0 +1,335 @@
+package com.octo.android.robospice.persistence;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+
+/**
+ * Saves data in cache asynchronously, on behalf of the {@link ObjectPersister}s
+ * of a {@link CacheManager}. All asynchronous saves share a bounded pool of
+ * threads :
+ * <ul>
+ * <li>writes are identified by the class handled by their persister and their
+ * cache key. Writes of the same (class, key) are serialized, they never race
+ * each other,</li>
+ * <li>a write that is still pending when a new one is enqueued for the same
+ * (class, key) is replaced by the new one : only the latest data reaches the
+ * disk,</li>
+ * <li>the cache can wait for the writes of a (class, key) before reading it, so
+ * that reads are consistent with in-flight writes,</li>
+ * <li>all pending writes can be flushed, off the main thread, and the queue
+ * shut down when the service is destroyed. Data saved asynchronously after
+ * that is written on the calling thread.</li>
+ * </ul>
+ * @author sni
+ */
+public class WriteBehindQueue {
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    private static final long THREAD_KEEP_ALIVE_TIME = 30;
+
+    /** An asynchronous save of data in cache. */
+    public interface Write {
+        void write() throws Exception;
+    }
+
+    private final ConcurrentMap<WriteKey, KeyWrites> mapKeyToWrites = new ConcurrentHashMap<WriteKey, KeyWrites>();
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong enqueuedWriteCount = new AtomicLong();
+    private final AtomicLong coalescedWriteCount = new AtomicLong();
+
+    public WriteBehindQueue() {
+        this(DEFAULT_THREAD_COUNT);
+    }
+
+    public WriteBehindQueue(final int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be >= 1");
+        }
+        // there is at most one task per (class, key) in the queue
+        executor = new ThreadPoolExecutor(threadCount, threadCount, THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new WriteThreadFactory());
+        // don't keep idle threads around when nothing is saved
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Enqueue the asynchronous save of data in cache. If a save of the same
+     * (class, key) is pending, it is replaced by this one.
+     * @param clazz
+     *            the class handled by the persister saving data.
+     * @param cacheKey
+     *            the cache key of the data.
+     * @param write
+     *            the save of data.
+     */
+    public void enqueue(final Class<?> clazz, final Object cacheKey, final Write write) {
+        final WriteKey writeKey = new WriteKey(clazz, cacheKey);
+        enqueuedWriteCount.incrementAndGet();
+        while (true) {
+            final KeyWrites keyWrites = getOrCreateKeyWrites(writeKey);
+            DrainTask drainTask = null;
+            synchronized (keyWrites) {
+                if (keyWrites.isRetired) {
+                    // retired concurrently by the drain task of the key
+                    continue;
+                }
+                if (keyWrites.pendingWrite != null) {
+                    coalescedWriteCount.incrementAndGet();
+                }
+                keyWrites.pendingWrite = write;
+                if (!keyWrites.isDrainScheduled) {
+                    keyWrites.isDrainScheduled = true;
+                    drainTask = new DrainTask(keyWrites);
+                }
+            }
+            if (drainTask != null) {
+                execute(drainTask);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Wait until no write is pending or in flight for a (class, key).
+     * @param clazz
+     *            the class handled by the persister saving data.
+     * @param cacheKey
+     *            the cache key of the data.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public void awaitWrites(final Class<?> clazz, final Object cacheKey) throws InterruptedException {
+        final KeyWrites keyWrites = mapKeyToWrites.get(new WriteKey(clazz, cacheKey));
+        if (keyWrites == null) {
+            return;
+        }
+        synchronized (keyWrites) {
+            while (!keyWrites.isRetired) {
+                keyWrites.wait();
+            }
+        }
+    }
+
+    /**
+     * Drop the pending write of a (class, key), and wait for the write in
+     * flight, if any. Used before data is removed from cache so that it is
+     * not written again afterwards.
+     * @param clazz
+     *            the class handled by the persister saving data.
+     * @param cacheKey
+     *            the cache key of the data.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public void discardWrites(final Class<?> clazz, final Object cacheKey) throws InterruptedException {
+        final KeyWrites keyWrites = mapKeyToWrites.get(new WriteKey(clazz, cacheKey));
+        if (keyWrites == null) {
+            return;
+        }
+        synchronized (keyWrites) {
+            keyWrites.pendingWrite = null;
+        }
+        awaitWrites(clazz, cacheKey);
+    }
+
+    /**
+     * Drop the pending writes of all keys of a class, or of all classes.
+     * @param clazz
+     *            the class handled by the persister saving data, or null for
+     *            all classes.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public void discardAllWrites(final Class<?> clazz) throws InterruptedException {
+        for (final WriteKey writeKey : mapKeyToWrites.keySet()) {
+            if (clazz == null || clazz.equals(writeKey.clazz)) {
+                discardWrites(writeKey.clazz, writeKey.cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Wait until all pending writes have reached the disk.
+     * @param timeOutInMillis
+     *            the maximum duration to wait.
+     * @return true if all writes were flushed, false if the time out elapsed
+     *         before.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public boolean flush(final long timeOutInMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeOutInMillis;
+        for (final KeyWrites keyWrites : mapKeyToWrites.values()) {
+            synchronized (keyWrites) {
+                while (!keyWrites.isRetired) {
+                    final long remainingTime = deadline - System.currentTimeMillis();
+                    if (remainingTime <= 0) {
+                        return false;
+                    }
+                    keyWrites.wait(remainingTime);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the threads of the queue once the writes already enqueued are done.
+     * Writes enqueued afterwards run on the calling thread, they are not lost.
+     * Call {@link #flush(long)} before, off the main thread, to know whether
+     * all data reached the disk.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * @return the number of (class, key) with pending or in flight writes.
+     */
+    public int getPendingKeyCount() {
+        return mapKeyToWrites.size();
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of writes enqueued since this queue was created.
+     */
+    public long getEnqueuedWriteCount() {
+        return enqueuedWriteCount.get();
+    }
+
+    /**
+     * @return the number of writes that were replaced by a more recent write
+     *         of the same (class, key) before reaching the disk.
+     */
+    public long getCoalescedWriteCount() {
+        return coalescedWriteCount.get();
+    }
+
+    private void execute(final DrainTask drainTask) {
+        try {
+            executor.execute(drainTask);
+        } catch (final RejectedExecutionException e) {
+            // the queue is shut down
+            drainTask.run();
+        }
+    }
+
+    private KeyWrites getOrCreateKeyWrites(final WriteKey writeKey) {
+        final KeyWrites keyWrites = mapKeyToWrites.get(writeKey);
+        if (keyWrites != null) {
+            return keyWrites;
+        }
+        final KeyWrites newKeyWrites = new KeyWrites(writeKey);
+        final KeyWrites previousKeyWrites = mapKeyToWrites.putIfAbsent(writeKey, newKeyWrites);
+        return previousKeyWrites == null ? newKeyWrites : previousKeyWrites;
+    }
+
+    /**
+     * Runs the writes of a (class, key), one after the other, until none is
+     * pending. Then the key is retired.
+     */
+    private final class DrainTask implements Runnable {
+        private final KeyWrites keyWrites;
+
+        public DrainTask(final KeyWrites keyWrites) {
+            this.keyWrites = keyWrites;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Write write;
+                synchronized (keyWrites) {
+                    write = keyWrites.pendingWrite;
+                    keyWrites.pendingWrite = null;
+                    if (write == null) {
+                        keyWrites.isRetired = true;
+                        mapKeyToWrites.remove(keyWrites.writeKey, keyWrites);
+                        keyWrites.notifyAll();
+                        return;
+                    }
+                }
+                try {
+                    write.write();
+                } catch (final Exception e) {
+                    Ln.e(e, "An error occured on saving request " + keyWrites.writeKey.cacheKey + " data asynchronously");
+                }
+            }
+        }
+    }
+
+    /** The writes of a (class, key), guarded by their own monitor. */
+    private static final class KeyWrites {
+        private final WriteKey writeKey;
+        private Write pendingWrite;
+        private boolean isDrainScheduled;
+        private boolean isRetired;
+
+        public KeyWrites(final WriteKey writeKey) {
+            this.writeKey = writeKey;
+        }
+    }
+
+    private static final class WriteKey {
+        private final Class<?> clazz;
+        private final Object cacheKey;
+
+        public WriteKey(final Class<?> clazz, final Object cacheKey) {
+            this.clazz = clazz;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (clazz == null ? 0 : clazz.hashCode());
+            result = prime * result + (cacheKey == null ? 0 : cacheKey.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof WriteKey)) {
+                return false;
+            }
+            final WriteKey other = (WriteKey) obj;
+            if (clazz == null ? other.clazz != null : !clazz.equals(other.clazz)) {
+                return false;
+            }
+            return cacheKey == null ? other.cacheKey == null : cacheKey.equals(other.cacheKey);
+        }
+    }
+
+    private static final class WriteThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "robospice-write-behind-" + threadCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.apache.commons.io.IOUtils;
 import roboguice.util.temp.Ln;
 import android.app.Application;
 
+import com.octo.android.robospice.persistence.WriteBehindQueue;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 import com.octo.android.robospice.persistence.file.InFileObjectPersister;
@@ -53,18 +54,12 @@ public class InFileInputStreamObjectPersister extends InFileObjectPersister<Inpu
             byteArray = IOUtils.toByteArray(data);
 
             if (isAsyncSaveEnabled()) {
-                Thread t = new Thread() {
-
+                saveDataAsynchronously(cacheKey, new WriteBehindQueue.Write() {
                     @Override
-                    public void run() {
-                        try {
-                            FileUtils.writeByteArrayToFile(getCacheFile(cacheKey), byteArray);
-                        } catch (IOException e) {
-                            Ln.e(e, "An error occured on saving request " + cacheKey + " data asynchronously");
-                        }
-                    };
-                };
-                t.start();
+                    public void write() throws IOException {
+                        FileUtils.writeByteArrayToFile(getCacheFile(cacheKey), byteArray);
+                    }
+                });
             } else {
                 FileUtils.writeByteArrayToFile(getCacheFile(cacheKey), byteArray);
             }
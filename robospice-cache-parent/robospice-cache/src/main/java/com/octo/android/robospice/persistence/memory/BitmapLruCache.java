@@ -11,7 +11,7 @@ import android.support.v4.util.LruCache;
  * @author Mike Jancola
  * @author SNI
  */
-public class BitmapLruCache extends LruCache<Object, CacheItem<Bitmap>> {
+public class BitmapLruCache extends SizedLruCache<Bitmap> {
     public BitmapLruCache(int maxSize) {
         super(maxSize);
     }
@@ -26,4 +26,9 @@ public class BitmapLruCache extends LruCache<Object, CacheItem<Bitmap>> {
             return data.getByteCount();
         }
     }
+
+    @Override
+    protected int getSizeInBytes(Object key, CacheItem<Bitmap> value) {
+        return sizeOf(key, value);
+    }
 }
@@ -8,11 +8,14 @@ import android.support.v4.util.LruCache;
 
 import com.octo.android.robospice.persistence.DurationInMillis;
 import com.octo.android.robospice.persistence.ObjectPersister;
+import com.octo.android.robospice.persistence.WriteBehindQueue;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 
 /**
- * Abstract in-memory object persister, based on the Android LRUCache.
+ * Abstract in-memory object persister, based on the Android LRUCache. If its
+ * cache is a {@link SizedLruCache}, it can share a {@link MemoryCacheBudget}
+ * with other in-memory persisters.
  * @author David Stemmer
  * @author Mike Jancola
  */
@@ -39,6 +42,14 @@ public class LruCacheObjectPersister<T> extends ObjectPersister<T> {
         return lruCache;
     }
 
+    @Override
+    public synchronized void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        super.setWriteBehindQueue(writeBehindQueue);
+        if (decoratedPersister != null) {
+            decoratedPersister.setWriteBehindQueue(writeBehindQueue);
+        }
+    }
+
     @Override
     public T loadDataFromCache(Object cacheKey, long maxTimeInCacheBeforeExpiry) throws CacheLoadingException {
         CacheItem<T> cacheItem = lruCache.get(cacheKey);
@@ -50,24 +61,44 @@ public class LruCacheObjectPersister<T> extends ObjectPersister<T> {
                     return null;
                 }
                 CacheItem<T> item = new CacheItem<T>(decoratedPersister.getCreationDateInCache(cacheKey), data);
-                lruCache.put(cacheKey, item);
+                putInLruCache(cacheKey, item);
                 return data;
             }
             return null;
         } else {
-            boolean dataCanExpire = maxTimeInCacheBeforeExpiry != DurationInMillis.ALWAYS;
-            boolean dataIsNotExpired = System.currentTimeMillis() - cacheItem.getCreationDate() < maxTimeInCacheBeforeExpiry;
-            if (!dataCanExpire || dataIsNotExpired) {
-                return cacheItem.getData();
-            }
+            onLruCacheHit(cacheKey);
+            return isFresh(cacheItem, maxTimeInCacheBeforeExpiry) ? cacheItem.getData() : null;
+        }
+    }
+
+    /**
+     * Load data from memory only, without falling back to the decorated
+     * persister. Cheap enough to be called from the UI thread. Expiry rules
+     * are the same as {@link #loadDataFromCache(Object, long)}.
+     * @return the data in memory, or null if it is not in memory or expired.
+     */
+    public T loadDataFromMemoryCache(Object cacheKey, long maxTimeInCacheBeforeExpiry) {
+        CacheItem<T> cacheItem = lruCache.get(cacheKey);
+        if (cacheItem == null) {
             return null;
         }
+        onLruCacheHit(cacheKey);
+        if (!isFresh(cacheItem, maxTimeInCacheBeforeExpiry)) {
+            return null;
+        }
+        return cacheItem.getData();
+    }
+
+    private boolean isFresh(CacheItem<T> cacheItem, long maxTimeInCacheBeforeExpiry) {
+        boolean dataCanExpire = maxTimeInCacheBeforeExpiry != DurationInMillis.ALWAYS;
+        boolean dataIsNotExpired = System.currentTimeMillis() - cacheItem.getCreationDate() < maxTimeInCacheBeforeExpiry;
+        return !dataCanExpire || dataIsNotExpired;
     }
 
     @Override
     public T saveDataToCacheAndReturnData(T data, Object cacheKey) throws CacheSavingException {
         CacheItem<T> itemToCache = new CacheItem<T>(data);
-        lruCache.put(cacheKey, itemToCache);
+        putInLruCache(cacheKey, itemToCache);
 
         if (decoratedPersister != null) {
             decoratedPersister.saveDataToCacheAndReturnData(data, cacheKey);
@@ -125,4 +156,27 @@ public class LruCacheObjectPersister<T> extends ObjectPersister<T> {
             decoratedPersister.removeAllDataFromCache();
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private void putInLruCache(Object cacheKey, CacheItem<T> cacheItem) {
+        lruCache.put(cacheKey, cacheItem);
+        // removals are reported by the cache itself
+        MemoryCacheBudget memoryCacheBudget = getMemoryCacheBudget();
+        if (memoryCacheBudget != null) {
+            memoryCacheBudget.onEntryPut((SizedLruCache<T>) lruCache, cacheKey, cacheItem);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onLruCacheHit(Object cacheKey) {
+        MemoryCacheBudget memoryCacheBudget = getMemoryCacheBudget();
+        if (memoryCacheBudget != null) {
+            memoryCacheBudget.onEntryAccessed((SizedLruCache<T>) lruCache, cacheKey);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private MemoryCacheBudget getMemoryCacheBudget() {
+        return lruCache instanceof SizedLruCache ? ((SizedLruCache<T>) lruCache).getMemoryCacheBudget() : null;
+    }
 }
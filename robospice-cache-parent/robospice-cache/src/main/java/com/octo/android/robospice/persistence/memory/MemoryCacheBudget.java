@@ -0,0 +1,250 @@
+package com.octo.android.robospice.persistence.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.support.v4.util.LruCache;
+
+/**
+ * A memory budget shared by several {@link LruCacheObjectPersister}s : each of
+ * them keeps its own max size, the budget bounds the memory they use
+ * altogether. Entries of all persisters are kept in a single least recently
+ * used order, with their size in bytes. When the budget is exceeded, the least
+ * recently used entries are evicted, whatever their class, until the entries
+ * left fit in the budget. <br/>
+ * The budget also shrinks when the system runs low on memory : call
+ * {@link #onTrimMemory(int)} and {@link #onLowMemory()} from the application,
+ * or register a {@link MemoryCacheBudgetCallbacks} on API 14+. <br/>
+ * Persisters must use a {@link SizedLruCache}, as {@link StringLruCache} and
+ * {@link BitmapLruCache} do. This class is thread safe.
+ * @author SNI
+ */
+public class MemoryCacheBudget {
+
+    public static final float DEFAULT_TRIM_FRACTION = 0.5f;
+
+    private final long maxSizeInBytes;
+    private volatile float trimFraction = DEFAULT_TRIM_FRACTION;
+
+    /** All entries of all caches, least recently used first. */
+    private final Map<EntryKey, Entry> mapKeyToEntry = new LinkedHashMap<EntryKey, Entry>(16, 0.75f, true);
+    private long sizeInBytes;
+
+    /**
+     * @param maxSizeInBytes
+     *            the memory all registered persisters may use, in bytes.
+     */
+    public MemoryCacheBudget(long maxSizeInBytes) {
+        if (maxSizeInBytes < 0) {
+            throw new IllegalArgumentException("Max size must be >= 0");
+        }
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Share this budget with a persister. Data it already holds in memory is
+     * accounted, and evicted if it doesn't fit.
+     * @param persister
+     *            a persister whose cache is a {@link SizedLruCache}, not
+     *            sharing any other budget.
+     */
+    public void register(LruCacheObjectPersister<?> persister) {
+        SizedLruCache<?> sizedLruCache = getSizedLruCache(persister);
+        synchronized (this) {
+            if (sizedLruCache.getMemoryCacheBudget() != null) {
+                throw new IllegalStateException("The persister of " + persister.getHandledClass().getName() + " already shares a budget");
+            }
+            sizedLruCache.setMemoryCacheBudget(this);
+        }
+        registerEntries(sizedLruCache);
+    }
+
+    /**
+     * Stop sharing this budget with a persister. Its data is left in memory.
+     */
+    public synchronized void unregister(LruCacheObjectPersister<?> persister) {
+        SizedLruCache<?> sizedLruCache = getSizedLruCache(persister);
+        if (sizedLruCache.getMemoryCacheBudget() != this) {
+            return;
+        }
+        sizedLruCache.setMemoryCacheBudget(null);
+        Iterator<Entry> iterator = mapKeyToEntry.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.key.cache == sizedLruCache) {
+                iterator.remove();
+                sizeInBytes -= entry.sizeInBytes;
+            }
+        }
+    }
+
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    /**
+     * @return the memory used by the entries of all registered persisters, in
+     *         bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return mapKeyToEntry.size();
+    }
+
+    public float getTrimFraction() {
+        return trimFraction;
+    }
+
+    /**
+     * @param trimFraction
+     *            the fraction of the memory in use kept when the system runs
+     *            low on memory, between 0 and 1.
+     *            {@link #DEFAULT_TRIM_FRACTION} by default.
+     */
+    public void setTrimFraction(float trimFraction) {
+        if (trimFraction < 0 || trimFraction > 1) {
+            throw new IllegalArgumentException("Trim fraction must be between 0 and 1");
+        }
+        this.trimFraction = trimFraction;
+    }
+
+    /**
+     * Evict the least recently used entries, of all registered persisters,
+     * until the memory they use is under a size.
+     * @param targetSizeInBytes
+     *            the size to reach, in bytes.
+     */
+    public synchronized void trimToSize(long targetSizeInBytes) {
+        while (sizeInBytes > targetSizeInBytes && !mapKeyToEntry.isEmpty()) {
+            Entry eldestEntry = mapKeyToEntry.values().iterator().next();
+            removeEntry(eldestEntry);
+            // the cache calls back this budget on this thread, the entry is
+            // already gone. A newer value of the key is removed as well, it
+            // is not accounted yet as this budget is locked.
+            eldestEntry.key.cache.remove(eldestEntry.key.cacheKey);
+        }
+    }
+
+    /**
+     * Evict all entries when the process is about to be killed, only some of
+     * them under moderate memory pressure, see {@link #setTrimFraction(float)}.
+     * @param level
+     *            a level of {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize((long) (sizeInBytes * trimFraction));
+            }
+        }
+    }
+
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    /**
+     * Account data put in a cache, once the cache holds it.
+     */
+    /* package private */<T> void onEntryPut(SizedLruCache<T> cache, Object cacheKey, CacheItem<T> cacheItem) {
+        synchronized (this) {
+            // the data may have been evicted already by the cache itself
+            if (cache.getMemoryCacheBudget() != this || cache.get(cacheKey) != cacheItem) {
+                return;
+            }
+            EntryKey entryKey = new EntryKey(cache, cacheKey);
+            Entry previousEntry = mapKeyToEntry.get(entryKey);
+            if (previousEntry != null) {
+                removeEntry(previousEntry);
+            }
+            Entry entry = new Entry(entryKey, cacheItem, cache.getSizeInBytes(cacheKey, cacheItem));
+            mapKeyToEntry.put(entryKey, entry);
+            sizeInBytes += entry.sizeInBytes;
+            trimToSize(maxSizeInBytes);
+        }
+    }
+
+    /**
+     * Data of a cache was read : it becomes the most recently used entry.
+     */
+    /* package private */synchronized void onEntryAccessed(SizedLruCache<?> cache, Object cacheKey) {
+        mapKeyToEntry.get(new EntryKey(cache, cacheKey));
+    }
+
+    /* package private */synchronized void onEntryRemoved(SizedLruCache<?> cache, Object cacheKey, CacheItem<?> cacheItem) {
+        Entry entry = mapKeyToEntry.get(new EntryKey(cache, cacheKey));
+        // a newer value of the key may be accounted already
+        if (entry != null && entry.cacheItem == cacheItem) {
+            removeEntry(entry);
+        }
+    }
+
+    private void registerEntries(SizedLruCache<?> sizedLruCache) {
+        for (Map.Entry<Object, ?> entry : sizedLruCache.snapshot().entrySet()) {
+            registerEntry(sizedLruCache, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void registerEntry(SizedLruCache<T> sizedLruCache, Object cacheKey, Object cacheItem) {
+        onEntryPut(sizedLruCache, cacheKey, (CacheItem<T>) cacheItem);
+    }
+
+    private void removeEntry(Entry entry) {
+        mapKeyToEntry.remove(entry.key);
+        sizeInBytes -= entry.sizeInBytes;
+    }
+
+    private static <T> SizedLruCache<T> getSizedLruCache(LruCacheObjectPersister<T> persister) {
+        LruCache<Object, CacheItem<T>> lruCache = persister.getLruCache();
+        if (!(lruCache instanceof SizedLruCache)) {
+            throw new IllegalArgumentException("The persister of " + persister.getHandledClass().getName() + " must use a "
+                + SizedLruCache.class.getSimpleName() + " to share a budget");
+        }
+        return (SizedLruCache<T>) lruCache;
+    }
+
+    /** A cache key of a given cache. */
+    private static final class EntryKey {
+        private final SizedLruCache<?> cache;
+        private final Object cacheKey;
+
+        public EntryKey(SizedLruCache<?> cache, Object cacheKey) {
+            this.cache = cache;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(cache) + cacheKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey other = (EntryKey) obj;
+            return cache == other.cache && cacheKey.equals(other.cacheKey);
+        }
+    }
+
+    private static final class Entry {
+        private final EntryKey key;
+        private final CacheItem<?> cacheItem;
+        private final int sizeInBytes;
+
+        public Entry(EntryKey key, CacheItem<?> cacheItem, int sizeInBytes) {
+            this.key = key;
+            this.cacheItem = cacheItem;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.octo.android.robospice.persistence.memory;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Build;
+
+/**
+ * Shrinks a {@link MemoryCacheBudget} when the system runs low on memory.
+ * Register it with {@link android.content.Context#registerComponentCallbacks}
+ * on API 14+. On older versions, call {@link MemoryCacheBudget#onLowMemory()}
+ * from {@link android.app.Application#onLowMemory()} instead.
+ * @author SNI
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class MemoryCacheBudgetCallbacks implements ComponentCallbacks2 {
+
+    private final MemoryCacheBudget memoryCacheBudget;
+
+    public MemoryCacheBudgetCallbacks(MemoryCacheBudget memoryCacheBudget) {
+        this.memoryCacheBudget = memoryCacheBudget;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        memoryCacheBudget.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        memoryCacheBudget.onLowMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // memory is not related to configuration
+    }
+}
@@ -0,0 +1,43 @@
+package com.octo.android.robospice.persistence.memory;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * {@link LruCache} that knows the size in bytes of its entries, so that the
+ * {@link LruCacheObjectPersister} using it can share a
+ * {@link MemoryCacheBudget} with other in-memory persisters. Its own max size
+ * still applies, in the unit of {@link #sizeOf(Object, Object)}.
+ * @param <T>
+ *            the type of data cached.
+ * @author SNI
+ */
+public abstract class SizedLruCache<T> extends LruCache<Object, CacheItem<T>> {
+
+    private volatile MemoryCacheBudget memoryCacheBudget;
+
+    public SizedLruCache(int maxSize) {
+        super(maxSize);
+    }
+
+    /**
+     * @return the memory used by an entry, in bytes.
+     */
+    protected abstract int getSizeInBytes(Object key, CacheItem<T> value);
+
+    public MemoryCacheBudget getMemoryCacheBudget() {
+        return memoryCacheBudget;
+    }
+
+    /* package private */void setMemoryCacheBudget(MemoryCacheBudget memoryCacheBudget) {
+        this.memoryCacheBudget = memoryCacheBudget;
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Object key, CacheItem<T> oldValue, CacheItem<T> newValue) {
+        // removed, evicted or replaced : the new value is accounted when put
+        MemoryCacheBudget currentMemoryCacheBudget = memoryCacheBudget;
+        if (currentMemoryCacheBudget != null) {
+            currentMemoryCacheBudget.onEntryRemoved(this, key, oldValue);
+        }
+    }
+}
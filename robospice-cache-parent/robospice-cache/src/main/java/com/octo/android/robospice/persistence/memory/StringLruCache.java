@@ -5,12 +5,12 @@ import android.os.Build;
 import android.support.v4.util.LruCache;
 
 /**
- * {@link LruCache} for {@link String}.
+ * {@link LruCache} for {@link String}. Its size is measured in characters.
  * @author David Stemmer
  * @author Mike Jancola
  * @author SNI
  */
-public class StringLruCache extends LruCache<Object, CacheItem<String>> {
+public class StringLruCache extends SizedLruCache<String> {
     public StringLruCache(int maxSize) {
         super(maxSize);
     }
@@ -21,4 +21,10 @@ public class StringLruCache extends LruCache<Object, CacheItem<String>> {
         String data = value.getData();
         return data.length();
     }
+
+    @Override
+    protected int getSizeInBytes(Object key, CacheItem<String> value) {
+        // characters are UTF-16
+        return value.getData().length() * 2;
+    }
 }
@@ -10,6 +10,7 @@ import org.apache.commons.lang3.CharEncoding;
 import roboguice.util.temp.Ln;
 import android.app.Application;
 
+import com.octo.android.robospice.persistence.WriteBehindQueue;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 import com.octo.android.robospice.persistence.file.InFileObjectPersister;
@@ -52,17 +53,12 @@ public class InFileStringObjectPersister extends InFileObjectPersister<String> {
         try {
             if (isAsyncSaveEnabled()) {
 
-                Thread t = new Thread() {
+                saveDataAsynchronously(cacheKey, new WriteBehindQueue.Write() {
                     @Override
-                    public void run() {
-                        try {
-                            FileUtils.writeStringToFile(getCacheFile(cacheKey), data, CharEncoding.UTF_8);
-                        } catch (IOException e) {
-                            Ln.e(e, "An error occured on saving request " + cacheKey + " data asynchronously");
-                        }
-                    };
-                };
-                t.start();
+                    public void write() throws IOException {
+                        FileUtils.writeStringToFile(getCacheFile(cacheKey), data, CharEncoding.UTF_8);
+                    }
+                });
             } else {
                 FileUtils.writeStringToFile(getCacheFile(cacheKey), data, CharEncoding.UTF_8);
             }
@@ -0,0 +1,123 @@
+package com.octo.android.robospice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+@MediumTest
+public class CacheAccessExecutorTest extends InstrumentationTestCase {
+
+    private static final String TEST_CACHE_KEY = "TEST_CACHE_KEY";
+    private static final String TEST_CACHE_KEY2 = "TEST_CACHE_KEY2";
+    private static final int THREAD_COUNT = 4;
+    private static final int WRITE_COUNT = 50;
+    private static final long TIME_OUT = 2000;
+
+    private CacheAccessExecutor cacheAccessExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cacheAccessExecutor = new CacheAccessExecutor(THREAD_COUNT);
+    }
+
+    public void testSubmitWrite_writes_of_same_key_stay_ordered() throws Exception {
+        // given
+        final List<Integer> writtenValues = Collections.synchronizedList(new ArrayList<Integer>());
+        Future<?> lastWriteFuture = null;
+
+        // when
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            final int value = i;
+            lastWriteFuture = cacheAccessExecutor.submitWrite(String.class, TEST_CACHE_KEY, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Thread.sleep(1);
+                    writtenValues.add(value);
+                    return null;
+                }
+            });
+        }
+        lastWriteFuture.get(TIME_OUT, TimeUnit.MILLISECONDS);
+
+        // then
+        assertEquals(WRITE_COUNT, writtenValues.size());
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            assertEquals(Integer.valueOf(i), writtenValues.get(i));
+        }
+    }
+
+    public void testSubmitRead_accesses_of_different_keys_run_in_parallel() throws Exception {
+        // given
+        final CountDownLatch bothAccessesStartedLatch = new CountDownLatch(2);
+        Callable<Boolean> access = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothAccessesStartedLatch.countDown();
+                return bothAccessesStartedLatch.await(TIME_OUT, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        // when
+        Future<Boolean> future = cacheAccessExecutor.submitWrite(String.class, TEST_CACHE_KEY, access);
+        Future<Boolean> future2 = cacheAccessExecutor.submitRead(String.class, TEST_CACHE_KEY2, access);
+
+        // then
+        assertTrue(future.get(TIME_OUT, TimeUnit.MILLISECONDS));
+        assertTrue(future2.get(TIME_OUT, TimeUnit.MILLISECONDS));
+    }
+
+    public void testSubmitRead_slow_read_of_a_class_only_delays_writes_of_that_class() throws Exception {
+        // given
+        final CountDownLatch slowReadLatch = new CountDownLatch(1);
+        final AtomicBoolean isSlowReadComplete = new AtomicBoolean();
+        Future<Void> slowReadFuture = cacheAccessExecutor.submitRead(String.class, null, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                slowReadLatch.await();
+                isSlowReadComplete.set(true);
+                return null;
+            }
+        });
+        final AtomicBoolean isWriteAfterSlowRead = new AtomicBoolean();
+        Future<Void> writeFuture = cacheAccessExecutor.submitWrite(String.class, TEST_CACHE_KEY, new Callable<Void>() {
+            @Override
+            public Void call() {
+                isWriteAfterSlowRead.set(isSlowReadComplete.get());
+                return null;
+            }
+        });
+
+        // when
+        Future<String> otherClassReadFuture = cacheAccessExecutor.submitRead(Integer.class, TEST_CACHE_KEY, new Callable<String>() {
+            @Override
+            public String call() {
+                return TEST_CACHE_KEY;
+            }
+        });
+        Future<String> sameClassReadFuture = cacheAccessExecutor.submitRead(String.class, TEST_CACHE_KEY2, new Callable<String>() {
+            @Override
+            public String call() {
+                return TEST_CACHE_KEY2;
+            }
+        });
+
+        // then
+        assertEquals(TEST_CACHE_KEY, otherClassReadFuture.get(TIME_OUT, TimeUnit.MILLISECONDS));
+        assertEquals(TEST_CACHE_KEY2, sameClassReadFuture.get(TIME_OUT, TimeUnit.MILLISECONDS));
+        assertFalse(writeFuture.isDone());
+        slowReadLatch.countDown();
+        slowReadFuture.get(TIME_OUT, TimeUnit.MILLISECONDS);
+        writeFuture.get(TIME_OUT, TimeUnit.MILLISECONDS);
+        assertTrue(isWriteAfterSlowRead.get());
+        assertEquals(0, cacheAccessExecutor.getPendingAccessCount());
+    }
+}
@@ -0,0 +1,140 @@
+package com.octo.android.robospice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import roboguice.util.temp.Ln;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.stub.CachedSpiceRequestStub;
+import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
+
+@LargeTest
+public class IndexedRequestMapTest extends InstrumentationTestCase {
+
+    private static final String TEST_CACHE_KEY = "12345";
+    private static final String TEST_CACHE_KEY2 = "123456";
+    private static final String TEST_TAG = "TEST_TAG";
+
+    private static final int[] BENCHMARK_REQUEST_COUNTS = new int[] { 1000, 10000 };
+    private static final int BENCHMARK_LOOKUP_COUNT = 1000;
+
+    private IndexedRequestMap indexedRequestMap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        indexedRequestMap = new IndexedRequestMap();
+    }
+
+    public void testFindRequest_by_wrapped_spice_request() {
+        // given
+        SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, "");
+        CachedSpiceRequestStub<String> cachedSpiceRequest = createCachedSpiceRequest(spiceRequest, TEST_CACHE_KEY);
+        indexedRequestMap.put(cachedSpiceRequest, new HashSet<RequestListener<?>>());
+        indexedRequestMap.put(createCachedSpiceRequest(TEST_CACHE_KEY2), new HashSet<RequestListener<?>>());
+
+        // when
+        CachedSpiceRequest<?> requestFoundBySpiceRequest = indexedRequestMap.findRequest(spiceRequest);
+        CachedSpiceRequest<?> requestFoundByItself = indexedRequestMap.findRequest(cachedSpiceRequest);
+
+        // then
+        assertSame(cachedSpiceRequest, requestFoundBySpiceRequest);
+        assertSame(cachedSpiceRequest, requestFoundByItself);
+    }
+
+    public void testFindRequestsByTag() {
+        // given
+        CachedSpiceRequestStub<String> cachedSpiceRequest = createCachedSpiceRequest(TEST_CACHE_KEY);
+        cachedSpiceRequest.setTag(TEST_TAG);
+        indexedRequestMap.put(cachedSpiceRequest, new HashSet<RequestListener<?>>());
+        indexedRequestMap.put(createCachedSpiceRequest(TEST_CACHE_KEY2), new HashSet<RequestListener<?>>());
+
+        // when
+        List<CachedSpiceRequest<?>> requests = indexedRequestMap.findRequestsByTag(TEST_TAG);
+
+        // then
+        assertEquals(1, requests.size());
+        assertSame(cachedSpiceRequest, requests.get(0));
+    }
+
+    public void testRemove_removes_request_from_indexes() {
+        // given
+        SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, "");
+        CachedSpiceRequestStub<String> cachedSpiceRequest = createCachedSpiceRequest(spiceRequest, TEST_CACHE_KEY);
+        cachedSpiceRequest.setTag(TEST_TAG);
+        indexedRequestMap.put(cachedSpiceRequest, new HashSet<RequestListener<?>>());
+
+        // when
+        indexedRequestMap.remove(cachedSpiceRequest);
+
+        // then
+        assertTrue(indexedRequestMap.isEmpty());
+        assertNull(indexedRequestMap.findRequest(spiceRequest));
+        assertTrue(indexedRequestMap.findRequestsByTag(TEST_TAG).isEmpty());
+    }
+
+    public void testBenchmark_indexed_lookup_is_faster_than_scan() {
+        for (int requestCount : BENCHMARK_REQUEST_COUNTS) {
+            // given
+            indexedRequestMap.clear();
+            List<CachedSpiceRequest<?>> requests = new ArrayList<CachedSpiceRequest<?>>(requestCount);
+            for (int i = 0; i < requestCount; i++) {
+                CachedSpiceRequestStub<String> cachedSpiceRequest = createCachedSpiceRequest(String.valueOf(i));
+                requests.add(cachedSpiceRequest);
+                indexedRequestMap.put(cachedSpiceRequest, new HashSet<RequestListener<?>>());
+            }
+
+            // when
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_LOOKUP_COUNT; i++) {
+                CachedSpiceRequest<?> request = requests.get(requestCount - 1 - i % requestCount);
+                assertNotNull(findRequestByScan(request));
+            }
+            long scanDuration = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_LOOKUP_COUNT; i++) {
+                CachedSpiceRequest<?> request = requests.get(requestCount - 1 - i % requestCount);
+                assertNotNull(indexedRequestMap.findRequest(request.getSpiceRequest()));
+            }
+            long indexedDuration = System.nanoTime() - start;
+            Ln.d("%d requests in flight, %d lookups : scan %d us, index %d us", requestCount, BENCHMARK_LOOKUP_COUNT,
+                scanDuration / 1000, indexedDuration / 1000);
+
+            // then
+            assertTrue(indexedDuration < scanDuration);
+        }
+    }
+
+    // ============================================================================================
+    // PRIVATE METHODS
+    // ============================================================================================
+
+    private CachedSpiceRequestStub<String> createCachedSpiceRequest(String cacheKey) {
+        return createCachedSpiceRequest(new SpiceRequestSucceedingStub<String>(String.class, ""), cacheKey);
+    }
+
+    private CachedSpiceRequestStub<String> createCachedSpiceRequest(SpiceRequestSucceedingStub<String> spiceRequest, String cacheKey) {
+        return new CachedSpiceRequestStub<String>(spiceRequest, cacheKey, DurationInMillis.ALWAYS);
+    }
+
+    /** The lookup SpiceManager used before requests were indexed. */
+    private CachedSpiceRequest<?> findRequestByScan(CachedSpiceRequest<?> request) {
+        synchronized (indexedRequestMap) {
+            Set<CachedSpiceRequest<?>> keySet = indexedRequestMap.keySet();
+            for (CachedSpiceRequest<?> cachedSpiceRequest : keySet) {
+                if (cachedSpiceRequest.getSpiceRequest() == request.getSpiceRequest()) {
+                    return cachedSpiceRequest;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.octo.android.robospice;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import roboguice.util.temp.Ln;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.persistence.WriteBehindQueue;
+import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
+
+@MediumTest
+public class JvmSpiceHostTest extends InstrumentationTestCase {
+
+    private static final String TEST_RETURNED_DATA = "coucou";
+    private static final long REQUEST_COMPLETION_TIME_OUT = 2000;
+    private static final int BENCHMARK_START_COUNT = 200;
+    private static final long MAX_MEDIAN_FIRST_REQUEST_LATENCY = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SLOW_WRITE_DURATION = 1000;
+
+    private CacheManager cacheManager;
+    private JvmSpiceHost jvmSpiceHost;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cacheManager = new CacheManager();
+        jvmSpiceHost = new JvmSpiceHost(cacheManager);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        jvmSpiceHost.destroy();
+        super.tearDown();
+    }
+
+    public void testExecute_request_is_processed_without_binding() throws InterruptedException {
+        // given
+        SpiceManager spiceManager = new SpiceManager(jvmSpiceHost);
+        spiceManager.start(null);
+        SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, TEST_RETURNED_DATA);
+        RecordingRequestListener requestListener = new RecordingRequestListener();
+
+        // when
+        spiceManager.execute(spiceRequest, requestListener);
+
+        // then
+        assertTrue(requestListener.latch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+        assertEquals(TEST_RETURNED_DATA, requestListener.result);
+        assertTrue(requestListener.threadName.startsWith("robospice-notification"));
+        spiceManager.shouldStop();
+    }
+
+    public void testBenchmark_start_to_first_request_latency() throws InterruptedException {
+        // given
+        long[] latencies = new long[BENCHMARK_START_COUNT];
+
+        // when
+        for (int i = 0; i < BENCHMARK_START_COUNT; i++) {
+            RecordingRequestListener requestListener = new RecordingRequestListener();
+            long start = System.nanoTime();
+            SpiceManager spiceManager = new SpiceManager(jvmSpiceHost);
+            spiceManager.start(null);
+            spiceManager.execute(new SpiceRequestSucceedingStub<String>(String.class, TEST_RETURNED_DATA), requestListener);
+            assertTrue(requestListener.latch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+            latencies[i] = requestListener.notificationTime - start;
+            spiceManager.shouldStop();
+        }
+
+        // then
+        Arrays.sort(latencies);
+        long median = latencies[BENCHMARK_START_COUNT / 2];
+        Ln.d("Start to first request latency : median %d us, max %d us", median / 1000, latencies[BENCHMARK_START_COUNT - 1] / 1000);
+        assertTrue(median < MAX_MEDIAN_FIRST_REQUEST_LATENCY);
+    }
+
+    public void testDestroy_doesnt_wait_for_data_saved_in_background() throws InterruptedException {
+        // given
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        cacheManager.getWriteBehindQueue().enqueue(String.class, TEST_RETURNED_DATA, new WriteBehindQueue.Write() {
+            @Override
+            public void write() throws Exception {
+                Thread.sleep(SLOW_WRITE_DURATION);
+                writeLatch.countDown();
+            }
+        });
+
+        // when
+        long start = System.currentTimeMillis();
+        jvmSpiceHost.destroy();
+        long destroyDuration = System.currentTimeMillis() - start;
+
+        // then
+        assertTrue(destroyDuration < SLOW_WRITE_DURATION / 2);
+        assertTrue(writeLatch.await(SLOW_WRITE_DURATION * 2, TimeUnit.MILLISECONDS));
+    }
+
+    public void testDestroy_drains_data_saved_in_background_then_shuts_write_behind_queue_down() throws InterruptedException {
+        // given
+        final WriteBehindQueue writeBehindQueue = cacheManager.getWriteBehindQueue();
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        writeBehindQueue.enqueue(String.class, TEST_RETURNED_DATA, new WriteBehindQueue.Write() {
+            @Override
+            public void write() throws Exception {
+                Thread.sleep(SLOW_WRITE_DURATION / 2);
+                writeLatch.countDown();
+            }
+        });
+
+        // when
+        jvmSpiceHost.destroy();
+
+        // then
+        assertFalse(writeBehindQueue.isShutdown());
+        assertTrue(writeLatch.await(SLOW_WRITE_DURATION * 2, TimeUnit.MILLISECONDS));
+        long deadline = System.currentTimeMillis() + SLOW_WRITE_DURATION;
+        while (!writeBehindQueue.isShutdown() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writeBehindQueue.isShutdown());
+        assertEquals(0, writeBehindQueue.getPendingKeyCount());
+    }
+
+    public void testDestroy_stops_the_threads_of_the_host() throws InterruptedException {
+        // given
+        Set<Thread> threadsBeforeStart = Thread.getAllStackTraces().keySet();
+        SpiceManager spiceManager = new SpiceManager(jvmSpiceHost);
+        spiceManager.start(null);
+        RecordingRequestListener requestListener = new RecordingRequestListener();
+        spiceManager.execute(new SpiceRequestSucceedingStub<String>(String.class, TEST_RETURNED_DATA), requestListener);
+        assertTrue(requestListener.latch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+        spiceManager.shouldStop();
+        Set<Thread> hostThreads = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+        hostThreads.removeAll(threadsBeforeStart);
+
+        // when
+        jvmSpiceHost.destroy();
+
+        // then
+        for (Thread hostThread : hostThreads) {
+            hostThread.join(REQUEST_COMPLETION_TIME_OUT);
+            assertFalse(hostThread.getName(), hostThread.isAlive());
+        }
+    }
+
+    private static final class RecordingRequestListener implements RequestListener<String> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile String result;
+        private volatile String threadName;
+        private volatile long notificationTime;
+
+        @Override
+        public void onRequestFailure(SpiceException spiceException) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onRequestSuccess(String result) {
+            notificationTime = System.nanoTime();
+            this.result = result;
+            this.threadName = Thread.currentThread().getName();
+            latch.countDown();
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package com.octo.android.robospice;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import roboguice.util.temp.Ln;
 import android.content.Intent;
 import android.test.InstrumentationTestCase;
 
 import com.octo.android.robospice.core.test.SpiceTestService;
 import com.octo.android.robospice.exception.RequestCancelledException;
 import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.exception.SpiceException;
 import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.RequestBatch;
 import com.octo.android.robospice.request.SpiceRequest;
+import com.octo.android.robospice.request.listener.RequestBatchListener;
+import com.octo.android.robospice.request.listener.RequestListener;
 import com.octo.android.robospice.stub.RequestListenerStub;
 import com.octo.android.robospice.stub.RequestListenerWithProgressStub;
 import com.octo.android.robospice.stub.SpiceRequestFailingStub;
@@ -25,6 +38,12 @@ public class SpiceManagerTest extends InstrumentationTestCase {
     private static final long WAIT_BEFORE_EXECUTING_REQUEST = 3000;
     private static final long REQUEST_COMPLETION_TIME_OUT = 2000;
     private static final long CONTENT_MANAGER_WAIT_TIMEOUT = 500;
+    private static final int BATCH_SIZE = 40;
+    private static final int BENCHMARK_ROUND_COUNT = 20;
+    private static final long BENCHMARK_TIME_OUT = 10000;
+    private static final int SUBMITTER_THREAD_COUNT = 4;
+    private static final int REQUEST_COUNT_PER_SUBMITTER = 250;
+    private static final int[] LATENCY_PERCENTILES = new int[] { 50, 90, 99 };
 
     private SpiceManagerUnderTest spiceManager;
 
@@ -333,6 +352,196 @@ public class SpiceManagerTest extends InstrumentationTestCase {
         assertNull(requestListenerStub2.isSuccessful());
     }
 
+    public void test_executeBatch_executes_all_requests_and_notifies_batch_listener()
+        throws InterruptedException {
+        // given
+        spiceManager.start(getInstrumentation().getTargetContext());
+        SpiceRequestStub<String> contentRequestStub = new SpiceRequestSucceedingStub<String>(
+            TEST_CLASS, TEST_RETURNED_DATA);
+        SpiceRequestStub<String> contentRequestStub2 = new SpiceRequestFailingStub<String>(
+            TEST_CLASS);
+        final CountingRequestListener requestListener = new CountingRequestListener(
+            new CountDownLatch(2));
+        final CountDownLatch batchLatch = new CountDownLatch(1);
+        final boolean[] areAllListenersNotifiedFirst = new boolean[1];
+        RequestBatch batch = new RequestBatch().add(contentRequestStub,
+            TEST_CACHE_KEY, TEST_DURATION, requestListener).add(
+            contentRequestStub2, TEST_CACHE_KEY2, TEST_DURATION,
+            requestListener);
+
+        // when
+        spiceManager.executeBatch(batch, new RequestBatchListener() {
+            @Override
+            public void onBatchComplete() {
+                areAllListenersNotifiedFirst[0] = requestListener
+                    .getNotificationCount() == 2;
+                batchLatch.countDown();
+            }
+        });
+
+        // then
+        assertTrue(batchLatch.await(REQUEST_COMPLETION_TIME_OUT,
+            TimeUnit.MILLISECONDS));
+        assertTrue(contentRequestStub.isLoadDataFromNetworkCalled());
+        assertTrue(contentRequestStub2.isLoadDataFromNetworkCalled());
+        assertTrue(areAllListenersNotifiedFirst[0]);
+    }
+
+    public void test_executeBatch_benchmark_per_request_overhead_of_batch_vs_single_submission()
+        throws InterruptedException {
+        // given
+        spiceManager.start(getInstrumentation().getTargetContext());
+        // warm up
+        submitRequests(false);
+        submitRequests(true);
+
+        // when
+        long singleSubmissionDuration = 0;
+        long batchSubmissionDuration = 0;
+        for (int i = 0; i < BENCHMARK_ROUND_COUNT; i++) {
+            singleSubmissionDuration += submitRequests(false);
+            batchSubmissionDuration += submitRequests(true);
+        }
+
+        // then
+        final int requestCount = BATCH_SIZE * BENCHMARK_ROUND_COUNT;
+        Ln.d("Single submission : %d us per request",
+            TimeUnit.NANOSECONDS.toMicros(singleSubmissionDuration)
+                / requestCount);
+        Ln.d("Batch submission : %d us per request",
+            TimeUnit.NANOSECONDS.toMicros(batchSubmissionDuration)
+                / requestCount);
+        assertTrue(singleSubmissionDuration > 0);
+        assertTrue(batchSubmissionDuration > 0);
+    }
+
+    public void test_execute_benchmark_queue_to_service_latency_with_concurrent_submitters()
+        throws InterruptedException {
+        // given
+        spiceManager.start(getInstrumentation().getTargetContext());
+        // warm up
+        submitRequests(false);
+        final int requestCount = SUBMITTER_THREAD_COUNT
+            * REQUEST_COUNT_PER_SUBMITTER;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch completionLatch = new CountDownLatch(requestCount);
+        final CountingRequestListener requestListener = new CountingRequestListener(
+            completionLatch);
+        final List<LatencyRecordingRequest> requests = Collections
+            .synchronizedList(new ArrayList<LatencyRecordingRequest>());
+        for (int i = 0; i < SUBMITTER_THREAD_COUNT; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < REQUEST_COUNT_PER_SUBMITTER; j++) {
+                        LatencyRecordingRequest request = new LatencyRecordingRequest();
+                        requests.add(request);
+                        request.submissionTime = System.nanoTime();
+                        spiceManager.execute(request, requestListener);
+                    }
+                }
+            }.start();
+        }
+
+        // when
+        startLatch.countDown();
+        assertTrue(completionLatch.await(BENCHMARK_TIME_OUT,
+            TimeUnit.MILLISECONDS));
+
+        // then
+        long[] latencies = new long[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            latencies[i] = requests.get(i).latency;
+            assertTrue(latencies[i] >= 0);
+        }
+        Arrays.sort(latencies);
+        for (int percentile : LATENCY_PERCENTILES) {
+            Ln.d("Queue to service latency, p%d : %d us", percentile,
+                TimeUnit.NANOSECONDS.toMicros(latencies[requestCount
+                    * percentile / 100]));
+        }
+        Ln.d("Queue to service latency, max : %d us",
+            TimeUnit.NANOSECONDS.toMicros(latencies[requestCount - 1]));
+    }
+
+    /**
+     * Submit {@link #BATCH_SIZE} requests, that don't use cache, one by one or
+     * as a batch.
+     * @return the time in ns needed for all listeners to be notified.
+     */
+    private long submitRequests(boolean asBatch) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        CountingRequestListener requestListener = new CountingRequestListener(
+            latch);
+        RequestBatch batch = new RequestBatch();
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            SpiceRequestStub<String> contentRequestStub = new SpiceRequestSucceedingStub<String>(
+                TEST_CLASS, TEST_RETURNED_DATA);
+            if (asBatch) {
+                batch.add(contentRequestStub, requestListener);
+            } else {
+                spiceManager.execute(contentRequestStub, requestListener);
+            }
+        }
+        if (asBatch) {
+            spiceManager.executeBatch(batch);
+        }
+        assertTrue(latch.await(BENCHMARK_TIME_OUT, TimeUnit.MILLISECONDS));
+        return System.nanoTime() - start;
+    }
+
+    private static final class CountingRequestListener implements
+        RequestListener<String> {
+        private final CountDownLatch latch;
+        private final AtomicInteger notificationCount = new AtomicInteger();
+
+        private CountingRequestListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onRequestFailure(SpiceException spiceException) {
+            notificationCount.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        public void onRequestSuccess(String result) {
+            notificationCount.incrementAndGet();
+            latch.countDown();
+        }
+
+        public int getNotificationCount() {
+            return notificationCount.get();
+        }
+    }
+
+    /**
+     * A request that records the time between its submission to the
+     * {@link SpiceManager} and the start of its processing by the service.
+     */
+    private static final class LatencyRecordingRequest extends
+        SpiceRequest<String> {
+        private volatile long submissionTime;
+        private volatile long latency = -1;
+
+        private LatencyRecordingRequest() {
+            super(String.class);
+        }
+
+        @Override
+        public String loadDataFromNetwork() throws Exception {
+            latency = System.nanoTime() - submissionTime;
+            return TEST_RETURNED_DATA;
+        }
+    }
+
     /**
      * Class under test. Just a wrapper to get any exception that can occur in
      * the spicemanager's thread. Inspired by
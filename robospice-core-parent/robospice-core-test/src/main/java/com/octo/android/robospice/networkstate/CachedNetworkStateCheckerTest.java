@@ -0,0 +1,98 @@
+package com.octo.android.robospice.networkstate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.net.ConnectivityManager;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.octo.android.robospice.stub.NetworkStateSourceStub;
+
+@SmallTest
+public class CachedNetworkStateCheckerTest extends InstrumentationTestCase {
+
+    private static final NetworkState WIFI = new NetworkState(true, ConnectivityManager.TYPE_WIFI, false);
+    private static final NetworkState MOBILE = new NetworkState(true, ConnectivityManager.TYPE_MOBILE, true);
+    private static final int CHECK_COUNT = 1000;
+
+    private NetworkStateSourceStub networkStateSource;
+    private CachedNetworkStateChecker networkStateChecker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        networkStateSource = new NetworkStateSourceStub(WIFI);
+        networkStateChecker = new CachedNetworkStateChecker(networkStateSource);
+    }
+
+    public void testIsNetworkAvailable_reads_source_once() {
+        // given
+
+        // when
+        boolean isNetworkAvailable = true;
+        for (int i = 0; i < CHECK_COUNT; i++) {
+            isNetworkAvailable &= networkStateChecker.isNetworkAvailable(null);
+        }
+
+        // then
+        assertTrue(isNetworkAvailable);
+        assertEquals(1, networkStateSource.getStartCount());
+        assertEquals(1, networkStateSource.getGetNetworkStateCount());
+    }
+
+    public void testIsNetworkAvailable_follows_network_state_changes() {
+        // given
+        networkStateChecker.start();
+
+        // when
+        networkStateSource.changeNetworkState(NetworkState.DISCONNECTED);
+        boolean isNetworkAvailableWhenDisconnected = networkStateChecker.isNetworkAvailable(null);
+        networkStateSource.changeNetworkState(MOBILE);
+
+        // then
+        assertFalse(isNetworkAvailableWhenDisconnected);
+        assertTrue(networkStateChecker.isNetworkAvailable(null));
+        assertEquals(ConnectivityManager.TYPE_MOBILE, networkStateChecker.getNetworkState().getType());
+        assertTrue(networkStateChecker.getNetworkState().isMetered());
+    }
+
+    public void testAddNetworkStateListener_is_notified_of_changes_only() {
+        // given
+        final List<NetworkState> receivedNetworkStates = new ArrayList<NetworkState>();
+        networkStateChecker.addNetworkStateListener(new NetworkStateSource.Listener() {
+            @Override
+            public void onNetworkStateChanged(NetworkState networkState) {
+                receivedNetworkStates.add(networkState);
+            }
+        });
+        networkStateChecker.start();
+
+        // when
+        networkStateSource.changeNetworkState(WIFI);
+        networkStateSource.changeNetworkState(NetworkState.DISCONNECTED);
+        networkStateSource.changeNetworkState(NetworkState.DISCONNECTED);
+        networkStateSource.changeNetworkState(WIFI);
+
+        // then
+        List<NetworkState> expectedNetworkStates = new ArrayList<NetworkState>();
+        expectedNetworkStates.add(NetworkState.DISCONNECTED);
+        expectedNetworkStates.add(WIFI);
+        assertEquals(expectedNetworkStates, receivedNetworkStates);
+    }
+
+    public void testStop_unsubscribes_from_source() {
+        // given
+        networkStateChecker.start();
+
+        // when
+        networkStateChecker.stop();
+        networkStateSource.changeNetworkState(NetworkState.DISCONNECTED);
+
+        // then
+        assertFalse(networkStateSource.isStarted());
+        // the next check subscribes again and reads the current state
+        assertFalse(networkStateChecker.isNetworkAvailable(null));
+        assertEquals(2, networkStateSource.getStartCount());
+    }
+}
@@ -0,0 +1,256 @@
+package com.octo.android.robospice.request;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.easymock.EasyMock;
+
+import roboguice.util.temp.Ln;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.octo.android.robospice.networkstate.NetworkStateChecker;
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.ICacheManager;
+import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.stub.CachedSpiceRequestStub;
+import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
+
+@LargeTest
+public class AdaptiveThreadPoolExecutorTest extends InstrumentationTestCase {
+
+    private static final int MIN_THREAD_COUNT = 1;
+    private static final int MAX_THREAD_COUNT = 16;
+    private static final long KEEP_ALIVE_TIME = 200;
+    private static final long ADJUSTMENT_INTERVAL = 100;
+
+    private static final int TASK_COUNT = 200;
+    private static final long TASK_DURATION = 50;
+
+    // mixed workload : one slow request out of five, a trickle of requests,
+    // then a burst, then nothing
+    private static final int TRICKLE_REQUEST_COUNT = 50;
+    private static final long TRICKLE_REQUEST_INTERVAL = 20;
+    private static final int BURST_REQUEST_COUNT = 400;
+    private static final long QUIET_DURATION = 1000;
+    private static final int SLOW_REQUEST_FREQUENCY = 5;
+    private static final long FAST_REQUEST_DURATION = 5;
+    private static final long SLOW_REQUEST_DURATION = 100;
+    private static final long POOL_SIZE_SAMPLING_INTERVAL = 10;
+    private static final long BENCHMARK_TIME_OUT = 60000;
+    private static final int[] FIXED_THREAD_COUNTS = new int[] { 1, 4, 8 };
+    private static final int ADAPTIVE_MAX_THREAD_COUNT = 8;
+    /** The adaptive pool should need at most that much of the threads of the largest fixed pool. */
+    private static final double MAX_ADAPTIVE_POOL_THREAD_TIME_RATIO = 0.75;
+
+    public void testExecute_grows_when_tasks_wait_in_queue() throws InterruptedException {
+        // given
+        AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(MIN_THREAD_COUNT, MAX_THREAD_COUNT, KEEP_ALIVE_TIME,
+            ADJUSTMENT_INTERVAL);
+
+        // when
+        long duration = executeSleepingTasks(executor, TASK_COUNT, TASK_DURATION);
+
+        // then
+        assertTrue(executor.getGrowthCount() > 0);
+        assertTrue(executor.getLargestPoolSize() > MIN_THREAD_COUNT);
+        assertTrue(executor.getLargestPoolSize() <= MAX_THREAD_COUNT);
+        // a single thread would need TASK_COUNT * TASK_DURATION
+        assertTrue(duration < TASK_COUNT * TASK_DURATION / 2);
+        executor.shutdown();
+    }
+
+    public void testExecute_threads_time_out_when_idle() throws InterruptedException {
+        // given
+        AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(MIN_THREAD_COUNT, MAX_THREAD_COUNT, KEEP_ALIVE_TIME,
+            ADJUSTMENT_INTERVAL);
+        executeSleepingTasks(executor, TASK_COUNT, TASK_DURATION);
+
+        // when
+        Thread.sleep(KEEP_ALIVE_TIME * 3);
+
+        // then
+        assertEquals(0, executor.getPoolSize());
+        executor.shutdown();
+    }
+
+    public void testConstructor_rejects_invalid_bounds() {
+        try {
+            new AdaptiveThreadPoolExecutor(0, MAX_THREAD_COUNT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        try {
+            new AdaptiveThreadPoolExecutor(MAX_THREAD_COUNT, MIN_THREAD_COUNT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testBenchmark_adaptive_pool_beats_fixed_pools_on_mixed_workload() throws InterruptedException {
+        // given
+        WorkloadResult[] fixedPoolResults = new WorkloadResult[FIXED_THREAD_COUNTS.length];
+        AdaptiveThreadPoolExecutor adaptiveExecutor = new AdaptiveThreadPoolExecutor(MIN_THREAD_COUNT, ADAPTIVE_MAX_THREAD_COUNT,
+            KEEP_ALIVE_TIME, ADJUSTMENT_INTERVAL);
+
+        // when
+        for (int i = 0; i < FIXED_THREAD_COUNTS.length; i++) {
+            fixedPoolResults[i] = processMixedWorkload((ThreadPoolExecutor) Executors.newFixedThreadPool(FIXED_THREAD_COUNTS[i]));
+            Ln.d("Fixed pool of %d threads : %s", FIXED_THREAD_COUNTS[i], fixedPoolResults[i]);
+        }
+        WorkloadResult adaptivePoolResult = processMixedWorkload(adaptiveExecutor);
+        Ln.d("Adaptive pool of %d to %d threads : %s", MIN_THREAD_COUNT, ADAPTIVE_MAX_THREAD_COUNT, adaptivePoolResult);
+
+        // then
+        // requests wait less than with fewer threads
+        assertTrue(adaptivePoolResult.averageLatency < fixedPoolResults[0].averageLatency);
+        assertTrue(adaptivePoolResult.averageLatency < fixedPoolResults[1].averageLatency);
+        // all pools process the same requests, the adaptive pool only keeps
+        // threads when requests need them
+        WorkloadResult largestFixedPoolResult = fixedPoolResults[FIXED_THREAD_COUNTS.length - 1];
+        assertTrue(adaptivePoolResult.threadTime < largestFixedPoolResult.threadTime * MAX_ADAPTIVE_POOL_THREAD_TIME_RATIO);
+        assertEquals(ADAPTIVE_MAX_THREAD_COUNT, adaptiveExecutor.getLargestPoolSize());
+    }
+
+    // ============================================================================================
+    // PRIVATE METHODS
+    // ============================================================================================
+
+    private long executeSleepingTasks(ExecutorService executor, int taskCount, final long taskDuration) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(taskCount);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < taskCount; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(taskDuration);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(BENCHMARK_TIME_OUT, TimeUnit.MILLISECONDS));
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Process fast and slow requests with a {@link RequestProcessor} using an
+     * executor : a trickle of requests, then a burst. The size of the pool is
+     * sampled until a while after the last request completed.
+     * @return the average latency of requests and the time spent by threads
+     *         in the pool.
+     */
+    private WorkloadResult processMixedWorkload(final ThreadPoolExecutor executorService) throws InterruptedException {
+        ICacheManager mockCacheManager = EasyMock.createMock(ICacheManager.class);
+        EasyMock.replay(mockCacheManager);
+        RequestProcessor requestProcessor = new RequestProcessor(getInstrumentation().getTargetContext(), mockCacheManager,
+            executorService, new RequestProcessorListener() {
+                @Override
+                public void allRequestComplete() {
+                }
+            }, new AlwaysAvailableNetworkStateChecker());
+
+        final AtomicBoolean isSampling = new AtomicBoolean(true);
+        final AtomicLong threadTime = new AtomicLong();
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                while (isSampling.get()) {
+                    threadTime.addAndGet(executorService.getPoolSize() * POOL_SIZE_SAMPLING_INTERVAL);
+                    try {
+                        Thread.sleep(POOL_SIZE_SAMPLING_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.start();
+
+        int requestCount = TRICKLE_REQUEST_COUNT + BURST_REQUEST_COUNT;
+        CountDownLatch latch = new CountDownLatch(requestCount);
+        AtomicLong latencySum = new AtomicLong();
+        for (int i = 0; i < requestCount; i++) {
+            if (i < TRICKLE_REQUEST_COUNT) {
+                Thread.sleep(TRICKLE_REQUEST_INTERVAL);
+            }
+            long requestDuration = i % SLOW_REQUEST_FREQUENCY == 0 ? SLOW_REQUEST_DURATION : FAST_REQUEST_DURATION;
+            SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, "", requestDuration);
+            CachedSpiceRequestStub<String> request = new CachedSpiceRequestStub<String>(spiceRequest, null, DurationInMillis.NEVER);
+            RequestListener<String> requestListener = new LatencyRequestListener(latch, latencySum);
+            requestProcessor.addRequest(request, Collections.<RequestListener<?>> singleton(requestListener));
+        }
+        assertTrue(latch.await(BENCHMARK_TIME_OUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(QUIET_DURATION);
+        isSampling.set(false);
+        sampler.join();
+        executorService.shutdown();
+
+        WorkloadResult result = new WorkloadResult();
+        result.averageLatency = TimeUnit.NANOSECONDS.toMillis(latencySum.get() / requestCount);
+        result.threadTime = threadTime.get();
+        return result;
+    }
+
+    private static class WorkloadResult {
+        private long averageLatency;
+        private long threadTime;
+
+        @Override
+        public String toString() {
+            return "average latency " + averageLatency + " ms, threads alive for " + threadTime + " ms";
+        }
+    }
+
+    /** Measures the time from its creation to the end of its request. */
+    private static class LatencyRequestListener implements RequestListener<String> {
+        private final CountDownLatch latch;
+        private final AtomicLong latencySum;
+        private final long startTimeInNanos = System.nanoTime();
+
+        public LatencyRequestListener(CountDownLatch latch, AtomicLong latencySum) {
+            this.latch = latch;
+            this.latencySum = latencySum;
+        }
+
+        @Override
+        public void onRequestFailure(SpiceException spiceException) {
+            onRequestComplete();
+        }
+
+        @Override
+        public void onRequestSuccess(String result) {
+            onRequestComplete();
+        }
+
+        private void onRequestComplete() {
+            latencySum.addAndGet(System.nanoTime() - startTimeInNanos);
+            latch.countDown();
+        }
+    }
+
+    private static class AlwaysAvailableNetworkStateChecker implements NetworkStateChecker {
+        @Override
+        public boolean isNetworkAvailable(Context context) {
+            return true;
+        }
+
+        @Override
+        public void checkPermissions(Context context) {
+            // do nothing
+        }
+    }
+}
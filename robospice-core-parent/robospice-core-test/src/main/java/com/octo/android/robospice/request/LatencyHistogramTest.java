@@ -0,0 +1,93 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class LatencyHistogramTest extends InstrumentationTestCase {
+
+    private static final int VALUE_COUNT = 1000;
+    private static final int THREAD_COUNT = 4;
+    private static final long CONCURRENT_RECORD_TIME_OUT = 5000;
+    private static final double MAX_RELATIVE_ERROR = 0.125;
+
+    private LatencyHistogram latencyHistogramUnderTest;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        latencyHistogramUnderTest = new LatencyHistogram();
+    }
+
+    public void testGetValueAtPercentile_when_empty() {
+        // given
+
+        // when
+        long valueAtPercentile = latencyHistogramUnderTest.getValueAtPercentile(99);
+
+        // then
+        assertEquals(0, valueAtPercentile);
+        assertEquals(0, latencyHistogramUnderTest.getCount());
+        assertEquals(0, latencyHistogramUnderTest.getMax());
+    }
+
+    public void testGetValueAtPercentile_is_accurate_within_bucket_width() {
+        // given
+        for (int i = 1; i <= VALUE_COUNT; i++) {
+            latencyHistogramUnderTest.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        // when
+        long median = latencyHistogramUnderTest.getValueAtPercentile(50);
+        long p99 = latencyHistogramUnderTest.getValueAtPercentile(99);
+
+        // then
+        assertEquals(VALUE_COUNT, latencyHistogramUnderTest.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(VALUE_COUNT), latencyHistogramUnderTest.getMax());
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(VALUE_COUNT / 2), median, MAX_RELATIVE_ERROR * median);
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(VALUE_COUNT * 99 / 100), p99, MAX_RELATIVE_ERROR * p99);
+        assertEquals(latencyHistogramUnderTest.getMax(), latencyHistogramUnderTest.getValueAtPercentile(100));
+    }
+
+    public void testGetBucketIndex_buckets_are_contiguous() {
+        // given
+        long value = 0;
+
+        // when
+        for (int index = 0; index < 100; index++) {
+            long upperBound = LatencyHistogram.getBucketUpperBound(index);
+
+            // then
+            assertEquals(index, LatencyHistogram.getBucketIndex(value));
+            assertEquals(index, LatencyHistogram.getBucketIndex(upperBound));
+            value = upperBound + 1;
+        }
+    }
+
+    public void testRecord_from_many_threads_loses_no_value() throws InterruptedException {
+        // given
+        final CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+
+        // when
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 1; j <= VALUE_COUNT; j++) {
+                        latencyHistogramUnderTest.record(j, TimeUnit.MICROSECONDS);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await(CONCURRENT_RECORD_TIME_OUT, TimeUnit.MILLISECONDS);
+
+        // then
+        assertEquals(THREAD_COUNT * VALUE_COUNT, latencyHistogramUnderTest.getCount());
+        assertEquals(VALUE_COUNT, latencyHistogramUnderTest.getMax());
+        assertEquals(VALUE_COUNT, latencyHistogramUnderTest.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,77 @@
+package com.octo.android.robospice.request;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
+
+@SmallTest
+public class OfflineRequestQueueTest extends InstrumentationTestCase {
+
+    private static final long TEST_DEADLINE = Long.MAX_VALUE;
+    private static final int REQUEST_COUNT = 4;
+
+    private OfflineRequestQueue offlineRequestQueueUnderTest;
+    private CachedSpiceRequest<?>[] requests;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        offlineRequestQueueUnderTest = new OfflineRequestQueue();
+        requests = new CachedSpiceRequest<?>[REQUEST_COUNT];
+        for (int i = 0; i < requests.length; i++) {
+            SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, "");
+            requests[i] = new CachedSpiceRequest<String>(spiceRequest, "key" + i, DurationInMillis.ONE_SECOND);
+            requests[i].setPriority(SpiceRequest.PRIORITY_LOW);
+        }
+    }
+
+    public void testPoll_returns_requests_by_priority_then_parking_order() {
+        // given
+        requests[2].setPriority(SpiceRequest.PRIORITY_HIGH);
+        park(requests);
+
+        // when
+
+        // then
+        assertPollOrder(requests[2], requests[0], requests[1], requests[3]);
+    }
+
+    public void testPromote_parked_request_is_replayed_first() {
+        // given
+        park(requests);
+
+        // when
+        requests[3].setPriority(SpiceRequest.PRIORITY_HIGH);
+        offlineRequestQueueUnderTest.promote(requests[3], SpiceRequest.PRIORITY_HIGH);
+
+        // then
+        assertPollOrder(requests[3], requests[0], requests[1], requests[2]);
+    }
+
+    public void testPoll_order_is_kept_when_priority_changes_while_parked() {
+        // given
+        park(requests);
+
+        // when
+        requests[1].setPriority(SpiceRequest.PRIORITY_HIGH);
+        requests[3].setPriority(SpiceRequest.PRIORITY_HIGH);
+
+        // then
+        assertPollOrder(requests);
+    }
+
+    private void park(final CachedSpiceRequest<?>... requestsToPark) {
+        for (final CachedSpiceRequest<?> request : requestsToPark) {
+            offlineRequestQueueUnderTest.park(request, null, null, TEST_DEADLINE);
+        }
+    }
+
+    private void assertPollOrder(final CachedSpiceRequest<?>... expectedRequests) {
+        for (final CachedSpiceRequest<?> expectedRequest : expectedRequests) {
+            assertSame(expectedRequest, offlineRequestQueueUnderTest.poll().getRequest());
+        }
+        assertNull(offlineRequestQueueUnderTest.poll());
+    }
+}
@@ -0,0 +1,356 @@
+package com.octo.android.robospice.request;
+
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.stub.RequestListenerStub;
+import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
+
+@LargeTest
+public class RequestListenerRegistryTest extends InstrumentationTestCase {
+
+    private static final int THREAD_COUNT = 8;
+    private static final int OPERATION_COUNT_PER_THREAD = 5000;
+    private static final int CACHE_KEY_COUNT = 16;
+    private static final int REQUEST_COUNT_PER_CACHE_KEY = 4;
+    private static final long STRESS_TIME_OUT = 60000;
+
+    private CachedSpiceRequest<?>[] requests;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // several equal but distinct requests per cache key, as when
+        // different activities send the same request.
+        requests = new CachedSpiceRequest<?>[CACHE_KEY_COUNT * REQUEST_COUNT_PER_CACHE_KEY];
+        for (int i = 0; i < requests.length; i++) {
+            SpiceRequestSucceedingStub<String> spiceRequest = new SpiceRequestSucceedingStub<String>(String.class, "");
+            requests[i] = new CachedSpiceRequest<String>(spiceRequest, "key" + i % CACHE_KEY_COUNT, DurationInMillis.ONE_SECOND);
+        }
+    }
+
+    public void testRegister_new_request() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener = new RequestListenerStub<String>();
+
+        // when
+        boolean isNew = registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener));
+
+        // then
+        assertTrue(isNew);
+        assertTrue(registry.getListeners(requests[0]).contains(listener));
+    }
+
+    public void testRegister_equal_request_is_aggregated() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+
+        // when
+        boolean isNew = registry.register(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener2));
+
+        // then
+        assertFalse(isNew);
+        assertEquals(1, registry.size());
+        assertEquals(2, registry.getListeners(requests[0]).size());
+    }
+
+    public void testUnregister_returns_all_listeners_and_closes_request() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+        registry.register(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener2));
+
+        // when
+        Set<RequestListener<?>> listeners = registry.unregister(requests[0]);
+        boolean isNew = registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+
+        // then
+        assertEquals(2, listeners.size());
+        assertTrue(isNew);
+    }
+
+    public void testUnregister_twice_returns_listeners_once() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener));
+
+        // when
+        Set<RequestListener<?>> firstListeners = registry.unregister(requests[0]);
+        Set<RequestListener<?>> secondListeners = registry.unregister(requests[0]);
+
+        // then
+        assertEquals(1, firstListeners.size());
+        assertNull(secondListeners);
+    }
+
+    public void testUnregister_completed_request_leaves_equal_request_registered() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+        registry.unregister(requests[0]);
+        registry.register(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener2));
+
+        // when
+        Set<RequestListener<?>> listeners = registry.unregister(requests[0]);
+
+        // then
+        assertNull(listeners);
+        assertTrue(registry.getListeners(requests[CACHE_KEY_COUNT]).contains(listener2));
+    }
+
+    public void testRemoveListeners_removes_listeners_from_live_set() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener2));
+        Set<RequestListener<?>> listeners = registry.getListeners(requests[0]);
+
+        // when
+        int listenerLeftCount = registry.removeListeners(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+
+        // then
+        assertEquals(1, listenerLeftCount);
+        assertFalse(listeners.contains(listener1));
+    }
+
+    public void testRemoveListeners_removes_listeners_of_completed_request_until_delivered() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+        registry.register(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener2));
+        Set<RequestListener<?>> listeners = registry.unregister(requests[0]);
+
+        // when
+        int listenerLeftCount = registry.removeListeners(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener1));
+
+        // then
+        assertEquals(-1, listenerLeftCount);
+        assertEquals(1, listeners.size());
+        assertFalse(listeners.contains(listener1));
+    }
+
+    public void testDelivered_forgets_listeners_of_completed_request() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener));
+        Set<RequestListener<?>> listeners = registry.unregister(requests[0]);
+
+        // when
+        registry.delivered(requests[0], listeners);
+        registry.removeListeners(requests[0], Collections.<RequestListener<?>> singleton(listener));
+
+        // then
+        assertEquals(0, registry.getUndeliveredCount());
+        assertTrue(listeners.contains(listener));
+    }
+
+    public void testDelivered_keeps_listeners_of_equal_completed_request_removable() {
+        // given
+        RequestListenerRegistry registry = new RequestListenerRegistry();
+        RequestListener<?> listener1 = new RequestListenerStub<String>();
+        RequestListener<?> listener2 = new RequestListenerStub<String>();
+        registry.register(requests[0], Collections.<RequestListener<?>> singleton(listener1));
+        Set<RequestListener<?>> listeners1 = registry.unregister(requests[0]);
+        registry.register(requests[CACHE_KEY_COUNT], Collections.<RequestListener<?>> singleton(listener2));
+        Set<RequestListener<?>> listeners2 = registry.unregister(requests[CACHE_KEY_COUNT]);
+
+        // when
+        registry.delivered(requests[0], listeners1);
+        registry.removeListeners(requests[0], Collections.<RequestListener<?>> singleton(listener2));
+
+        // then
+        assertEquals(1, registry.getUndeliveredCount());
+        assertTrue(listeners2.isEmpty());
+    }
+
+    public void testStress_no_listener_is_lost_and_throughput_against_synchronized_map() throws InterruptedException {
+        // given
+        RegistryUnderStress synchronizedMapRegistry = new SynchronizedMapRegistry();
+        RegistryUnderStress concurrentRegistry = new ConcurrentRegistry();
+
+        // when
+        StressResult synchronizedMapResult = stress(synchronizedMapRegistry);
+        StressResult concurrentResult = stress(concurrentRegistry);
+
+        // then
+        Ln.d("Synchronized map registry : %d ops/ms, %d listeners registered, %d notified", synchronizedMapResult.getThroughput(),
+            synchronizedMapResult.registeredListenerCount, synchronizedMapResult.notifiedListenerCount);
+        Ln.d("Concurrent registry : %d ops/ms, %d listeners registered, %d notified", concurrentResult.getThroughput(),
+            concurrentResult.registeredListenerCount, concurrentResult.notifiedListenerCount);
+        assertTrue(concurrentResult.isCompleted);
+        assertEquals(concurrentResult.registeredListenerCount, concurrentResult.notifiedListenerCount);
+    }
+
+    // ============================================================================================
+    // PRIVATE METHODS
+    // ============================================================================================
+
+    private StressResult stress(final RegistryUnderStress registry) throws InterruptedException {
+        final StressResult result = new StressResult();
+        final AtomicLong registeredListenerCount = new AtomicLong();
+        final AtomicLong notifiedListenerCount = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(THREAD_COUNT);
+
+        for (int threadIndex = 0; threadIndex < THREAD_COUNT; threadIndex++) {
+            final Random random = new Random(threadIndex);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < OPERATION_COUNT_PER_THREAD; i++) {
+                            CachedSpiceRequest<?> request = requests[random.nextInt(requests.length)];
+                            Set<RequestListener<?>> listeners = Collections.<RequestListener<?>> singleton(new RequestListenerStub<String>());
+                            registeredListenerCount.incrementAndGet();
+                            boolean isNew = registry.register(request, listeners);
+                            // like a progress notification
+                            registry.iterate(request);
+                            if (isNew) {
+                                // like a request completion
+                                notifiedListenerCount.addAndGet(registry.unregister(request));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Ln.e(e, "Interrupted while stressing registry.");
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+        result.isCompleted = endLatch.await(STRESS_TIME_OUT, TimeUnit.MILLISECONDS);
+        result.durationInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // leftovers whose owner completed before aggregation
+        for (CachedSpiceRequest<?> request : requests) {
+            notifiedListenerCount.addAndGet(registry.unregister(request));
+        }
+        result.registeredListenerCount = registeredListenerCount.get();
+        result.notifiedListenerCount = notifiedListenerCount.get();
+        return result;
+    }
+
+    private static class StressResult {
+        private boolean isCompleted;
+        private long durationInMillis;
+        private long registeredListenerCount;
+        private long notifiedListenerCount;
+
+        public long getThroughput() {
+            return THREAD_COUNT * OPERATION_COUNT_PER_THREAD / Math.max(1, durationInMillis);
+        }
+    }
+
+    private interface RegistryUnderStress {
+        boolean register(CachedSpiceRequest<?> request, Set<RequestListener<?>> listeners);
+
+        void iterate(CachedSpiceRequest<?> request);
+
+        int unregister(CachedSpiceRequest<?> request);
+    }
+
+    private static class ConcurrentRegistry implements RegistryUnderStress {
+        private final RequestListenerRegistry registry = new RequestListenerRegistry();
+
+        @Override
+        public boolean register(CachedSpiceRequest<?> request, Set<RequestListener<?>> listeners) {
+            return registry.register(request, listeners);
+        }
+
+        @Override
+        public void iterate(CachedSpiceRequest<?> request) {
+            Set<RequestListener<?>> listeners = registry.getListeners(request);
+            if (listeners != null) {
+                for (RequestListener<?> listener : listeners) {
+                    listener.getClass();
+                }
+            }
+        }
+
+        @Override
+        public int unregister(CachedSpiceRequest<?> request) {
+            Set<RequestListener<?>> listeners = registry.unregister(request);
+            if (listeners == null) {
+                return 0;
+            }
+            // like the delivery of the result
+            registry.delivered(request, listeners);
+            return listeners.size();
+        }
+    }
+
+    /** Mimics the former implementation of the {@link RequestProcessor}. */
+    private static class SynchronizedMapRegistry implements RegistryUnderStress {
+        private final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> mapRequestToRequestListener = Collections
+            .synchronizedMap(new LinkedHashMap<CachedSpiceRequest<?>, Set<RequestListener<?>>>());
+
+        @Override
+        public boolean register(CachedSpiceRequest<?> request, Set<RequestListener<?>> listeners) {
+            boolean isNew = false;
+            Set<RequestListener<?>> listRequestListenerForThisRequest = mapRequestToRequestListener.get(request);
+            if (listRequestListenerForThisRequest == null) {
+                listRequestListenerForThisRequest = new HashSet<RequestListener<?>>();
+                mapRequestToRequestListener.put(request, listRequestListenerForThisRequest);
+                isNew = true;
+            }
+            try {
+                listRequestListenerForThisRequest.addAll(listeners);
+            } catch (ConcurrentModificationException e) {
+                Ln.v("Listener lost by synchronized map registry.");
+            }
+            return isNew;
+        }
+
+        @Override
+        public void iterate(CachedSpiceRequest<?> request) {
+            Set<RequestListener<?>> listeners = mapRequestToRequestListener.get(request);
+            if (listeners != null) {
+                try {
+                    for (RequestListener<?> listener : listeners) {
+                        listener.getClass();
+                    }
+                } catch (ConcurrentModificationException e) {
+                    Ln.v("Concurrent modification in synchronized map registry.");
+                }
+            }
+        }
+
+        @Override
+        public int unregister(CachedSpiceRequest<?> request) {
+            Set<RequestListener<?>> listeners = mapRequestToRequestListener.remove(request);
+            return listeners == null ? 0 : listeners.size();
+        }
+    }
+}
@@ -1,27 +1,50 @@
 package com.octo.android.robospice.request;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 
+import roboguice.util.temp.Ln;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.test.InstrumentationTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.octo.android.robospice.SpiceServiceCircuitBreakerListener;
+import com.octo.android.robospice.SpiceServiceServiceListener;
+import com.octo.android.robospice.SpiceServiceTimingListener;
+import com.octo.android.robospice.exception.CircuitBreakerOpenException;
+import com.octo.android.robospice.exception.NoNetworkException;
 import com.octo.android.robospice.exception.RequestCancelledException;
+import com.octo.android.robospice.exception.RequestTimeoutException;
 import com.octo.android.robospice.networkstate.NetworkStateChecker;
 import com.octo.android.robospice.persistence.DurationInMillis;
 import com.octo.android.robospice.persistence.ICacheManager;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
+import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.request.RequestTiming.Phase;
 import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.request.listener.RequestProgress;
+import com.octo.android.robospice.retry.DefaultRetryPolicy;
 import com.octo.android.robospice.stub.CachedSpiceRequestStub;
 import com.octo.android.robospice.stub.RequestListenerStub;
 import com.octo.android.robospice.stub.RequestListenerWithProgressStub;
 import com.octo.android.robospice.stub.SpiceRequestFailingStub;
+import com.octo.android.robospice.stub.SpiceRequestFailingThenSucceedingStub;
+import com.octo.android.robospice.stub.SpiceRequestProgressStub;
 import com.octo.android.robospice.stub.SpiceRequestStub;
 import com.octo.android.robospice.stub.SpiceRequestSucceedingStub;
 
@@ -35,6 +58,22 @@ public class RequestProcessorTest extends InstrumentationTestCase {
     private static final String TEST_RETURNED_DATA = "coucou";
     private static final long REQUEST_COMPLETION_TIME_OUT = 4000;
     private static final long WAIT_BEFORE_REQUEST_EXECUTION = 1000;
+    private static final long WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION = 500;
+    private static final int LOW_PRIORITY_REQUEST_COUNT = 5;
+    private static final int PARALLEL_DOWNLOAD_COUNT = 4;
+    private static final String TEST_STALE_DATA = "stale coucou";
+    private static final long TEST_MAX_STALENESS = DurationInMillis.ONE_DAY;
+    private static final int PROGRESS_UPDATE_COUNT = 1000;
+    private static final long TEST_REQUEST_TIMEOUT = 300;
+    private static final int PREFETCH_REQUEST_COUNT = 3;
+    private static final int RETRY_MAX_ATTEMPT_COUNT = 3;
+    private static final long RETRY_INITIAL_DELAY = 100;
+    private static final int CIRCUIT_BREAKER_WINDOW_SIZE = 4;
+    private static final long CIRCUIT_BREAKER_OPEN_DURATION = 300;
+    private static final long OFFLINE_MAX_PARK_TIME = 500;
+    private static final int OFFLINE_MAX_REPLAY_RATE = 20;
+    private static final long OFFLINE_NETWORK_CHECK_INTERVAL = 50;
+    private static final long TIMED_REQUEST_NETWORK_DURATION = 200;
 
     private ICacheManager mockCacheManager;
     private RequestProcessor requestProcessorUnderTest;
@@ -416,6 +455,94 @@ public class RequestProcessorTest extends InstrumentationTestCase {
         assertTrue(requestListenerStub2.isComplete());
     }
 
+    public void test_dontNotifyRequestListenersForRequest_after_completion_and_before_notification() throws InterruptedException,
+        CacheLoadingException, CacheSavingException {
+        // given
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        RequestListenerWithProgressStub<String> requestListenerStub = new RequestListenerWithProgressStub<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListenerStub);
+
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andReturn(
+            TEST_RETURNED_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        final CountDownLatch requestProcessedLatch = new CountDownLatch(1);
+        requestProcessorUnderTest.addSpiceServiceListener(new SpiceServiceServiceListener() {
+            @Override
+            public void onRequestProcessed(CachedSpiceRequest<?> cachedSpiceRequest) {
+                requestProcessedLatch.countDown();
+            }
+        });
+        // the result waits for the main thread, as when it is busy
+        final CountDownLatch mainThreadLatch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mainThreadLatch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        assertTrue(requestProcessedLatch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+        requestProcessorUnderTest.dontNotifyRequestListenersForRequest(stubRequest, requestListenerSet);
+        mainThreadLatch.countDown();
+        getInstrumentation().waitForIdleSync();
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(stubRequest.isLoadDataFromNetworkCalled());
+        assertNull(requestListenerStub.isSuccessful());
+        assertFalse(requestListenerStub.isComplete());
+    }
+
+    public void test_dontNotifyRequestListenersForRequest_right_after_addRequest_skips_initial_progress() throws InterruptedException {
+        // given
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        ProgressRecordingRequestListener<String> requestListenerStub = new ProgressRecordingRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListenerStub);
+        EasyMock.replay(mockCacheManager);
+
+        final CountDownLatch requestProcessedLatch = new CountDownLatch(1);
+        requestProcessorUnderTest.addSpiceServiceListener(new SpiceServiceServiceListener() {
+            @Override
+            public void onRequestProcessed(CachedSpiceRequest<?> cachedSpiceRequest) {
+                requestProcessedLatch.countDown();
+            }
+        });
+        // the initial progress waits for the main thread, as when it is busy
+        final CountDownLatch mainThreadLatch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mainThreadLatch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        requestProcessorUnderTest.dontNotifyRequestListenersForRequest(stubRequest, requestListenerSet);
+        assertTrue(requestProcessedLatch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+        mainThreadLatch.countDown();
+        getInstrumentation().waitForIdleSync();
+
+        // then
+        assertTrue(requestListenerStub.getProgresses().isEmpty());
+        assertNull(requestListenerStub.isSuccessful());
+    }
+
     // ============================================================================================
     // DO NOT NOTIFY LISTENERS
     // ============================================================================================
@@ -456,10 +583,670 @@ public class RequestProcessorTest extends InstrumentationTestCase {
         assertTrue(requestListenerStub2.isComplete());
     }
 
+    // ============================================================================================
+    // TESTING PRIORITIES
+    // ============================================================================================
+    public void testAddRequest_high_priority_request_latency_is_bounded_on_saturated_pool() throws InterruptedException {
+        // given
+        // cache is not used
+        EasyMock.replay(mockCacheManager);
+
+        // saturates the single worker thread
+        CachedSpiceRequestStub<String> blockingRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        requestProcessorUnderTest.addRequest(blockingRequest, new HashSet<RequestListener<?>>());
+
+        RequestListenerStub<String> lastLowPriorityRequestListener = null;
+        for (int i = 0; i < LOW_PRIORITY_REQUEST_COUNT; i++) {
+            CachedSpiceRequestStub<String> lowPriorityRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+                WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+            lowPriorityRequest.setPriority(SpiceRequest.PRIORITY_LOW);
+            lastLowPriorityRequestListener = new RequestListenerStub<String>();
+            Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+            requestListenerSet.add(lastLowPriorityRequestListener);
+            requestProcessorUnderTest.addRequest(lowPriorityRequest, requestListenerSet);
+        }
+
+        CachedSpiceRequestStub<String> highPriorityRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        highPriorityRequest.setPriority(SpiceRequest.PRIORITY_HIGH);
+        TimedRequestListener<String> highPriorityRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(highPriorityRequestListener);
+
+        // when
+        long submissionTime = System.currentTimeMillis();
+        requestProcessorUnderTest.addRequest(highPriorityRequest, requestListenerSet);
+        highPriorityRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        // the high priority request only waits for the request already
+        // running, not for the low priority requests queued before it.
+        assertTrue(highPriorityRequestListener.isSuccessful());
+        assertTrue(highPriorityRequestListener.getCompletionTime() - submissionTime < 2 * WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        assertNull(lastLowPriorityRequestListener.isSuccessful());
+    }
+
+    public void testAddRequest_aggregated_request_is_promoted_by_high_priority_listener() throws InterruptedException, CacheLoadingException,
+        CacheSavingException {
+        // given
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andReturn(
+            TEST_RETURNED_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        CachedSpiceRequestStub<String> blockingRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        requestProcessorUnderTest.addRequest(blockingRequest, new HashSet<RequestListener<?>>());
+
+        RequestListenerStub<String> lastLowPriorityRequestListener = null;
+        for (int i = 0; i < LOW_PRIORITY_REQUEST_COUNT; i++) {
+            CachedSpiceRequestStub<String> lowPriorityRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+                WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+            lowPriorityRequest.setPriority(SpiceRequest.PRIORITY_LOW);
+            lastLowPriorityRequestListener = new RequestListenerStub<String>();
+            Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+            requestListenerSet.add(lastLowPriorityRequestListener);
+            requestProcessorUnderTest.addRequest(lowPriorityRequest, requestListenerSet);
+        }
+
+        // a low priority request with a cache key, queued after all others
+        CachedSpiceRequestStub<String> aggregatedRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        aggregatedRequest.setPriority(SpiceRequest.PRIORITY_LOW);
+        requestProcessorUnderTest.addRequest(aggregatedRequest, new HashSet<RequestListener<?>>());
+
+        CachedSpiceRequestStub<String> highPriorityRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        highPriorityRequest.setPriority(SpiceRequest.PRIORITY_HIGH);
+        TimedRequestListener<String> highPriorityRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(highPriorityRequestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(highPriorityRequest, requestListenerSet);
+        highPriorityRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(aggregatedRequest.isLoadDataFromNetworkCalled());
+        assertFalse(highPriorityRequest.isLoadDataFromNetworkCalled());
+        assertEquals(SpiceRequest.PRIORITY_HIGH, aggregatedRequest.getPriority());
+        assertTrue(highPriorityRequestListener.isSuccessful());
+        assertNull(lastLowPriorityRequestListener.isSuccessful());
+    }
+
+    public void testAddRequests_most_urgent_request_of_batch_is_processed_first() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+
+        CachedSpiceRequestStub<String> lowPriorityRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        lowPriorityRequest.setPriority(SpiceRequest.PRIORITY_LOW);
+        TimedRequestListener<String> lowPriorityRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> lowPriorityRequestListenerSet = new HashSet<RequestListener<?>>();
+        lowPriorityRequestListenerSet.add(lowPriorityRequestListener);
+
+        CachedSpiceRequestStub<String> highPriorityRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        highPriorityRequest.setPriority(SpiceRequest.PRIORITY_HIGH);
+        TimedRequestListener<String> highPriorityRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> highPriorityRequestListenerSet = new HashSet<RequestListener<?>>();
+        highPriorityRequestListenerSet.add(highPriorityRequestListener);
+
+        List<CachedSpiceRequest<?>> requests = new ArrayList<CachedSpiceRequest<?>>();
+        requests.add(lowPriorityRequest);
+        requests.add(highPriorityRequest);
+        List<Set<RequestListener<?>>> listRequestListeners = new ArrayList<Set<RequestListener<?>>>();
+        listRequestListeners.add(lowPriorityRequestListenerSet);
+        listRequestListeners.add(highPriorityRequestListenerSet);
+
+        // when
+        requestProcessorUnderTest.addRequests(requests, listRequestListeners);
+        lowPriorityRequestListener.await(WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION + REQUEST_COMPLETION_TIME_OUT);
+        highPriorityRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(lowPriorityRequestListener.isSuccessful());
+        assertTrue(highPriorityRequestListener.isSuccessful());
+        // the request added first didn't take the only worker thread
+        assertTrue(highPriorityRequestListener.getCompletionTime() < lowPriorityRequestListener.getCompletionTime());
+    }
+
+    // ============================================================================================
+    // TESTING PREFETCH
+    // ============================================================================================
+    public void testAddRequest_foreground_request_joins_running_prefetch() throws InterruptedException, CacheLoadingException,
+        CacheSavingException {
+        // given
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andReturn(
+            TEST_RETURNED_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        CachedSpiceRequestStub<String> prefetchRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA,
+            WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        prefetchRequest.setPriority(SpiceRequest.PRIORITY_PREFETCH);
+        requestProcessorUnderTest.addRequest(prefetchRequest, new HashSet<RequestListener<?>>());
+        prefetchRequest.await(REQUEST_COMPLETION_TIME_OUT);
+
+        CachedSpiceRequestStub<String> foregroundRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(foregroundRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(prefetchRequest.isLoadDataFromNetworkCalled());
+        assertFalse(foregroundRequest.isLoadDataFromNetworkCalled());
+        assertEquals(SpiceRequest.PRIORITY_NORMAL, prefetchRequest.getPriority());
+        assertTrue(requestListener.isSuccessful());
+    }
+
+    public void testAddRequest_prefetch_requests_run_one_at_a_time_after_foreground_requests() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest = new RequestProcessor(getInstrumentation().getTargetContext(), mockCacheManager,
+            Executors.newFixedThreadPool(PARALLEL_DOWNLOAD_COUNT), requestProcessorListener, networkStateChecker);
+        ConcurrencyRecordingRequest.reset();
+        CountDownLatch latch = new CountDownLatch(PREFETCH_REQUEST_COUNT);
+        CountingRequestListener prefetchRequestListener = new CountingRequestListener(latch);
+        for (int i = 0; i < PREFETCH_REQUEST_COUNT; i++) {
+            CachedSpiceRequest<String> prefetchRequest = new CachedSpiceRequest<String>(new ConcurrencyRecordingRequest(), null, TEST_DURATION);
+            prefetchRequest.setPriority(SpiceRequest.PRIORITY_PREFETCH);
+            requestProcessorUnderTest.addRequest(prefetchRequest, Collections.<RequestListener<?>> singleton(prefetchRequestListener));
+        }
+        CachedSpiceRequestStub<String> foregroundRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        TimedRequestListener<String> foregroundRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(foregroundRequestListener);
+
+        // when
+        long submissionTime = System.currentTimeMillis();
+        requestProcessorUnderTest.addRequest(foregroundRequest, requestListenerSet);
+        foregroundRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        assertTrue(latch.await(REQUEST_COMPLETION_TIME_OUT, TimeUnit.MILLISECONDS));
+
+        // then
+        // the foreground request uses a thread left free by prefetches
+        assertTrue(foregroundRequestListener.isSuccessful());
+        assertTrue(foregroundRequestListener.getCompletionTime() - submissionTime < WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+        assertEquals(1, ConcurrencyRecordingRequest.getMaxConcurrentExecutionCount());
+    }
+
+    // ============================================================================================
+    // TESTING RETRIES
+    // ============================================================================================
+    public void testAddRequest_failed_network_call_is_retried_until_it_succeeds() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, RETRY_MAX_ATTEMPT_COUNT - 1);
+        CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(spiceRequestStub, null, TEST_DURATION);
+        stubRequest.setRetryPolicy(new DefaultRetryPolicy(RETRY_MAX_ATTEMPT_COUNT, RETRY_INITIAL_DELAY, 1));
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        long submissionTime = System.currentTimeMillis();
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(requestListener.isSuccessful());
+        assertEquals(RETRY_MAX_ATTEMPT_COUNT, spiceRequestStub.getAttemptCount());
+        // with jitter, each delay is at least half of the initial delay
+        assertTrue(requestListener.getCompletionTime() - submissionTime >= (RETRY_MAX_ATTEMPT_COUNT - 1) * RETRY_INITIAL_DELAY / 2);
+    }
+
+    public void testAddRequest_failed_network_call_fails_after_max_attempt_count() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, RETRY_MAX_ATTEMPT_COUNT);
+        CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(spiceRequestStub, null, TEST_DURATION);
+        stubRequest.setRetryPolicy(new DefaultRetryPolicy(RETRY_MAX_ATTEMPT_COUNT, RETRY_INITIAL_DELAY, 1));
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertFalse(requestListener.isSuccessful());
+        assertEquals(RETRY_MAX_ATTEMPT_COUNT, spiceRequestStub.getAttemptCount());
+    }
+
+    public void testAddRequest_cancelled_request_is_not_retried() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, RETRY_MAX_ATTEMPT_COUNT);
+        CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(spiceRequestStub, null, TEST_DURATION);
+        stubRequest.setRetryPolicy(new DefaultRetryPolicy(RETRY_MAX_ATTEMPT_COUNT, REQUEST_COMPLETION_TIME_OUT / 2, 1));
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        stubRequest.await(REQUEST_COMPLETION_TIME_OUT);
+        stubRequest.cancel();
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        Thread.sleep(REQUEST_COMPLETION_TIME_OUT / 2);
+
+        // then
+        assertTrue(requestListener.getReceivedException() instanceof RequestCancelledException);
+        assertEquals(1, spiceRequestStub.getAttemptCount());
+    }
+
+    // ============================================================================================
+    // TESTING CIRCUIT BREAKERS
+    // ============================================================================================
+    public void testAddRequest_circuit_breaker_opens_after_failures_and_fails_fast() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setCircuitBreakerPolicy(createCircuitBreakerPolicy());
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, CIRCUIT_BREAKER_WINDOW_SIZE);
+        CircuitBreakerStateRecorder circuitBreakerStateRecorder = new CircuitBreakerStateRecorder();
+        requestProcessorUnderTest.addSpiceServiceListener(circuitBreakerStateRecorder);
+
+        // when
+        for (int i = 0; i < CIRCUIT_BREAKER_WINDOW_SIZE; i++) {
+            assertFalse(executeAndWait(spiceRequestStub).isSuccessful());
+        }
+        TimedRequestListener<String> requestListener = executeAndWait(spiceRequestStub);
+
+        // then
+        assertTrue(requestListener.getReceivedException() instanceof CircuitBreakerOpenException);
+        assertEquals(CIRCUIT_BREAKER_WINDOW_SIZE, spiceRequestStub.getAttemptCount());
+        assertEquals(CircuitBreakerState.OPEN, requestProcessorUnderTest.getCircuitBreakerStates().get(spiceRequestStub.getEndpointId()));
+        assertEquals(Collections.singletonList(CircuitBreakerState.OPEN), circuitBreakerStateRecorder.getStates());
+    }
+
+    public void testAddRequest_circuit_breaker_closes_after_successful_probe() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setCircuitBreakerPolicy(createCircuitBreakerPolicy());
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, CIRCUIT_BREAKER_WINDOW_SIZE);
+        CircuitBreakerStateRecorder circuitBreakerStateRecorder = new CircuitBreakerStateRecorder();
+        requestProcessorUnderTest.addSpiceServiceListener(circuitBreakerStateRecorder);
+        for (int i = 0; i < CIRCUIT_BREAKER_WINDOW_SIZE; i++) {
+            executeAndWait(spiceRequestStub);
+        }
+
+        // when
+        Thread.sleep(CIRCUIT_BREAKER_OPEN_DURATION * 2);
+        TimedRequestListener<String> requestListener = executeAndWait(spiceRequestStub);
+
+        // then
+        assertTrue(requestListener.isSuccessful());
+        assertEquals(CIRCUIT_BREAKER_WINDOW_SIZE + 1, spiceRequestStub.getAttemptCount());
+        assertEquals(CircuitBreakerState.CLOSED, requestProcessorUnderTest.getCircuitBreakerStates().get(spiceRequestStub.getEndpointId()));
+        assertEquals(Arrays.asList(CircuitBreakerState.OPEN, CircuitBreakerState.HALF_OPEN, CircuitBreakerState.CLOSED),
+            circuitBreakerStateRecorder.getStates());
+    }
+
+    public void testAddRequest_circuit_breakers_are_separate_for_each_endpoint() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setCircuitBreakerPolicy(createCircuitBreakerPolicy());
+        SpiceRequestFailingThenSucceedingStub<String> failingRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, CIRCUIT_BREAKER_WINDOW_SIZE);
+        failingRequestStub.setEndpointId(TEST_CACHE_KEY);
+        SpiceRequestFailingThenSucceedingStub<String> succeedingRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, 0);
+        succeedingRequestStub.setEndpointId(TEST_CACHE_KEY2);
+        for (int i = 0; i < CIRCUIT_BREAKER_WINDOW_SIZE; i++) {
+            executeAndWait(failingRequestStub);
+        }
+
+        // when
+        TimedRequestListener<String> requestListener = executeAndWait(succeedingRequestStub);
+
+        // then
+        assertTrue(requestListener.isSuccessful());
+        assertEquals(CircuitBreakerState.OPEN, requestProcessorUnderTest.getCircuitBreakerStates().get(TEST_CACHE_KEY));
+        assertEquals(CircuitBreakerState.CLOSED, requestProcessorUnderTest.getCircuitBreakerStates().get(TEST_CACHE_KEY2));
+    }
+
+    // ============================================================================================
+    // TESTING TIMEOUTS
+    // ============================================================================================
+    public void testAddRequest_hung_request_times_out() throws InterruptedException {
+        // given
+        // cache is not used
+        EasyMock.replay(mockCacheManager);
+        CachedSpiceRequestStub<String> hungRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            REQUEST_COMPLETION_TIME_OUT * 2);
+        hungRequest.setTimeout(TEST_REQUEST_TIMEOUT);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        long submissionTime = System.currentTimeMillis();
+        requestProcessorUnderTest.addRequest(hungRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(hungRequest.isLoadDataFromNetworkCalled());
+        assertFalse(requestListener.isSuccessful());
+        assertTrue(requestListener.getReceivedException() instanceof RequestTimeoutException);
+        assertTrue(requestListener.getCompletionTime() - submissionTime < REQUEST_COMPLETION_TIME_OUT);
+    }
+
+    public void testAddRequest_queued_request_past_its_deadline_is_not_processed() throws InterruptedException {
+        // given
+        // cache is not used
+        EasyMock.replay(mockCacheManager);
+        // saturates the single worker thread beyond the deadline
+        CachedSpiceRequestStub<String> blockingRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            TEST_REQUEST_TIMEOUT * 2);
+        TimedRequestListener<String> blockingRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> blockingRequestListenerSet = new HashSet<RequestListener<?>>();
+        blockingRequestListenerSet.add(blockingRequestListener);
+        requestProcessorUnderTest.addRequest(blockingRequest, blockingRequestListenerSet);
+
+        CachedSpiceRequestStub<String> queuedRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        queuedRequest.setTimeout(TEST_REQUEST_TIMEOUT);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(queuedRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        blockingRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(requestListener.getReceivedException() instanceof RequestTimeoutException);
+        assertTrue(blockingRequestListener.isSuccessful());
+        assertFalse(queuedRequest.isLoadDataFromNetworkCalled());
+    }
+
+    public void testAddRequest_default_timeout_doesnt_apply_to_requests_without_timeout() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setDefaultTimeout(TEST_REQUEST_TIMEOUT);
+        CachedSpiceRequestStub<String> slowRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            TEST_REQUEST_TIMEOUT * 2);
+        slowRequest.setTimeout(SpiceRequest.TIMEOUT_NONE);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(slowRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(requestListener.isSuccessful());
+    }
+
+    // ============================================================================================
+    // TESTING STAGED PROCESSING
+    // ============================================================================================
+    public void testAddRequest_slow_cache_write_doesnt_block_network_stage() throws CacheLoadingException, CacheSavingException,
+        InterruptedException {
+        // given
+        RequestProcessor stagedRequestProcessor = new RequestProcessor(getInstrumentation().getTargetContext(), mockCacheManager,
+            Executors.newSingleThreadExecutor(), Executors.newSingleThreadExecutor(), Executors.newSingleThreadExecutor(),
+            requestProcessorListener, networkStateChecker);
+
+        CachedSpiceRequestStub<String> cachedRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        CachedSpiceRequestStub<String> networkOnlyRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+
+        TimedRequestListener<String> cachedRequestListener = new TimedRequestListener<String>();
+        TimedRequestListener<String> networkOnlyRequestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> cachedRequestListenerSet = new HashSet<RequestListener<?>>();
+        cachedRequestListenerSet.add(cachedRequestListener);
+        Set<RequestListener<?>> networkOnlyRequestListenerSet = new HashSet<RequestListener<?>>();
+        networkOnlyRequestListenerSet.add(networkOnlyRequestListener);
+
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andAnswer(
+            new IAnswer<String>() {
+                @Override
+                public String answer() throws Throwable {
+                    // a slow disk
+                    Thread.sleep(WAIT_BEFORE_REQUEST_EXECUTION);
+                    return TEST_RETURNED_DATA;
+                }
+            });
+        EasyMock.replay(mockCacheManager);
+
+        // when
+        stagedRequestProcessor.addRequest(cachedRequest, cachedRequestListenerSet);
+        stagedRequestProcessor.addRequest(networkOnlyRequest, networkOnlyRequestListenerSet);
+        cachedRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        networkOnlyRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(cachedRequestListener.isSuccessful());
+        assertTrue(networkOnlyRequestListener.isSuccessful());
+        assertTrue(networkOnlyRequestListener.getCompletionTime() < cachedRequestListener.getCompletionTime());
+    }
+
+    public void testGetStageStatistics_reports_all_stages() {
+        // given
+        RequestProcessor stagedRequestProcessor = new RequestProcessor(getInstrumentation().getTargetContext(), mockCacheManager,
+            Executors.newFixedThreadPool(2), Executors.newFixedThreadPool(1), null, requestProcessorListener, networkStateChecker);
+
+        // when
+        List<StageStatistics> stageStatistics = stagedRequestProcessor.getStageStatistics();
+
+        // then
+        assertEquals(4, stageStatistics.size());
+        assertEquals(RequestProcessor.STAGE_CACHE, stageStatistics.get(0).getStageName());
+        assertEquals(1, stageStatistics.get(0).getMaximumPoolSize());
+        assertEquals(RequestProcessor.STAGE_NETWORK, stageStatistics.get(1).getStageName());
+        assertEquals(2, stageStatistics.get(1).getMaximumPoolSize());
+        // persist stage shares the network executor
+        assertEquals(RequestProcessor.STAGE_PERSIST, stageStatistics.get(2).getStageName());
+        assertEquals(2, stageStatistics.get(2).getMaximumPoolSize());
+        assertEquals(RequestProcessor.STAGE_DISPATCH, stageStatistics.get(3).getStageName());
+        assertEquals(0, stageStatistics.get(3).getQueueSize());
+    }
+
+    // ============================================================================================
+    // TESTING MAIN THREAD DISPATCH
+    // ============================================================================================
+    public void testAddRequest_progress_updates_are_coalesced_on_main_looper() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+
+        RequestListenerWithProgressStub<?>[] requestListeners = new RequestListenerWithProgressStub<?>[PARALLEL_DOWNLOAD_COUNT];
+        long mainLooperMessageCountBefore = requestProcessorUnderTest.getMainLooperMessageCount();
+        long notificationCountBefore = requestProcessorUnderTest.getListenerNotificationCount();
+
+        // when
+        for (int i = 0; i < PARALLEL_DOWNLOAD_COUNT; i++) {
+            SpiceRequestStub<String> progressRequest = new SpiceRequestProgressStub<String>(TEST_CLASS, TEST_RETURNED_DATA, PROGRESS_UPDATE_COUNT);
+            CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(progressRequest, null, TEST_DURATION);
+            RequestListenerWithProgressStub<String> requestListener = new RequestListenerWithProgressStub<String>();
+            requestListeners[i] = requestListener;
+            Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+            requestListenerSet.add(requestListener);
+            requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        }
+        for (RequestListenerWithProgressStub<?> requestListener : requestListeners) {
+            requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        }
+
+        // then
+        long mainLooperMessageCount = requestProcessorUnderTest.getMainLooperMessageCount() - mainLooperMessageCountBefore;
+        long notificationCount = requestProcessorUnderTest.getListenerNotificationCount() - notificationCountBefore;
+        Ln.d("%d notifications delivered with %d main looper messages", notificationCount, mainLooperMessageCount);
+        for (RequestListenerWithProgressStub<?> requestListener : requestListeners) {
+            assertTrue(requestListener.isSuccessful());
+            assertTrue(requestListener.isComplete());
+        }
+        // previously, each notification was a main looper message
+        assertTrue(notificationCount >= PARALLEL_DOWNLOAD_COUNT * PROGRESS_UPDATE_COUNT);
+        assertTrue(mainLooperMessageCount < notificationCount / 10);
+    }
+
+    // ============================================================================================
+    // TESTING STALE WHILE REVALIDATE
+    // ============================================================================================
+    public void testAddRequest_stale_while_revalidate_delivers_stale_data_then_changed_data() throws CacheLoadingException,
+        CacheSavingException, InterruptedException {
+        // given
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        stubRequest.setStaleWhileRevalidate(true);
+        stubRequest.setMaxStaleness(TEST_MAX_STALENESS);
+
+        ResultRecordingRequestListener<String> mockRequestListener = new ResultRecordingRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(mockRequestListener);
+
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(
+            mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_MAX_STALENESS)))
+            .andReturn(TEST_STALE_DATA);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andReturn(
+            TEST_RETURNED_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        mockRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        getInstrumentation().waitForIdleSync();
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(stubRequest.isLoadDataFromNetworkCalled());
+        assertTrue(mockRequestListener.isComplete());
+        assertEquals(2, mockRequestListener.getResults().size());
+        assertEquals(TEST_STALE_DATA, mockRequestListener.getResults().get(0));
+        assertEquals(TEST_RETURNED_DATA, mockRequestListener.getResults().get(1));
+    }
+
+    public void testAddRequest_stale_while_revalidate_doesnt_deliver_unchanged_data_twice() throws CacheLoadingException,
+        CacheSavingException, InterruptedException {
+        // given
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION, TEST_RETURNED_DATA);
+        stubRequest.setStaleWhileRevalidate(true);
+
+        ResultRecordingRequestListener<String> mockRequestListener = new ResultRecordingRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(mockRequestListener);
+
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(
+            mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(DurationInMillis.ALWAYS)))
+            .andReturn(TEST_RETURNED_DATA);
+        EasyMock.expect(mockCacheManager.saveDataToCacheAndReturnData(EasyMock.eq(TEST_RETURNED_DATA), EasyMock.eq(TEST_CACHE_KEY))).andReturn(
+            TEST_RETURNED_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        mockRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        getInstrumentation().waitForIdleSync();
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(stubRequest.isLoadDataFromNetworkCalled());
+        assertTrue(mockRequestListener.isComplete());
+        assertEquals(1, mockRequestListener.getResults().size());
+    }
+
+    public void testAddRequest_stale_while_revalidate_doesnt_notify_failure_after_stale_data() throws CacheLoadingException,
+        InterruptedException {
+        // given
+        CachedSpiceRequestStub<String> stubRequest = createFailedRequest(TEST_CLASS, TEST_CACHE_KEY, TEST_DURATION);
+        stubRequest.setStaleWhileRevalidate(true);
+
+        ResultRecordingRequestListener<String> mockRequestListener = new ResultRecordingRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(mockRequestListener);
+
+        EasyMock.expect(mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(TEST_DURATION)))
+            .andReturn(null);
+        EasyMock.expect(
+            mockCacheManager.loadDataFromCache(EasyMock.eq(TEST_CLASS), EasyMock.eq(TEST_CACHE_KEY), EasyMock.eq(DurationInMillis.ALWAYS)))
+            .andReturn(TEST_STALE_DATA);
+        EasyMock.replay(mockCacheManager);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        mockRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        getInstrumentation().waitForIdleSync();
+
+        // then
+        EasyMock.verify(mockCacheManager);
+        assertTrue(stubRequest.isLoadDataFromNetworkCalled());
+        assertTrue(mockRequestListener.isComplete());
+        assertTrue(mockRequestListener.isSuccessful());
+        assertEquals(1, mockRequestListener.getResults().size());
+    }
+
     // ============================================================================================
     // TESTING CACHE MANAGER DEPENDENCY
     // ============================================================================================
 
+    public void testAddRequest_timing_listener_is_notified_of_request_phases() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setTimingStatisticsEnabled(true);
+        TimingRecorder timingRecorder = new TimingRecorder();
+        requestProcessorUnderTest.addSpiceServiceListener(timingRecorder);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA,
+            TIMED_REQUEST_NETWORK_DURATION);
+        RequestListenerWithProgressStub<String> mockRequestListener = new RequestListenerWithProgressStub<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(mockRequestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        timingRecorder.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(mockRequestListener.isSuccessful());
+        RequestTiming requestTiming = timingRecorder.getRequestTiming();
+        assertNotNull(requestTiming);
+        assertEquals(stubRequest.getSpiceRequest().getClass(), requestTiming.getRequestClass());
+        long networkDuration = requestTiming.getDuration(Phase.LOADING_FROM_NETWORK, TimeUnit.MILLISECONDS);
+        assertTrue(networkDuration >= TIMED_REQUEST_NETWORK_DURATION);
+        assertEquals(0, requestTiming.getDuration(Phase.READING_FROM_CACHE, TimeUnit.NANOSECONDS));
+        assertTrue(requestTiming.getTotalDuration(TimeUnit.MILLISECONDS) >= networkDuration);
+
+        List<RequestTimingStatistics> timingStatistics = requestProcessorUnderTest.getTimingStatistics();
+        assertEquals(1, timingStatistics.size());
+        assertEquals(1, timingStatistics.get(0).getTotalHistogram().getCount());
+        long recordedNetworkDuration = timingStatistics.get(0).getHistogram(Phase.LOADING_FROM_NETWORK).getMax();
+        assertEquals(requestTiming.getDuration(Phase.LOADING_FROM_NETWORK, TimeUnit.MICROSECONDS), recordedNetworkDuration);
+    }
+
+    public void testAddRequest_requests_are_not_timed_by_default() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        TimingRecorder timingRecorder = new TimingRecorder();
+        requestProcessorUnderTest.addSpiceServiceListener(timingRecorder);
+        requestProcessorUnderTest.removeSpiceServiceListener(timingRecorder);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, new HashSet<RequestListener<?>>());
+        boolean isTimed = timingRecorder.await(WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION);
+
+        // then
+        assertFalse(isTimed);
+        assertTrue(requestProcessorUnderTest.getTimingStatistics().isEmpty());
+    }
+
     public void testRemoveAllDataFromCache() {
         // given
         mockCacheManager.removeAllDataFromCache();
@@ -523,11 +1310,157 @@ public class RequestProcessorTest extends InstrumentationTestCase {
         assertFalse(mockRequestListener.isSuccessful());
     }
 
+    public void testAddRequest_offline_request_is_replayed_when_network_is_back() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setOfflineParkingPolicy(new OfflineParkingPolicy(REQUEST_COMPLETION_TIME_OUT, OFFLINE_MAX_REPLAY_RATE,
+            OFFLINE_NETWORK_CHECK_INTERVAL));
+        networkStateChecker.setNetworkAvailable(false);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        RequestListenerStub<String> mockRequestListener = new RequestListenerStub<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(mockRequestListener);
+
+        // when
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        Thread.sleep(OFFLINE_NETWORK_CHECK_INTERVAL * 4);
+        assertEquals(1, requestProcessorUnderTest.getParkedRequestCount());
+        assertFalse(stubRequest.isLoadDataFromNetworkCalled());
+        networkStateChecker.setNetworkAvailable(true);
+        mockRequestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertTrue(stubRequest.isLoadDataFromNetworkCalled());
+        assertTrue(mockRequestListener.isSuccessful());
+        assertEquals(0, requestProcessorUnderTest.getParkedRequestCount());
+    }
+
+    public void testAddRequest_offline_request_fails_after_max_park_time() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setOfflineParkingPolicy(new OfflineParkingPolicy(OFFLINE_MAX_PARK_TIME, OFFLINE_MAX_REPLAY_RATE,
+            OFFLINE_NETWORK_CHECK_INTERVAL));
+        networkStateChecker.setNetworkAvailable(false);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+
+        // when
+        long submissionTime = System.currentTimeMillis();
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+
+        // then
+        assertFalse(stubRequest.isLoadDataFromNetworkCalled());
+        assertTrue(requestListener.getReceivedException() instanceof NoNetworkException);
+        assertTrue(requestListener.getCompletionTime() - submissionTime >= OFFLINE_MAX_PARK_TIME);
+        assertEquals(0, requestProcessorUnderTest.getParkedRequestCount());
+    }
+
+    public void testAddRequest_offline_requests_are_replayed_by_priority_at_bounded_rate() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setOfflineParkingPolicy(new OfflineParkingPolicy(REQUEST_COMPLETION_TIME_OUT, OFFLINE_MAX_REPLAY_RATE,
+            OFFLINE_NETWORK_CHECK_INTERVAL));
+        networkStateChecker.setNetworkAvailable(false);
+        int[] priorities = new int[] { SpiceRequest.PRIORITY_LOW, SpiceRequest.PRIORITY_NORMAL, SpiceRequest.PRIORITY_HIGH };
+        List<TimedRequestListener<String>> requestListeners = new ArrayList<TimedRequestListener<String>>();
+        for (int priority : priorities) {
+            CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+            stubRequest.setPriority(priority);
+            TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+            requestListeners.add(requestListener);
+            requestProcessorUnderTest.addRequest(stubRequest, Collections.<RequestListener<?>> singleton(requestListener));
+        }
+        Thread.sleep(OFFLINE_NETWORK_CHECK_INTERVAL * 2);
+
+        // when
+        networkStateChecker.setNetworkAvailable(true);
+        requestProcessorUnderTest.replayParkedRequests();
+        for (TimedRequestListener<String> requestListener : requestListeners) {
+            requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        }
+
+        // then
+        long replayInterval = DurationInMillis.ONE_SECOND / OFFLINE_MAX_REPLAY_RATE;
+        long lowPriorityCompletionTime = requestListeners.get(0).getCompletionTime();
+        long normalPriorityCompletionTime = requestListeners.get(1).getCompletionTime();
+        long highPriorityCompletionTime = requestListeners.get(2).getCompletionTime();
+        assertTrue(highPriorityCompletionTime < normalPriorityCompletionTime);
+        assertTrue(normalPriorityCompletionTime < lowPriorityCompletionTime);
+        // replays are spread over time
+        assertTrue(lowPriorityCompletionTime - highPriorityCompletionTime >= replayInterval);
+    }
+
     @Override
     protected void tearDown() throws Exception {
         super.tearDown();
     }
 
+    // ============================================================================================
+    // TESTING SHUTDOWN
+    // ============================================================================================
+    public void testShutdown_drops_parked_requests() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        requestProcessorUnderTest.setOfflineParkingPolicy(new OfflineParkingPolicy(REQUEST_COMPLETION_TIME_OUT, OFFLINE_MAX_REPLAY_RATE,
+            OFFLINE_NETWORK_CHECK_INTERVAL));
+        networkStateChecker.setNetworkAvailable(false);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+        requestProcessorUnderTest.addRequest(stubRequest, new HashSet<RequestListener<?>>());
+        Thread.sleep(OFFLINE_NETWORK_CHECK_INTERVAL * 4);
+        assertEquals(1, requestProcessorUnderTest.getParkedRequestCount());
+
+        // when
+        requestProcessorUnderTest.shutdown();
+        networkStateChecker.setNetworkAvailable(true);
+        Thread.sleep(OFFLINE_NETWORK_CHECK_INTERVAL * 4);
+
+        // then
+        assertTrue(requestProcessorUnderTest.isShutdown());
+        assertEquals(0, requestProcessorUnderTest.getParkedRequestCount());
+        assertFalse(stubRequest.isLoadDataFromNetworkCalled());
+    }
+
+    public void testShutdown_failed_network_call_is_not_retried() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        SpiceRequestFailingThenSucceedingStub<String> spiceRequestStub = new SpiceRequestFailingThenSucceedingStub<String>(TEST_CLASS,
+            TEST_RETURNED_DATA, RETRY_MAX_ATTEMPT_COUNT - 1);
+        CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(spiceRequestStub, null, TEST_DURATION);
+        stubRequest.setRetryPolicy(new DefaultRetryPolicy(RETRY_MAX_ATTEMPT_COUNT, WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION, 1));
+        RequestListenerStub<String> requestListener = new RequestListenerStub<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        while (spiceRequestStub.getAttemptCount() == 0) {
+            Thread.sleep(RETRY_INITIAL_DELAY / 10);
+        }
+
+        // when
+        requestProcessorUnderTest.shutdown();
+        Thread.sleep(WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION * 2);
+
+        // then
+        assertEquals(1, spiceRequestStub.getAttemptCount());
+        assertFalse(Boolean.TRUE.equals(requestListener.isSuccessful()));
+    }
+
+    public void testShutdown_request_added_afterwards_is_not_processed() throws InterruptedException {
+        // given
+        EasyMock.replay(mockCacheManager);
+        CachedSpiceRequestStub<String> stubRequest = createSuccessfulRequest(TEST_CLASS, null, TEST_DURATION, TEST_RETURNED_DATA);
+
+        // when
+        requestProcessorUnderTest.shutdown();
+        requestProcessorUnderTest.addRequest(stubRequest, new HashSet<RequestListener<?>>());
+        stubRequest.await(RETRY_INITIAL_DELAY);
+
+        // then
+        assertFalse(stubRequest.isLoadDataFromNetworkCalled());
+    }
+
     // ============================================================================================
     // PRIVATE METHODS
     // ============================================================================================
@@ -548,9 +1481,188 @@ public class RequestProcessorTest extends InstrumentationTestCase {
         return new CachedSpiceRequestStub<T>(stubContentRequest, cacheKey, maxTimeInCache);
     }
 
+    /**
+     * A listener that records when it is notified and that can be awaited
+     * even if it is notified before {@link #await(long)} is called.
+     */
+    private CircuitBreakerPolicy createCircuitBreakerPolicy() {
+        return new CircuitBreakerPolicy(CIRCUIT_BREAKER_WINDOW_SIZE, CIRCUIT_BREAKER_WINDOW_SIZE, 1, REQUEST_COMPLETION_TIME_OUT,
+            CIRCUIT_BREAKER_OPEN_DURATION, 1);
+    }
+
+    private TimedRequestListener<String> executeAndWait(SpiceRequestStub<String> spiceRequest) throws InterruptedException {
+        CachedSpiceRequestStub<String> stubRequest = new CachedSpiceRequestStub<String>(spiceRequest, null, TEST_DURATION);
+        TimedRequestListener<String> requestListener = new TimedRequestListener<String>();
+        Set<RequestListener<?>> requestListenerSet = new HashSet<RequestListener<?>>();
+        requestListenerSet.add(requestListener);
+        requestProcessorUnderTest.addRequest(stubRequest, requestListenerSet);
+        requestListener.await(REQUEST_COMPLETION_TIME_OUT);
+        return requestListener;
+    }
+
+    private static class TimedRequestListener<T> extends RequestListenerStub<T> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile long completionTime;
+
+        @Override
+        public void onRequestSuccess(T result) {
+            completionTime = System.currentTimeMillis();
+            super.onRequestSuccess(result);
+            latch.countDown();
+        }
+
+        @Override
+        public void onRequestFailure(SpiceException exception) {
+            completionTime = System.currentTimeMillis();
+            super.onRequestFailure(exception);
+            latch.countDown();
+        }
+
+        @Override
+        public void await(long millisecond) throws InterruptedException {
+            latch.await(millisecond, TimeUnit.MILLISECONDS);
+        }
+
+        public long getCompletionTime() {
+            return completionTime;
+        }
+    }
+
+    private static class TimingRecorder implements SpiceServiceTimingListener {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile RequestTiming requestTiming;
+
+        @Override
+        public void onRequestProcessed(CachedSpiceRequest<?> cachedSpiceRequest) {
+        }
+
+        @Override
+        public void onRequestTimed(CachedSpiceRequest<?> cachedSpiceRequest, RequestTiming requestTiming) {
+            this.requestTiming = requestTiming;
+            latch.countDown();
+        }
+
+        public boolean await(long millisecond) throws InterruptedException {
+            return latch.await(millisecond, TimeUnit.MILLISECONDS);
+        }
+
+        public RequestTiming getRequestTiming() {
+            return requestTiming;
+        }
+    }
+
+    private static class CircuitBreakerStateRecorder implements SpiceServiceCircuitBreakerListener {
+        private final List<CircuitBreakerState> states = Collections.synchronizedList(new ArrayList<CircuitBreakerState>());
+
+        @Override
+        public void onRequestProcessed(CachedSpiceRequest<?> cachedSpiceRequest) {
+        }
+
+        @Override
+        public void onCircuitBreakerStateChanged(Object endpointId, CircuitBreakerState state) {
+            states.add(state);
+        }
+
+        public List<CircuitBreakerState> getStates() {
+            return new ArrayList<CircuitBreakerState>(states);
+        }
+    }
+
+    /**
+     * A request that records how many instances of it are executed at the
+     * same time.
+     */
+    private static final class ConcurrencyRecordingRequest extends SpiceRequest<String> {
+
+        private static final AtomicInteger EXECUTION_COUNT = new AtomicInteger();
+        private static final AtomicInteger MAX_CONCURRENT_EXECUTION_COUNT = new AtomicInteger();
+
+        public ConcurrencyRecordingRequest() {
+            super(String.class);
+        }
+
+        public static void reset() {
+            EXECUTION_COUNT.set(0);
+            MAX_CONCURRENT_EXECUTION_COUNT.set(0);
+        }
+
+        public static int getMaxConcurrentExecutionCount() {
+            return MAX_CONCURRENT_EXECUTION_COUNT.get();
+        }
+
+        @Override
+        public String loadDataFromNetwork() throws Exception {
+            int executionCount = EXECUTION_COUNT.incrementAndGet();
+            while (true) {
+                int maxExecutionCount = MAX_CONCURRENT_EXECUTION_COUNT.get();
+                if (executionCount <= maxExecutionCount || MAX_CONCURRENT_EXECUTION_COUNT.compareAndSet(maxExecutionCount, executionCount)) {
+                    break;
+                }
+            }
+            Thread.sleep(WAIT_BEFORE_PRIORITY_REQUEST_EXECUTION / PREFETCH_REQUEST_COUNT);
+            EXECUTION_COUNT.decrementAndGet();
+            return TEST_RETURNED_DATA;
+        }
+    }
+
+    private static class CountingRequestListener implements RequestListener<String> {
+        private final CountDownLatch latch;
+
+        public CountingRequestListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onRequestFailure(SpiceException spiceException) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onRequestSuccess(String result) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * A listener that records all the results it receives.
+     */
+    private static class ResultRecordingRequestListener<T> extends RequestListenerWithProgressStub<T> {
+
+        private final List<T> results = Collections.synchronizedList(new ArrayList<T>());
+
+        @Override
+        public void onRequestSuccess(T result) {
+            results.add(result);
+            super.onRequestSuccess(result);
+        }
+
+        public List<T> getResults() {
+            return results;
+        }
+    }
+
+    /**
+     * A listener that records all the progress it receives.
+     */
+    private static class ProgressRecordingRequestListener<T> extends RequestListenerWithProgressStub<T> {
+
+        private final List<RequestProgress> progresses = Collections.synchronizedList(new ArrayList<RequestProgress>());
+
+        @Override
+        public void onRequestProgressUpdate(RequestProgress progress) {
+            progresses.add(progress);
+            super.onRequestProgressUpdate(progress);
+        }
+
+        public List<RequestProgress> getProgresses() {
+            return progresses;
+        }
+    }
+
     private class MockNetworkStateChecker implements NetworkStateChecker {
 
-        private boolean networkAvailable = true;
+        private volatile boolean networkAvailable = true;
 
         public void setNetworkAvailable(boolean networkAvailable) {
             this.networkAvailable = networkAvailable;
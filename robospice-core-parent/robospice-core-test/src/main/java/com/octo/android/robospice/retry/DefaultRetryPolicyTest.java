@@ -0,0 +1,79 @@
+package com.octo.android.robospice.retry;
+
+import java.io.IOException;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class DefaultRetryPolicyTest extends InstrumentationTestCase {
+
+    private static final int MAX_ATTEMPT_COUNT = 4;
+    private static final long INITIAL_DELAY = 100;
+    private static final float BACKOFF_MULTIPLIER = 2f;
+    private static final long MAX_DELAY = 300;
+    private static final float JITTER_FACTOR = 0.5f;
+    private static final int SAMPLE_COUNT = 1000;
+
+    public void testGetDelayBeforeRetry_grows_exponentially_up_to_max_delay() {
+        // given
+        DefaultRetryPolicy retryPolicy = new DefaultRetryPolicy(MAX_ATTEMPT_COUNT, INITIAL_DELAY, BACKOFF_MULTIPLIER, MAX_DELAY, 0);
+
+        // when
+        long firstDelay = retryPolicy.getDelayBeforeRetry(1, new IOException());
+        long secondDelay = retryPolicy.getDelayBeforeRetry(2, new IOException());
+        long thirdDelay = retryPolicy.getDelayBeforeRetry(3, new IOException());
+
+        // then
+        assertEquals(INITIAL_DELAY, firstDelay);
+        assertEquals((long) (INITIAL_DELAY * BACKOFF_MULTIPLIER), secondDelay);
+        assertEquals(MAX_DELAY, thirdDelay);
+    }
+
+    public void testGetDelayBeforeRetry_no_retry_after_max_attempt_count() {
+        // given
+        DefaultRetryPolicy retryPolicy = new DefaultRetryPolicy(MAX_ATTEMPT_COUNT, INITIAL_DELAY, BACKOFF_MULTIPLIER);
+
+        // when
+        long delay = retryPolicy.getDelayBeforeRetry(MAX_ATTEMPT_COUNT, new IOException());
+
+        // then
+        assertEquals(RetryPolicy.NO_RETRY, delay);
+    }
+
+    public void testGetDelayBeforeRetry_jitter_spreads_delays() {
+        // given
+        DefaultRetryPolicy retryPolicy = new DefaultRetryPolicy(MAX_ATTEMPT_COUNT, INITIAL_DELAY, BACKOFF_MULTIPLIER, MAX_DELAY,
+            JITTER_FACTOR);
+        long minDelay = Long.MAX_VALUE;
+        long maxDelay = Long.MIN_VALUE;
+
+        // when
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            long delay = retryPolicy.getDelayBeforeRetry(1, new IOException());
+            minDelay = Math.min(minDelay, delay);
+            maxDelay = Math.max(maxDelay, delay);
+        }
+
+        // then
+        assertTrue(minDelay >= (long) (INITIAL_DELAY * (1 - JITTER_FACTOR)));
+        assertTrue(maxDelay <= INITIAL_DELAY);
+        assertTrue(minDelay < maxDelay);
+    }
+
+    public void testGetDelayBeforeRetry_only_retries_retryable_exceptions() {
+        // given
+        DefaultRetryPolicy retryPolicy = new DefaultRetryPolicy(MAX_ATTEMPT_COUNT, INITIAL_DELAY, BACKOFF_MULTIPLIER)
+            .addRetryableExceptionClass(IOException.class);
+
+        // when
+        long delayOfRetryableException = retryPolicy.getDelayBeforeRetry(1, new Exception(new IOException()));
+        long delayOfOtherException = retryPolicy.getDelayBeforeRetry(1, new IllegalStateException());
+        long delayOfInterruption = new DefaultRetryPolicy().getDelayBeforeRetry(1, new InterruptedException());
+
+        // then
+        assertTrue(delayOfRetryableException >= 0);
+        assertEquals(RetryPolicy.NO_RETRY, delayOfOtherException);
+        assertEquals(RetryPolicy.NO_RETRY, delayOfInterruption);
+    }
+}
@@ -0,0 +1,57 @@
+package com.octo.android.robospice.stub;
+
+import com.octo.android.robospice.networkstate.NetworkState;
+import com.octo.android.robospice.networkstate.NetworkStateSource;
+
+/**
+ * A fake source of network state changes, to simulate connectivity broadcasts.
+ * @author sni
+ */
+public final class NetworkStateSourceStub implements NetworkStateSource {
+    private volatile NetworkState networkState;
+    private volatile Listener listener;
+    private int startCount;
+    private int getNetworkStateCount;
+
+    public NetworkStateSourceStub(NetworkState networkState) {
+        this.networkState = networkState;
+    }
+
+    @Override
+    public synchronized NetworkState getNetworkState() {
+        getNetworkStateCount++;
+        return networkState;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        startCount++;
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void stop() {
+        listener = null;
+    }
+
+    /** Simulate a connectivity broadcast. */
+    public void changeNetworkState(NetworkState networkState) {
+        this.networkState = networkState;
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onNetworkStateChanged(networkState);
+        }
+    }
+
+    public synchronized int getStartCount() {
+        return startCount;
+    }
+
+    public synchronized int getGetNetworkStateCount() {
+        return getNetworkStateCount;
+    }
+
+    public boolean isStarted() {
+        return listener != null;
+    }
+}
@@ -0,0 +1,35 @@
+package com.octo.android.robospice.stub;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A request whose first network calls fail, and the next ones succeed.
+ * @author sni
+ * @param <T>
+ *            the type of the request's result.
+ */
+public final class SpiceRequestFailingThenSucceedingStub<T> extends SpiceRequestStub<T> {
+    private final T returnedData;
+    private final int failureCount;
+    private final AtomicInteger attemptCount = new AtomicInteger();
+
+    public SpiceRequestFailingThenSucceedingStub(Class<T> clazz, T returnedData, int failureCount) {
+        super(clazz);
+        this.returnedData = returnedData;
+        this.failureCount = failureCount;
+    }
+
+    @Override
+    public T loadDataFromNetwork() throws Exception {
+        isLoadDataFromNetworkCalled = true;
+        signalStopWaiting();
+        if (attemptCount.incrementAndGet() <= failureCount) {
+            throw new Exception();
+        }
+        return returnedData;
+    }
+
+    public int getAttemptCount() {
+        return attemptCount.get();
+    }
+}
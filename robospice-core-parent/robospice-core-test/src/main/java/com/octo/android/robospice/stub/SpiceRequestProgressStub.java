@@ -0,0 +1,30 @@
+package com.octo.android.robospice.stub;
+
+/**
+ * A {@link SpiceRequestStub} that publishes many progress updates before
+ * succeeding, like a download would.
+ * @author sni
+ * @param <T>
+ *            the type of the request's result.
+ */
+public final class SpiceRequestProgressStub<T> extends SpiceRequestStub<T> {
+    private T returnedData;
+    private int progressUpdateCount;
+
+    public SpiceRequestProgressStub(Class<T> clazz, T returnedData,
+        int progressUpdateCount) {
+        super(clazz);
+        this.returnedData = returnedData;
+        this.progressUpdateCount = progressUpdateCount;
+    }
+
+    @Override
+    public T loadDataFromNetwork() throws Exception {
+        isLoadDataFromNetworkCalled = true;
+        signalStopWaiting();
+        for (int i = 1; i <= progressUpdateCount; i++) {
+            publishProgress((float) i / progressUpdateCount);
+        }
+        return returnedData;
+    }
+}
@@ -0,0 +1,172 @@
+package com.octo.android.robospice;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the cache queries of a {@link SpiceManager} on a pool of threads. Each
+ * access has a scope : a (class, key), all keys of a class, or the whole cache.
+ * <ul>
+ * <li>accesses whose scopes don't overlap run concurrently,</li>
+ * <li>reads of overlapping scopes run concurrently,</li>
+ * <li>a write (or remove) runs after all previously submitted accesses of an
+ * overlapping scope, and before all later ones : writes of the same key stay
+ * ordered.</li>
+ * </ul>
+ * Thus a slow query of all data of a class only delays the accesses that
+ * depend on it.
+ * @author sni
+ */
+final class CacheAccessExecutor {
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    private static final long THREAD_KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Accesses not completed yet, in submission order, guarded by this
+     * executor.
+     */
+    private final List<Access> accesses = new LinkedList<Access>();
+    private final ThreadPoolExecutor executor;
+
+    public CacheAccessExecutor(final int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be >= 1");
+        }
+        // only accesses ready to run are passed to the pool
+        executor = new ThreadPoolExecutor(threadCount, threadCount, THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new CacheAccessThreadFactory());
+        // don't keep idle threads around when the cache is not queried
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submit a read of the cache.
+     * @param clazz
+     *            the class of the data read, or null for all classes.
+     * @param cacheKey
+     *            the cache key of the data read, or null for all keys.
+     */
+    public <T> Future<T> submitRead(final Class<?> clazz, final Object cacheKey, final Callable<T> callable) {
+        return submit(clazz, cacheKey, false, callable);
+    }
+
+    /**
+     * Submit a write, or a remove, of the cache.
+     * @param clazz
+     *            the class of the data written, or null for all classes.
+     * @param cacheKey
+     *            the cache key of the data written, or null for all keys.
+     */
+    public <T> Future<T> submitWrite(final Class<?> clazz, final Object cacheKey, final Callable<T> callable) {
+        return submit(clazz, cacheKey, true, callable);
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of accesses that are waiting or running.
+     */
+    public synchronized int getPendingAccessCount() {
+        return accesses.size();
+    }
+
+    private <T> Future<T> submit(final Class<?> clazz, final Object cacheKey, final boolean isWrite, final Callable<T> callable) {
+        final FutureTask<T> futureTask = new FutureTask<T>(callable);
+        synchronized (this) {
+            accesses.add(new Access(clazz, cacheKey, isWrite, futureTask));
+            startReadyAccesses();
+        }
+        return futureTask;
+    }
+
+    private synchronized void onAccessComplete(final Access access) {
+        accesses.remove(access);
+        startReadyAccesses();
+    }
+
+    /**
+     * Start all accesses that don't conflict with a previous one. Must be
+     * called while holding the lock of this executor.
+     */
+    private void startReadyAccesses() {
+        int index = 0;
+        for (final Access access : accesses) {
+            if (!access.isStarted && !conflictsWithPreviousAccess(access, index)) {
+                access.isStarted = true;
+                executor.execute(access);
+            }
+            index++;
+        }
+    }
+
+    private boolean conflictsWithPreviousAccess(final Access access, final int index) {
+        final Iterator<Access> iterator = accesses.iterator();
+        for (int i = 0; i < index; i++) {
+            if (access.conflictsWith(iterator.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** An access of the cache, guarded by the lock of the executor. */
+    private final class Access implements Runnable {
+        private final Class<?> clazz;
+        private final Object cacheKey;
+        private final boolean isWrite;
+        private final FutureTask<?> futureTask;
+        private boolean isStarted;
+
+        public Access(final Class<?> clazz, final Object cacheKey, final boolean isWrite, final FutureTask<?> futureTask) {
+            this.clazz = clazz;
+            this.cacheKey = cacheKey;
+            this.isWrite = isWrite;
+            this.futureTask = futureTask;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // does nothing if the future was cancelled meanwhile
+                futureTask.run();
+            } finally {
+                onAccessComplete(this);
+            }
+        }
+
+        public boolean conflictsWith(final Access other) {
+            return (isWrite || other.isWrite) && overlaps(other);
+        }
+
+        private boolean overlaps(final Access other) {
+            if (clazz == null || other.clazz == null) {
+                return true;
+            }
+            if (!clazz.equals(other.clazz)) {
+                return false;
+            }
+            return cacheKey == null || other.cacheKey == null || cacheKey.equals(other.cacheKey);
+        }
+    }
+
+    private static final class CacheAccessThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(runnable, "robospice-cache-access-" + threadCount.incrementAndGet());
+        }
+    }
+}
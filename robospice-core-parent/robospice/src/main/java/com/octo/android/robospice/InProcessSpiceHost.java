@@ -0,0 +1,51 @@
+package com.octo.android.robospice;
+
+import android.content.Context;
+
+import com.octo.android.robospice.networkstate.CachedNetworkStateChecker;
+import com.octo.android.robospice.networkstate.NetworkStateChecker;
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.request.RequestProcessor;
+import com.octo.android.robospice.request.RequestProcessorListener;
+
+/**
+ * Hosts the engine in the process of the application, without any
+ * {@link SpiceService} : a {@link SpiceManager} built with this host uses it
+ * directly, it doesn't start nor bind to a service. Requests are processed as
+ * soon as the {@link SpiceManager} is started. Listeners are notified on the
+ * main thread, as with a {@link SpiceService}. <br/>
+ * Unlike a {@link SpiceService}, this host doesn't keep the process alive
+ * while requests are processed in background. Typically, it is created once
+ * per application and shared by all {@link SpiceManager}s.
+ * @author sni
+ */
+public class InProcessSpiceHost extends SpiceEngine {
+
+    public static final int DEFAULT_THREAD_COUNT = 1;
+
+    public InProcessSpiceHost(final Context context, final CacheManager cacheManager) {
+        this(context, cacheManager, DEFAULT_THREAD_COUNT, new CachedNetworkStateChecker(context.getApplicationContext()));
+    }
+
+    /**
+     * @param context
+     *            the context of the application.
+     * @param cacheManager
+     *            the cache of the requests' results.
+     * @param threadCount
+     *            the number of threads loading requests from network.
+     * @param networkStateChecker
+     *            determines whether network state allows requests executions.
+     */
+    public InProcessSpiceHost(final Context context, final CacheManager cacheManager, final int threadCount,
+        final NetworkStateChecker networkStateChecker) {
+        super(cacheManager, new RequestProcessor(context.getApplicationContext(), cacheManager, createExecutorService(threadCount,
+            "robospice-network"), createExecutorService(1, "robospice-cache"), createExecutorService(1, "robospice-persist"),
+            new RequestProcessorListener() {
+                @Override
+                public void allRequestComplete() {
+                    // nothing to stop
+                }
+            }, networkStateChecker), networkStateChecker);
+    }
+}
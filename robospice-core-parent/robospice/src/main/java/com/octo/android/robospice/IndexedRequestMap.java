@@ -0,0 +1,148 @@
+package com.octo.android.robospice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.SpiceRequest;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * The listeners of the requests known by a {@link SpiceManager}, by request
+ * instance. Requests can also be looked up, without scanning all of them :
+ * <ul>
+ * <li>by the {@link SpiceRequest} they wrap,</li>
+ * <li>by tag (see {@link SpiceRequest#setTag(Object)}).</li>
+ * </ul>
+ * All methods are synchronized on this map, as for a
+ * {@link Collections#synchronizedMap(Map)} : iterations over
+ * {@link #keySet()} and {@link #entrySet()} must be synchronized on it.
+ * @author sni
+ */
+final class IndexedRequestMap {
+
+    private final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> mapRequestToListeners = new IdentityHashMap<CachedSpiceRequest<?>, Set<RequestListener<?>>>();
+    private final Map<SpiceRequest<?>, List<CachedSpiceRequest<?>>> mapSpiceRequestToRequests = new IdentityHashMap<SpiceRequest<?>, List<CachedSpiceRequest<?>>>();
+    private final Map<Object, List<CachedSpiceRequest<?>>> mapTagToRequests = new HashMap<Object, List<CachedSpiceRequest<?>>>();
+
+    public synchronized Set<RequestListener<?>> get(final CachedSpiceRequest<?> request) {
+        return mapRequestToListeners.get(request);
+    }
+
+    public synchronized boolean containsKey(final CachedSpiceRequest<?> request) {
+        return mapRequestToListeners.containsKey(request);
+    }
+
+    public synchronized Set<RequestListener<?>> put(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners) {
+        final boolean isNewRequest = !mapRequestToListeners.containsKey(request);
+        final Set<RequestListener<?>> previousListeners = mapRequestToListeners.put(request, listeners);
+        if (isNewRequest) {
+            addToGroup(mapSpiceRequestToRequests, request.getSpiceRequest(), request);
+            if (request.getTag() != null) {
+                addToGroup(mapTagToRequests, request.getTag(), request);
+            }
+        }
+        return previousListeners;
+    }
+
+    public synchronized Set<RequestListener<?>> remove(final CachedSpiceRequest<?> request) {
+        if (!mapRequestToListeners.containsKey(request)) {
+            return null;
+        }
+        removeFromGroup(mapSpiceRequestToRequests, request.getSpiceRequest(), request);
+        if (request.getTag() != null) {
+            removeFromGroup(mapTagToRequests, request.getTag(), request);
+        }
+        return mapRequestToListeners.remove(request);
+    }
+
+    public synchronized void clear() {
+        mapRequestToListeners.clear();
+        mapSpiceRequestToRequests.clear();
+        mapTagToRequests.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mapRequestToListeners.isEmpty();
+    }
+
+    public synchronized int size() {
+        return mapRequestToListeners.size();
+    }
+
+    /**
+     * @return a read-only view of the requests. Iterations must be
+     *         synchronized on this map.
+     */
+    public synchronized Set<CachedSpiceRequest<?>> keySet() {
+        return Collections.unmodifiableSet(mapRequestToListeners.keySet());
+    }
+
+    /**
+     * @return a read-only view of the requests and their listeners.
+     *         Iterations must be synchronized on this map.
+     */
+    public synchronized Set<Map.Entry<CachedSpiceRequest<?>, Set<RequestListener<?>>>> entrySet() {
+        return Collections.unmodifiableSet(mapRequestToListeners.entrySet());
+    }
+
+    /**
+     * @param spiceRequest
+     *            a request, or the {@link SpiceRequest} wrapped by a request.
+     * @return the first request that is, or wraps, spiceRequest, or null if
+     *         none is known.
+     */
+    public synchronized CachedSpiceRequest<?> findRequest(final SpiceRequest<?> spiceRequest) {
+        if (spiceRequest instanceof CachedSpiceRequest) {
+            return mapRequestToListeners.containsKey(spiceRequest) ? (CachedSpiceRequest<?>) spiceRequest : null;
+        }
+        final List<CachedSpiceRequest<?>> requests = mapSpiceRequestToRequests.get(spiceRequest);
+        return requests == null ? null : requests.get(0);
+    }
+
+    /**
+     * @return a copy of the list of the requests with a tag, possibly empty.
+     */
+    public synchronized List<CachedSpiceRequest<?>> findRequestsByTag(final Object tag) {
+        return copyOfGroup(mapTagToRequests.get(tag));
+    }
+
+    private static <K> void addToGroup(final Map<K, List<CachedSpiceRequest<?>>> map, final K key, final CachedSpiceRequest<?> request) {
+        List<CachedSpiceRequest<?>> requests = map.get(key);
+        if (requests == null) {
+            // most groups contain a single request
+            requests = new ArrayList<CachedSpiceRequest<?>>(1);
+            map.put(key, requests);
+        }
+        requests.add(request);
+    }
+
+    private static <K> void removeFromGroup(final Map<K, List<CachedSpiceRequest<?>>> map, final K key,
+        final CachedSpiceRequest<?> request) {
+        final List<CachedSpiceRequest<?>> requests = map.get(key);
+        if (requests == null) {
+            return;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i) == request) {
+                requests.remove(i);
+                break;
+            }
+        }
+        if (requests.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static List<CachedSpiceRequest<?>> copyOfGroup(final List<CachedSpiceRequest<?>> requests) {
+        if (requests == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<CachedSpiceRequest<?>>(requests);
+    }
+}
@@ -0,0 +1,83 @@
+package com.octo.android.robospice;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import android.content.Context;
+
+import com.octo.android.robospice.networkstate.NetworkStateChecker;
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.request.RequestProcessor;
+import com.octo.android.robospice.request.RequestProcessorListener;
+
+/**
+ * Hosts the engine on a plain JVM, without any Android context, service or
+ * main looper : for server-side use of requests and for benchmarks. A
+ * {@link SpiceManager} built with this host uses it directly. <br/>
+ * Requests and persisters must not need a context. Listeners are notified on
+ * a dedicated thread, in order, instead of the main thread. The network is
+ * considered always available unless a {@link NetworkStateChecker} is given.
+ * @author sni
+ */
+public class JvmSpiceHost extends SpiceEngine {
+
+    public static final int DEFAULT_THREAD_COUNT = 1;
+
+    private final ScheduledExecutorService listenerNotificationExecutorService;
+
+    public JvmSpiceHost(final CacheManager cacheManager) {
+        this(cacheManager, DEFAULT_THREAD_COUNT);
+    }
+
+    public JvmSpiceHost(final CacheManager cacheManager, final int threadCount) {
+        this(cacheManager, threadCount, new AlwaysAvailableNetworkStateChecker());
+    }
+
+    /**
+     * @param cacheManager
+     *            the cache of the requests' results.
+     * @param threadCount
+     *            the number of threads loading requests from network.
+     * @param networkStateChecker
+     *            determines whether network state allows requests executions.
+     *            It is passed a null context.
+     */
+    public JvmSpiceHost(final CacheManager cacheManager, final int threadCount, final NetworkStateChecker networkStateChecker) {
+        this(cacheManager, threadCount, networkStateChecker, Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+            "robospice-notification")));
+    }
+
+    private JvmSpiceHost(final CacheManager cacheManager, final int threadCount, final NetworkStateChecker networkStateChecker,
+        final ScheduledExecutorService listenerNotificationExecutorService) {
+        super(cacheManager, new RequestProcessor(null, cacheManager, createExecutorService(threadCount, "robospice-network"),
+            createExecutorService(1, "robospice-cache"), createExecutorService(1, "robospice-persist"), new RequestProcessorListener() {
+                @Override
+                public void allRequestComplete() {
+                    // nothing to stop
+                }
+            }, networkStateChecker, listenerNotificationExecutorService), networkStateChecker);
+        this.listenerNotificationExecutorService = listenerNotificationExecutorService;
+    }
+
+    /**
+     * Also stops the thread notifying listeners. Notifications already queued
+     * are delivered.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        listenerNotificationExecutorService.shutdown();
+    }
+
+    private static final class AlwaysAvailableNetworkStateChecker implements NetworkStateChecker {
+        @Override
+        public boolean isNetworkAvailable(final Context context) {
+            return true;
+        }
+
+        @Override
+        public void checkPermissions(final Context context) {
+            // no permission on a JVM
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.octo.android.robospice;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import roboguice.util.temp.Ln;
+
+import com.octo.android.robospice.networkstate.CachedNetworkStateChecker;
+import com.octo.android.robospice.networkstate.NetworkStateChecker;
+import com.octo.android.robospice.persistence.CacheManager;
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.persistence.WriteBehindQueue;
+import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.CircuitBreakerState;
+import com.octo.android.robospice.request.RequestProcessor;
+import com.octo.android.robospice.request.RequestTimingStatistics;
+import com.octo.android.robospice.request.StageStatistics;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * The engine of RoboSpice : a {@link RequestProcessor} and the
+ * {@link CacheManager} it uses. The engine doesn't depend on where it is
+ * hosted, a {@link SpiceService} delegates to it, as well as the hosts used
+ * without binding ({@link InProcessSpiceHost}, {@link JvmSpiceHost}).
+ * @author sni
+ */
+public class SpiceEngine implements SpiceHost {
+
+    private static final long THREAD_KEEP_ALIVE_TIME = 30;
+    private static final long CACHE_FLUSH_TIME_OUT = 2 * DurationInMillis.ONE_SECOND;
+
+    private final CacheManager cacheManager;
+    private final RequestProcessor requestProcessor;
+    private final NetworkStateChecker networkStateChecker;
+
+    public SpiceEngine(final CacheManager cacheManager, final RequestProcessor requestProcessor,
+        final NetworkStateChecker networkStateChecker) {
+        this.cacheManager = cacheManager;
+        this.requestProcessor = requestProcessor;
+        this.networkStateChecker = networkStateChecker;
+    }
+
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    public RequestProcessor getRequestProcessor() {
+        return requestProcessor;
+    }
+
+    /**
+     * Release the resources of the engine : the network state is not watched
+     * anymore, the threads of the engine are stopped (see {@link #shutdown()})
+     * and data saved asynchronously is drained, see
+     * {@link #drainPendingWrites()}. This method is called on the main thread,
+     * it doesn't block.
+     */
+    public void destroy() {
+        if (networkStateChecker instanceof CachedNetworkStateChecker) {
+            ((CachedNetworkStateChecker) networkStateChecker).stop();
+        }
+        shutdown();
+        drainPendingWrites();
+    }
+
+    /**
+     * Stop all the executors owned by the engine : the ones of the stages of
+     * the request processor and its timer, see
+     * {@link RequestProcessor#shutdown()}. Hosts owning other executors stop
+     * them too. Requests are not processed anymore afterwards.
+     */
+    public void shutdown() {
+        requestProcessor.shutdown();
+    }
+
+    /**
+     * Flush the data still being saved asynchronously on a background thread,
+     * for a bounded time, then shut the
+     * {@link com.octo.android.robospice.persistence.WriteBehindQueue} of the
+     * cache manager down. The process may be killed right after the service
+     * is destroyed : data that could not be saved in time is reported.
+     */
+    protected void drainPendingWrites() {
+        final WriteBehindQueue writeBehindQueue = cacheManager.getWriteBehindQueue();
+        final int pendingWriteCount = writeBehindQueue.getPendingKeyCount();
+        if (pendingWriteCount == 0) {
+            writeBehindQueue.shutdown();
+            return;
+        }
+        Ln.d("%d data still being saved in cache in background.", pendingWriteCount);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!cacheManager.flushPendingWrites(CACHE_FLUSH_TIME_OUT)) {
+                    Ln.w("Some data could not be saved in cache before the engine was destroyed.");
+                }
+                writeBehindQueue.shutdown();
+            }
+        }, "robospice-cache-flush").start();
+    }
+
+    @Override
+    public void addRequest(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listRequestListener) {
+        requestProcessor.addRequest(request, listRequestListener);
+    }
+
+    @Override
+    public void addRequests(final List<CachedSpiceRequest<?>> requests, final List<Set<RequestListener<?>>> listRequestListeners) {
+        requestProcessor.addRequests(requests, listRequestListeners);
+    }
+
+    @Override
+    public void dontNotifyRequestListenersForRequest(final CachedSpiceRequest<?> request,
+        final Collection<RequestListener<?>> listRequestListener) {
+        requestProcessor.dontNotifyRequestListenersForRequest(request, listRequestListener);
+    }
+
+    @Override
+    public boolean removeDataFromCache(final Class<?> clazz, final Object cacheKey) {
+        return requestProcessor.removeDataFromCache(clazz, cacheKey);
+    }
+
+    @Override
+    public void removeAllDataFromCache(final Class<?> clazz) {
+        requestProcessor.removeAllDataFromCache(clazz);
+    }
+
+    @Override
+    public void removeAllDataFromCache() {
+        requestProcessor.removeAllDataFromCache();
+    }
+
+    @Override
+    public <T> List<Object> getAllCacheKeys(final Class<T> clazz) {
+        return cacheManager.getAllCacheKeys(clazz);
+    }
+
+    @Override
+    public <T> List<T> loadAllDataFromCache(final Class<T> clazz) throws CacheLoadingException {
+        return cacheManager.loadAllDataFromCache(clazz);
+    }
+
+    @Override
+    public <T> T getDataFromCache(final Class<T> clazz, final String cacheKey) throws CacheLoadingException {
+        return cacheManager.loadDataFromCache(clazz, cacheKey, DurationInMillis.ALWAYS);
+    }
+
+    @Override
+    public <T> T getDataFromMemoryCache(final Class<T> clazz, final Object cacheKey, final long cacheExpiryDuration) {
+        return cacheManager.loadDataFromMemoryCache(clazz, cacheKey, cacheExpiryDuration);
+    }
+
+    @Override
+    public boolean isFailOnCacheError() {
+        return requestProcessor.isFailOnCacheError();
+    }
+
+    @Override
+    public void setFailOnCacheError(final boolean failOnCacheError) {
+        requestProcessor.setFailOnCacheError(failOnCacheError);
+    }
+
+    @Override
+    public void dumpState() {
+        Ln.v(requestProcessor.toString());
+        for (final StageStatistics stageStatistics : requestProcessor.getStageStatistics()) {
+            Ln.v(stageStatistics.toString());
+        }
+        for (final RequestTimingStatistics timingStatistics : requestProcessor.getTimingStatistics()) {
+            Ln.v(timingStatistics.toString());
+        }
+    }
+
+    @Override
+    public List<StageStatistics> getStageStatistics() {
+        return requestProcessor.getStageStatistics();
+    }
+
+    @Override
+    public Map<Object, CircuitBreakerState> getCircuitBreakerStates() {
+        return requestProcessor.getCircuitBreakerStates();
+    }
+
+    @Override
+    public List<RequestTimingStatistics> getTimingStatistics() {
+        return requestProcessor.getTimingStatistics();
+    }
+
+    @Override
+    public void addSpiceServiceListener(final SpiceServiceServiceListener spiceServiceServiceListener) {
+        requestProcessor.addSpiceServiceListener(spiceServiceServiceListener);
+    }
+
+    @Override
+    public void removeSpiceServiceListener(final SpiceServiceServiceListener spiceServiceServiceListener) {
+        requestProcessor.removeSpiceServiceListener(spiceServiceServiceListener);
+    }
+
+    /**
+     * Create a pool of threads for the engine. Its threads are daemons and
+     * time out when idle, they don't keep a JVM alive nor waste memory while
+     * the engine is idle. The pool is stopped by {@link #shutdown()}.
+     * @param threadCount
+     *            the number of threads of the pool.
+     * @param name
+     *            the prefix of the names of the threads.
+     */
+    protected static ExecutorService createExecutorService(final int threadCount, final String name) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be >= 1");
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Names threads and makes them daemons. */
+    protected static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
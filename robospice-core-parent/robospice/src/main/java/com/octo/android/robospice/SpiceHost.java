@@ -0,0 +1,84 @@
+package com.octo.android.robospice;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.CircuitBreakerState;
+import com.octo.android.robospice.request.RequestTimingStatistics;
+import com.octo.android.robospice.request.StageStatistics;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * Hosts the engine that processes requests and manages the cache on behalf of
+ * a {@link SpiceManager}. The usual host is a {@link SpiceService}, that a
+ * {@link SpiceManager} binds to. A {@link SpiceManager} can also use an
+ * {@link InProcessSpiceHost} or a {@link JvmSpiceHost} directly, without any
+ * binding.
+ * @author sni
+ */
+public interface SpiceHost {
+
+    void addRequest(CachedSpiceRequest<?> request, Set<RequestListener<?>> listRequestListener);
+
+    /**
+     * Add many requests at once.
+     * @param requests
+     *            the requests to add.
+     * @param listRequestListeners
+     *            the listeners of the requests : the listeners at a given index
+     *            are the ones of the request at the same index.
+     */
+    void addRequests(List<CachedSpiceRequest<?>> requests, List<Set<RequestListener<?>>> listRequestListeners);
+
+    void dontNotifyRequestListenersForRequest(CachedSpiceRequest<?> request, Collection<RequestListener<?>> listRequestListener);
+
+    boolean removeDataFromCache(Class<?> clazz, Object cacheKey);
+
+    void removeAllDataFromCache(Class<?> clazz);
+
+    void removeAllDataFromCache();
+
+    <T> List<Object> getAllCacheKeys(Class<T> clazz);
+
+    <T> List<T> loadAllDataFromCache(Class<T> clazz) throws CacheLoadingException;
+
+    <T> T getDataFromCache(Class<T> clazz, String cacheKey) throws CacheLoadingException;
+
+    /**
+     * Look for data in the memory of the cache only. Never blocks on disk, it
+     * can be called from any thread, including the UI thread.
+     * @return the data in memory, or null if it is not in memory or expired.
+     */
+    <T> T getDataFromMemoryCache(Class<T> clazz, Object cacheKey, long cacheExpiryDuration);
+
+    boolean isFailOnCacheError();
+
+    void setFailOnCacheError(boolean failOnCacheError);
+
+    void dumpState();
+
+    /**
+     * @return a snapshot of the pools and queues of all stages of the
+     *         processing of requests.
+     */
+    List<StageStatistics> getStageStatistics();
+
+    /**
+     * @return a snapshot of the state of the circuit breaker of each endpoint.
+     */
+    Map<Object, CircuitBreakerState> getCircuitBreakerStates();
+
+    /**
+     * @return the distributions of the durations of each phase of requests,
+     *         per request class. Empty unless timing statistics are enabled.
+     */
+    List<RequestTimingStatistics> getTimingStatistics();
+
+    void addSpiceServiceListener(SpiceServiceServiceListener spiceServiceServiceListener);
+
+    void removeSpiceServiceListener(SpiceServiceServiceListener spiceServiceServiceListener);
+}
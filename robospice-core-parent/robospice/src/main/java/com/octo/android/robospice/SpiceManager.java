@@ -2,9 +2,7 @@ package com.octo.android.robospice;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +12,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -23,13 +22,18 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 
 import com.octo.android.robospice.SpiceService.SpiceServiceBinder;
 import com.octo.android.robospice.persistence.DurationInMillis;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.persistence.exception.SpiceException;
 import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.RequestBatch;
 import com.octo.android.robospice.request.SpiceRequest;
+import com.octo.android.robospice.request.listener.RequestBatchListener;
 import com.octo.android.robospice.request.listener.RequestListener;
 
 /**
@@ -57,8 +61,15 @@ public class SpiceManager implements Runnable {
     /** The class of the {@link SpiceService} to bind to. */
     private final Class<? extends SpiceService> spiceServiceClass;
 
-    /** A reference on the {@link SpiceService} obtained by local binding. */
-    private SpiceService spiceService;
+    /** The host used without binding, null to bind to a service. */
+    private final SpiceHost spiceHost;
+
+    /**
+     * A reference on the {@link SpiceService} obtained by local binding, or on
+     * the host used directly. Volatile as the memory cache fast path reads it
+     * without the binding lock.
+     */
+    private volatile SpiceHost spiceService;
     /** {@link SpiceService} binder. */
     private SpiceServiceConnection spiceServiceConnection = new SpiceServiceConnection();
 
@@ -78,19 +89,20 @@ public class SpiceManager implements Runnable {
      * The list of all requests that have not yet been passed to the service.
      * All iterations must be synchronized.
      */
-    private final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> mapRequestToLaunchToRequestListener = Collections
-        .synchronizedMap(new IdentityHashMap<CachedSpiceRequest<?>, Set<RequestListener<?>>>());
+    private final IndexedRequestMap mapRequestToLaunchToRequestListener = new IndexedRequestMap();
 
     /**
      * The list of all requests that have already been passed to the service.
      * All iterations must be synchronized.
      */
-    private final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> mapPendingRequestToRequestListener = Collections
-        .synchronizedMap(new IdentityHashMap<CachedSpiceRequest<?>, Set<RequestListener<?>>>());
+    private final IndexedRequestMap mapPendingRequestToRequestListener = new IndexedRequestMap();
 
     private final ExecutorService executorService = Executors
         .newSingleThreadExecutor();
 
+    /** Runs cache queries, concurrently for unrelated keys. */
+    private final CacheAccessExecutor cacheAccessExecutor;
+
     /**
      * Lock used to synchronize binding to / unbinding from the
      * {@link SpiceService}.
@@ -109,6 +121,9 @@ public class SpiceManager implements Runnable {
      */
     private final ReentrantLock lockSendRequestsToService = new ReentrantLock();
 
+    /** Whether requests look for their result in memory before queueing. */
+    private volatile boolean isMemoryCacheFastPathEnabled;
+
     /** Thread running runnable code. */
     protected Thread runner;
 
@@ -133,7 +148,49 @@ public class SpiceManager implements Runnable {
      *            the service class to bind to.
      */
     public SpiceManager(final Class<? extends SpiceService> spiceServiceClass) {
+        this(spiceServiceClass, CacheAccessExecutor.DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Creates a {@link SpiceManager}.
+     * @param spiceServiceClass
+     *            the service class to bind to.
+     * @param cacheAccessThreadCount
+     *            the number of threads querying the cache concurrently (see
+     *            {@link #getDataFromCache(Class, String)}). Queries of the
+     *            same cache key stay ordered.
+     */
+    public SpiceManager(final Class<? extends SpiceService> spiceServiceClass,
+        final int cacheAccessThreadCount) {
         this.spiceServiceClass = spiceServiceClass;
+        this.spiceHost = null;
+        this.cacheAccessExecutor = new CacheAccessExecutor(
+            cacheAccessThreadCount);
+    }
+
+    /**
+     * Creates a {@link SpiceManager} that uses a host directly, without
+     * starting nor binding to a {@link SpiceService}. Requests are sent to the
+     * host as soon as the {@link SpiceManager} is started.
+     * @param spiceHost
+     *            the host of the engine, typically an
+     *            {@link InProcessSpiceHost} or a {@link JvmSpiceHost} shared by
+     *            all {@link SpiceManager}s.
+     */
+    public SpiceManager(final SpiceHost spiceHost) {
+        this(spiceHost, CacheAccessExecutor.DEFAULT_THREAD_COUNT);
+    }
+
+    public SpiceManager(final SpiceHost spiceHost,
+        final int cacheAccessThreadCount) {
+        this.spiceServiceClass = null;
+        this.spiceHost = spiceHost;
+        this.cacheAccessExecutor = new CacheAccessExecutor(
+            cacheAccessThreadCount);
+    }
+
+    public int getCacheAccessThreadCount() {
+        return cacheAccessExecutor.getThreadCount();
     }
 
     /**
@@ -142,13 +199,18 @@ public class SpiceManager implements Runnable {
      * @param contextWeakReference
      *            a contextWeakReference that will be used to bind to the
      *            service. Typically, the Activity or Fragment that needs to
-     *            interact with the {@link SpiceService}.
+     *            interact with the {@link SpiceService}. May be null if the
+     *            {@link SpiceManager} uses a host directly.
      */
     public synchronized void start(final Context context) {
         this.contextWeakReference = new WeakReference<Context>(context);
         if (runner != null) {
             throw new IllegalStateException("Already started.");
         } else {
+            if (spiceHost != null) {
+                // no binding : the host can be used right away
+                attachToHost();
+            }
 
             // start the binding to the service
             runner = new Thread(this);
@@ -169,50 +231,70 @@ public class SpiceManager implements Runnable {
 
     @Override
     public void run() {
-        checkServiceIsProperlyDeclaredInAndroidManifest(contextWeakReference
-            .get());
-        // start the service it is not started yet.
-        Context context = contextWeakReference.get();
-        if (context != null) {
-            final Intent intent = new Intent(context, spiceServiceClass);
-            context.startService(intent);
-        } else {
-            Ln.d("Service was not started as Activity died prematurely");
-        }
+        if (spiceHost == null) {
+            checkServiceIsProperlyDeclaredInAndroidManifest(contextWeakReference
+                .get());
+            // start the service it is not started yet.
+            Context context = contextWeakReference.get();
+            if (context != null) {
+                final Intent intent = new Intent(context, spiceServiceClass);
+                context.startService(intent);
+            } else {
+                Ln.d("Service was not started as Activity died prematurely");
+            }
 
-        bindToService(contextWeakReference.get());
+            bindToService(contextWeakReference.get());
+        }
 
         try {
             waitForServiceToBeBound();
             if (spiceService == null) {
                 return;
             }
+            final List<CachedSpiceRequest<?>> requests = new ArrayList<CachedSpiceRequest<?>>();
             while (!isStopped) {
                 try {
-                    sendRequestToService(requestQueue.take());
+                    // wait for a request, then take all those queued
+                    // meanwhile : they are sent under a single lock
+                    requests.add(requestQueue.take());
+                    requestQueue.drainTo(requests);
+                    sendRequestsToService(requests);
                 } catch (final InterruptedException ex) {
                     Ln.d(ex, "Interrupted while waiting for new request.");
+                } finally {
+                    requests.clear();
                 }
             }
         } catch (final InterruptedException e) {
             Ln.d(e, "Interrupted while waiting for acquiring service.");
         } finally {
-            unbindFromService(contextWeakReference.get());
+            // a host is detached by shouldStop, it may be attached again
+            // by a new start meanwhile
+            if (spiceHost == null) {
+                unbindFromService(contextWeakReference.get());
+            }
         }
     }
 
-    private void sendRequestToService(final CachedSpiceRequest<?> spiceRequest) {
+    private void sendRequestsToService(
+        final List<CachedSpiceRequest<?>> requests) {
+        final List<Set<RequestListener<?>>> listRequestListeners = new ArrayList<Set<RequestListener<?>>>(
+            requests.size());
         lockSendRequestsToService.lock();
         try {
-            if (spiceRequest != null) {
-                final Set<RequestListener<?>> listRequestListener = mapRequestToLaunchToRequestListener
-                    .remove(spiceRequest);
-                mapPendingRequestToRequestListener.put(spiceRequest,
-                    listRequestListener);
-                Ln.d("Sending request to service : "
-                    + spiceRequest.getClass().getSimpleName());
-                spiceService.addRequest(spiceRequest, listRequestListener);
+            synchronized (mapRequestToLaunchToRequestListener) {
+                synchronized (mapPendingRequestToRequestListener) {
+                    for (final CachedSpiceRequest<?> spiceRequest : requests) {
+                        final Set<RequestListener<?>> listRequestListener = mapRequestToLaunchToRequestListener
+                            .remove(spiceRequest);
+                        mapPendingRequestToRequestListener.put(spiceRequest,
+                            listRequestListener);
+                        listRequestListeners.add(listRequestListener);
+                    }
+                }
             }
+            Ln.d("Sending " + requests.size() + " requests to service.");
+            spiceService.addRequests(requests, listRequestListeners);
         } finally {
             lockSendRequestsToService.unlock();
         }
@@ -413,11 +495,210 @@ public class SpiceManager implements Runnable {
      */
     public <T> void execute(final CachedSpiceRequest<T> cachedSpiceRequest,
         final RequestListener<T> requestListener) {
+        if (isMemoryCacheFastPathEnabled
+            && notifyFromMemoryCache(cachedSpiceRequest, requestListener)) {
+            return;
+        }
         addRequestListenerToListOfRequestListeners(cachedSpiceRequest,
             requestListener);
         this.requestQueue.add(cachedSpiceRequest);
     }
 
+    /**
+     * When enabled, {@link #execute(CachedSpiceRequest, RequestListener)} first
+     * looks for the result of a request in the memory of the cache (see
+     * {@link com.octo.android.robospice.persistence.memory.LruCacheObjectPersister}
+     * ), on the calling thread. If fresh data is found, the listener is
+     * notified right away : synchronously, before <tt>execute</tt> returns, if
+     * the calling thread is the UI thread, otherwise on the UI thread as soon
+     * as possible. The request then never reaches the {@link SpiceService}.
+     * This saves several thread hops to list adapters that rebind their rows
+     * often. Other requests follow the usual path. Disabled by default.
+     * @param isMemoryCacheFastPathEnabled
+     *            whether requests look for their result in memory first.
+     */
+    public void setMemoryCacheFastPathEnabled(
+        final boolean isMemoryCacheFastPathEnabled) {
+        this.isMemoryCacheFastPathEnabled = isMemoryCacheFastPathEnabled;
+    }
+
+    public boolean isMemoryCacheFastPathEnabled() {
+        return isMemoryCacheFastPathEnabled;
+    }
+
+    /**
+     * Notify a listener of the result of a request if it is in the memory of
+     * the cache. Only possible once bound to the {@link SpiceService}.
+     * @return true if the listener was notified, false if the request must be
+     *         sent to the service.
+     */
+    private <T> boolean notifyFromMemoryCache(
+        final CachedSpiceRequest<T> cachedSpiceRequest,
+        final RequestListener<T> requestListener) {
+        final SpiceHost boundSpiceService = spiceService;
+        if (boundSpiceService == null
+            || cachedSpiceRequest.getRequestCacheKey() == null
+            || !cachedSpiceRequest.isProcessable()
+            || cachedSpiceRequest.isCancelled()) {
+            return false;
+        }
+        final T result = boundSpiceService.getDataFromMemoryCache(
+            cachedSpiceRequest.getResultType(),
+            cachedSpiceRequest.getRequestCacheKey(),
+            cachedSpiceRequest.getCacheDuration());
+        if (result == null) {
+            return false;
+        }
+        Ln.d("Request found in memory cache : " + cachedSpiceRequest);
+        if (requestListener == null) {
+            return true;
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            requestListener.onRequestSuccess(result);
+        } else {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    requestListener.onRequestSuccess(result);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Prefetch the result of a request : execute it only to fill the cache,
+     * without listeners, when the {@link SpiceService} has nothing more urgent
+     * to do. Prefetches are processed after all other requests and one at a
+     * time, so that they don't hurt the latency of foreground requests. If a
+     * request with the same result type and cache key is executed while the
+     * prefetch is pending or running, it joins the prefetch instead of loading
+     * data a second time.
+     * @param request
+     *            the request to prefetch.
+     * @param requestCacheKey
+     *            the key used to store the result of the request in the cache.
+     * @param cacheExpiryDuration
+     *            duration in milliseconds after which the content of the cache
+     *            will be considered to be expired : data is not loaded from
+     *            network if the cache contains fresh data already (see
+     *            {@link DurationInMillis}).
+     */
+    public <T> void prefetch(final SpiceRequest<T> request,
+        final Object requestCacheKey, final long cacheExpiryDuration) {
+        prefetch(new CachedSpiceRequest<T>(request, requestCacheKey,
+            cacheExpiryDuration));
+    }
+
+    /**
+     * Prefetch the result of a request. See
+     * {@link #prefetch(SpiceRequest, Object, long)}.
+     * @param cachedSpiceRequest
+     *            the request to prefetch. It must have a cache key.
+     */
+    public <T> void prefetch(final CachedSpiceRequest<T> cachedSpiceRequest) {
+        if (cachedSpiceRequest.getRequestCacheKey() == null) {
+            throw new IllegalArgumentException(
+                "A prefetch request must have a cache key");
+        }
+        cachedSpiceRequest.setPriority(SpiceRequest.PRIORITY_PREFETCH);
+        synchronized (mapRequestToLaunchToRequestListener) {
+            if (!mapRequestToLaunchToRequestListener
+                .containsKey(cachedSpiceRequest)) {
+                // no listener, but the request must be registered so that
+                // foreground requests can join it
+                mapRequestToLaunchToRequestListener.put(cachedSpiceRequest,
+                    new HashSet<RequestListener<?>>());
+            }
+        }
+        this.requestQueue.add(cachedSpiceRequest);
+    }
+
+    /**
+     * Execute many requests at once. All requests and their listeners are
+     * registered at once and they are handed over to the {@link SpiceService}
+     * together, which is cheaper than executing them one by one.
+     * @param batch
+     *            the requests to execute, and their listeners.
+     */
+    public void executeBatch(final RequestBatch batch) {
+        executeBatch(batch, null);
+    }
+
+    /**
+     * Execute many requests at once, and be notified when all of them have
+     * been processed. See {@link #executeBatch(RequestBatch)}.
+     * @param batch
+     *            the requests to execute, and their listeners.
+     * @param batchListener
+     *            the listener to notify, on the main thread, once all requests
+     *            of the batch have finished and their listeners have been
+     *            notified. A request counts as finished the first time its
+     *            listeners are notified : in stale-while-revalidate mode, when
+     *            stale data is delivered. If the listeners of a request of the
+     *            batch are removed (see
+     *            {@link #dontNotifyRequestListenersForRequest(SpiceRequest)}),
+     *            the batch listener is never notified. Can be null.
+     */
+    public void executeBatch(final RequestBatch batch,
+        final RequestBatchListener batchListener) {
+        if (batch.isEmpty()) {
+            if (batchListener != null) {
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        batchListener.onBatchComplete();
+                    }
+                });
+            }
+            return;
+        }
+
+        final List<CachedSpiceRequest<?>> requests = new ArrayList<CachedSpiceRequest<?>>(
+            batch.getRequests());
+        final List<RequestListener<?>> requestListeners = batch
+            .getRequestListeners();
+        final AtomicInteger remainingRequestCount = new AtomicInteger(
+            requests.size());
+        final Handler handler = batchListener == null ? null : new Handler(
+            Looper.getMainLooper());
+        synchronized (mapRequestToLaunchToRequestListener) {
+            for (int i = 0; i < requests.size(); i++) {
+                final CachedSpiceRequest<?> cachedSpiceRequest = requests
+                    .get(i);
+                Set<RequestListener<?>> listeners = mapRequestToLaunchToRequestListener
+                    .get(cachedSpiceRequest);
+                if (listeners == null) {
+                    listeners = new HashSet<RequestListener<?>>();
+                    mapRequestToLaunchToRequestListener.put(
+                        cachedSpiceRequest, listeners);
+                }
+                listeners.add(requestListeners.get(i));
+                if (batchListener != null) {
+                    // one instance per request, so that equal requests,
+                    // aggregated by the service, are counted each
+                    listeners.add(new BatchCompletionListener(
+                        remainingRequestCount, batchListener, handler));
+                }
+            }
+        }
+
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waitForServiceToBeBound();
+                    if (spiceService == null) {
+                        return;
+                    }
+                    sendRequestsToService(requests);
+                } catch (final InterruptedException e) {
+                    Ln.e(e, "Interrupted while waiting for acquiring service.");
+                }
+            }
+        });
+    }
+
     /**
      * Cancel a pending request if it exists. If no such request exists, this
      * method does nothing. If a request identified by clazz and requestCacheKey
@@ -443,6 +724,38 @@ public class SpiceManager implements Runnable {
         execute(cachedSpiceRequest, null);
     }
 
+    /**
+     * Cancel all requests with a tag (see {@link SpiceRequest#setTag(Object)}).
+     * @param tag
+     *            the tag of the requests to cancel.
+     */
+    public void cancelRequestsWithTag(final Object tag) {
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                cancelRequestsWithTagInternal(tag);
+            }
+        });
+    }
+
+    private void cancelRequestsWithTagInternal(final Object tag) {
+        try {
+            lockSendRequestsToService.lock();
+            for (final CachedSpiceRequest<?> cachedSpiceRequest : mapRequestToLaunchToRequestListener
+                .findRequestsByTag(tag)) {
+                cachedSpiceRequest.cancel();
+            }
+            // cancellation removes requests from the pending map, the index
+            // returns a copy.
+            for (final CachedSpiceRequest<?> cachedSpiceRequest : mapPendingRequestToRequestListener
+                .findRequestsByTag(tag)) {
+                cachedSpiceRequest.cancel();
+            }
+        } finally {
+            lockSendRequestsToService.unlock();
+        }
+    }
+
     // ============================================================================================
     // PUBLIC EXPOSED METHODS : unregister listeners
     // ============================================================================================
@@ -516,16 +829,22 @@ public class SpiceManager implements Runnable {
     private boolean removeListenersOfCachedRequestToLaunch(
         final SpiceRequest<?> request) {
         synchronized (mapRequestToLaunchToRequestListener) {
-            for (final CachedSpiceRequest<?> cachedSpiceRequest : mapRequestToLaunchToRequestListener
-                .keySet()) {
-                if (match(cachedSpiceRequest, request)) {
-                    final Set<RequestListener<?>> setRequestListeners = mapRequestToLaunchToRequestListener
-                        .get(cachedSpiceRequest);
-                    setRequestListeners.clear();
-                    return true;
-                }
+            final CachedSpiceRequest<?> cachedSpiceRequest = mapRequestToLaunchToRequestListener
+                .findRequest(request);
+            if (cachedSpiceRequest == null) {
+                return false;
             }
-            return false;
+            removeListenersOfCachedRequestToLaunch(cachedSpiceRequest);
+            return true;
+        }
+    }
+
+    private void removeListenersOfCachedRequestToLaunch(
+        final CachedSpiceRequest<?> cachedSpiceRequest) {
+        final Set<RequestListener<?>> setRequestListeners = mapRequestToLaunchToRequestListener
+            .get(cachedSpiceRequest);
+        if (setRequestListeners != null) {
+            setRequestListeners.clear();
         }
     }
 
@@ -540,22 +859,66 @@ public class SpiceManager implements Runnable {
     private void removeListenersOfPendingCachedRequest(
         final SpiceRequest<?> request) throws InterruptedException {
         synchronized (mapPendingRequestToRequestListener) {
-            for (final CachedSpiceRequest<?> cachedSpiceRequest : mapPendingRequestToRequestListener
-                .keySet()) {
-                if (match(cachedSpiceRequest, request)) {
-                    waitForServiceToBeBound();
-                    if (spiceService == null) {
-                        return;
-                    }
-                    final Set<RequestListener<?>> setRequestListeners = mapPendingRequestToRequestListener
-                        .get(cachedSpiceRequest);
-                    spiceService.dontNotifyRequestListenersForRequest(
-                        cachedSpiceRequest, setRequestListeners);
-                    mapPendingRequestToRequestListener
-                        .remove(cachedSpiceRequest);
-                    break;
+            final CachedSpiceRequest<?> cachedSpiceRequest = mapPendingRequestToRequestListener
+                .findRequest(request);
+            if (cachedSpiceRequest != null) {
+                removeListenersOfPendingCachedRequest(cachedSpiceRequest);
+            }
+        }
+    }
+
+    private void removeListenersOfPendingCachedRequest(
+        final CachedSpiceRequest<?> cachedSpiceRequest)
+        throws InterruptedException {
+        waitForServiceToBeBound();
+        if (spiceService == null) {
+            return;
+        }
+        final Set<RequestListener<?>> setRequestListeners = mapPendingRequestToRequestListener
+            .get(cachedSpiceRequest);
+        spiceService.dontNotifyRequestListenersForRequest(cachedSpiceRequest,
+            setRequestListeners);
+        mapPendingRequestToRequestListener.remove(cachedSpiceRequest);
+    }
+
+    /**
+     * Disable request listeners notifications for all requests with a tag (see
+     * {@link SpiceRequest#setTag(Object)}), as
+     * {@link #dontNotifyRequestListenersForRequest(SpiceRequest)} does for a
+     * single request.
+     * @param tag
+     *            the tag of the requests whose listeners must be unregistered.
+     */
+    public void dontNotifyRequestListenersWithTag(final Object tag) {
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                dontNotifyRequestListenersWithTagInternal(tag);
+            }
+        });
+    }
+
+    protected void dontNotifyRequestListenersWithTagInternal(final Object tag) {
+        try {
+            lockSendRequestsToService.lock();
+
+            synchronized (mapRequestToLaunchToRequestListener) {
+                for (final CachedSpiceRequest<?> cachedSpiceRequest : mapRequestToLaunchToRequestListener
+                    .findRequestsByTag(tag)) {
+                    removeListenersOfCachedRequestToLaunch(cachedSpiceRequest);
+                }
+            }
+            synchronized (mapPendingRequestToRequestListener) {
+                for (final CachedSpiceRequest<?> cachedSpiceRequest : mapPendingRequestToRequestListener
+                    .findRequestsByTag(tag)) {
+                    removeListenersOfPendingCachedRequest(cachedSpiceRequest);
                 }
             }
+            Ln.v("Removed listeners of requests with tag " + tag);
+        } catch (final InterruptedException e) {
+            Ln.e(e, "Interrupted while removing listeners.");
+        } finally {
+            lockSendRequestsToService.unlock();
         }
     }
 
@@ -624,24 +987,6 @@ public class SpiceManager implements Runnable {
         }
     }
 
-    /**
-     * Wether or not a given {@link CachedSpiceRequest} matches a
-     * {@link SpiceRequest}.
-     * @param cachedSpiceRequest
-     *            the request know by the {@link SpiceManager}.
-     * @param spiceRequest
-     *            the request that we wish to remove notification for.
-     * @return true if {@link CachedSpiceRequest} matches contentRequest.
-     */
-    private boolean match(final CachedSpiceRequest<?> cachedSpiceRequest,
-        final SpiceRequest<?> spiceRequest) {
-        if (spiceRequest instanceof CachedSpiceRequest) {
-            return spiceRequest == cachedSpiceRequest;
-        } else {
-            return cachedSpiceRequest.getSpiceRequest() == spiceRequest;
-        }
-    }
-
     // ============================================================================================
     // PUBLIC EXPOSED METHODS : content service driving.
     // ============================================================================================
@@ -703,32 +1048,38 @@ public class SpiceManager implements Runnable {
     }
 
     public <T> Future<List<Object>> getAllCacheKeys(final Class<T> clazz) {
-        return executorService.submit(new Callable<List<Object>>() {
+        return cacheAccessExecutor.submitRead(clazz, null,
+            new AllCacheKeysLoader(clazz));
+    }
 
-            @Override
-            public List<Object> call() throws Exception {
-                waitForServiceToBeBound();
-                if (spiceService == null) {
-                    return new ArrayList<Object>();
-                }
-                return spiceService.getAllCacheKeys(clazz);
-            }
-        });
+    /**
+     * Asynchronous version of {@link #getAllCacheKeys(Class)}.
+     * @param requestListener
+     *            the listener to notify, on the UI thread, with the cache keys.
+     */
+    public <T> void getAllCacheKeys(final Class<T> clazz,
+        final RequestListener<List<Object>> requestListener) {
+        cacheAccessExecutor.submitRead(clazz, null,
+            new CacheAccessListenerNotifier<List<Object>>(
+                new AllCacheKeysLoader(clazz), requestListener));
     }
 
     public <T> Future<List<T>> getAllDataFromCache(final Class<T> clazz)
         throws CacheLoadingException {
-        return executorService.submit(new Callable<List<T>>() {
+        return cacheAccessExecutor.submitRead(clazz, null,
+            new AllDataFromCacheLoader<T>(clazz));
+    }
 
-            @Override
-            public List<T> call() throws Exception {
-                waitForServiceToBeBound();
-                if (spiceService == null) {
-                    return new ArrayList<T>();
-                }
-                return spiceService.loadAllDataFromCache(clazz);
-            }
-        });
+    /**
+     * Asynchronous version of {@link #getAllDataFromCache(Class)}.
+     * @param requestListener
+     *            the listener to notify, on the UI thread, with the data.
+     */
+    public <T> void getAllDataFromCache(final Class<T> clazz,
+        final RequestListener<List<T>> requestListener) {
+        cacheAccessExecutor.submitRead(clazz, null,
+            new CacheAccessListenerNotifier<List<T>>(
+                new AllDataFromCacheLoader<T>(clazz), requestListener));
     }
 
     /**
@@ -750,17 +1101,24 @@ public class SpiceManager implements Runnable {
      */
     public <T> Future<T> getDataFromCache(final Class<T> clazz,
         final String cacheKey) throws CacheLoadingException {
-        return executorService.submit(new Callable<T>() {
+        return cacheAccessExecutor.submitRead(clazz, cacheKey,
+            new DataFromCacheLoader<T>(clazz, cacheKey));
+    }
 
-            @Override
-            public T call() throws Exception {
-                waitForServiceToBeBound();
-                if (spiceService == null) {
-                    return null;
-                }
-                return spiceService.getDataFromCache(clazz, cacheKey);
-            }
-        });
+    /**
+     * Asynchronous version of {@link #getDataFromCache(Class, String)}. Unlike
+     * {@link #getFromCache(Class, String, long, RequestListener)}, the data is
+     * read from cache without going through the request queue of the
+     * {@link SpiceService}.
+     * @param requestListener
+     *            the listener to notify, on the UI thread, with the data or
+     *            null if no data is found in cache.
+     */
+    public <T> void getDataFromCache(final Class<T> clazz,
+        final String cacheKey, final RequestListener<T> requestListener) {
+        cacheAccessExecutor.submitRead(clazz, cacheKey,
+            new CacheAccessListenerNotifier<T>(new DataFromCacheLoader<T>(
+                clazz, cacheKey), requestListener));
     }
 
     /**
@@ -772,19 +1130,20 @@ public class SpiceManager implements Runnable {
      */
     public <T> void removeDataFromCache(final Class<T> clazz,
         final Object cacheKey) {
-        executorService.execute(new Runnable() {
+        cacheAccessExecutor.submitWrite(clazz, cacheKey, new Callable<Void>() {
 
             @Override
-            public void run() {
+            public Void call() {
                 try {
                     waitForServiceToBeBound();
                     if (spiceService == null) {
-                        return;
+                        return null;
                     }
                     spiceService.removeDataFromCache(clazz, cacheKey);
                 } catch (final InterruptedException e) {
                     Ln.e(e, "Interrupted while waiting for acquiring service.");
                 }
+                return null;
             }
         });
     }
@@ -795,19 +1154,20 @@ public class SpiceManager implements Runnable {
      *            the type of data you want to remove from cache.
      */
     public <T> void removeDataFromCache(final Class<T> clazz) {
-        executorService.execute(new Runnable() {
+        cacheAccessExecutor.submitWrite(clazz, null, new Callable<Void>() {
 
             @Override
-            public void run() {
+            public Void call() {
                 try {
                     waitForServiceToBeBound();
                     if (spiceService == null) {
-                        return;
+                        return null;
                     }
                     spiceService.removeAllDataFromCache(clazz);
                 } catch (final InterruptedException e) {
                     Ln.e(e, "Interrupted while waiting for acquiring service.");
                 }
+                return null;
             }
         });
     }
@@ -817,19 +1177,20 @@ public class SpiceManager implements Runnable {
      * {@link CacheManager} of the {@link SpiceService}.
      */
     public void removeAllDataFromCache() {
-        executorService.execute(new Runnable() {
+        cacheAccessExecutor.submitWrite(null, null, new Callable<Void>() {
 
             @Override
-            public void run() {
+            public Void call() {
                 try {
                     waitForServiceToBeBound();
                     if (spiceService == null) {
-                        return;
+                        return null;
                     }
                     spiceService.removeAllDataFromCache();
                 } catch (final InterruptedException e) {
                     Ln.e(e, "Interrupted while waiting for acquiring service.");
                 }
+                return null;
             }
         });
     }
@@ -927,7 +1288,7 @@ public class SpiceManager implements Runnable {
             try {
                 spiceService = ((SpiceServiceBinder) service).getSpiceService();
                 spiceService
-                    .addSpiceServiceListener(new RequestRemoverSpiceServiceListener());
+                    .addSpiceServiceListener(removerSpiceServiceListener);
                 Ln.d("Bound to service : "
                     + spiceService.getClass().getSimpleName());
                 conditionServiceBound.signalAll();
@@ -966,6 +1327,55 @@ public class SpiceManager implements Runnable {
         }
     }
 
+    /**
+     * Counts the requests of a batch that have finished. Notifies the listener
+     * of the batch after the last one, once the listeners of all requests have
+     * been notified.
+     */
+    private static final class BatchCompletionListener implements
+        RequestListener<Object> {
+        private final AtomicInteger remainingRequestCount;
+        private final RequestBatchListener batchListener;
+        private final Handler handler;
+        private boolean isRequestComplete;
+
+        public BatchCompletionListener(
+            final AtomicInteger remainingRequestCount,
+            final RequestBatchListener batchListener, final Handler handler) {
+            this.remainingRequestCount = remainingRequestCount;
+            this.batchListener = batchListener;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onRequestFailure(final SpiceException spiceException) {
+            onRequestComplete();
+        }
+
+        @Override
+        public void onRequestSuccess(final Object result) {
+            onRequestComplete();
+        }
+
+        private void onRequestComplete() {
+            // listeners are notified on the main thread only
+            if (isRequestComplete) {
+                return;
+            }
+            isRequestComplete = true;
+            if (remainingRequestCount.decrementAndGet() == 0) {
+                // after the listeners notified in the same batch of
+                // notifications
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        batchListener.onBatchComplete();
+                    }
+                });
+            }
+        }
+    }
+
     // ============================================================================================
     // PRIVATE METHODS : SpiceService binding management.
     // ============================================================================================
@@ -991,6 +1401,10 @@ public class SpiceManager implements Runnable {
     }
 
     private void unbindFromService(final Context context) {
+        if (spiceHost != null) {
+            detachFromHost();
+            return;
+        }
         if (context == null) {
             return;
         }
@@ -1017,6 +1431,34 @@ public class SpiceManager implements Runnable {
         }
     }
 
+    private void attachToHost() {
+        lockAcquireService.lock();
+        try {
+            spiceService = spiceHost;
+            spiceService.addSpiceServiceListener(removerSpiceServiceListener);
+            Ln.d("Attached to host : " + spiceHost.getClass().getSimpleName());
+            conditionServiceBound.signalAll();
+        } finally {
+            lockAcquireService.unlock();
+        }
+    }
+
+    private void detachFromHost() {
+        lockAcquireService.lock();
+        try {
+            if (spiceService != null) {
+                spiceService
+                    .removeSpiceServiceListener(removerSpiceServiceListener);
+                spiceService = null;
+                Ln.d("Detached from host : "
+                    + spiceHost.getClass().getSimpleName());
+                conditionServiceUnbound.signalAll();
+            }
+        } finally {
+            lockAcquireService.unlock();
+        }
+    }
+
     /**
      * Wait for acquiring binding to {@link SpiceService}.
      * @throws InterruptedException
@@ -1067,7 +1509,7 @@ public class SpiceManager implements Runnable {
     }
 
     private void dumpMap(final StringBuilder stringBuilder,
-        final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> map) {
+        final IndexedRequestMap map) {
         synchronized (map) {
             stringBuilder.append(" request count= ");
             stringBuilder.append(mapRequestToLaunchToRequestListener.keySet()
@@ -1092,4 +1534,103 @@ public class SpiceManager implements Runnable {
             stringBuilder.append('\n');
         }
     }
+
+    // -------------------------------
+    // -------Cache access
+    // -------------------------------
+
+    private final class AllCacheKeysLoader implements Callable<List<Object>> {
+        private final Class<?> clazz;
+
+        public AllCacheKeysLoader(final Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public List<Object> call() throws Exception {
+            waitForServiceToBeBound();
+            if (spiceService == null) {
+                return new ArrayList<Object>();
+            }
+            return spiceService.getAllCacheKeys(clazz);
+        }
+    }
+
+    private final class AllDataFromCacheLoader<T> implements Callable<List<T>> {
+        private final Class<T> clazz;
+
+        public AllDataFromCacheLoader(final Class<T> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public List<T> call() throws Exception {
+            waitForServiceToBeBound();
+            if (spiceService == null) {
+                return new ArrayList<T>();
+            }
+            return spiceService.loadAllDataFromCache(clazz);
+        }
+    }
+
+    private final class DataFromCacheLoader<T> implements Callable<T> {
+        private final Class<T> clazz;
+        private final String cacheKey;
+
+        public DataFromCacheLoader(final Class<T> clazz, final String cacheKey) {
+            this.clazz = clazz;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public T call() throws Exception {
+            waitForServiceToBeBound();
+            if (spiceService == null) {
+                return null;
+            }
+            return spiceService.getDataFromCache(clazz, cacheKey);
+        }
+    }
+
+    /**
+     * Queries the cache and notifies a listener of the result, on the UI
+     * thread.
+     */
+    private static final class CacheAccessListenerNotifier<T> implements
+        Callable<Void> {
+        private final Callable<T> loader;
+        private final RequestListener<T> requestListener;
+
+        public CacheAccessListenerNotifier(final Callable<T> loader,
+            final RequestListener<T> requestListener) {
+            this.loader = loader;
+            this.requestListener = requestListener;
+        }
+
+        @Override
+        public Void call() {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            try {
+                final T result = loader.call();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestListener.onRequestSuccess(result);
+                    }
+                });
+            } catch (final InterruptedException e) {
+                Ln.e(e, "Interrupted while waiting for acquiring service.");
+            } catch (final Exception e) {
+                Ln.e(e, "An error occured while querying the cache.");
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestListener
+                            .onRequestFailure(new CacheLoadingException(e));
+                    }
+                });
+            }
+            return null;
+        }
+    }
 }
@@ -4,10 +4,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 import roboguice.util.temp.Ln;
 import android.app.Application;
@@ -17,14 +16,21 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.IBinder;
 
+import com.octo.android.robospice.networkstate.CachedNetworkStateChecker;
 import com.octo.android.robospice.networkstate.DefaultNetworkStateChecker;
 import com.octo.android.robospice.networkstate.NetworkStateChecker;
 import com.octo.android.robospice.persistence.CacheManager;
-import com.octo.android.robospice.persistence.DurationInMillis;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
+import com.octo.android.robospice.request.AdaptiveThreadPoolExecutor;
 import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.CircuitBreakerPolicy;
+import com.octo.android.robospice.request.CircuitBreakerState;
+import com.octo.android.robospice.request.OfflineParkingPolicy;
 import com.octo.android.robospice.request.RequestProcessor;
 import com.octo.android.robospice.request.RequestProcessorListener;
+import com.octo.android.robospice.request.RequestTimingStatistics;
+import com.octo.android.robospice.request.SpiceRequest;
+import com.octo.android.robospice.request.StageStatistics;
 import com.octo.android.robospice.request.listener.RequestListener;
 
 /**
@@ -39,11 +45,13 @@ import com.octo.android.robospice.request.listener.RequestListener;
  * @author mwa
  * @author sni
  */
-public abstract class SpiceService extends Service {
+public abstract class SpiceService extends Service implements SpiceHost {
 
     private static final int NOTIFICATION_ID = 42;
 
     private static final int DEFAULT_THREAD_COUNT = 1;
+    private static final int DEFAULT_CACHE_THREAD_COUNT = 1;
+    private static final int DEFAULT_PERSIST_THREAD_COUNT = 1;
     private static final boolean DEFAULT_FAIL_ON_CACHE_ERROR = false;
 
     // ============================================================================================
@@ -51,9 +59,8 @@ public abstract class SpiceService extends Service {
     // ============================================================================================
     private SpiceServiceBinder mSpiceServiceBinder;
 
-    /** Responsible for persisting data. */
-
-    private RequestProcessor requestProcessor;
+    /** Processes requests and manages the cache. */
+    private SpiceEngine engine;
 
     private int currentPendingRequestCount = 0;
 
@@ -61,8 +68,6 @@ public abstract class SpiceService extends Service {
 
     private Notification notification;
 
-    private CacheManager cacheManager;
-
     private final SelfStopperRequestProcessorListener requestProcessorListener = new SelfStopperRequestProcessorListener();
 
     // ============================================================================================
@@ -80,19 +85,30 @@ public abstract class SpiceService extends Service {
     public void onCreate() {
         super.onCreate();
 
-        cacheManager = createCacheManager(getApplication());
+        final CacheManager cacheManager = createCacheManager(getApplication());
         if (cacheManager == null) {
             throw new IllegalArgumentException(
                 "createCacheManager() can't create a null cacheManager");
         }
 
         final ExecutorService executorService = getExecutorService();
+        final ExecutorService cacheExecutorService = getCacheExecutorService();
+        final ExecutorService persistExecutorService = getPersistExecutorService();
         final NetworkStateChecker networkStateChecker = getNetworkStateChecker();
 
-        requestProcessor = new RequestProcessor(getApplicationContext(),
-            cacheManager, executorService, requestProcessorListener,
-            networkStateChecker);
+        final RequestProcessor requestProcessor = new RequestProcessor(
+            getApplicationContext(), cacheManager, executorService,
+            cacheExecutorService, persistExecutorService,
+            requestProcessorListener, networkStateChecker);
         requestProcessor.setFailOnCacheError(DEFAULT_FAIL_ON_CACHE_ERROR);
+        requestProcessor.setDispatchInterval(getDispatchInterval());
+        requestProcessor.setDefaultTimeout(getDefaultRequestTimeout());
+        requestProcessor.setCircuitBreakerPolicy(getCircuitBreakerPolicy());
+        requestProcessor.setOfflineParkingPolicy(getOfflineParkingPolicy());
+        requestProcessor
+            .setTimingStatisticsEnabled(isTimingStatisticsEnabled());
+        engine = new SpiceEngine(cacheManager, requestProcessor,
+            networkStateChecker);
 
         notification = createDefaultNotification();
         startForeground(notification);
@@ -110,7 +126,10 @@ public abstract class SpiceService extends Service {
     /**
      * Factory method to create an entity responsible to check for network
      * state. The default implementation of this method will return a
-     * {@link DefaultNetworkStateChecker}. Override this method if you want to
+     * {@link CachedNetworkStateChecker}, that keeps the network state in
+     * memory and refreshes it on connectivity broadcasts. Return a
+     * {@link DefaultNetworkStateChecker} to query the system for each request
+     * instead. Override this method if you want to
      * inject a custom network state for testing or to adapt to connectivity
      * changes on the Android. This method is also useful to create non-network
      * related requests. In that case create a {@link NetworkStateChecker} that
@@ -120,37 +139,57 @@ public abstract class SpiceService extends Service {
      *         network state allows requests executions.
      */
     protected NetworkStateChecker getNetworkStateChecker() {
-        return new DefaultNetworkStateChecker();
+        return new CachedNetworkStateChecker(this);
     }
 
     /**
      * Factory method to create an {@link ExecutorService} that will be used to
      * execute requests. The default implementation of this method will create a
      * single threaded or multi-threaded {@link ExecutorService} depending on
-     * the number of threads returned by {@link #getThreadCount()}. If you
+     * the number of threads returned by {@link #getThreadCount()}. If
+     * {@link #getMaxThreadCount()} is greater than {@link #getThreadCount()},
+     * it will create an {@link AdaptiveThreadPoolExecutor} whose number of
+     * threads adapts to the load between these two bounds. Either way, idle
+     * threads time out, so that a quiet service doesn't use any thread. If you
      * override this method in your service, you can supply a custom
      * {@link ExecutorService}. This feature has been implemented following a
      * request from Riccardo Ciovati.
      * @return the {@link ExecutorService} to be used to execute requests .
      */
     protected ExecutorService getExecutorService() {
-        ExecutorService executorService;
-        final int threadCount = getThreadCount();
-        if (threadCount <= 0) {
-            throw new IllegalArgumentException("Thread count must be >= 1");
-        } else if (threadCount == 1) {
-            executorService = Executors.newSingleThreadExecutor();
-        } else {
-            executorService = Executors.newFixedThreadPool(threadCount,
-                new ThreadFactory() {
-
-                    @Override
-                    public Thread newThread(final Runnable r) {
-                        return new Thread(r);
-                    }
-                });
+        final int maxThreadCount = getMaxThreadCount();
+        if (maxThreadCount > getThreadCount()) {
+            return new AdaptiveThreadPoolExecutor(getThreadCount(),
+                maxThreadCount);
         }
-        return executorService;
+        return SpiceEngine.createExecutorService(getThreadCount(),
+            "robospice-network");
+    }
+
+    /**
+     * Factory method to create the {@link ExecutorService} that will be used
+     * to look for requests' results in cache. Cache lookups then don't wait
+     * behind network calls. The default implementation creates a pool of
+     * {@link #getCacheThreadCount()} threads. Return null to look in cache on
+     * the threads of {@link #getExecutorService()}.
+     * @return the {@link ExecutorService} to be used to read the cache.
+     */
+    protected ExecutorService getCacheExecutorService() {
+        return SpiceEngine.createExecutorService(getCacheThreadCount(),
+            "robospice-cache");
+    }
+
+    /**
+     * Factory method to create the {@link ExecutorService} that will be used
+     * to save requests' results in cache. Slow disk writes then don't hold
+     * network threads. The default implementation creates a pool of
+     * {@link #getPersistThreadCount()} threads. Return null to save results on
+     * the threads of {@link #getExecutorService()}.
+     * @return the {@link ExecutorService} to be used to write the cache.
+     */
+    protected ExecutorService getPersistExecutorService() {
+        return SpiceEngine.createExecutorService(getPersistThreadCount(),
+            "robospice-persist");
     }
 
     public static Notification createDefaultNotification() {
@@ -161,8 +200,14 @@ public abstract class SpiceService extends Service {
         return note;
     }
 
+    /**
+     * The executors of the engine are stopped, see {@link SpiceEngine#shutdown()}.
+     * Data still being saved in cache is drained on a background thread, see
+     * {@link SpiceEngine#drainPendingWrites()}.
+     */
     @Override
     public void onDestroy() {
+        engine.destroy();
         Ln.d("SpiceService instance destroyed.");
         super.onDestroy();
     }
@@ -177,52 +222,155 @@ public abstract class SpiceService extends Service {
         return DEFAULT_THREAD_COUNT;
     }
 
+    /**
+     * Override this method to let the number of threads processing requests
+     * adapt to the load : it will grow up to this number when requests wait
+     * to be processed, and shrink down to {@link #getThreadCount()} when
+     * threads are idle. All threads terminate when the service is idle.
+     * @return the maximum number of threads processing requests. By default,
+     *         {@link #getThreadCount()} : the number of threads is fixed.
+     */
+    public int getMaxThreadCount() {
+        return getThreadCount();
+    }
+
+    public int getCacheThreadCount() {
+        return DEFAULT_CACHE_THREAD_COUNT;
+    }
+
+    public int getPersistThreadCount() {
+        return DEFAULT_PERSIST_THREAD_COUNT;
+    }
+
+    /**
+     * Progress notifications of request listeners are delivered on the main
+     * thread in batches, at most once per dispatch interval. Only the latest
+     * progress of each request is delivered. Override this method to change
+     * the interval, the default one is roughly a frame.
+     * @return the interval in ms between two deliveries of progress
+     *         notifications. 0 means as soon as possible.
+     */
+    public long getDispatchInterval() {
+        return RequestProcessor.DEFAULT_DISPATCH_INTERVAL;
+    }
+
+    /**
+     * Requests that don't set their own timeout (see
+     * {@link SpiceRequest#setTimeout(long)}) are cancelled if they are not
+     * processed within this duration from their submission. Override this
+     * method to set a default deadline, requests don't time out by default.
+     * @return the default timeout in ms of requests, or
+     *         {@link SpiceRequest#TIMEOUT_NONE}.
+     */
+    public long getDefaultRequestTimeout() {
+        return SpiceRequest.TIMEOUT_NONE;
+    }
+
+    /**
+     * Override this method to enable circuit breakers : requests to an
+     * endpoint (see {@link SpiceRequest#getEndpointId()}) that keeps failing
+     * or is too slow then fail fast, without being sent over the network.
+     * Circuit breakers are disabled by default.
+     * @return the settings of the circuit breakers, or null to disable them.
+     */
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return null;
+    }
+
+    /**
+     * Override this method to enable the offline mode : requests that need
+     * the network while it is down are then parked in memory and replayed
+     * when it is back, instead of failing with a
+     * {@link com.octo.android.robospice.exception.NoNetworkException}. The
+     * offline mode is disabled by default.
+     * @return the settings of the offline mode, or null to disable it.
+     */
+    public OfflineParkingPolicy getOfflineParkingPolicy() {
+        return null;
+    }
+
+    /**
+     * Override this method to aggregate the durations of the phases of
+     * requests (queued, cache read, network, cache write, dispatch) per request
+     * class, see {@link #getTimingStatistics()}. Requests are not timed by
+     * default, unless a {@link SpiceServiceTimingListener} is registered.
+     * @return true to enable timing statistics.
+     */
+    public boolean isTimingStatisticsEnabled() {
+        return false;
+    }
+
     public void addRequest(final CachedSpiceRequest<?> request,
         final Set<RequestListener<?>> listRequestListener) {
         currentPendingRequestCount++;
-        requestProcessor.addRequest(request, listRequestListener);
+        engine.addRequest(request, listRequestListener);
+    }
+
+    /**
+     * Add many requests at once, see
+     * {@link SpiceEngine#addRequests(List, List)}.
+     * @param requests
+     *            the requests to add.
+     * @param listRequestListeners
+     *            the listeners of the requests : the listeners at a given index
+     *            are the ones of the request at the same index.
+     */
+    public void addRequests(final List<CachedSpiceRequest<?>> requests,
+        final List<Set<RequestListener<?>>> listRequestListeners) {
+        currentPendingRequestCount += requests.size();
+        engine.addRequests(requests, listRequestListeners);
     }
 
     public boolean removeDataFromCache(final Class<?> clazz,
         final Object cacheKey) {
-        return requestProcessor.removeDataFromCache(clazz, cacheKey);
+        return engine.removeDataFromCache(clazz, cacheKey);
     }
 
     public void removeAllDataFromCache(final Class<?> clazz) {
-        requestProcessor.removeAllDataFromCache(clazz);
+        engine.removeAllDataFromCache(clazz);
     }
 
     public <T> List<Object> getAllCacheKeys(final Class<T> clazz) {
-        return cacheManager.getAllCacheKeys(clazz);
+        return engine.getAllCacheKeys(clazz);
     }
 
     public <T> List<T> loadAllDataFromCache(final Class<T> clazz)
         throws CacheLoadingException {
-        return cacheManager.loadAllDataFromCache(clazz);
+        return engine.loadAllDataFromCache(clazz);
     }
 
     public <T> T getDataFromCache(final Class<T> clazz, final String cacheKey)
         throws CacheLoadingException {
-        return cacheManager.loadDataFromCache(clazz, cacheKey,
-            DurationInMillis.ALWAYS);
+        return engine.getDataFromCache(clazz, cacheKey);
+    }
+
+    /**
+     * Look for data in the memory of the cache only. Never blocks on disk, it
+     * can be called from any thread, including the UI thread.
+     * @return the data in memory, or null if it is not in memory or expired.
+     */
+    public <T> T getDataFromMemoryCache(final Class<T> clazz,
+        final Object cacheKey, final long cacheExpiryDuration) {
+        return engine.getDataFromMemoryCache(clazz, cacheKey,
+            cacheExpiryDuration);
     }
 
     public void removeAllDataFromCache() {
-        requestProcessor.removeAllDataFromCache();
+        engine.removeAllDataFromCache();
     }
 
     public boolean isFailOnCacheError() {
-        return requestProcessor.isFailOnCacheError();
+        return engine.isFailOnCacheError();
     }
 
     public void setFailOnCacheError(final boolean failOnCacheError) {
-        requestProcessor.setFailOnCacheError(failOnCacheError);
+        engine.setFailOnCacheError(failOnCacheError);
     }
 
     public void dontNotifyRequestListenersForRequest(
         final CachedSpiceRequest<?> request,
         final Collection<RequestListener<?>> listRequestListener) {
-        requestProcessor.dontNotifyRequestListenersForRequest(request,
+        engine.dontNotifyRequestListenersForRequest(request,
             listRequestListener);
     }
 
@@ -266,18 +414,43 @@ public abstract class SpiceService extends Service {
     }
 
     public void dumpState() {
-        Ln.v(requestProcessor.toString());
+        engine.dumpState();
+    }
+
+    /**
+     * @return a snapshot of the pools and queues of all stages of the
+     *         processing of requests.
+     */
+    public List<StageStatistics> getStageStatistics() {
+        return engine.getStageStatistics();
+    }
+
+    /**
+     * @return a snapshot of the state of the circuit breaker of each endpoint.
+     *         Register a {@link SpiceServiceCircuitBreakerListener} to be
+     *         notified of changes.
+     */
+    public Map<Object, CircuitBreakerState> getCircuitBreakerStates() {
+        return engine.getCircuitBreakerStates();
+    }
+
+    /**
+     * @return the distributions of the durations of each phase of requests,
+     *         per request class. Empty unless
+     *         {@link #isTimingStatisticsEnabled()} is overriden.
+     */
+    public List<RequestTimingStatistics> getTimingStatistics() {
+        return engine.getTimingStatistics();
     }
 
     public void addSpiceServiceListener(
         final SpiceServiceServiceListener spiceServiceServiceListener) {
-        requestProcessor.addSpiceServiceListener(spiceServiceServiceListener);
+        engine.addSpiceServiceListener(spiceServiceServiceListener);
     }
 
     public void removeSpiceServiceListener(
         final SpiceServiceServiceListener spiceServiceServiceListener) {
-        requestProcessor
-            .removeSpiceServiceListener(spiceServiceServiceListener);
+        engine.removeSpiceServiceListener(spiceServiceServiceListener);
     }
 
     private void stopIfNotBoundAndHasNoPendingRequests() {
@@ -0,0 +1,13 @@
+package com.octo.android.robospice;
+
+import com.octo.android.robospice.request.CircuitBreakerState;
+
+/**
+ * A {@link SpiceServiceServiceListener} that is also notified when the circuit
+ * breaker of an endpoint changes state. Notifications are sent from the thread
+ * that processed the request causing the change.
+ * @author sni
+ */
+public interface SpiceServiceCircuitBreakerListener extends SpiceServiceServiceListener {
+    void onCircuitBreakerStateChanged(Object endpointId, CircuitBreakerState state);
+}
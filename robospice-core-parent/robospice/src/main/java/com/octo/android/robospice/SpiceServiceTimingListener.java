@@ -0,0 +1,15 @@
+package com.octo.android.robospice;
+
+import com.octo.android.robospice.request.CachedSpiceRequest;
+import com.octo.android.robospice.request.RequestTiming;
+
+/**
+ * A {@link SpiceServiceServiceListener} that is also notified of where the
+ * time of each request went. Registering such a listener enables timing of
+ * requests, which is off otherwise. Notifications are sent from the thread
+ * that delivers results to request listeners, right after they were notified.
+ * @author sni
+ */
+public interface SpiceServiceTimingListener extends SpiceServiceServiceListener {
+    void onRequestTimed(CachedSpiceRequest<?> cachedSpiceRequest, RequestTiming requestTiming);
+}
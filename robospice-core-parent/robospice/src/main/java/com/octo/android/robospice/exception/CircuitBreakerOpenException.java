@@ -0,0 +1,19 @@
+package com.octo.android.robospice.exception;
+
+import com.octo.android.robospice.persistence.exception.SpiceException;
+
+/**
+ * Exception thrown when a request is not sent over the network because the
+ * circuit breaker of its endpoint is open : too many recent requests to this
+ * endpoint failed or were too slow.
+ * @author sni
+ */
+public class CircuitBreakerOpenException extends SpiceException {
+
+    private static final long serialVersionUID = -3181927455311447658L;
+
+    public CircuitBreakerOpenException(final String detailMessage) {
+        super(detailMessage);
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.octo.android.robospice.exception;
+
+/**
+ * Exception thrown when a request is cancelled because it could not complete
+ * before its deadline.
+ * @author sni
+ */
+public class RequestTimeoutException extends RequestCancelledException {
+
+    private static final long serialVersionUID = -2514338880372212837L;
+
+    public RequestTimeoutException(final String detailMessage) {
+        super(detailMessage);
+    }
+
+    public RequestTimeoutException(final String detailMessage,
+        final Throwable throwable) {
+        super(detailMessage, throwable);
+    }
+
+    public RequestTimeoutException(final Throwable throwable) {
+        super(throwable);
+    }
+
+}
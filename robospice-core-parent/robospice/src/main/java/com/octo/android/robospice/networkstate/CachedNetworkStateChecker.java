@@ -0,0 +1,112 @@
+package com.octo.android.robospice.networkstate;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import roboguice.util.temp.Ln;
+import android.content.Context;
+
+/**
+ * A {@link NetworkStateChecker} that keeps the network state in memory instead
+ * of querying the system for each request. The state is read once when the
+ * checker starts, then updated each time its {@link NetworkStateSource}
+ * signals a change. Checking the network state is then a volatile read.
+ * <p>
+ * Listeners can be notified of network state changes, for instance to replay
+ * requests when network is back.
+ * @author sni
+ */
+public class CachedNetworkStateChecker extends DefaultNetworkStateChecker implements NetworkStateSource.Listener {
+
+    private final NetworkStateSource networkStateSource;
+    private final CopyOnWriteArrayList<NetworkStateSource.Listener> listeners = new CopyOnWriteArrayList<NetworkStateSource.Listener>();
+
+    private volatile NetworkState networkState;
+    private boolean isStarted;
+
+    /**
+     * Build a checker whose state is refreshed on connectivity broadcasts.
+     * @param context
+     *            the context used to listen to connectivity broadcasts.
+     */
+    public CachedNetworkStateChecker(final Context context) {
+        this(new ConnectivityNetworkStateSource(context));
+    }
+
+    public CachedNetworkStateChecker(final NetworkStateSource networkStateSource) {
+        this.networkStateSource = networkStateSource;
+    }
+
+    @Override
+    public boolean isNetworkAvailable(final Context context) {
+        return getNetworkState().isConnected();
+    }
+
+    /**
+     * @return the current network state. The checker starts listening to
+     *         network state changes on the first call.
+     */
+    public NetworkState getNetworkState() {
+        final NetworkState currentNetworkState = networkState;
+        if (currentNetworkState != null) {
+            return currentNetworkState;
+        }
+        start();
+        return networkState;
+    }
+
+    /**
+     * Start listening to network state changes. Does nothing if already
+     * started.
+     */
+    public synchronized void start() {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        // subscribe first so that no change is missed while reading the state
+        networkStateSource.start(this);
+        if (networkState == null) {
+            networkState = networkStateSource.getNetworkState();
+        }
+    }
+
+    /**
+     * Stop listening to network state changes. The next check of the network
+     * state starts listening again.
+     */
+    public synchronized void stop() {
+        if (!isStarted) {
+            return;
+        }
+        isStarted = false;
+        networkStateSource.stop();
+        networkState = null;
+    }
+
+    @Override
+    public void onNetworkStateChanged(final NetworkState newNetworkState) {
+        final NetworkState previousNetworkState;
+        synchronized (this) {
+            if (!isStarted) {
+                return;
+            }
+            previousNetworkState = networkState;
+            networkState = newNetworkState;
+        }
+        if (newNetworkState.equals(previousNetworkState)) {
+            return;
+        }
+        Ln.d("Network state changed : %s", newNetworkState);
+        for (final NetworkStateSource.Listener listener : listeners) {
+            listener.onNetworkStateChanged(newNetworkState);
+        }
+    }
+
+    public void addNetworkStateListener(final NetworkStateSource.Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeNetworkStateListener(final NetworkStateSource.Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,65 @@
+package com.octo.android.robospice.networkstate;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+/**
+ * Network state read from the {@link ConnectivityManager}, refreshed on each
+ * connectivity broadcast. The {@link ConnectivityManager} is queried once per
+ * broadcast, not once per request.
+ * @author sni
+ */
+public class ConnectivityNetworkStateSource implements NetworkStateSource {
+
+    private final Context context;
+    private BroadcastReceiver connectivityReceiver;
+
+    public ConnectivityNetworkStateSource(final Context context) {
+        this.context = context.getApplicationContext() == null ? context : context.getApplicationContext();
+    }
+
+    @Override
+    public NetworkState getNetworkState() {
+        final ConnectivityManager connectivityManager = (ConnectivityManager) context
+            .getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo networkInfo = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnectedOrConnecting()) {
+            return NetworkState.DISCONNECTED;
+        }
+        final boolean isMetered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            isMetered = connectivityManager.isActiveNetworkMetered();
+        } else {
+            isMetered = networkInfo.getType() != ConnectivityManager.TYPE_WIFI;
+        }
+        return new NetworkState(true, networkInfo.getType(), isMetered);
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (connectivityReceiver != null) {
+            return;
+        }
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(final Context context, final Intent intent) {
+                listener.onNetworkStateChanged(getNetworkState());
+            }
+        };
+        context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (connectivityReceiver == null) {
+            return;
+        }
+        context.unregisterReceiver(connectivityReceiver);
+        connectivityReceiver = null;
+    }
+}
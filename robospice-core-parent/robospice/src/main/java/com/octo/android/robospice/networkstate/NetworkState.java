@@ -0,0 +1,73 @@
+package com.octo.android.robospice.networkstate;
+
+/**
+ * An immutable snapshot of the network state : whether a connection is up, its
+ * type and whether it is metered.
+ * @author sni
+ */
+public final class NetworkState {
+
+    /** Type of the connection when none is up. */
+    public static final int TYPE_NONE = -1;
+
+    public static final NetworkState DISCONNECTED = new NetworkState(false, TYPE_NONE, false);
+
+    private final boolean isConnected;
+    private final int type;
+    private final boolean isMetered;
+
+    /**
+     * @param isConnected
+     *            whether a connection is up or being set up.
+     * @param type
+     *            the type of the connection, one of the <tt>TYPE_*</tt>
+     *            constants of {@link android.net.ConnectivityManager}, or
+     *            {@link #TYPE_NONE}.
+     * @param isMetered
+     *            whether the connection may be billed by the amount of data.
+     */
+    public NetworkState(final boolean isConnected, final int type, final boolean isMetered) {
+        this.isConnected = isConnected;
+        this.type = type;
+        this.isMetered = isMetered;
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isMetered() {
+        return isMetered;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (isConnected ? 1231 : 1237);
+        result = prime * result + type;
+        result = prime * result + (isMetered ? 1231 : 1237);
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof NetworkState)) {
+            return false;
+        }
+        final NetworkState other = (NetworkState) obj;
+        return isConnected == other.isConnected && type == other.type && isMetered == other.isMetered;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkState [isConnected=" + isConnected + ", type=" + type + ", isMetered=" + isMetered + "]";
+    }
+}
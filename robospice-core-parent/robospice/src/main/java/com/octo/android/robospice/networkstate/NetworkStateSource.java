@@ -0,0 +1,33 @@
+package com.octo.android.robospice.networkstate;
+
+/**
+ * A source of network state changes, observed by a
+ * {@link CachedNetworkStateChecker}. On Android, the source is the
+ * connectivity broadcasts (see {@link ConnectivityNetworkStateSource}). Tests
+ * can use a fake source to simulate network changes on the JVM.
+ * @author sni
+ */
+public interface NetworkStateSource {
+
+    /** Notified each time the network state may have changed. */
+    interface Listener {
+        void onNetworkStateChanged(NetworkState networkState);
+    }
+
+    /**
+     * @return the current network state.
+     */
+    NetworkState getNetworkState();
+
+    /**
+     * Start notifying a listener of network state changes.
+     * @param listener
+     *            the listener to notify.
+     */
+    void start(Listener listener);
+
+    /**
+     * Stop notifying the listener passed to {@link #start(Listener)}.
+     */
+    void stop();
+}
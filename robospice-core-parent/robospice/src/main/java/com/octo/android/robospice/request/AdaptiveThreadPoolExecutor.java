@@ -0,0 +1,224 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+
+/**
+ * A {@link ThreadPoolExecutor} whose number of threads adapts to the load, to
+ * process requests. Requests spend most of their time waiting for the network,
+ * so the best number of threads depends on network latency rather than on the
+ * number of CPUs. The executor observes, over short windows :
+ * <ul>
+ * <li>how long tasks wait in the queue,</li>
+ * <li>how long tasks take to execute (mostly network latency),</li>
+ * <li>how many tasks complete per second.</li>
+ * </ul>
+ * When tasks wait in the queue for a significant fraction of their execution
+ * time, the number of threads is doubled, up to a maximum. If doubling did not
+ * improve throughput (the network is saturated), growth is put on hold for a
+ * few windows. When threads are idle, their number is halved, down to a
+ * minimum. All threads time out when idle, so that a quiet service doesn't use
+ * any thread.
+ * @author sni
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+
+    public static final long DEFAULT_KEEP_ALIVE_TIME = 30 * 1000;
+    public static final long DEFAULT_ADJUSTMENT_INTERVAL = 250;
+
+    /** Tasks shorter than that are not worth a new thread. */
+    private static final long MIN_QUEUE_WAIT_TO_GROW = TimeUnit.MILLISECONDS.toNanos(5);
+    /** Grow when tasks wait longer than this fraction of their execution. */
+    private static final double QUEUE_WAIT_RATIO_TO_GROW = 0.25;
+    /** Growth is worth it if it improves throughput by at least 5%. */
+    private static final double MIN_THROUGHPUT_GAIN_OF_GROWTH = 1.05;
+    private static final int HOLD_WINDOW_COUNT = 4;
+
+    private final int minThreadCount;
+    private final int maxThreadCount;
+    private final long adjustmentIntervalInNanos;
+
+    // statistics of the current window
+    private final AtomicLong windowCompletedTaskCount = new AtomicLong();
+    private final AtomicLong windowQueueWaitInNanos = new AtomicLong();
+    private final AtomicLong windowExecutionTimeInNanos = new AtomicLong();
+    private volatile long windowStartInNanos = System.nanoTime();
+
+    // state of the adjustment, guarded by isAdjusting
+    private final AtomicBoolean isAdjusting = new AtomicBoolean();
+    private double lastThroughput;
+    private boolean isLastAdjustmentGrowth;
+    private int holdWindowCount;
+
+    private final AtomicLong growthCount = new AtomicLong();
+    private final AtomicLong shrinkCount = new AtomicLong();
+
+    public AdaptiveThreadPoolExecutor(final int minThreadCount, final int maxThreadCount) {
+        this(minThreadCount, maxThreadCount, DEFAULT_KEEP_ALIVE_TIME, DEFAULT_ADJUSTMENT_INTERVAL);
+    }
+
+    /**
+     * @param minThreadCount
+     *            the minimum number of threads when requests are processed.
+     * @param maxThreadCount
+     *            the maximum number of threads.
+     * @param keepAliveTime
+     *            the time in ms after which an idle thread terminates.
+     * @param adjustmentInterval
+     *            the duration in ms of the windows over which the load is
+     *            observed before adjusting the number of threads.
+     */
+    public AdaptiveThreadPoolExecutor(final int minThreadCount, final int maxThreadCount, final long keepAliveTime,
+        final long adjustmentInterval) {
+        super(checkThreadCounts(minThreadCount, maxThreadCount), maxThreadCount, keepAliveTime, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        this.minThreadCount = minThreadCount;
+        this.maxThreadCount = maxThreadCount;
+        this.adjustmentIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(adjustmentInterval);
+        allowCoreThreadTimeOut(true);
+    }
+
+    private static int checkThreadCounts(final int minThreadCount, final int maxThreadCount) {
+        if (minThreadCount <= 0) {
+            throw new IllegalArgumentException("Min thread count must be >= 1");
+        }
+        if (maxThreadCount < minThreadCount) {
+            throw new IllegalArgumentException("Max thread count must be >= min thread count");
+        }
+        return minThreadCount;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        adjustIfWindowElapsed();
+        super.execute(new TimedRunnable(command));
+    }
+
+    @Override
+    protected void beforeExecute(final Thread thread, final Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+        if (runnable instanceof TimedRunnable) {
+            final TimedRunnable timedRunnable = (TimedRunnable) runnable;
+            timedRunnable.startTimeInNanos = System.nanoTime();
+            windowQueueWaitInNanos.addAndGet(timedRunnable.startTimeInNanos - timedRunnable.enqueueTimeInNanos);
+        }
+    }
+
+    @Override
+    protected void afterExecute(final Runnable runnable, final Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        if (runnable instanceof TimedRunnable) {
+            windowExecutionTimeInNanos.addAndGet(System.nanoTime() - ((TimedRunnable) runnable).startTimeInNanos);
+            windowCompletedTaskCount.incrementAndGet();
+        }
+        adjustIfWindowElapsed();
+    }
+
+    public int getMinThreadCount() {
+        return minThreadCount;
+    }
+
+    public int getMaxThreadCount() {
+        return maxThreadCount;
+    }
+
+    /**
+     * @return the number of times the number of threads was raised.
+     */
+    public long getGrowthCount() {
+        return growthCount.get();
+    }
+
+    /**
+     * @return the number of times the number of threads was lowered.
+     */
+    public long getShrinkCount() {
+        return shrinkCount.get();
+    }
+
+    private void adjustIfWindowElapsed() {
+        final long now = System.nanoTime();
+        if (now - windowStartInNanos < adjustmentIntervalInNanos || !isAdjusting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            adjust(now);
+        } finally {
+            isAdjusting.set(false);
+        }
+    }
+
+    private void adjust(final long now) {
+        final long windowDurationInNanos = Math.max(1, now - windowStartInNanos);
+        windowStartInNanos = now;
+        final long completedTaskCount = windowCompletedTaskCount.getAndSet(0);
+        final long queueWaitInNanos = windowQueueWaitInNanos.getAndSet(0);
+        final long executionTimeInNanos = windowExecutionTimeInNanos.getAndSet(0);
+
+        final double throughput = (double) completedTaskCount * TimeUnit.SECONDS.toNanos(1) / windowDurationInNanos;
+        final int queueSize = getQueue().size();
+        final int corePoolSize = getCorePoolSize();
+
+        final boolean isCongested;
+        if (completedTaskCount == 0) {
+            // nothing completed during a whole window
+            isCongested = queueSize > 0;
+        } else {
+            final long averageQueueWait = queueWaitInNanos / completedTaskCount;
+            final long averageExecutionTime = executionTimeInNanos / completedTaskCount;
+            isCongested = queueSize > 0 && averageQueueWait > Math.max(MIN_QUEUE_WAIT_TO_GROW, averageExecutionTime * QUEUE_WAIT_RATIO_TO_GROW);
+        }
+
+        if (holdWindowCount > 0) {
+            holdWindowCount--;
+        }
+
+        if (isCongested && corePoolSize < maxThreadCount && holdWindowCount == 0) {
+            if (isLastAdjustmentGrowth && completedTaskCount > 0 && throughput < lastThroughput * MIN_THROUGHPUT_GAIN_OF_GROWTH) {
+                // more threads didn't help, the bottleneck is elsewhere
+                Ln.v("Adaptive pool : throughput didn't improve with %d threads, holding.", corePoolSize);
+                holdWindowCount = HOLD_WINDOW_COUNT;
+                isLastAdjustmentGrowth = false;
+            } else {
+                final int newCorePoolSize = Math.min(maxThreadCount, corePoolSize * 2);
+                Ln.v("Adaptive pool : growing from %d to %d threads, %d tasks queued.", corePoolSize, newCorePoolSize, queueSize);
+                setCorePoolSize(newCorePoolSize);
+                growthCount.incrementAndGet();
+                isLastAdjustmentGrowth = true;
+            }
+        } else if (!isCongested && queueSize == 0 && getActiveCount() < corePoolSize && corePoolSize > minThreadCount) {
+            final int newCorePoolSize = Math.max(minThreadCount, Math.max(getActiveCount(), corePoolSize / 2));
+            Ln.v("Adaptive pool : shrinking from %d to %d threads.", corePoolSize, newCorePoolSize);
+            setCorePoolSize(newCorePoolSize);
+            shrinkCount.incrementAndGet();
+            isLastAdjustmentGrowth = false;
+        } else {
+            isLastAdjustmentGrowth = false;
+        }
+        lastThroughput = throughput;
+    }
+
+    /** Records when a task was enqueued and when it started. */
+    private static final class TimedRunnable implements Runnable {
+        private final Runnable runnable;
+        private final long enqueueTimeInNanos = System.nanoTime();
+        private long startTimeInNanos;
+
+        public TimedRunnable(final Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+}
@@ -2,10 +2,12 @@ package com.octo.android.robospice.request;
 
 import java.util.concurrent.Future;
 
+import com.octo.android.robospice.persistence.DurationInMillis;
 import com.octo.android.robospice.request.listener.RequestCancellationListener;
 import com.octo.android.robospice.request.listener.RequestProgress;
 import com.octo.android.robospice.request.listener.RequestProgressListener;
 import com.octo.android.robospice.request.listener.RequestStatus;
+import com.octo.android.robospice.retry.RetryPolicy;
 
 public class CachedSpiceRequest<RESULT> extends SpiceRequest<RESULT> {
 
@@ -13,6 +15,10 @@ public class CachedSpiceRequest<RESULT> extends SpiceRequest<RESULT> {
     private final long cacheDuration;
     private final SpiceRequest<RESULT> spiceRequest;
     private boolean isProcessable = true;
+    private boolean isStaleWhileRevalidate;
+    private long maxStaleness = DurationInMillis.ALWAYS;
+    private final long creationTimeInNanos = System.nanoTime();
+    private volatile RequestTimer requestTimer;
 
     public CachedSpiceRequest(final SpiceRequest<RESULT> spiceRequest,
         final Object requestCacheKey, final long cacheDuration) {
@@ -42,6 +48,56 @@ public class CachedSpiceRequest<RESULT> extends SpiceRequest<RESULT> {
         spiceRequest.setAggregatable(isAggregatable);
     }
 
+    @Override
+    public int getPriority() {
+        return spiceRequest.getPriority();
+    }
+
+    @Override
+    public void setPriority(final int priority) {
+        spiceRequest.setPriority(priority);
+    }
+
+    @Override
+    public long getTimeout() {
+        return spiceRequest.getTimeout();
+    }
+
+    @Override
+    public void setTimeout(final long timeout) {
+        spiceRequest.setTimeout(timeout);
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return spiceRequest.getRetryPolicy();
+    }
+
+    @Override
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        spiceRequest.setRetryPolicy(retryPolicy);
+    }
+
+    @Override
+    public Object getEndpointId() {
+        return spiceRequest.getEndpointId();
+    }
+
+    @Override
+    public void setEndpointId(final Object endpointId) {
+        spiceRequest.setEndpointId(endpointId);
+    }
+
+    @Override
+    public Object getTag() {
+        return spiceRequest.getTag();
+    }
+
+    @Override
+    public void setTag(final Object tag) {
+        spiceRequest.setTag(tag);
+    }
+
     public boolean isProcessable() {
         return isProcessable;
     }
@@ -50,6 +106,40 @@ public class CachedSpiceRequest<RESULT> extends SpiceRequest<RESULT> {
         this.isProcessable = isProcessable;
     }
 
+    public boolean isStaleWhileRevalidate() {
+        return isStaleWhileRevalidate;
+    }
+
+    /**
+     * Enables the stale-while-revalidate mode. When data in cache is expired
+     * but not older than {@link #getMaxStaleness()}, it is delivered to
+     * listeners right away. The request is then loaded from network and
+     * listeners receive a second success if the new data is not equal to the
+     * stale one. If the network is down or fails, listeners that received
+     * the stale data are not notified of the failure.
+     * @param isStaleWhileRevalidate
+     *            whether or not expired data in cache should be delivered
+     *            while the request is loaded from network.
+     */
+    public void setStaleWhileRevalidate(final boolean isStaleWhileRevalidate) {
+        this.isStaleWhileRevalidate = isStaleWhileRevalidate;
+    }
+
+    public long getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    /**
+     * @param maxStaleness
+     *            the maximum age of data in cache that can be delivered in
+     *            stale-while-revalidate mode. Defaults to
+     *            {@link DurationInMillis#ALWAYS} : data is delivered whatever
+     *            its age.
+     */
+    public void setMaxStaleness(final long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
     /**
      * Sets the future of this request, used to cancel it.
      * @param future
@@ -162,4 +252,16 @@ public class CachedSpiceRequest<RESULT> extends SpiceRequest<RESULT> {
         return spiceRequest.getProgress();
     }
 
+    /* package private */long getCreationTimeInNanos() {
+        return creationTimeInNanos;
+    }
+
+    /* package private */RequestTimer getRequestTimer() {
+        return requestTimer;
+    }
+
+    /* package private */void setRequestTimer(final RequestTimer requestTimer) {
+        this.requestTimer = requestTimer;
+    }
+
 }
@@ -0,0 +1,153 @@
+package com.octo.android.robospice.request;
+
+/**
+ * The circuit breaker of an endpoint. It observes the outcome of the last
+ * network calls in a ring buffer, and opens when too many of them failed or
+ * were slow. All methods are synchronized : they are called once before and
+ * once after each network call, which is negligible compared to the call
+ * itself.
+ * <p>
+ * Each time the breaker changes state, its generation is increased. Outcomes of
+ * calls admitted in a previous generation are ignored, so that a slow call
+ * started while closed doesn't close again a breaker that opened meanwhile.
+ * @author sni
+ */
+final class CircuitBreaker {
+
+    static final long DENIED = -1;
+
+    private final CircuitBreakerPolicy policy;
+
+    /** true for failed calls, false for successful calls. */
+    private final boolean[] window;
+    private int windowIndex;
+    private int callCount;
+    private int failureCount;
+
+    private CircuitBreakerState state = CircuitBreakerState.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int admittedProbeCount;
+    private int succeededProbeCount;
+
+    public CircuitBreaker(final CircuitBreakerPolicy policy) {
+        this.policy = policy;
+        this.window = new boolean[policy.getWindowSize()];
+    }
+
+    public synchronized CircuitBreakerState getState() {
+        return state;
+    }
+
+    /**
+     * Move an open breaker to {@link CircuitBreakerState#HALF_OPEN} once its
+     * open duration has elapsed, so that probes can be sent.
+     * @param now
+     *            the current time in ms.
+     * @return the new state if it changed, null otherwise.
+     */
+    public synchronized CircuitBreakerState halfOpenIfOpenDurationElapsed(final long now) {
+        if (state == CircuitBreakerState.OPEN && now - openedAt >= policy.getOpenDuration()) {
+            return transitionTo(CircuitBreakerState.HALF_OPEN, now);
+        }
+        return null;
+    }
+
+    /**
+     * Ask for the permission to send a call over the network.
+     * @return the generation of the breaker, to pass with the outcome of the
+     *         call, or {@link #DENIED} if the call must fail fast.
+     */
+    public synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case HALF_OPEN:
+                if (admittedProbeCount >= policy.getProbeCount()) {
+                    return DENIED;
+                }
+                admittedProbeCount++;
+                return generation;
+            case OPEN:
+            default:
+                return DENIED;
+        }
+    }
+
+    /**
+     * Record the outcome of a call.
+     * @param callGeneration
+     *            the generation returned by {@link #tryAcquire()}.
+     * @param isFailure
+     *            true if the call threw.
+     * @param duration
+     *            the duration of the call in ms.
+     * @param now
+     *            the current time in ms.
+     * @return the new state if it changed, null otherwise.
+     */
+    public synchronized CircuitBreakerState onCallComplete(final long callGeneration, final boolean isFailure, final long duration,
+        final long now) {
+        if (callGeneration != generation) {
+            return null;
+        }
+        final boolean isFailed = isFailure || duration >= policy.getSlowCallDuration();
+        if (state == CircuitBreakerState.HALF_OPEN) {
+            if (isFailed) {
+                return transitionTo(CircuitBreakerState.OPEN, now);
+            }
+            succeededProbeCount++;
+            if (succeededProbeCount >= policy.getProbeCount()) {
+                return transitionTo(CircuitBreakerState.CLOSED, now);
+            }
+            return null;
+        }
+        record(isFailed);
+        if (callCount >= policy.getMinimumCallCount() && failureCount >= policy.getFailureRateThreshold() * callCount) {
+            return transitionTo(CircuitBreakerState.OPEN, now);
+        }
+        return null;
+    }
+
+    /**
+     * Release the permission of a call whose outcome is unknown, typically
+     * because it was cancelled.
+     * @param callGeneration
+     *            the generation returned by {@link #tryAcquire()}.
+     */
+    public synchronized void release(final long callGeneration) {
+        if (callGeneration == generation && state == CircuitBreakerState.HALF_OPEN && admittedProbeCount > 0) {
+            admittedProbeCount--;
+        }
+    }
+
+    private void record(final boolean isFailed) {
+        if (callCount == window.length) {
+            if (window[windowIndex]) {
+                failureCount--;
+            }
+        } else {
+            callCount++;
+        }
+        window[windowIndex] = isFailed;
+        if (isFailed) {
+            failureCount++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private CircuitBreakerState transitionTo(final CircuitBreakerState newState, final long now) {
+        state = newState;
+        generation++;
+        admittedProbeCount = 0;
+        succeededProbeCount = 0;
+        if (newState == CircuitBreakerState.OPEN) {
+            openedAt = now;
+        } else if (newState == CircuitBreakerState.CLOSED) {
+            windowIndex = 0;
+            callCount = 0;
+            failureCount = 0;
+        }
+        return newState;
+    }
+}
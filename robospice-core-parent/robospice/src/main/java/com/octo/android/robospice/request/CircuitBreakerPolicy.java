@@ -0,0 +1,101 @@
+package com.octo.android.robospice.request;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+
+/**
+ * Settings of the circuit breakers of a {@link RequestProcessor}. Each endpoint
+ * (see {@link SpiceRequest#getEndpointId()}) has its own breaker, that observes
+ * the outcome of the last network calls to this endpoint :
+ * <ul>
+ * <li>a call fails if it throws or if it lasts longer than the slow call
+ * duration,</li>
+ * <li>when the failure rate over the window reaches the threshold, the breaker
+ * opens : requests to this endpoint fail fast, without holding a worker thread
+ * until their socket times out,</li>
+ * <li>after the open duration, the breaker is half-open : a few probe requests
+ * are sent. If they all succeed, the breaker closes again, otherwise it opens
+ * again.</li>
+ * </ul>
+ * @author sni
+ */
+public class CircuitBreakerPolicy {
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALL_COUNT = 10;
+    public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+    public static final long DEFAULT_SLOW_CALL_DURATION = 10 * DurationInMillis.ONE_SECOND;
+    public static final long DEFAULT_OPEN_DURATION = 30 * DurationInMillis.ONE_SECOND;
+    public static final int DEFAULT_PROBE_COUNT = 1;
+
+    private final int windowSize;
+    private final int minimumCallCount;
+    private final float failureRateThreshold;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final int probeCount;
+
+    public CircuitBreakerPolicy() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALL_COUNT, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_DURATION,
+            DEFAULT_OPEN_DURATION, DEFAULT_PROBE_COUNT);
+    }
+
+    /**
+     * @param windowSize
+     *            the number of last calls observed.
+     * @param minimumCallCount
+     *            the minimum number of calls observed before the breaker can
+     *            open.
+     * @param failureRateThreshold
+     *            the failure rate, between 0 and 1, from which the breaker
+     *            opens.
+     * @param slowCallDuration
+     *            the duration in ms from which a call counts as a failure.
+     * @param openDuration
+     *            the duration in ms during which requests fail fast, before
+     *            probes are sent.
+     * @param probeCount
+     *            the number of probe requests sent when half-open.
+     */
+    public CircuitBreakerPolicy(final int windowSize, final int minimumCallCount, final float failureRateThreshold,
+        final long slowCallDuration, final long openDuration, final int probeCount) {
+        if (windowSize <= 0 || minimumCallCount <= 0 || minimumCallCount > windowSize) {
+            throw new IllegalArgumentException("Minimum call count must be between 1 and window size");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("Failure rate threshold must be in ]0, 1]");
+        }
+        if (slowCallDuration <= 0 || openDuration < 0 || probeCount <= 0) {
+            throw new IllegalArgumentException("Durations and probe count must be positive");
+        }
+        this.windowSize = windowSize;
+        this.minimumCallCount = minimumCallCount;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = openDuration;
+        this.probeCount = probeCount;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMinimumCallCount() {
+        return minimumCallCount;
+    }
+
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    public int getProbeCount() {
+        return probeCount;
+    }
+}
@@ -0,0 +1,14 @@
+package com.octo.android.robospice.request;
+
+/**
+ * The states of the circuit breaker of an endpoint.
+ * @author sni
+ */
+public enum CircuitBreakerState {
+    /** Requests are sent over the network. */
+    CLOSED, //
+    /** Requests fail fast, without being sent over the network. */
+    OPEN, //
+    /** A few probe requests are sent to check if the endpoint recovered. */
+    HALF_OPEN;
+}
@@ -0,0 +1,104 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that can be recorded from many threads, without
+ * locks nor allocation. As in HdrHistogram, durations are counted in buckets
+ * whose width grows with the duration : each power of 2 is split in 8 linear
+ * sub-buckets, so that percentiles are accurate to 12.5%. Durations are
+ * recorded in microseconds, up to about 12 days.
+ * @author sni
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long duration, final TimeUnit unit) {
+        final long value = Math.max(0, Math.min(MAX_VALUE, unit.toMicros(duration)));
+        bucketCounts.incrementAndGet(getBucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean duration in microseconds, 0 if none was recorded.
+     */
+    public long getMean() {
+        final long currentCount = count.get();
+        return currentCount == 0 ? 0 : sum.get() / currentCount;
+    }
+
+    /**
+     * @return the max duration in microseconds, 0 if none was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile
+     *            a percentile, between 0 and 100.
+     * @return the duration in microseconds under which this percentile of
+     *         durations fall, 0 if none was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long currentCount = count.get();
+        if (currentCount == 0) {
+            return 0;
+        }
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(currentCount * Math.min(100, percentile) / 100));
+        long cumulatedCount = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            cumulatedCount += bucketCounts.get(index);
+            if (cumulatedCount >= countAtPercentile) {
+                return Math.min(max.get(), getBucketUpperBound(index));
+            }
+        }
+        return max.get();
+    }
+
+    /* package private */static int getBucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /* package private */static long getBucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + "us, p50=" + getValueAtPercentile(50) + "us, p90="
+            + getValueAtPercentile(90) + "us, p99=" + getValueAtPercentile(99) + "us, max=" + getMax() + "us";
+    }
+}
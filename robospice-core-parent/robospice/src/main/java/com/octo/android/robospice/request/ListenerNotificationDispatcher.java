@@ -0,0 +1,247 @@
+package com.octo.android.robospice.request;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+import android.os.Handler;
+
+import com.octo.android.robospice.request.listener.RequestListener;
+import com.octo.android.robospice.request.listener.RequestProgress;
+import com.octo.android.robospice.request.listener.RequestProgressListener;
+
+/**
+ * Delivers notifications to request listeners on the main thread. Posting a
+ * message to the main looper for each progress update would flood it when a
+ * few downloads run in parallel. Instead, notifications are queued and the
+ * queue is flushed by a single message :
+ * <ul>
+ * <li>progress updates are coalesced : only the latest progress of a request
+ * is delivered, and the queue is flushed at most once per dispatch interval
+ * (typically a frame),</li>
+ * <li>terminal notifications (success, failure, cancellation) are flushed as
+ * soon as possible, and they are delivered in order, after the progress
+ * updates that were queued before them.</li>
+ * </ul>
+ * @author sni
+ */
+class ListenerNotificationDispatcher {
+
+    /** Roughly the duration of a frame at 60 fps. */
+    public static final long DEFAULT_DISPATCH_INTERVAL = 16;
+
+    /** Runs flushes on the main thread, unless executorService is set. */
+    private final Handler handler;
+    private final ScheduledExecutorService executorService;
+
+    private volatile long dispatchInterval = DEFAULT_DISPATCH_INTERVAL;
+
+    /** All notifications, in the order they will be delivered. */
+    private final Queue<Runnable> notificationQueue = new ConcurrentLinkedQueue<Runnable>();
+
+    /** Progress notifications that are queued and can still be updated. */
+    private final ConcurrentMap<CachedSpiceRequest<?>, ProgressNotification> mapRequestToPendingProgress = new ConcurrentHashMap<CachedSpiceRequest<?>, ProgressNotification>();
+
+    private final AtomicBoolean isDelayedFlushPosted = new AtomicBoolean();
+    private final AtomicBoolean isImmediateFlushPosted = new AtomicBoolean();
+
+    private final AtomicLong notificationCount = new AtomicLong();
+    private final AtomicLong postedMessageCount = new AtomicLong();
+
+    private final Runnable delayedFlush = new Runnable() {
+        @Override
+        public void run() {
+            isDelayedFlushPosted.set(false);
+            flush();
+        }
+    };
+
+    private final Runnable immediateFlush = new Runnable() {
+        @Override
+        public void run() {
+            isImmediateFlushPosted.set(false);
+            flush();
+        }
+    };
+
+    public ListenerNotificationDispatcher(final Handler handler) {
+        this.handler = handler;
+        this.executorService = null;
+    }
+
+    /**
+     * Build a dispatcher that delivers notifications on a thread of an
+     * executor rather than on the main thread, when there is no main looper.
+     * @param executorService
+     *            the executor that runs flushes. It should have a single
+     *            thread for notifications to be delivered in order.
+     */
+    public ListenerNotificationDispatcher(final ScheduledExecutorService executorService) {
+        this.handler = null;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Queue a progress notification. If a progress notification is still
+     * queued for the same request and the same listeners, it is updated
+     * instead.
+     * @param request
+     *            the request whose progress changed.
+     * @param listeners
+     *            the listeners to notify.
+     * @param progress
+     *            the new progress of the request.
+     */
+    public void dispatchProgress(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners, final RequestProgress progress) {
+        if (listeners == null) {
+            return;
+        }
+        notificationCount.incrementAndGet();
+        final ProgressNotification pendingProgress = mapRequestToPendingProgress.get(request);
+        if (pendingProgress != null && pendingProgress.listeners == listeners && pendingProgress.update(progress)) {
+            return;
+        }
+
+        final ProgressNotification progressNotification = new ProgressNotification(request, listeners, progress);
+        if (pendingProgress == null || pendingProgress.listeners == listeners) {
+            mapRequestToPendingProgress.put(request, progressNotification);
+        }
+        notificationQueue.add(progressNotification);
+        postFlush(false);
+    }
+
+    /**
+     * Queue a terminal notification and flush the queue as soon as possible.
+     * @param notification
+     *            the notification of the listeners of a request.
+     */
+    public void dispatchResult(final Runnable notification) {
+        notificationCount.incrementAndGet();
+        notificationQueue.add(notification);
+        postFlush(true);
+    }
+
+    public long getDispatchInterval() {
+        return dispatchInterval;
+    }
+
+    /**
+     * @param dispatchInterval
+     *            the minimum duration, in ms, between two flushes of progress
+     *            notifications. 0 means as soon as possible.
+     */
+    public void setDispatchInterval(final long dispatchInterval) {
+        if (dispatchInterval < 0) {
+            throw new IllegalArgumentException("Dispatch interval must be >= 0");
+        }
+        this.dispatchInterval = dispatchInterval;
+    }
+
+    /**
+     * @return the number of notifications received by this dispatcher.
+     */
+    public long getNotificationCount() {
+        return notificationCount.get();
+    }
+
+    /**
+     * @return the number of notifications waiting to be delivered.
+     */
+    public int getPendingNotificationCount() {
+        return notificationQueue.size();
+    }
+
+    /**
+     * @return the number of messages posted to the main looper by this
+     *         dispatcher.
+     */
+    public long getPostedMessageCount() {
+        return postedMessageCount.get();
+    }
+
+    private void postFlush(final boolean immediate) {
+        if (immediate || dispatchInterval == 0) {
+            if (isImmediateFlushPosted.compareAndSet(false, true)) {
+                postedMessageCount.incrementAndGet();
+                post(immediateFlush, 0);
+            }
+        } else if (isDelayedFlushPosted.compareAndSet(false, true)) {
+            postedMessageCount.incrementAndGet();
+            post(delayedFlush, dispatchInterval);
+        }
+    }
+
+    private void post(final Runnable flush, final long delay) {
+        if (handler == null) {
+            executorService.schedule(flush, delay, TimeUnit.MILLISECONDS);
+        } else if (delay == 0) {
+            handler.post(flush);
+        } else {
+            handler.postDelayed(flush, delay);
+        }
+    }
+
+    private void flush() {
+        Runnable notification;
+        while ((notification = notificationQueue.poll()) != null) {
+            try {
+                notification.run();
+            } catch (final RuntimeException e) {
+                // a faulty listener must not prevent others from being
+                // notified, but the error must reach the application.
+                Ln.e(e, "A request listener failed to handle a notification.");
+                postFlush(true);
+                throw e;
+            }
+        }
+    }
+
+    private final class ProgressNotification implements Runnable {
+        private final CachedSpiceRequest<?> request;
+        private final Set<RequestListener<?>> listeners;
+        private RequestProgress progress;
+        private boolean isDelivered;
+
+        public ProgressNotification(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners, final RequestProgress progress) {
+            this.request = request;
+            this.listeners = listeners;
+            this.progress = progress;
+        }
+
+        /**
+         * @return true if the progress could be updated before delivery.
+         */
+        public synchronized boolean update(final RequestProgress progress) {
+            if (isDelivered) {
+                return false;
+            }
+            this.progress = progress;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final RequestProgress progressToDeliver;
+            synchronized (this) {
+                isDelivered = true;
+                progressToDeliver = progress;
+            }
+            mapRequestToPendingProgress.remove(request, this);
+
+            Ln.v("Notifying " + listeners.size() + " listeners of progress " + progressToDeliver);
+            for (final RequestListener<?> listener : listeners) {
+                if (listener != null && listener instanceof RequestProgressListener) {
+                    Ln.v("Notifying %s", listener.getClass().getSimpleName());
+                    ((RequestProgressListener) listener).onRequestProgressUpdate(progressToDeliver);
+                }
+            }
+        }
+    }
+}
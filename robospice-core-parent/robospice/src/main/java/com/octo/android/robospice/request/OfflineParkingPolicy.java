@@ -0,0 +1,70 @@
+package com.octo.android.robospice.request;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+
+/**
+ * Settings of the offline mode of a {@link RequestProcessor}. When network is
+ * down, requests are parked in memory instead of failing with a
+ * {@link com.octo.android.robospice.exception.NoNetworkException} :
+ * <ul>
+ * <li>while requests are parked, the network state is checked periodically,
+ * </li>
+ * <li>when network is back, parked requests are replayed by order of priority,
+ * at a bounded rate so that all of them don't hit the network at once,</li>
+ * <li>a request parked for longer than the max park time fails with a
+ * {@link com.octo.android.robospice.exception.NoNetworkException}, as it would
+ * without parking.</li>
+ * </ul>
+ * @author sni
+ */
+public class OfflineParkingPolicy {
+
+    public static final long DEFAULT_MAX_PARK_TIME = 5 * DurationInMillis.ONE_MINUTE;
+    public static final int DEFAULT_MAX_REPLAY_RATE = 5;
+    public static final long DEFAULT_NETWORK_CHECK_INTERVAL = DurationInMillis.ONE_SECOND;
+
+    private final long maxParkTime;
+    private final int maxReplayRate;
+    private final long networkCheckInterval;
+
+    public OfflineParkingPolicy() {
+        this(DEFAULT_MAX_PARK_TIME, DEFAULT_MAX_REPLAY_RATE, DEFAULT_NETWORK_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param maxParkTime
+     *            the duration in ms after which a parked request fails.
+     * @param maxReplayRate
+     *            the maximum number of parked requests replayed per second.
+     * @param networkCheckInterval
+     *            the interval in ms between two checks of the network state
+     *            while requests are parked.
+     */
+    public OfflineParkingPolicy(final long maxParkTime, final int maxReplayRate, final long networkCheckInterval) {
+        if (maxParkTime <= 0 || maxReplayRate <= 0 || networkCheckInterval <= 0) {
+            throw new IllegalArgumentException("Max park time, max replay rate and network check interval must be positive");
+        }
+        this.maxParkTime = maxParkTime;
+        this.maxReplayRate = maxReplayRate;
+        this.networkCheckInterval = networkCheckInterval;
+    }
+
+    public long getMaxParkTime() {
+        return maxParkTime;
+    }
+
+    public int getMaxReplayRate() {
+        return maxReplayRate;
+    }
+
+    public long getNetworkCheckInterval() {
+        return networkCheckInterval;
+    }
+
+    /**
+     * @return the minimum interval in ms between two replays.
+     */
+    public long getReplayInterval() {
+        return Math.max(1, DurationInMillis.ONE_SECOND / maxReplayRate);
+    }
+}
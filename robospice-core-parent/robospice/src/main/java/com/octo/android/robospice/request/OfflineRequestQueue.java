@@ -0,0 +1,137 @@
+package com.octo.android.robospice.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Requests parked while network is down, ordered by priority then by parking
+ * order. Parked requests don't hold any worker thread : they only keep the
+ * stage to run when they are replayed, and the stage to run if they expire.
+ * The priority of a request is read when it is parked : a request promoted
+ * while it is parked must be promoted in this queue too, see
+ * {@link #promote(CachedSpiceRequest, int)}.
+ * @author sni
+ */
+final class OfflineRequestQueue {
+
+    private final PriorityQueue<ParkedRequest> parkedRequests = new PriorityQueue<ParkedRequest>();
+    private long parkedRequestCount;
+
+    public synchronized void park(final CachedSpiceRequest<?> request, final Runnable replay, final Runnable expiry, final long deadline) {
+        parkedRequests.add(new ParkedRequest(request, request.getPriority(), replay, expiry, deadline, parkedRequestCount++));
+    }
+
+    /**
+     * Raise the priority of a parked request. It keeps its parking order
+     * among requests of its new priority.
+     * @param request
+     *            a request equal to the parked one.
+     * @param priority
+     *            the new priority of the request. Ignored if it is not more
+     *            urgent than the priority it was parked with.
+     */
+    public synchronized void promote(final CachedSpiceRequest<?> request, final int priority) {
+        for (final ParkedRequest parkedRequest : parkedRequests) {
+            if (parkedRequest.request.equals(request) && priority < parkedRequest.priority) {
+                // the priority of a request can't change while it is queued
+                parkedRequests.remove(parkedRequest);
+                parkedRequests.add(new ParkedRequest(parkedRequest.request, priority, parkedRequest.replay, parkedRequest.expiry,
+                    parkedRequest.deadline, parkedRequest.sequence));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the next request to replay by order of priority, null if none is
+     *         parked. Cancelled requests are dropped.
+     */
+    public synchronized ParkedRequest poll() {
+        ParkedRequest parkedRequest = parkedRequests.poll();
+        while (parkedRequest != null && parkedRequest.request.isCancelled()) {
+            parkedRequest = parkedRequests.poll();
+        }
+        return parkedRequest;
+    }
+
+    /**
+     * @return the requests whose deadline is past, removed from the queue.
+     *         Cancelled requests are dropped.
+     */
+    public synchronized List<ParkedRequest> pollExpired(final long now) {
+        final List<ParkedRequest> expiredRequests = new ArrayList<ParkedRequest>();
+        final List<ParkedRequest> remainingRequests = new ArrayList<ParkedRequest>(parkedRequests.size());
+        for (final ParkedRequest parkedRequest : parkedRequests) {
+            if (parkedRequest.request.isCancelled()) {
+                continue;
+            }
+            if (now >= parkedRequest.deadline) {
+                expiredRequests.add(parkedRequest);
+            } else {
+                remainingRequests.add(parkedRequest);
+            }
+        }
+        if (remainingRequests.size() != parkedRequests.size()) {
+            parkedRequests.clear();
+            parkedRequests.addAll(remainingRequests);
+        }
+        return expiredRequests;
+    }
+
+    /**
+     * @return all parked requests, removed from the queue.
+     */
+    public synchronized List<ParkedRequest> pollAll() {
+        final List<ParkedRequest> allRequests = new ArrayList<ParkedRequest>(parkedRequests);
+        parkedRequests.clear();
+        return allRequests;
+    }
+
+    public synchronized int size() {
+        return parkedRequests.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return parkedRequests.isEmpty();
+    }
+
+    static final class ParkedRequest implements Comparable<ParkedRequest> {
+        private final CachedSpiceRequest<?> request;
+        private final int priority;
+        private final Runnable replay;
+        private final Runnable expiry;
+        private final long deadline;
+        private final long sequence;
+
+        public ParkedRequest(final CachedSpiceRequest<?> request, final int priority, final Runnable replay, final Runnable expiry,
+            final long deadline, final long sequence) {
+            this.request = request;
+            this.priority = priority;
+            this.replay = replay;
+            this.expiry = expiry;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        public CachedSpiceRequest<?> getRequest() {
+            return request;
+        }
+
+        public void replay() {
+            replay.run();
+        }
+
+        public void expire() {
+            expiry.run();
+        }
+
+        @Override
+        public int compareTo(final ParkedRequest other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.octo.android.robospice.request;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roboguice.util.temp.Ln;
+
+/**
+ * Schedules the processing of {@link CachedSpiceRequest}s on an
+ * {@link ExecutorService} by order of priority. The executor itself remains
+ * FIFO : each time a request is scheduled, an anonymous slot is submitted to
+ * the executor. When a slot obtains a worker thread, it processes the most
+ * urgent request pending at that moment, not necessarily the request it was
+ * submitted for. This allows to use any {@link ExecutorService} (like the
+ * ones provided by {@link com.octo.android.robospice.SpiceService}) while
+ * ordering requests by priority. Prefetch requests (see
+ * {@link SpiceRequest#PRIORITY_PREFETCH}) are processed one at a time, so that
+ * they never hold more than one worker thread that foreground requests could
+ * use : the others are postponed until the running one is over.
+ * @author sni
+ */
+class PriorityRequestScheduler {
+
+    private static final int INITIAL_QUEUE_CAPACITY = 11;
+    private static final int MAX_RUNNING_PREFETCH_COUNT = 1;
+
+    private final ExecutorService executorService;
+
+    private final PriorityBlockingQueue<RequestTask> pendingTasks = new PriorityBlockingQueue<RequestTask>(INITIAL_QUEUE_CAPACITY,
+        new RequestTaskComparator());
+
+    /** Used to keep FIFO ordering between requests of equal priority. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Prefetch tasks waiting for the running ones to be over. */
+    private final Queue<RequestTask> postponedPrefetchTasks = new LinkedList<RequestTask>();
+    /** Guarded by {@link #postponedPrefetchTasks}. */
+    private int runningPrefetchCount;
+
+    private final Runnable slot = new Runnable() {
+        @Override
+        public void run() {
+            final RequestTask task = pendingTasks.poll();
+            if (task == null) {
+                return;
+            }
+            if (!task.isPrefetch()) {
+                task.run();
+                return;
+            }
+            if (!startPrefetch(task)) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                endPrefetch();
+            }
+        }
+    };
+
+    public PriorityRequestScheduler(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Schedule the processing of a request.
+     * @param request
+     *            the request to process. Its priority is read once, at
+     *            scheduling time.
+     * @param runnable
+     *            the processing of the request.
+     * @return a {@link Future} that can be used to cancel the processing of
+     *         the request.
+     */
+    public Future<?> schedule(final CachedSpiceRequest<?> request, final Runnable runnable) {
+        final RequestTask task = new RequestTask(request, runnable, request.getPriority(), sequence.getAndIncrement());
+        pendingTasks.add(task);
+        submitSlot(task);
+        return task;
+    }
+
+    /**
+     * Schedule the processing of several requests at once. All of them are
+     * pending before any slot is submitted : the most urgent requests of the
+     * batch are processed first, whatever their order in the batch.
+     * @param requests
+     *            the requests to process.
+     * @param runnables
+     *            the processing of each request, in the same order.
+     * @return the {@link Future}s of the requests, in the same order.
+     */
+    public List<Future<?>> scheduleAll(final List<CachedSpiceRequest<?>> requests, final List<Runnable> runnables) {
+        final List<RequestTask> tasks = new ArrayList<RequestTask>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final CachedSpiceRequest<?> request = requests.get(i);
+            tasks.add(new RequestTask(request, runnables.get(i), request.getPriority(), sequence.getAndIncrement()));
+        }
+        pendingTasks.addAll(tasks);
+        for (final RequestTask task : tasks) {
+            submitSlot(task);
+        }
+        return new ArrayList<Future<?>>(tasks);
+    }
+
+    /**
+     * Once the executor is shut down, tasks can't be processed anymore : they
+     * are cancelled instead of failing their caller.
+     */
+    private void submitSlot(final RequestTask task) {
+        try {
+            executorService.execute(slot);
+        } catch (final RejectedExecutionException e) {
+            Ln.d("Executor shut down, request not processed : " + task.request);
+            pendingTasks.remove(task);
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Raise the priority of a pending request. If the request is not pending
+     * anymore (it is being processed or is already processed), only its
+     * priority value is updated.
+     * @param request
+     *            a request equal to the pending one.
+     * @param priority
+     *            the new priority of the request. Ignored if it is not more
+     *            urgent than the current one.
+     */
+    public void promote(final CachedSpiceRequest<?> request, final int priority) {
+        if (promotePostponedPrefetch(request, priority)) {
+            return;
+        }
+        for (final RequestTask task : pendingTasks) {
+            if (task.request.equals(request) && priority < task.priority) {
+                task.request.setPriority(priority);
+                // the priority of a task can't change while it is queued
+                if (pendingTasks.remove(task)) {
+                    task.priority = priority;
+                    pendingTasks.add(task);
+                    // a slot may have polled the queue while the task was out
+                    // of it, give it a new one. Extra slots are harmless.
+                    submitSlot(task);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a worker thread.
+     */
+    public int getPendingRequestCount() {
+        synchronized (postponedPrefetchTasks) {
+            return pendingTasks.size() + postponedPrefetchTasks.size();
+        }
+    }
+
+    /**
+     * @return true if the prefetch task can run, false if it was postponed.
+     */
+    private boolean startPrefetch(final RequestTask task) {
+        synchronized (postponedPrefetchTasks) {
+            if (runningPrefetchCount >= MAX_RUNNING_PREFETCH_COUNT) {
+                postponedPrefetchTasks.add(task);
+                return false;
+            }
+            runningPrefetchCount++;
+            return true;
+        }
+    }
+
+    private void endPrefetch() {
+        final RequestTask nextTask;
+        synchronized (postponedPrefetchTasks) {
+            runningPrefetchCount--;
+            nextTask = postponedPrefetchTasks.poll();
+        }
+        if (nextTask != null) {
+            // foreground requests pending in the meantime still go first
+            reschedule(nextTask);
+        }
+    }
+
+    /**
+     * A postponed prefetch joined by a more urgent request is not a prefetch
+     * anymore, it doesn't have to wait.
+     * @return true if the request was a postponed prefetch.
+     */
+    private boolean promotePostponedPrefetch(final CachedSpiceRequest<?> request, final int priority) {
+        RequestTask promotedTask = null;
+        synchronized (postponedPrefetchTasks) {
+            for (final RequestTask task : postponedPrefetchTasks) {
+                if (task.request.equals(request)) {
+                    promotedTask = task;
+                    break;
+                }
+            }
+            if (promotedTask == null) {
+                return false;
+            }
+            if (priority >= promotedTask.priority) {
+                return true;
+            }
+            postponedPrefetchTasks.remove(promotedTask);
+        }
+        promotedTask.request.setPriority(priority);
+        promotedTask.priority = priority;
+        reschedule(promotedTask);
+        return true;
+    }
+
+    private void reschedule(final RequestTask task) {
+        pendingTasks.add(task);
+        submitSlot(task);
+    }
+
+    private static final class RequestTask extends FutureTask<Void> {
+        private final CachedSpiceRequest<?> request;
+        private final long sequenceNumber;
+        private volatile int priority;
+
+        public RequestTask(final CachedSpiceRequest<?> request, final Runnable runnable, final int priority, final long sequenceNumber) {
+            super(runnable, null);
+            this.request = request;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        public boolean isPrefetch() {
+            return priority >= SpiceRequest.PRIORITY_PREFETCH;
+        }
+    }
+
+    private static final class RequestTaskComparator implements Comparator<RequestTask> {
+        @Override
+        public int compare(final RequestTask lhs, final RequestTask rhs) {
+            if (lhs.priority != rhs.priority) {
+                return lhs.priority < rhs.priority ? -1 : 1;
+            }
+            if (lhs.sequenceNumber != rhs.sequenceNumber) {
+                return lhs.sequenceNumber < rhs.sequenceNumber ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.octo.android.robospice.request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.octo.android.robospice.persistence.DurationInMillis;
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * A set of requests, and their listeners, that are submitted together to the
+ * {@link com.octo.android.robospice.SpiceService}. Submitting a batch costs a
+ * single lock acquisition and a single hand over to the service, instead of
+ * one per request. Typically used by screens that fire many requests at once.
+ * @author sni
+ */
+public class RequestBatch {
+
+    private final List<CachedSpiceRequest<?>> requests = new ArrayList<CachedSpiceRequest<?>>();
+    private final List<RequestListener<?>> requestListeners = new ArrayList<RequestListener<?>>();
+
+    /**
+     * Add a request that doesn't use cache to the batch.
+     * @param request
+     *            the request to execute.
+     * @param requestListener
+     *            the listener to notify when the request will finish, or null.
+     * @return this batch.
+     */
+    public <T> RequestBatch add(final SpiceRequest<T> request, final RequestListener<T> requestListener) {
+        return add(new CachedSpiceRequest<T>(request, null, DurationInMillis.ALWAYS), requestListener);
+    }
+
+    /**
+     * Add a request to the batch.
+     * @param request
+     *            the request to execute.
+     * @param requestCacheKey
+     *            the key used to store and retrieve the result of the request
+     *            in the cache.
+     * @param cacheExpiryDuration
+     *            duration in milliseconds after which the content of the cache
+     *            will be considered to be expired (see {@link DurationInMillis}).
+     * @param requestListener
+     *            the listener to notify when the request will finish, or null.
+     * @return this batch.
+     */
+    public <T> RequestBatch add(final SpiceRequest<T> request, final Object requestCacheKey, final long cacheExpiryDuration,
+        final RequestListener<T> requestListener) {
+        return add(new CachedSpiceRequest<T>(request, requestCacheKey, cacheExpiryDuration), requestListener);
+    }
+
+    /**
+     * Add a request to the batch.
+     * @param cachedSpiceRequest
+     *            the request to execute.
+     * @param requestListener
+     *            the listener to notify when the request will finish, or null.
+     * @return this batch.
+     */
+    public <T> RequestBatch add(final CachedSpiceRequest<T> cachedSpiceRequest, final RequestListener<T> requestListener) {
+        if (cachedSpiceRequest == null) {
+            throw new IllegalArgumentException("Request must not be null");
+        }
+        requests.add(cachedSpiceRequest);
+        requestListeners.add(requestListener);
+        return this;
+    }
+
+    /**
+     * @return the requests of the batch, in the order they were added.
+     */
+    public List<CachedSpiceRequest<?>> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * @return the listeners of the requests of the batch : the listener at a
+     *         given index is the one of the request at the same index.
+     */
+    public List<RequestListener<?>> getRequestListeners() {
+        return Collections.unmodifiableList(requestListeners);
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public boolean isEmpty() {
+        return requests.isEmpty();
+    }
+}
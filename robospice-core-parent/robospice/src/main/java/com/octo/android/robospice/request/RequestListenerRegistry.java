@@ -0,0 +1,282 @@
+package com.octo.android.robospice.request;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.octo.android.robospice.request.listener.RequestListener;
+
+/**
+ * Keeps track of the listeners of every request processed by a
+ * {@link RequestProcessor}. Worker threads, the thread submitting requests and
+ * the main thread all access this registry concurrently, so there is no global
+ * lock :
+ * <ul>
+ * <li>requests are stored in a {@link ConcurrentHashMap},</li>
+ * <li>listeners of a request are stored in a copy-on-write set that can be
+ * iterated on the main thread while listeners are added or removed,</li>
+ * <li>a request is unregistered atomically when it completes : the set of its
+ * listeners is closed, a listener that joins the request after that will make
+ * it be processed again instead of being silently lost.</li>
+ * <li>the set of listeners of a request that completed stays reachable until
+ * the listeners have been notified : listeners can still be removed while the
+ * notification waits for the main thread. These sets are stored by request
+ * too, so that neither removing listeners nor forgetting delivered sets scans
+ * the results waiting for the main thread.</li>
+ * </ul>
+ * @author sni
+ */
+class RequestListenerRegistry {
+
+    private final ConcurrentMap<CachedSpiceRequest<?>, ListenerSet> mapRequestToListenerSet = new ConcurrentHashMap<CachedSpiceRequest<?>, ListenerSet>();
+
+    /** Listener sets of unregistered requests, not notified yet. */
+    private final ConcurrentMap<CachedSpiceRequest<?>, UndeliveredListenerSets> mapRequestToUndeliveredListenerSets = new ConcurrentHashMap<CachedSpiceRequest<?>, UndeliveredListenerSets>();
+
+    /**
+     * Register listeners for a request. If an equal request is already
+     * registered, the listeners are added to it.
+     * @param request
+     *            the request to listen to.
+     * @param listeners
+     *            the listeners of the request.
+     * @return true if the request was not registered yet and must be
+     *         processed. False if the listeners were aggregated to an equal
+     *         pending request.
+     */
+    public boolean register(final CachedSpiceRequest<?> request, final Collection<RequestListener<?>> listeners) {
+        final ListenerSet newListenerSet = new ListenerSet(request, listeners);
+        while (true) {
+            final ListenerSet listenerSet = mapRequestToListenerSet.putIfAbsent(request, newListenerSet);
+            if (listenerSet == null) {
+                return true;
+            }
+            if (listenerSet.addAll(listeners)) {
+                return false;
+            }
+            // the equal request completed concurrently, it can't be joined
+            mapRequestToListenerSet.remove(request, listenerSet);
+        }
+    }
+
+    /**
+     * @param request
+     *            a registered request.
+     * @return the live set of listeners of the request, or null if the request
+     *         is not registered. The set can be iterated safely while
+     *         listeners are added or removed.
+     */
+    public Set<RequestListener<?>> getListeners(final CachedSpiceRequest<?> request) {
+        final ListenerSet listenerSet = mapRequestToListenerSet.get(request);
+        return listenerSet == null ? null : listenerSet.listeners;
+    }
+
+    /**
+     * @param request
+     *            a request.
+     * @return the registered request equal to the given one, or null if no
+     *         such request is registered.
+     */
+    public CachedSpiceRequest<?> getRegisteredRequest(final CachedSpiceRequest<?> request) {
+        final ListenerSet listenerSet = mapRequestToListenerSet.get(request);
+        return listenerSet == null ? null : listenerSet.request;
+    }
+
+    /**
+     * Unregister a request, no more listener will be able to join it. Only the
+     * first call for a request returns its listeners : a request that
+     * completes while it is cancelled notifies its listeners once. An equal
+     * request registered after this one completed is left untouched.
+     * @param request
+     *            the request to unregister.
+     * @return the final set of listeners of the request, or null if the request
+     *         was not registered, or already unregistered. Listeners removed
+     *         by {@link #removeListeners(CachedSpiceRequest, Collection)}
+     *         before the set is passed to
+     *         {@link #delivered(CachedSpiceRequest, Set)} will not be notified
+     *         anymore when the set is iterated.
+     */
+    public Set<RequestListener<?>> unregister(final CachedSpiceRequest<?> request) {
+        final ListenerSet listenerSet = mapRequestToListenerSet.get(request);
+        if (listenerSet == null || listenerSet.request != request || !listenerSet.close()) {
+            return null;
+        }
+        addUndelivered(listenerSet);
+        mapRequestToListenerSet.remove(request, listenerSet);
+        return listenerSet.listeners;
+    }
+
+    /**
+     * Forget a set of listeners returned by
+     * {@link #unregister(CachedSpiceRequest)}, once they have been notified,
+     * or if they won't be.
+     * @param request
+     *            the unregistered request.
+     * @param listeners
+     *            the set of listeners of the request, can be null.
+     */
+    public void delivered(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners) {
+        if (listeners == null) {
+            return;
+        }
+        final UndeliveredListenerSets undeliveredListenerSets = mapRequestToUndeliveredListenerSets.get(request);
+        if (undeliveredListenerSets != null && undeliveredListenerSets.remove(listeners)) {
+            mapRequestToUndeliveredListenerSets.remove(request, undeliveredListenerSets);
+        }
+    }
+
+    /**
+     * Remove some listeners of a request, including from the requests equal to
+     * it that completed but whose listeners are not notified yet.
+     * @param request
+     *            the request listened to.
+     * @param listeners
+     *            the listeners to remove.
+     * @return the number of listeners left for this request, -1 if the
+     *         request is not registered.
+     */
+    public int removeListeners(final CachedSpiceRequest<?> request, final Collection<RequestListener<?>> listeners) {
+        final UndeliveredListenerSets undeliveredListenerSets = mapRequestToUndeliveredListenerSets.get(request);
+        if (undeliveredListenerSets != null) {
+            undeliveredListenerSets.removeListeners(listeners);
+        }
+        final ListenerSet listenerSet = mapRequestToListenerSet.get(request);
+        if (listenerSet == null) {
+            return -1;
+        }
+        listenerSet.listeners.removeAll(listeners);
+        return listenerSet.listeners.size();
+    }
+
+    /**
+     * @return a live view of all registered requests.
+     */
+    public Set<CachedSpiceRequest<?>> getRequests() {
+        return mapRequestToListenerSet.keySet();
+    }
+
+    public boolean isEmpty() {
+        return mapRequestToListenerSet.isEmpty();
+    }
+
+    public int size() {
+        return mapRequestToListenerSet.size();
+    }
+
+    /**
+     * @return the number of unregistered requests whose listeners are not
+     *         notified yet.
+     */
+    public int getUndeliveredCount() {
+        int undeliveredCount = 0;
+        for (final UndeliveredListenerSets undeliveredListenerSets : mapRequestToUndeliveredListenerSets.values()) {
+            undeliveredCount += undeliveredListenerSets.size();
+        }
+        return undeliveredCount;
+    }
+
+    private void addUndelivered(final ListenerSet listenerSet) {
+        while (true) {
+            final UndeliveredListenerSets newUndeliveredListenerSets = new UndeliveredListenerSets();
+            UndeliveredListenerSets undeliveredListenerSets = mapRequestToUndeliveredListenerSets.putIfAbsent(listenerSet.request,
+                newUndeliveredListenerSets);
+            if (undeliveredListenerSets == null) {
+                undeliveredListenerSets = newUndeliveredListenerSets;
+            }
+            if (undeliveredListenerSets.add(listenerSet)) {
+                return;
+            }
+            // the last set of equal requests was delivered concurrently
+            mapRequestToUndeliveredListenerSets.remove(listenerSet.request, undeliveredListenerSets);
+        }
+    }
+
+    /* package private */void appendTo(final StringBuilder stringBuilder) {
+        for (final Map.Entry<CachedSpiceRequest<?>, ListenerSet> entry : mapRequestToListenerSet.entrySet()) {
+            stringBuilder.append(entry.getKey().getClass().getName());
+            stringBuilder.append(":");
+            stringBuilder.append(entry.getKey());
+            stringBuilder.append(" --> ");
+            stringBuilder.append(entry.getValue().listeners.size());
+        }
+    }
+
+    /**
+     * The listeners of a request. Only adding listeners and closing the set
+     * are mutually exclusive, and only for a given request.
+     */
+    private static final class ListenerSet {
+        private final CachedSpiceRequest<?> request;
+        private final Set<RequestListener<?>> listeners = new CopyOnWriteArraySet<RequestListener<?>>();
+        private boolean isClosed;
+
+        public ListenerSet(final CachedSpiceRequest<?> request, final Collection<RequestListener<?>> listeners) {
+            this.request = request;
+            this.listeners.addAll(listeners);
+        }
+
+        public synchronized boolean addAll(final Collection<RequestListener<?>> listeners) {
+            if (isClosed) {
+                return false;
+            }
+            this.listeners.addAll(listeners);
+            return true;
+        }
+
+        /** @return false if the set was already closed. */
+        public synchronized boolean close() {
+            if (isClosed) {
+                return false;
+            }
+            isClosed = true;
+            return true;
+        }
+    }
+
+    /**
+     * The listener sets of the unregistered requests equal to a given one,
+     * that are not notified yet. Usually a single one, but requests that are
+     * not aggregatable may be equal and complete at the same time. Once empty,
+     * it is closed and replaced.
+     */
+    private static final class UndeliveredListenerSets {
+        private final List<ListenerSet> listenerSets = new ArrayList<ListenerSet>(1);
+        private boolean isClosed;
+
+        /** @return false if this instance is closed. */
+        public synchronized boolean add(final ListenerSet listenerSet) {
+            if (isClosed) {
+                return false;
+            }
+            listenerSets.add(listenerSet);
+            return true;
+        }
+
+        /** @return true if no set is left : this instance is closed. */
+        public synchronized boolean remove(final Set<RequestListener<?>> listeners) {
+            for (int i = 0; i < listenerSets.size(); i++) {
+                if (listenerSets.get(i).listeners == listeners) {
+                    listenerSets.remove(i);
+                    break;
+                }
+            }
+            isClosed = listenerSets.isEmpty();
+            return isClosed;
+        }
+
+        public synchronized void removeListeners(final Collection<RequestListener<?>> listeners) {
+            for (final ListenerSet listenerSet : listenerSets) {
+                listenerSet.listeners.removeAll(listeners);
+            }
+        }
+
+        public synchronized int size() {
+            return listenerSets.size();
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package com.octo.android.robospice.request;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import roboguice.util.temp.Ln;
 import android.content.Context;
@@ -16,20 +28,29 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.octo.android.robospice.SpiceService;
+import com.octo.android.robospice.SpiceServiceCircuitBreakerListener;
 import com.octo.android.robospice.SpiceServiceServiceListener;
+import com.octo.android.robospice.SpiceServiceTimingListener;
+import com.octo.android.robospice.exception.CircuitBreakerOpenException;
 import com.octo.android.robospice.exception.NetworkException;
 import com.octo.android.robospice.exception.NoNetworkException;
 import com.octo.android.robospice.exception.RequestCancelledException;
+import com.octo.android.robospice.exception.RequestTimeoutException;
+import com.octo.android.robospice.networkstate.CachedNetworkStateChecker;
+import com.octo.android.robospice.networkstate.NetworkState;
 import com.octo.android.robospice.networkstate.NetworkStateChecker;
+import com.octo.android.robospice.networkstate.NetworkStateSource;
 import com.octo.android.robospice.persistence.ICacheManager;
 import com.octo.android.robospice.persistence.exception.CacheLoadingException;
 import com.octo.android.robospice.persistence.exception.CacheSavingException;
 import com.octo.android.robospice.persistence.exception.SpiceException;
+import com.octo.android.robospice.request.RequestTiming.Phase;
 import com.octo.android.robospice.request.listener.RequestCancellationListener;
 import com.octo.android.robospice.request.listener.RequestListener;
 import com.octo.android.robospice.request.listener.RequestProgress;
 import com.octo.android.robospice.request.listener.RequestProgressListener;
 import com.octo.android.robospice.request.listener.RequestStatus;
+import com.octo.android.robospice.retry.RetryPolicy;
 
 /**
  * Delegate class of the {@link SpiceService}, easier to test than an Android
@@ -37,11 +58,19 @@ import com.octo.android.robospice.request.listener.RequestStatus;
  * @author jva
  */
 public class RequestProcessor {
+    public static final String STAGE_CACHE = "cache";
+    public static final String STAGE_NETWORK = "network";
+    public static final String STAGE_PERSIST = "persist";
+    public static final String STAGE_DISPATCH = "dispatch";
+    /** The default interval between two deliveries of progress notifications. */
+    public static final long DEFAULT_DISPATCH_INTERVAL = ListenerNotificationDispatcher.DEFAULT_DISPATCH_INTERVAL;
+
+    private static final long TIMER_KEEP_ALIVE_TIME = 30;
+
     // ============================================================================================
     // ATTRIBUTES
     // ============================================================================================
-    private final Map<CachedSpiceRequest<?>, Set<RequestListener<?>>> mapRequestToRequestListener = Collections
-        .synchronizedMap(new LinkedHashMap<CachedSpiceRequest<?>, Set<RequestListener<?>>>());
+    private final RequestListenerRegistry requestListenerRegistry = new RequestListenerRegistry();
 
     /**
      * Thanks Olivier Croiser from Zenika for his excellent <a href=
@@ -49,10 +78,22 @@ public class RequestProcessor {
      * >blog article</a>.
      */
     private ExecutorService executorService = null;
+    private ExecutorService cacheExecutorService = null;
+    private ExecutorService persistExecutorService = null;
+
+    /**
+     * Order requests by priority before they reach the executor of each stage
+     * of their processing. Stages without an executor of their own share the
+     * scheduler of the previous stage.
+     */
+    private final PriorityRequestScheduler cacheStageScheduler;
+    private final PriorityRequestScheduler networkStageScheduler;
+    private final PriorityRequestScheduler persistStageScheduler;
 
     private final ICacheManager cacheManager;
 
-    private final Handler handlerResponse;
+    /** Delivers notifications to listeners on the main thread. */
+    private final ListenerNotificationDispatcher listenerNotificationDispatcher;
 
     private final Context applicationContext;
 
@@ -64,6 +105,50 @@ public class RequestProcessor {
 
     private final NetworkStateChecker networkStateChecker;
 
+    /** Timeout of requests using {@link SpiceRequest#TIMEOUT_DEFAULT}. */
+    private volatile long defaultTimeout = SpiceRequest.TIMEOUT_NONE;
+
+    /**
+     * Fires the deadlines of requests, the retries of failed network calls and
+     * the replays of parked requests. Created when first needed, guarded by
+     * this.
+     */
+    private ScheduledExecutorService timer;
+    private boolean isShutdown;
+
+    /**
+     * Pending timeouts, by request instance : non aggregatable requests may be
+     * equal and processed at the same time.
+     */
+    private final Map<CachedSpiceRequest<?>, RequestTimeout> mapRequestToTimeout = Collections
+        .synchronizedMap(new IdentityHashMap<CachedSpiceRequest<?>, RequestTimeout>());
+
+    /** Settings of the circuit breakers, null if they are disabled. */
+    private volatile CircuitBreakerPolicy circuitBreakerPolicy;
+
+    /** Settings of the offline mode, null if requests fail when offline. */
+    private volatile OfflineParkingPolicy offlineParkingPolicy;
+
+    /** Requests waiting for network to be back. */
+    private final OfflineRequestQueue offlineRequestQueue = new OfflineRequestQueue();
+
+    /**
+     * Parked requests are replayed by a chain of ticks on the timer. Starting a
+     * new chain invalidates the previous one. Guarded by offlineRequestQueue.
+     */
+    private long offlineReplayGeneration;
+
+    /** Circuit breakers by endpoint id, created when first needed. */
+    private final ConcurrentMap<Object, CircuitBreaker> mapEndpointToCircuitBreaker = new ConcurrentHashMap<Object, CircuitBreaker>();
+
+    /** Whether timings of requests are aggregated per request class. */
+    private volatile boolean isTimingStatisticsEnabled;
+
+    /** Requests are timed only when someone needs it. */
+    private final AtomicInteger timingListenerCount = new AtomicInteger();
+
+    private final ConcurrentMap<Class<?>, RequestTimingStatistics> mapRequestClassToTimingStatistics = new ConcurrentHashMap<Class<?>, RequestTimingStatistics>();
+
     // ============================================================================================
     // CONSTRUCTOR
     // ============================================================================================
@@ -79,7 +164,8 @@ public class RequestProcessor {
      *            requests' result and store them.
      * @param executorService
      *            a custom {@link ExecutorService} that will be used to execute
-     *            {@link SpiceRequest}.
+     *            {@link SpiceRequest}. Requests are handed to its workers by
+     *            order of priority (see {@link SpiceRequest#getPriority()}).
      * @param requestProcessorListener
      *            a listener of the {@link RequestProcessor}, it will be
      *            notified when no more requests are left, typically allowing
@@ -87,14 +173,89 @@ public class RequestProcessor {
      */
     public RequestProcessor(final Context context, final ICacheManager cacheManager, final ExecutorService executorService,
         final RequestProcessorListener requestProcessorListener, final NetworkStateChecker networkStateChecker) {
+        this(context, cacheManager, executorService, null, null, requestProcessorListener, networkStateChecker);
+    }
+
+    /**
+     * Build a request processor whose requests are processed in stages, each
+     * stage running on its own executor. A request moves to the next stage
+     * without blocking the thread of the current one, so that slow disk
+     * accesses don't hold network threads and cache lookups don't wait
+     * behind network calls.
+     * @param context
+     *            the context on which {@link SpiceRequest} will provide their
+     *            results.
+     * @param cacheManager
+     *            the {@link CacheManager} that will be used to retrieve
+     *            requests' result and store them.
+     * @param executorService
+     *            the {@link ExecutorService} that will be used to load
+     *            requests from network.
+     * @param cacheExecutorService
+     *            the {@link ExecutorService} that will be used to look for
+     *            requests' result in cache. If null, cache lookups are run on
+     *            the network executor.
+     * @param persistExecutorService
+     *            the {@link ExecutorService} that will be used to save
+     *            requests' result in cache. If null, results are saved on the
+     *            network executor.
+     * @param requestProcessorListener
+     *            a listener of the {@link RequestProcessor}, it will be
+     *            notified when no more requests are left, typically allowing
+     *            the {@link SpiceService} to stop itself.
+     */
+    public RequestProcessor(final Context context, final ICacheManager cacheManager, final ExecutorService executorService,
+        final ExecutorService cacheExecutorService, final ExecutorService persistExecutorService,
+        final RequestProcessorListener requestProcessorListener, final NetworkStateChecker networkStateChecker) {
+        this(context, cacheManager, executorService, cacheExecutorService, persistExecutorService, requestProcessorListener,
+            networkStateChecker, null);
+    }
+
+    /**
+     * Build a request processor that can run outside of an Android process,
+     * see {@link #RequestProcessor(Context, ICacheManager, ExecutorService, ExecutorService, ExecutorService, RequestProcessorListener, NetworkStateChecker)}
+     * .
+     * @param context
+     *            the context on which {@link SpiceRequest} will provide their
+     *            results, may be null if neither requests nor the
+     *            networkStateChecker use it.
+     * @param listenerNotificationExecutorService
+     *            the executor on which request listeners are notified, or null
+     *            to notify them on the main thread.
+     */
+    public RequestProcessor(final Context context, final ICacheManager cacheManager, final ExecutorService executorService,
+        final ExecutorService cacheExecutorService, final ExecutorService persistExecutorService,
+        final RequestProcessorListener requestProcessorListener, final NetworkStateChecker networkStateChecker,
+        final ScheduledExecutorService listenerNotificationExecutorService) {
         this.applicationContext = context;
         this.cacheManager = cacheManager;
         this.requestProcessorListener = requestProcessorListener;
         this.networkStateChecker = networkStateChecker;
+        if (networkStateChecker instanceof CachedNetworkStateChecker) {
+            // don't wait for the next periodic check to replay parked requests
+            ((CachedNetworkStateChecker) networkStateChecker).addNetworkStateListener(new NetworkStateSource.Listener() {
+                @Override
+                public void onNetworkStateChanged(final NetworkState networkState) {
+                    if (networkState.isConnected()) {
+                        replayParkedRequests();
+                    }
+                }
+            });
+        }
 
-        handlerResponse = new Handler(Looper.getMainLooper());
+        if (listenerNotificationExecutorService == null) {
+            listenerNotificationDispatcher = new ListenerNotificationDispatcher(new Handler(Looper.getMainLooper()));
+        } else {
+            listenerNotificationDispatcher = new ListenerNotificationDispatcher(listenerNotificationExecutorService);
+        }
         spiceServiceListenerSet = Collections.synchronizedSet(new HashSet<SpiceServiceServiceListener>());
         this.executorService = executorService;
+        this.cacheExecutorService = cacheExecutorService;
+        this.persistExecutorService = persistExecutorService;
+        this.networkStageScheduler = new PriorityRequestScheduler(executorService);
+        this.cacheStageScheduler = cacheExecutorService == null ? networkStageScheduler : new PriorityRequestScheduler(cacheExecutorService);
+        this.persistStageScheduler = persistExecutorService == null ? networkStageScheduler : new PriorityRequestScheduler(
+            persistExecutorService);
 
         this.networkStateChecker.checkPermissions(context);
     }
@@ -103,75 +264,177 @@ public class RequestProcessor {
     // PUBLIC
     // ============================================================================================
     public void addRequest(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listRequestListener) {
-        Ln.d("Adding request to queue " + hashCode() + ": " + request + " size is " + mapRequestToRequestListener.size());
+        final Runnable firstStage = prepareRequest(request, listRequestListener);
+        if (firstStage != null) {
+            scheduleStage(getFirstStageScheduler(request), request, firstStage);
+        }
+    }
+
+    /**
+     * Add several requests at once. They are all registered, then all handed
+     * over to their first stage together : the most urgent requests of the
+     * batch are processed first, whatever their order in the batch, instead
+     * of the first ones grabbing the idle worker threads.
+     * @param requests
+     *            the requests to process.
+     * @param listRequestListeners
+     *            the listeners of each request, in the same order.
+     */
+    public void addRequests(final List<CachedSpiceRequest<?>> requests, final List<Set<RequestListener<?>>> listRequestListeners) {
+        if (requests.size() != listRequestListeners.size()) {
+            throw new IllegalArgumentException("There must be a set of listeners per request");
+        }
+        final List<CachedSpiceRequest<?>> cacheStageRequests = new ArrayList<CachedSpiceRequest<?>>();
+        final List<Runnable> cacheStages = new ArrayList<Runnable>();
+        // both first stages may share the same executor
+        final boolean isSharedScheduler = cacheStageScheduler == networkStageScheduler;
+        final List<CachedSpiceRequest<?>> networkStageRequests = isSharedScheduler ? cacheStageRequests
+            : new ArrayList<CachedSpiceRequest<?>>();
+        final List<Runnable> networkStages = isSharedScheduler ? cacheStages : new ArrayList<Runnable>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            final CachedSpiceRequest<?> request = requests.get(i);
+            final Runnable firstStage = prepareRequest(request, listRequestListeners.get(i));
+            if (firstStage == null) {
+                continue;
+            }
+            if (getFirstStageScheduler(request) == cacheStageScheduler) {
+                cacheStageRequests.add(request);
+                cacheStages.add(firstStage);
+            } else {
+                networkStageRequests.add(request);
+                networkStages.add(firstStage);
+            }
+        }
+
+        scheduleStages(cacheStageScheduler, cacheStageRequests, cacheStages);
+        if (!isSharedScheduler) {
+            scheduleStages(networkStageScheduler, networkStageRequests, networkStages);
+        }
+    }
+
+    /**
+     * Register a request and its listeners.
+     * @return the first stage of the processing of the request, or null if it
+     *         must not be scheduled : it was aggregated to a pending request or
+     *         cancelled.
+     */
+    private Runnable prepareRequest(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listRequestListener) {
+        Ln.d("Adding request to queue " + hashCode() + ": " + request + " size is " + requestListenerRegistry.size());
 
         if (request.isCancelled()) {
-            for (final CachedSpiceRequest<?> cachedSpiceRequest : mapRequestToRequestListener.keySet()) {
-                if (cachedSpiceRequest.equals(request)) {
-                    cachedSpiceRequest.cancel();
-                    return;
-                }
+            // a lookup by result type and cache key, not a scan of all requests
+            final CachedSpiceRequest<?> cachedSpiceRequest = requestListenerRegistry.getRegisteredRequest(request);
+            if (cachedSpiceRequest != null) {
+                cachedSpiceRequest.cancel();
+                // the request itself is not processed, its own listeners
+                // must not wait forever
+                notifyListenersOfRequestCancellation(request, listRequestListener);
+                return null;
             }
         }
 
         boolean aggregated = false;
         if (listRequestListener != null) {
-            Set<RequestListener<?>> listRequestListenerForThisRequest = mapRequestToRequestListener.get(request);
-
-            if (listRequestListenerForThisRequest == null) {
-                listRequestListenerForThisRequest = new HashSet<RequestListener<?>>();
-                this.mapRequestToRequestListener.put(request, listRequestListenerForThisRequest);
-            } else {
+            if (!requestListenerRegistry.register(request, listRequestListener)) {
                 Ln.d(String.format("Request for type %s and cacheKey %s already exists.", request.getResultType(), request.getRequestCacheKey()));
                 aggregated = true;
+                // a more urgent listener joined the request, it should not
+                // wait behind less urgent requests, including in its next
+                // stages. A foreground request joining a prefetch turns it
+                // into a foreground request.
+                final CachedSpiceRequest<?> pendingRequest = requestListenerRegistry.getRegisteredRequest(request);
+                if (pendingRequest != null && request.getPriority() < pendingRequest.getPriority()) {
+                    pendingRequest.setPriority(request.getPriority());
+                }
+                cacheStageScheduler.promote(request, request.getPriority());
+                networkStageScheduler.promote(request, request.getPriority());
+                persistStageScheduler.promote(request, request.getPriority());
+                offlineRequestQueue.promote(request, request.getPriority());
             }
 
-            listRequestListenerForThisRequest.addAll(listRequestListener);
             if (request.isProcessable()) {
-                notifyListenersOfRequestProgress(request, listRequestListener, request.getProgress());
+                // through the live set of listeners, as later progress :
+                // listeners removed before the main thread delivers it
+                // don't receive it.
+                final CachedSpiceRequest<?> registeredRequest = requestListenerRegistry.getRegisteredRequest(request);
+                if (registeredRequest != null) {
+                    notifyListenersOfRequestProgress(registeredRequest, requestListenerRegistry.getListeners(registeredRequest),
+                        registeredRequest.getProgress());
+                }
             }
         }
 
         if (aggregated) {
-            return;
+            return null;
         }
 
+        if (isTimingEnabled()) {
+            request.setRequestTimer(new RequestTimer(request.getSpiceRequest().getClass(), request.getCreationTimeInNanos(), System.nanoTime()));
+        }
+
+        final AtomicBoolean isTimedOut = new AtomicBoolean();
         final RequestCancellationListener requestCancellationListener = new RequestCancellationListener() {
 
             @Override
             public void onRequestCancelled() {
-                mapRequestToRequestListener.remove(request);
-                notifyListenersOfRequestCancellation(request, listRequestListener);
+                final Set<RequestListener<?>> listeners = requestListenerRegistry.unregister(request);
+                if (listeners == null && listRequestListener != null) {
+                    // the request completed before it was cancelled, its
+                    // listeners have been notified already
+                    return;
+                }
+                final RequestCancelledException exception;
+                if (isTimedOut.get()) {
+                    exception = new RequestTimeoutException("Request has been cancelled as it timed out.");
+                } else {
+                    exception = new RequestCancelledException("Request has been cancelled explicitely.");
+                }
+                notifyListenersOfRequestCancellation(request, listeners, exception);
             }
         };
         request.setRequestCancellationListener(requestCancellationListener);
 
         if (request.isCancelled()) {
-            mapRequestToRequestListener.remove(request);
-            notifyListenersOfRequestCancellation(request, listRequestListener);
-            return;
+            final Set<RequestListener<?>> listeners = requestListenerRegistry.unregister(request);
+            if (listeners != null || listRequestListener == null) {
+                // otherwise the cancellation listener notified them already
+                notifyListenersOfRequestCancellation(request, listeners);
+            }
+            return null;
         } else {
-
-            final Future<?> future = executorService.submit(new Runnable() {
+            // the deadline runs from submission, queueing included
+            scheduleTimeout(request, isTimedOut);
+            return new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        processRequest(request);
-                    } catch (final Throwable t) {
-                        Ln.d(t, "An unexpected error occured when processsing request %s", request.toString());
-
-                    }
+                    processRequest(request);
                 }
-            });
-            request.setFuture(future);
+            };
         }
     }
 
+    private PriorityRequestScheduler getFirstStageScheduler(final CachedSpiceRequest<?> request) {
+        return request.getRequestCacheKey() == null ? networkStageScheduler : cacheStageScheduler;
+    }
+
+    /**
+     * First stage of the processing of a request : look for its result in
+     * cache. The following stages are run by
+     * {@link #loadDataFromNetwork(CachedSpiceRequest, Object, Set, int)} and
+     * {@link #saveDataToCache(CachedSpiceRequest, Object, Set, Set)}.
+     * @param request
+     *            the request to process.
+     */
     protected <T> void processRequest(final CachedSpiceRequest<T> request) {
 
         Ln.d("Processing request : " + request);
 
         T result = null;
+        // in stale-while-revalidate mode, data delivered before the request
+        // is loaded from network and the listeners it was delivered to.
+        T staleResult = null;
+        Set<RequestListener<?>> staleResultListeners = null;
         if (!request.isProcessable()) {
             notifyOfRequestProcessed(request);
             return;
@@ -182,7 +445,7 @@ public class RequestProcessor {
         final RequestProgressListener requestProgressListener = new RequestProgressListener() {
             @Override
             public void onRequestProgressUpdate(final RequestProgress progress) {
-                final Set<RequestListener<?>> listeners = mapRequestToRequestListener.get(request);
+                final Set<RequestListener<?>> listeners = requestListenerRegistry.getListeners(request);
                 notifyListenersOfRequestProgress(request, listeners, progress);
             }
         };
@@ -192,13 +455,20 @@ public class RequestProcessor {
             // First, search data in cache
             try {
                 Ln.d("Loading request from cache : " + request);
-                request.setStatus(RequestStatus.READING_FROM_CACHE);
+                setStatus(request, RequestStatus.READING_FROM_CACHE);
                 result = loadDataFromCache(request.getResultType(), request.getRequestCacheKey(), request.getCacheDuration());
                 if (result != null) {
                     Ln.d("Request loaded from cache : " + request + " result=" + result);
                     notifyListenersOfRequestSuccess(request, result);
                     return;
                 }
+                if (request.isStaleWhileRevalidate()) {
+                    staleResult = loadDataFromCache(request.getResultType(), request.getRequestCacheKey(), request.getMaxStaleness());
+                    if (staleResult != null) {
+                        Ln.d("Stale data loaded from cache, revalidating : " + request + " result=" + staleResult);
+                        staleResultListeners = notifyListenersOfStaleResult(request, staleResult);
+                    }
+                }
             } catch (final CacheLoadingException e) {
                 Ln.d(e, "Cache file could not be read.");
                 if (failOnCacheError) {
@@ -210,64 +480,360 @@ public class RequestProcessor {
             }
         }
 
-        if (result == null) {
-            // if result is not in cache, load data from network
-            Ln.d("Cache content not available or expired or disabled");
-            if (!isNetworkAvailable(applicationContext)) {
-                Ln.e("Network is down.");
-                notifyListenersOfRequestFailure(request, new NoNetworkException());
+        // if result is not in cache, load data from network
+        Ln.d("Cache content not available or expired or disabled");
+        final T finalStaleResult = staleResult;
+        final Set<RequestListener<?>> finalStaleResultListeners = staleResultListeners;
+        final PriorityRequestScheduler currentStageScheduler = request.getRequestCacheKey() == null ? networkStageScheduler
+            : cacheStageScheduler;
+        moveToStage(currentStageScheduler, networkStageScheduler, request, new Runnable() {
+            @Override
+            public void run() {
+                loadDataFromNetwork(request, finalStaleResult, finalStaleResultListeners, 1);
+            }
+        });
+    }
+
+    /**
+     * Second stage of the processing of a request : load its result from
+     * network. If this fails, the stage may be scheduled again later, according
+     * to the {@link RetryPolicy} of the request.
+     * @param attemptCount
+     *            the number of this attempt, starting at 1.
+     */
+    private <T> void loadDataFromNetwork(final CachedSpiceRequest<T> request, final T staleResult,
+        final Set<RequestListener<?>> staleResultListeners, final int attemptCount) {
+        if (!isNetworkAvailable(applicationContext)) {
+            if (parkRequest(request, staleResult, staleResultListeners, attemptCount)) {
                 return;
             }
+            Ln.e("Network is down.");
+            notifyListenersOfRequestFailure(request, new NoNetworkException(), staleResultListeners);
+            return;
+        }
 
-            // network is ok, load data from network
-            try {
-                Ln.d("Calling netwok request.");
-                request.setStatus(RequestStatus.LOADING_FROM_NETWORK);
-                result = request.loadDataFromNetwork();
-                Ln.d("Network request call ended.");
-            } catch (final Exception e) {
-                Ln.e(e, "An exception occured during request network execution :" + e.getMessage());
-                notifyListenersOfRequestFailure(request, new NetworkException("Exception occured during invocation of web service.", e));
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(request);
+        long circuitBreakerGeneration = CircuitBreaker.DENIED;
+        if (circuitBreaker != null) {
+            notifyOfCircuitBreakerStateChanged(request, circuitBreaker.halfOpenIfOpenDurationElapsed(System.currentTimeMillis()));
+            circuitBreakerGeneration = circuitBreaker.tryAcquire();
+            if (circuitBreakerGeneration == CircuitBreaker.DENIED) {
+                Ln.d("Circuit breaker of endpoint %s is open, request fails fast.", request.getEndpointId());
+                notifyListenersOfRequestFailure(request, new CircuitBreakerOpenException("Circuit breaker of endpoint "
+                    + request.getEndpointId() + " is open."), staleResultListeners);
                 return;
             }
+        }
 
-            if (result != null && request.getRequestCacheKey() != null) {
-                // request worked and result is not null, save
-                // it to cache
-                try {
-                    Ln.d("Start caching content...");
-                    request.setStatus(RequestStatus.WRITING_TO_CACHE);
-                    result = saveDataToCacheAndReturnData(result, request.getRequestCacheKey());
-                    notifyListenersOfRequestSuccess(request, result);
-                    return;
-                } catch (final CacheSavingException e) {
-                    Ln.d("An exception occured during service execution :" + e.getMessage(), e);
-                    if (failOnCacheError) {
-                        notifyListenersOfRequestFailure(request, e);
-                        return;
-                    } else {
-                        // result can't be saved to
-                        // cache but we reached that
-                        // point after a success of load
-                        // data from
-                        // network
-                        notifyListenersOfRequestSuccess(request, result);
-                    }
-                    cacheManager.removeDataFromCache(request.getResultType(), request.getRequestCacheKey());
-                    Ln.d(e, "Cache file deleted.");
+        // network is ok, load data from network
+        T result = null;
+        final long networkCallStart = System.currentTimeMillis();
+        try {
+            Ln.d("Calling netwok request.");
+            setStatus(request, RequestStatus.LOADING_FROM_NETWORK);
+            result = request.loadDataFromNetwork();
+            Ln.d("Network request call ended.");
+        } catch (final Exception e) {
+            Ln.e(e, "An exception occured during request network execution :" + e.getMessage());
+            if (circuitBreaker != null) {
+                if (request.isCancelled() || e instanceof InterruptedException) {
+                    // the endpoint didn't fail, the request was cancelled
+                    circuitBreaker.release(circuitBreakerGeneration);
+                } else {
+                    onCircuitBreakerCallComplete(request, circuitBreaker, circuitBreakerGeneration, true, networkCallStart);
+                }
+            }
+            final boolean isRetryScheduled = scheduleRetry(request, e, attemptCount, new Runnable() {
+                @Override
+                public void run() {
+                    loadDataFromNetwork(request, staleResult, staleResultListeners, attemptCount + 1);
                 }
+            });
+            if (isRetryScheduled) {
+                return;
+            }
+            notifyListenersOfRequestFailure(request, new NetworkException("Exception occured during invocation of web service.", e),
+                staleResultListeners);
+            return;
+        }
+        if (circuitBreaker != null) {
+            onCircuitBreakerCallComplete(request, circuitBreaker, circuitBreakerGeneration, false, networkCallStart);
+        }
+
+        // listeners that received stale data are only notified again if
+        // data changed.
+        final Set<RequestListener<?>> listenersUpToDate = staleResult != null && staleResult.equals(result) ? staleResultListeners : null;
+
+        if (result != null && request.getRequestCacheKey() != null) {
+            // request worked and result is not null, save
+            // it to cache
+            final T finalResult = result;
+            moveToStage(networkStageScheduler, persistStageScheduler, request, new Runnable() {
+                @Override
+                public void run() {
+                    saveDataToCache(request, finalResult, staleResultListeners, listenersUpToDate);
+                }
+            });
+        } else {
+            // result can't be saved to cache but we reached
+            // that point after a success of load data from
+            // network
+            notifyListenersOfRequestSuccess(request, result, listenersUpToDate);
+        }
+    }
+
+    /**
+     * Last stage of the processing of a request : save its result in cache.
+     * Listeners are notified on the main thread by the
+     * {@link ListenerNotificationDispatcher}.
+     */
+    private <T> void saveDataToCache(final CachedSpiceRequest<T> request, final T result, final Set<RequestListener<?>> staleResultListeners,
+        final Set<RequestListener<?>> listenersUpToDate) {
+        try {
+            Ln.d("Start caching content...");
+            setStatus(request, RequestStatus.WRITING_TO_CACHE);
+            final T savedResult = saveDataToCacheAndReturnData(result, request.getRequestCacheKey());
+            notifyListenersOfRequestSuccess(request, savedResult, listenersUpToDate);
+        } catch (final CacheSavingException e) {
+            Ln.d("An exception occured during service execution :" + e.getMessage(), e);
+            if (failOnCacheError) {
+                notifyListenersOfRequestFailure(request, e, staleResultListeners);
+                return;
             } else {
-                // result can't be saved to cache but we reached
-                // that point after a success of load data from
+                // result can't be saved to
+                // cache but we reached that
+                // point after a success of load
+                // data from
                 // network
-                notifyListenersOfRequestSuccess(request, result);
+                notifyListenersOfRequestSuccess(request, result, listenersUpToDate);
+            }
+            cacheManager.removeDataFromCache(request.getResultType(), request.getRequestCacheKey());
+            Ln.d(e, "Cache file deleted.");
+        }
+    }
+
+    /**
+     * Park a request until network is back, if the offline mode is enabled.
+     * When it is replayed, the request resumes at its network stage.
+     * @return true if the request is parked, false if it must fail.
+     */
+    private <T> boolean parkRequest(final CachedSpiceRequest<T> request, final T staleResult,
+        final Set<RequestListener<?>> staleResultListeners, final int attemptCount) {
+        final OfflineParkingPolicy policy = offlineParkingPolicy;
+        if (policy == null || request.isCancelled()) {
+            return false;
+        }
+        Ln.d("Network is down, parking request : " + request);
+        setStatus(request, RequestStatus.PENDING);
+        final Runnable replay = new Runnable() {
+            @Override
+            public void run() {
+                scheduleStage(networkStageScheduler, request, new Runnable() {
+                    @Override
+                    public void run() {
+                        loadDataFromNetwork(request, staleResult, staleResultListeners, attemptCount);
+                    }
+                });
+            }
+        };
+        final Runnable expiry = new Runnable() {
+            @Override
+            public void run() {
+                Ln.d("Network is still down, parked request expired : " + request);
+                notifyListenersOfRequestFailure(request, new NoNetworkException(), staleResultListeners);
+            }
+        };
+        final boolean isReplayStarted;
+        synchronized (offlineRequestQueue) {
+            isReplayStarted = !offlineRequestQueue.isEmpty();
+            offlineRequestQueue.park(request, replay, expiry, System.currentTimeMillis() + policy.getMaxParkTime());
+        }
+        if (!isReplayStarted) {
+            scheduleOfflineReplay(policy.getNetworkCheckInterval());
+        }
+        return true;
+    }
+
+    /** Start a new chain of replay ticks, the previous one stops. */
+    private void scheduleOfflineReplay(final long delay) {
+        final long generation;
+        synchronized (offlineRequestQueue) {
+            generation = ++offlineReplayGeneration;
+        }
+        scheduleOfflineReplayTick(generation, delay);
+    }
+
+    private void scheduleOfflineReplayTick(final long generation, final long delay) {
+        scheduleOnTimer(new Runnable() {
+            @Override
+            public void run() {
+                replayParkedRequest(generation);
+            }
+        }, delay);
+    }
+
+    /**
+     * A replay tick : expire requests parked for too long, then, if network is
+     * back, replay the most urgent parked request. Ticks follow each other
+     * every replay interval while network is up, every network check interval
+     * while it is down, and stop when no request is parked.
+     */
+    private void replayParkedRequest(final long generation) {
+        final OfflineParkingPolicy policy = offlineParkingPolicy;
+        synchronized (offlineRequestQueue) {
+            if (generation != offlineReplayGeneration) {
                 return;
             }
         }
+        for (final OfflineRequestQueue.ParkedRequest parkedRequest : offlineRequestQueue.pollExpired(System.currentTimeMillis())) {
+            parkedRequest.expire();
+        }
+        if (offlineRequestQueue.isEmpty()) {
+            return;
+        }
+        if (policy == null || !isNetworkAvailable(applicationContext)) {
+            scheduleOfflineReplayTick(generation, policy == null ? OfflineParkingPolicy.DEFAULT_NETWORK_CHECK_INTERVAL : policy
+                .getNetworkCheckInterval());
+            return;
+        }
+        final OfflineRequestQueue.ParkedRequest parkedRequest = offlineRequestQueue.poll();
+        if (parkedRequest != null) {
+            Ln.d("Network is back, replaying parked request.");
+            parkedRequest.replay();
+        }
+        scheduleOfflineReplayTick(generation, policy.getReplayInterval());
+    }
+
+    private CircuitBreaker getCircuitBreaker(final CachedSpiceRequest<?> request) {
+        final CircuitBreakerPolicy policy = circuitBreakerPolicy;
+        if (policy == null) {
+            return null;
+        }
+        final Object endpointId = request.getEndpointId();
+        final CircuitBreaker circuitBreaker = mapEndpointToCircuitBreaker.get(endpointId);
+        if (circuitBreaker != null) {
+            return circuitBreaker;
+        }
+        final CircuitBreaker newCircuitBreaker = new CircuitBreaker(policy);
+        final CircuitBreaker previousCircuitBreaker = mapEndpointToCircuitBreaker.putIfAbsent(endpointId, newCircuitBreaker);
+        return previousCircuitBreaker == null ? newCircuitBreaker : previousCircuitBreaker;
+    }
+
+    private void onCircuitBreakerCallComplete(final CachedSpiceRequest<?> request, final CircuitBreaker circuitBreaker,
+        final long circuitBreakerGeneration, final boolean isFailure, final long networkCallStart) {
+        final long now = System.currentTimeMillis();
+        notifyOfCircuitBreakerStateChanged(request,
+            circuitBreaker.onCallComplete(circuitBreakerGeneration, isFailure, now - networkCallStart, now));
+    }
+
+    /**
+     * Schedule a new attempt of the network stage of a request, if its retry
+     * policy allows it. The delay before the retry is spent on the timer, not
+     * on a worker thread.
+     * @return true if a retry is scheduled, false if the request must fail.
+     */
+    private boolean scheduleRetry(final CachedSpiceRequest<?> request, final Exception exception, final int attemptCount,
+        final Runnable retry) {
+        final RetryPolicy retryPolicy = request.getRetryPolicy();
+        if (retryPolicy == null || request.isCancelled()) {
+            return false;
+        }
+        final long delayBeforeRetry = retryPolicy.getDelayBeforeRetry(attemptCount, exception);
+        if (delayBeforeRetry < 0) {
+            return false;
+        }
+        Ln.d("Retrying request in %d ms, attempt %d failed : %s", delayBeforeRetry, attemptCount, request);
+        final RequestTimer requestTimer = request.getRequestTimer();
+        if (requestTimer != null) {
+            requestTimer.startPhase(Phase.PENDING, System.nanoTime());
+        }
+        final Future<?> future = scheduleOnTimer(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    // listeners have been notified by the cancellation listener
+                    return;
+                }
+                scheduleStage(networkStageScheduler, request, retry);
+            }
+        }, delayBeforeRetry);
+        if (future == null) {
+            return false;
+        }
+        // cancelling the request during the delay cancels the retry
+        request.setFuture(future);
+        if (request.isCancelled()) {
+            future.cancel(false);
+        }
+        return true;
     }
 
-    private void post(final Runnable r, final Object token) {
-        handlerResponse.postAtTime(r, token, 0);
+    /**
+     * Hand a request over to the next stage of its processing. If both stages
+     * share the same executor, the next stage is run right away on the current
+     * thread. Otherwise, it is scheduled and the current thread is released.
+     */
+    private void moveToStage(final PriorityRequestScheduler currentStageScheduler, final PriorityRequestScheduler nextStageScheduler,
+        final CachedSpiceRequest<?> request, final Runnable stage) {
+        if (currentStageScheduler == nextStageScheduler) {
+            stage.run();
+            return;
+        }
+        if (request.isCancelled()) {
+            // listeners have been notified by the cancellation listener
+            Ln.d("Request cancelled between two stages : " + request);
+            return;
+        }
+        scheduleStage(nextStageScheduler, request, stage);
+    }
+
+    private void scheduleStage(final PriorityRequestScheduler stageScheduler, final CachedSpiceRequest<?> request, final Runnable stage) {
+        startPendingPhase(request);
+        setStageFuture(request, stageScheduler.schedule(request, guardStage(request, stage)));
+    }
+
+    private void scheduleStages(final PriorityRequestScheduler stageScheduler, final List<CachedSpiceRequest<?>> requests,
+        final List<Runnable> stages) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        final List<Runnable> guardedStages = new ArrayList<Runnable>(stages.size());
+        for (int i = 0; i < requests.size(); i++) {
+            startPendingPhase(requests.get(i));
+            guardedStages.add(guardStage(requests.get(i), stages.get(i)));
+        }
+        final List<Future<?>> futures = stageScheduler.scheduleAll(requests, guardedStages);
+        for (int i = 0; i < requests.size(); i++) {
+            setStageFuture(requests.get(i), futures.get(i));
+        }
+    }
+
+    private void startPendingPhase(final CachedSpiceRequest<?> request) {
+        final RequestTimer requestTimer = request.getRequestTimer();
+        if (requestTimer != null) {
+            requestTimer.startPhase(Phase.PENDING, System.nanoTime());
+        }
+    }
+
+    private Runnable guardStage(final CachedSpiceRequest<?> request, final Runnable stage) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stage.run();
+                } catch (final Throwable t) {
+                    Ln.d(t, "An unexpected error occured when processsing request %s", request.toString());
+                }
+            }
+        };
+    }
+
+    private void setStageFuture(final CachedSpiceRequest<?> request, final Future<?> future) {
+        request.setFuture(future);
+        if (request.isCancelled()) {
+            // cancelled before its future was known, by a timeout for instance
+            future.cancel(true);
+        }
     }
 
     private <T> void notifyListenersOfRequestProgress(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners,
@@ -277,40 +843,131 @@ public class RequestProcessor {
 
     private <T> void notifyListenersOfRequestProgress(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners,
         final RequestProgress progress) {
-        post(new ProgressRunnable(listeners, progress), request.getRequestCacheKey());
+        listenerNotificationDispatcher.dispatchProgress(request, listeners, progress);
         checkAllRequestComplete();
     }
 
+    private void setStatus(final CachedSpiceRequest<?> request, final RequestStatus status) {
+        request.setStatus(status);
+        final RequestTimer requestTimer = request.getRequestTimer();
+        if (requestTimer != null) {
+            requestTimer.startPhase(status, System.nanoTime());
+        }
+    }
+
+    /**
+     * Time the delivery of the result of a timed request : the timing of the
+     * request ends when listeners are about to be notified.
+     * @return the notification to dispatch.
+     */
+    private Runnable timeDispatch(final CachedSpiceRequest<?> request, final Runnable resultRunnable) {
+        final RequestTimer requestTimer = request.getRequestTimer();
+        if (requestTimer == null) {
+            return resultRunnable;
+        }
+        requestTimer.startPhase(Phase.DISPATCHING, System.nanoTime());
+        return new Runnable() {
+            @Override
+            public void run() {
+                final RequestTiming requestTiming = requestTimer.stop(System.nanoTime());
+                resultRunnable.run();
+                if (requestTiming != null) {
+                    notifyOfRequestTimed(request, requestTiming);
+                }
+            }
+        };
+    }
+
     private void checkAllRequestComplete() {
-        if (mapRequestToRequestListener.isEmpty()) {
+        if (requestListenerRegistry.isEmpty()) {
             requestProcessorListener.allRequestComplete();
         }
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     private <T> void notifyListenersOfRequestSuccess(final CachedSpiceRequest<T> request, final T result) {
-        final Set<RequestListener<?>> listeners = mapRequestToRequestListener.get(request);
+        notifyListenersOfRequestSuccess(request, result, null);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private <T> void notifyListenersOfRequestSuccess(final CachedSpiceRequest<T> request, final T result,
+        final Set<RequestListener<?>> listenersToSkip) {
+        if (!cancelTimeout(request) || request.isCancelled()) {
+            // listeners have been notified by the cancellation listener
+            return;
+        }
+        final Set<RequestListener<?>> listeners = requestListenerRegistry.unregister(request);
         notifyListenersOfRequestProgress(request, listeners, RequestStatus.COMPLETE);
-        post(new ResultRunnable(listeners, result), request.getRequestCacheKey());
+        dispatchResult(request, listeners, new ResultRunnable(listeners, listenersToSkip, result));
         notifyOfRequestProcessed(request);
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     private <T> void notifyListenersOfRequestFailure(final CachedSpiceRequest<T> request, final SpiceException e) {
-        final Set<RequestListener<?>> listeners = mapRequestToRequestListener.get(request);
+        notifyListenersOfRequestFailure(request, e, null);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private <T> void notifyListenersOfRequestFailure(final CachedSpiceRequest<T> request, final SpiceException e,
+        final Set<RequestListener<?>> listenersToSkip) {
+        if (!cancelTimeout(request) || request.isCancelled()) {
+            // listeners have been notified by the cancellation listener
+            return;
+        }
+        final Set<RequestListener<?>> listeners = requestListenerRegistry.unregister(request);
         notifyListenersOfRequestProgress(request, listeners, RequestStatus.COMPLETE);
-        post(new ResultRunnable(listeners, e), request.getRequestCacheKey());
+        dispatchResult(request, listeners, new ResultRunnable(listeners, listenersToSkip, e));
         notifyOfRequestProcessed(request);
     }
 
+    /**
+     * Deliver stale data to the current listeners of a request, without
+     * completing it.
+     * @return the listeners the stale data was delivered to.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private <T> Set<RequestListener<?>> notifyListenersOfStaleResult(final CachedSpiceRequest<T> request, final T staleResult) {
+        final Set<RequestListener<?>> listeners = requestListenerRegistry.getListeners(request);
+        if (listeners == null) {
+            return null;
+        }
+        // listeners joining the request later on will only receive fresh data
+        final Set<RequestListener<?>> staleResultListeners = new HashSet<RequestListener<?>>(listeners);
+        listenerNotificationDispatcher.dispatchResult(new ResultRunnable(staleResultListeners, null, staleResult));
+        return staleResultListeners;
+    }
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private void notifyListenersOfRequestCancellation(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners) {
+        notifyListenersOfRequestCancellation(request, listeners, new RequestCancelledException("Request has been cancelled explicitely."));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void notifyListenersOfRequestCancellation(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners,
+        final RequestCancelledException exception) {
         Ln.d("Not calling network request : " + request + " as it is cancelled. ");
         notifyListenersOfRequestProgress(request, listeners, RequestStatus.COMPLETE);
-        post(new ResultRunnable(listeners, new RequestCancelledException("Request has been cancelled explicitely.")), request.getRequestCacheKey());
+        dispatchResult(request, listeners, new ResultRunnable(listeners, exception));
         notifyOfRequestProcessed(request);
     }
 
+    /**
+     * Queue the notification of the final listeners of a request. Until it is
+     * delivered, they can still be removed by
+     * {@link #dontNotifyRequestListenersForRequest(CachedSpiceRequest, Collection)}
+     * .
+     */
+    private void dispatchResult(final CachedSpiceRequest<?> request, final Set<RequestListener<?>> listeners, final Runnable resultRunnable) {
+        listenerNotificationDispatcher.dispatchResult(timeDispatch(request, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resultRunnable.run();
+                } finally {
+                    requestListenerRegistry.delivered(request, listeners);
+                }
+            }
+        }));
+    }
+
     /**
      * Disable request listeners notifications for a specific request.<br/>
      * All listeners associated to this request won't be called when request
@@ -322,14 +979,56 @@ public class RequestProcessor {
      *            notified
      */
     public void dontNotifyRequestListenersForRequest(final CachedSpiceRequest<?> request, final Collection<RequestListener<?>> listRequestListener) {
-        handlerResponse.removeCallbacksAndMessages(request.getRequestCacheKey());
-        final Set<RequestListener<?>> setRequestListener = mapRequestToRequestListener.get(request);
-        if (setRequestListener != null && listRequestListener != null) {
-            Ln.d("Removing listeners of request : " + request.toString() + " : " + setRequestListener.size());
-            setRequestListener.removeAll(listRequestListener);
+        // notifications already queued, progress and results, iterate the
+        // listener sets of the registry, including the ones of completed
+        // requests : they won't reach removed listeners.
+        if (listRequestListener != null) {
+            final int listenerLeftCount = requestListenerRegistry.removeListeners(request, listRequestListener);
+            Ln.d("Removed listeners of request : " + request.toString() + " : " + listenerLeftCount + " left");
         }
     }
 
+    /**
+     * Release the resources of this processor, typically when its service is
+     * destroyed : the timer thread is stopped, pending timeouts, retries and
+     * replays of parked requests are dropped. The executors of the stages are
+     * shut down : requests waiting for the cache or network stage are not
+     * processed, network calls in progress are interrupted, data already
+     * handed over to the persist stage is still saved. Requests added
+     * afterwards are not processed.
+     */
+    public void shutdown() {
+        final ScheduledExecutorService currentTimer;
+        synchronized (this) {
+            isShutdown = true;
+            currentTimer = timer;
+        }
+        if (currentTimer != null) {
+            currentTimer.shutdownNow();
+        }
+        mapRequestToTimeout.clear();
+        synchronized (offlineRequestQueue) {
+            // stops the chain of replay ticks
+            offlineReplayGeneration++;
+        }
+        final int droppedRequestCount = offlineRequestQueue.pollAll().size();
+        if (droppedRequestCount > 0) {
+            Ln.d("%d parked requests dropped at shutdown.", droppedRequestCount);
+        }
+
+        executorService.shutdownNow();
+        if (cacheExecutorService != null) {
+            cacheExecutorService.shutdownNow();
+        }
+        if (persistExecutorService != null) {
+            persistExecutorService.shutdown();
+        }
+    }
+
+    public synchronized boolean isShutdown() {
+        return isShutdown;
+    }
+
     /**
      * @return true if network is available.
      */
@@ -365,10 +1064,246 @@ public class RequestProcessor {
         this.failOnCacheError = failOnCacheError;
     }
 
+    public long getDispatchInterval() {
+        return listenerNotificationDispatcher.getDispatchInterval();
+    }
+
+    /**
+     * Set the interval between two deliveries of progress notifications to
+     * listeners. Progress updates of a request received during an interval
+     * are coalesced : listeners only receive the latest one. Results and
+     * failures are not delayed.
+     * @param dispatchInterval
+     *            the interval in ms between two deliveries of progress
+     *            notifications on the main thread. 0 means as soon as
+     *            possible.
+     */
+    public void setDispatchInterval(final long dispatchInterval) {
+        listenerNotificationDispatcher.setDispatchInterval(dispatchInterval);
+    }
+
+    /**
+     * @return the number of notifications of listeners since this
+     *         {@link RequestProcessor} was created.
+     */
+    public long getListenerNotificationCount() {
+        return listenerNotificationDispatcher.getNotificationCount();
+    }
+
+    /**
+     * @return the number of messages posted to the main looper to notify
+     *         listeners since this {@link RequestProcessor} was created.
+     */
+    public long getMainLooperMessageCount() {
+        return listenerNotificationDispatcher.getPostedMessageCount();
+    }
+
+    public long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    /**
+     * @param defaultTimeout
+     *            the timeout in ms of requests that don't set their own (see
+     *            {@link SpiceRequest#setTimeout(long)}), or
+     *            {@link SpiceRequest#TIMEOUT_NONE}.
+     */
+    public void setDefaultTimeout(final long defaultTimeout) {
+        if (defaultTimeout < SpiceRequest.TIMEOUT_NONE) {
+            throw new IllegalArgumentException("Default timeout must be >= " + SpiceRequest.TIMEOUT_NONE);
+        }
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public OfflineParkingPolicy getOfflineParkingPolicy() {
+        return offlineParkingPolicy;
+    }
+
+    /**
+     * Enable the offline mode : requests that need the network while it is
+     * down are parked until it is back, instead of failing with a
+     * {@link NoNetworkException}.
+     * @param offlineParkingPolicy
+     *            the settings of the offline mode, or null to disable it (the
+     *            default). Requests already parked are still replayed.
+     */
+    public void setOfflineParkingPolicy(final OfflineParkingPolicy offlineParkingPolicy) {
+        this.offlineParkingPolicy = offlineParkingPolicy;
+    }
+
+    /**
+     * @return the number of requests parked until network is back.
+     */
+    public int getParkedRequestCount() {
+        return offlineRequestQueue.size();
+    }
+
+    /**
+     * Check the network state and start replaying parked requests right away
+     * if it is back, instead of waiting for the next periodic check. Typically
+     * called when a connectivity change is received.
+     */
+    public void replayParkedRequests() {
+        if (!offlineRequestQueue.isEmpty()) {
+            scheduleOfflineReplay(0);
+        }
+    }
+
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Enable circuit breakers : requests to an endpoint that fails or is too
+     * slow fail fast with a {@link CircuitBreakerOpenException}, without
+     * being sent over the network. Existing breakers are reset.
+     * @param circuitBreakerPolicy
+     *            the settings of the breakers, or null to disable them (the
+     *            default).
+     */
+    public void setCircuitBreakerPolicy(final CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        mapEndpointToCircuitBreaker.clear();
+    }
+
+    /**
+     * @return a snapshot of the state of the circuit breaker of each endpoint
+     *         that was reached since breakers were enabled.
+     */
+    public Map<Object, CircuitBreakerState> getCircuitBreakerStates() {
+        final Map<Object, CircuitBreakerState> circuitBreakerStates = new HashMap<Object, CircuitBreakerState>();
+        for (final Map.Entry<Object, CircuitBreaker> entry : mapEndpointToCircuitBreaker.entrySet()) {
+            circuitBreakerStates.put(entry.getKey(), entry.getValue().getState());
+        }
+        return circuitBreakerStates;
+    }
+
+    /**
+     * @return a snapshot of the pools and queues of all stages of the
+     *         processing of requests : cache lookup, network load, persist and
+     *         dispatch of results on the main thread. Stages without an
+     *         executor of their own are reported with the executor they share.
+     */
+    public List<StageStatistics> getStageStatistics() {
+        final List<StageStatistics> stageStatistics = new ArrayList<StageStatistics>();
+        stageStatistics.add(StageStatistics.of(STAGE_CACHE, cacheExecutorService == null ? executorService : cacheExecutorService,
+            cacheStageScheduler.getPendingRequestCount()));
+        stageStatistics.add(StageStatistics.of(STAGE_NETWORK, executorService, networkStageScheduler.getPendingRequestCount()));
+        stageStatistics.add(StageStatistics.of(STAGE_PERSIST, persistExecutorService == null ? executorService : persistExecutorService,
+            persistStageScheduler.getPendingRequestCount()));
+        // notifications are dispatched by the main thread
+        stageStatistics.add(new StageStatistics(STAGE_DISPATCH, 1, 1, StageStatistics.UNKNOWN, listenerNotificationDispatcher
+            .getPendingNotificationCount()));
+        return stageStatistics;
+    }
+
+    /**
+     * Aggregate the timings of requests per request class, see
+     * {@link #getTimingStatistics()}. Disabled by default : requests are not
+     * timed unless statistics are enabled or a
+     * {@link SpiceServiceTimingListener} is registered.
+     */
+    public void setTimingStatisticsEnabled(final boolean isTimingStatisticsEnabled) {
+        this.isTimingStatisticsEnabled = isTimingStatisticsEnabled;
+    }
+
+    public boolean isTimingStatisticsEnabled() {
+        return isTimingStatisticsEnabled;
+    }
+
+    /**
+     * @return the distributions of the durations of each phase of the requests
+     *         processed since timing statistics were enabled, per request
+     *         class. Histograms keep being updated.
+     */
+    public List<RequestTimingStatistics> getTimingStatistics() {
+        return new ArrayList<RequestTimingStatistics>(mapRequestClassToTimingStatistics.values());
+    }
+
     // ============================================================================================
     // PRIVATE
     // ============================================================================================
 
+    private boolean isTimingEnabled() {
+        return isTimingStatisticsEnabled || timingListenerCount.get() > 0;
+    }
+
+    private void recordTiming(final RequestTiming requestTiming) {
+        final Class<?> requestClass = requestTiming.getRequestClass();
+        RequestTimingStatistics timingStatistics = mapRequestClassToTimingStatistics.get(requestClass);
+        if (timingStatistics == null) {
+            final RequestTimingStatistics newTimingStatistics = new RequestTimingStatistics(requestClass);
+            timingStatistics = mapRequestClassToTimingStatistics.putIfAbsent(requestClass, newTimingStatistics);
+            if (timingStatistics == null) {
+                timingStatistics = newTimingStatistics;
+            }
+        }
+        timingStatistics.record(requestTiming);
+    }
+
+    /**
+     * Cancel a request if it is not processed before its deadline. A request
+     * still waiting in a queue is cancelled before it reaches a worker, a
+     * request being processed has its worker interrupted.
+     */
+    private void scheduleTimeout(final CachedSpiceRequest<?> request, final AtomicBoolean isTimedOut) {
+        final long timeout = request.getTimeout() == SpiceRequest.TIMEOUT_DEFAULT ? defaultTimeout : request.getTimeout();
+        if (timeout <= 0) {
+            return;
+        }
+        final RequestTimeout requestTimeout = new RequestTimeout(request, isTimedOut);
+        mapRequestToTimeout.put(request, requestTimeout);
+        requestTimeout.future = scheduleOnTimer(requestTimeout, timeout);
+    }
+
+    /**
+     * @return false if the request has timed out, true otherwise.
+     */
+    private boolean cancelTimeout(final CachedSpiceRequest<?> request) {
+        final RequestTimeout requestTimeout = mapRequestToTimeout.get(request);
+        return requestTimeout == null || requestTimeout.cancel();
+    }
+
+    /**
+     * @return the future of the task, or null if this processor is shut down.
+     */
+    private Future<?> scheduleOnTimer(final Runnable task, final long delay) {
+        final ScheduledExecutorService currentTimer = getTimer();
+        if (currentTimer == null) {
+            return null;
+        }
+        try {
+            return currentTimer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            // shut down concurrently
+            return null;
+        }
+    }
+
+    /**
+     * @return the timer, null if this processor is shut down. Its thread times
+     *         out when no task is scheduled.
+     */
+    private synchronized ScheduledExecutorService getTimer() {
+        if (isShutdown) {
+            return null;
+        }
+        if (timer == null) {
+            final ScheduledThreadPoolExecutor newTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "robospice-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            newTimer.setKeepAliveTime(TIMER_KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+            newTimer.allowCoreThreadTimeOut(true);
+            timer = newTimer;
+        }
+        return timer;
+    }
+
     private <T> T loadDataFromCache(final Class<T> clazz, final Object cacheKey, final long maxTimeInCacheBeforeExpiry) throws CacheLoadingException {
         return cacheManager.loadDataFromCache(clazz, cacheKey, maxTimeInCacheBeforeExpiry);
     }
@@ -377,29 +1312,44 @@ public class RequestProcessor {
         return cacheManager.saveDataToCacheAndReturnData(data, cacheKey);
     }
 
-    private static class ProgressRunnable implements Runnable {
-        private final RequestProgress progress;
-        private final Set<RequestListener<?>> listeners;
-
-        public ProgressRunnable(final Set<RequestListener<?>> listeners, final RequestProgress progress) {
-            this.progress = progress;
-            this.listeners = listeners;
+    /**
+     * The deadline of a request. Either the request completes first and the
+     * timeout is cancelled, or the timeout fires first and the request is
+     * cancelled, never both.
+     */
+    private final class RequestTimeout implements Runnable {
+        private final CachedSpiceRequest<?> request;
+        private final AtomicBoolean isTimedOut;
+        private final AtomicBoolean isDone = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        public RequestTimeout(final CachedSpiceRequest<?> request, final AtomicBoolean isTimedOut) {
+            this.request = request;
+            this.isTimedOut = isTimedOut;
         }
 
         @Override
         public void run() {
-
-            if (listeners == null) {
+            if (!isDone.compareAndSet(false, true) || request.isCancelled()) {
                 return;
             }
+            Ln.d("Request timed out : " + request);
+            isTimedOut.set(true);
+            request.cancel();
+        }
 
-            Ln.v("Notifying " + listeners.size() + " listeners of progress " + progress);
-            for (final RequestListener<?> listener : listeners) {
-                if (listener != null && listener instanceof RequestProgressListener) {
-                    Ln.v("Notifying %s", listener.getClass().getSimpleName());
-                    ((RequestProgressListener) listener).onRequestProgressUpdate(progress);
-                }
+        /**
+         * @return true if the timeout was cancelled before it fired.
+         */
+        public boolean cancel() {
+            if (!isDone.compareAndSet(false, true)) {
+                return false;
+            }
+            final Future<?> timeoutFuture = future;
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
             }
+            return true;
         }
     }
 
@@ -408,6 +1358,7 @@ public class RequestProcessor {
         private SpiceException spiceException;
         private T result;
         private final Set<RequestListener<?>> listeners;
+        private Set<RequestListener<?>> listenersToSkip;
 
         public ResultRunnable(final Set<RequestListener<?>> listeners, final T result) {
             this.result = result;
@@ -419,6 +1370,17 @@ public class RequestProcessor {
             this.listeners = listeners;
         }
 
+        public ResultRunnable(final Set<RequestListener<?>> listeners, final Set<RequestListener<?>> listenersToSkip, final T result) {
+            this(listeners, result);
+            this.listenersToSkip = listenersToSkip;
+        }
+
+        public ResultRunnable(final Set<RequestListener<?>> listeners, final Set<RequestListener<?>> listenersToSkip,
+            final SpiceException spiceException) {
+            this(listeners, spiceException);
+            this.listenersToSkip = listenersToSkip;
+        }
+
         @Override
         public void run() {
             if (listeners == null) {
@@ -428,7 +1390,7 @@ public class RequestProcessor {
             final String resultMsg = spiceException == null ? "success" : "failure";
             Ln.v("Notifying " + listeners.size() + " listeners of request " + resultMsg);
             for (final RequestListener<?> listener : listeners) {
-                if (listener != null) {
+                if (listener != null && (listenersToSkip == null || !listenersToSkip.contains(listener))) {
                     @SuppressWarnings("unchecked")
                     final RequestListener<T> listenerOfT = (RequestListener<T>) listener;
                     Ln.v("Notifying %s", listener.getClass().getSimpleName());
@@ -450,20 +1412,10 @@ public class RequestProcessor {
         stringBuilder.append(" : ");
 
         stringBuilder.append(" request count= ");
-        stringBuilder.append(mapRequestToRequestListener.keySet().size());
+        stringBuilder.append(requestListenerRegistry.size());
 
         stringBuilder.append(", listeners per requests = [");
-        for (final Map.Entry<CachedSpiceRequest<?>, Set<RequestListener<?>>> entry : mapRequestToRequestListener.entrySet()) {
-            stringBuilder.append(entry.getKey().getClass().getName());
-            stringBuilder.append(":");
-            stringBuilder.append(entry.getKey());
-            stringBuilder.append(" --> ");
-            if (entry.getValue() == null) {
-                stringBuilder.append(entry.getValue());
-            } else {
-                stringBuilder.append(entry.getValue().size());
-            }
-        }
+        requestListenerRegistry.appendTo(stringBuilder);
         stringBuilder.append(']');
 
         stringBuilder.append(']');
@@ -471,16 +1423,27 @@ public class RequestProcessor {
     }
 
     public void addSpiceServiceListener(final SpiceServiceServiceListener spiceServiceServiceListener) {
-        this.spiceServiceListenerSet.add(spiceServiceServiceListener);
+        if (this.spiceServiceListenerSet.add(spiceServiceServiceListener)
+            && spiceServiceServiceListener instanceof SpiceServiceTimingListener) {
+            timingListenerCount.incrementAndGet();
+        }
     }
 
     public void removeSpiceServiceListener(final SpiceServiceServiceListener spiceServiceServiceListener) {
-        this.spiceServiceListenerSet.add(spiceServiceServiceListener);
+        if (this.spiceServiceListenerSet.remove(spiceServiceServiceListener)
+            && spiceServiceServiceListener instanceof SpiceServiceTimingListener) {
+            timingListenerCount.decrementAndGet();
+        }
     }
 
     protected void notifyOfRequestProcessed(final CachedSpiceRequest<?> request) {
-        Ln.v("Removing %s  size is %d", request, mapRequestToRequestListener.size());
-        mapRequestToRequestListener.remove(request);
+        Ln.v("Removing %s  size is %d", request, requestListenerRegistry.size());
+        // listeners of a request that is not processed are not notified
+        requestListenerRegistry.delivered(request, requestListenerRegistry.unregister(request));
+        final RequestTimeout requestTimeout = mapRequestToTimeout.remove(request);
+        if (requestTimeout != null) {
+            requestTimeout.cancel();
+        }
 
         checkAllRequestComplete();
         synchronized (spiceServiceListenerSet) {
@@ -489,4 +1452,35 @@ public class RequestProcessor {
             }
         }
     }
+
+    private void notifyOfRequestTimed(final CachedSpiceRequest<?> request, final RequestTiming requestTiming) {
+        if (isTimingStatisticsEnabled) {
+            recordTiming(requestTiming);
+        }
+        if (timingListenerCount.get() == 0) {
+            return;
+        }
+        synchronized (spiceServiceListenerSet) {
+            for (final SpiceServiceServiceListener spiceServiceServiceListener : spiceServiceListenerSet) {
+                if (spiceServiceServiceListener instanceof SpiceServiceTimingListener) {
+                    ((SpiceServiceTimingListener) spiceServiceServiceListener).onRequestTimed(request, requestTiming);
+                }
+            }
+        }
+    }
+
+    private void notifyOfCircuitBreakerStateChanged(final CachedSpiceRequest<?> request, final CircuitBreakerState state) {
+        if (state == null) {
+            return;
+        }
+        final Object endpointId = request.getEndpointId();
+        Ln.d("Circuit breaker of endpoint %s is now %s", endpointId, state);
+        synchronized (spiceServiceListenerSet) {
+            for (final SpiceServiceServiceListener spiceServiceServiceListener : spiceServiceListenerSet) {
+                if (spiceServiceServiceListener instanceof SpiceServiceCircuitBreakerListener) {
+                    ((SpiceServiceCircuitBreakerListener) spiceServiceServiceListener).onCircuitBreakerStateChanged(endpointId, state);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package com.octo.android.robospice.request;
+
+import com.octo.android.robospice.request.RequestTiming.Phase;
+import com.octo.android.robospice.request.listener.RequestStatus;
+
+/**
+ * Measures the phases of a request while it is processed. It is only created
+ * when timing is enabled in the {@link RequestProcessor}, requests that are not
+ * timed don't pay for it.
+ * @author sni
+ */
+final class RequestTimer {
+
+    private final Class<?> requestClass;
+    private final long startTimeInNanos;
+    private final long[] phaseDurationsInNanos = new long[Phase.values().length];
+    private Phase currentPhase;
+    private long currentPhaseStartTimeInNanos;
+    private boolean isStopped;
+
+    /**
+     * @param creationTimeInNanos
+     *            the time the request was created at, which starts its
+     *            {@link Phase#QUEUED} phase.
+     * @param now
+     *            the time the request was submitted to the processor at.
+     */
+    public RequestTimer(final Class<?> requestClass, final long creationTimeInNanos, final long now) {
+        this.requestClass = requestClass;
+        this.startTimeInNanos = creationTimeInNanos;
+        this.currentPhase = Phase.QUEUED;
+        this.currentPhaseStartTimeInNanos = creationTimeInNanos;
+        startPhase(Phase.PENDING, now);
+    }
+
+    public synchronized void startPhase(final Phase phase, final long now) {
+        if (isStopped) {
+            return;
+        }
+        phaseDurationsInNanos[currentPhase.ordinal()] += Math.max(0, now - currentPhaseStartTimeInNanos);
+        currentPhase = phase;
+        currentPhaseStartTimeInNanos = now;
+    }
+
+    public void startPhase(final RequestStatus status, final long now) {
+        switch (status) {
+            case READING_FROM_CACHE:
+                startPhase(Phase.READING_FROM_CACHE, now);
+                break;
+            case LOADING_FROM_NETWORK:
+                startPhase(Phase.LOADING_FROM_NETWORK, now);
+                break;
+            case WRITING_TO_CACHE:
+                startPhase(Phase.WRITING_TO_CACHE, now);
+                break;
+            case PENDING:
+                startPhase(Phase.PENDING, now);
+                break;
+            default:
+                // completion is timed by the dispatch of the result
+                break;
+        }
+    }
+
+    /**
+     * End the current phase and the measure.
+     * @return the timing of the request, or null if it was already stopped.
+     */
+    public synchronized RequestTiming stop(final long now) {
+        if (isStopped) {
+            return null;
+        }
+        startPhase(currentPhase, now);
+        isStopped = true;
+        return new RequestTiming(requestClass, phaseDurationsInNanos.clone(), Math.max(0, now - startTimeInNanos));
+    }
+}
@@ -0,0 +1,75 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.TimeUnit;
+
+import com.octo.android.robospice.request.listener.RequestStatus;
+
+/**
+ * Where the time of a request went, from its creation to the delivery of its
+ * result to its listeners. Durations are measured with a monotonic clock. A
+ * request may go through a phase many times (a retry waits in
+ * {@link Phase#PENDING} before loading again from network) : the durations of
+ * a phase are summed.
+ * @author sni
+ */
+public final class RequestTiming {
+
+    /** The phases of the processing of a request. */
+    public enum Phase {
+        /**
+         * From the creation of the request (typically when it is executed) to
+         * its submission to the {@link RequestProcessor} : time spent in the
+         * queue of the SpiceManager, or waiting for the service to be bound.
+         */
+        QUEUED,
+        /**
+         * Waiting for a worker thread of a stage, for a retry, or for network
+         * to be back (see {@link RequestStatus#PENDING}).
+         */
+        PENDING,
+        /** See {@link RequestStatus#READING_FROM_CACHE}. */
+        READING_FROM_CACHE,
+        /** See {@link RequestStatus#LOADING_FROM_NETWORK}. */
+        LOADING_FROM_NETWORK,
+        /** See {@link RequestStatus#WRITING_TO_CACHE}. */
+        WRITING_TO_CACHE,
+        /** From completion to the delivery of the result on the main thread. */
+        DISPATCHING;
+    }
+
+    private final Class<?> requestClass;
+    private final long[] phaseDurationsInNanos;
+    private final long totalDurationInNanos;
+
+    /* package private */RequestTiming(final Class<?> requestClass, final long[] phaseDurationsInNanos, final long totalDurationInNanos) {
+        this.requestClass = requestClass;
+        this.phaseDurationsInNanos = phaseDurationsInNanos;
+        this.totalDurationInNanos = totalDurationInNanos;
+    }
+
+    /**
+     * @return the class of the timed {@link SpiceRequest}.
+     */
+    public Class<?> getRequestClass() {
+        return requestClass;
+    }
+
+    public long getDuration(final Phase phase, final TimeUnit unit) {
+        return unit.convert(phaseDurationsInNanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+    }
+
+    public long getTotalDuration(final TimeUnit unit) {
+        return unit.convert(totalDurationInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("RequestTiming [").append(requestClass.getSimpleName());
+        for (final Phase phase : Phase.values()) {
+            stringBuilder.append(", ").append(phase).append('=').append(getDuration(phase, TimeUnit.MICROSECONDS)).append("us");
+        }
+        stringBuilder.append(", total=").append(getTotalDuration(TimeUnit.MICROSECONDS)).append("us]");
+        return stringBuilder.toString();
+    }
+}
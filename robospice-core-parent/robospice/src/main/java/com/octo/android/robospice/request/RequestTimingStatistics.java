@@ -0,0 +1,55 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.TimeUnit;
+
+import com.octo.android.robospice.request.RequestTiming.Phase;
+
+/**
+ * The distribution of the durations of each phase of the requests of a class,
+ * aggregated by a {@link RequestProcessor} when timing statistics are
+ * enabled.
+ * @author sni
+ */
+public final class RequestTimingStatistics {
+
+    private final Class<?> requestClass;
+    private final LatencyHistogram[] phaseHistograms = new LatencyHistogram[Phase.values().length];
+    private final LatencyHistogram totalHistogram = new LatencyHistogram();
+
+    public RequestTimingStatistics(final Class<?> requestClass) {
+        this.requestClass = requestClass;
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(final RequestTiming requestTiming) {
+        for (final Phase phase : Phase.values()) {
+            phaseHistograms[phase.ordinal()].record(requestTiming.getDuration(phase, TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+        totalHistogram.record(requestTiming.getTotalDuration(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    public Class<?> getRequestClass() {
+        return requestClass;
+    }
+
+    public LatencyHistogram getHistogram(final Phase phase) {
+        return phaseHistograms[phase.ordinal()];
+    }
+
+    public LatencyHistogram getTotalHistogram() {
+        return totalHistogram;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("RequestTimingStatistics [").append(requestClass.getName());
+        for (final Phase phase : Phase.values()) {
+            stringBuilder.append("\n  ").append(phase).append(" : ").append(getHistogram(phase));
+        }
+        stringBuilder.append("\n  TOTAL : ").append(totalHistogram).append(']');
+        return stringBuilder.toString();
+    }
+}
@@ -9,6 +9,7 @@ import com.octo.android.robospice.request.listener.RequestCancellationListener;
 import com.octo.android.robospice.request.listener.RequestProgress;
 import com.octo.android.robospice.request.listener.RequestProgressListener;
 import com.octo.android.robospice.request.listener.RequestStatus;
+import com.octo.android.robospice.retry.RetryPolicy;
 
 /**
  * Base class for writing requests in RoboSpice. Simply override
@@ -20,14 +21,37 @@ import com.octo.android.robospice.request.listener.RequestStatus;
  */
 public abstract class SpiceRequest<RESULT> {
 
+    /** Priority of requests that must be processed before any other. */
+    public static final int PRIORITY_HIGH = 0;
+    /** Default priority of requests. */
+    public static final int PRIORITY_NORMAL = 50;
+    /** Priority of requests that can wait for all others to be processed. */
+    public static final int PRIORITY_LOW = 100;
+    /**
+     * Priority of prefetch requests, that only fill the cache during idle
+     * time. They are processed after all other requests, and at most one of
+     * them at a time.
+     */
+    public static final int PRIORITY_PREFETCH = 1000;
+
+    /** The request times out after the default timeout of the service. */
+    public static final long TIMEOUT_DEFAULT = 0;
+    /** The request never times out. */
+    public static final long TIMEOUT_NONE = -1;
+
     private final Class<RESULT> resultType;
-    private boolean isCanceled = false;
-    private Future<?> future;
+    private volatile boolean isCanceled = false;
+    private volatile Future<?> future;
     private RequestProgressListener requestProgressListener;
     private boolean isAggregatable = true;
     private RequestProgress progress = new RequestProgress(
         RequestStatus.PENDING);
     private RequestCancellationListener requestCancellationListener;
+    private volatile int priority = PRIORITY_NORMAL;
+    private volatile long timeout = TIMEOUT_DEFAULT;
+    private volatile RetryPolicy retryPolicy;
+    private volatile Object endpointId;
+    private volatile Object tag;
 
     public SpiceRequest(final Class<RESULT> clazz) {
         checkInnerClassDeclarationToPreventMemoryLeak();
@@ -86,6 +110,104 @@ public abstract class SpiceRequest<RESULT> {
         this.isAggregatable = isAggregatable;
     }
 
+    /**
+     * @return the priority of this request. The lower the value, the sooner
+     *         the request will be processed.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority of this request. When workers of the
+     * {@link com.octo.android.robospice.SpiceService} are all busy, pending
+     * requests are processed by ascending priority values, and by order of
+     * submission for requests of equal priority.
+     * @param priority
+     *            the priority of the request. Typically one of
+     *            {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL},
+     *            {@link #PRIORITY_LOW} or {@link #PRIORITY_PREFETCH}.
+     */
+    public void setPriority(final int priority) {
+        if (priority < 0) {
+            throw new IllegalArgumentException("Priority must be >= 0");
+        }
+        this.priority = priority;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the maximum duration of the processing of this request, from the
+     * moment it is submitted to the service. Past this deadline, the request
+     * is cancelled, its worker thread is interrupted and its listeners are
+     * notified with a
+     * {@link com.octo.android.robospice.exception.RequestTimeoutException}.
+     * If the request is aggregated to a pending request, the deadline of the
+     * pending request applies.
+     * @param timeout
+     *            the timeout in ms, {@link #TIMEOUT_DEFAULT} to use the
+     *            default timeout of the service or {@link #TIMEOUT_NONE}.
+     */
+    public void setTimeout(final long timeout) {
+        if (timeout < TIMEOUT_NONE) {
+            throw new IllegalArgumentException("Timeout must be >= " + TIMEOUT_NONE);
+        }
+        this.timeout = timeout;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy that determines whether the network call of this request
+     * is tried again when it fails. By default, requests are not retried.
+     * @param retryPolicy
+     *            the retry policy of the request, or null not to retry it.
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the endpoint reached by this request, its class if none was set.
+     *         Requests to the same endpoint share a circuit breaker (see
+     *         {@link CircuitBreakerPolicy}).
+     */
+    public Object getEndpointId() {
+        return endpointId == null ? getClass() : endpointId;
+    }
+
+    /**
+     * @param endpointId
+     *            the endpoint reached by this request, typically a host or a
+     *            base url. Its equals and hashCode methods must be
+     *            consistent.
+     */
+    public void setEndpointId(final Object endpointId) {
+        this.endpointId = endpointId;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    /**
+     * Tag this request, so that all requests with the same tag can be
+     * cancelled or stop notifying their listeners at once (see
+     * {@link com.octo.android.robospice.SpiceManager#cancelRequestsWithTag(Object)}
+     * ). The tag must be set before the request is executed.
+     * @param tag
+     *            the tag of this request, typically the screen that executes
+     *            it. Its equals and hashCode methods must be consistent.
+     */
+    public void setTag(final Object tag) {
+        this.tag = tag;
+    }
+
     protected void setFuture(final Future<?> future) {
         this.future = future;
     }
@@ -0,0 +1,77 @@
+package com.octo.android.robospice.request;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A snapshot of the state of a stage of the processing of requests by a
+ * {@link RequestProcessor}. Sizes that can't be determined (when a stage runs
+ * on a custom {@link ExecutorService} that is not a
+ * {@link ThreadPoolExecutor}) are equal to {@link #UNKNOWN}.
+ * @author sni
+ */
+public class StageStatistics {
+
+    public static final int UNKNOWN = -1;
+
+    private final String stageName;
+    private final int poolSize;
+    private final int maximumPoolSize;
+    private final int activeThreadCount;
+    private final int queueSize;
+
+    public StageStatistics(final String stageName, final int poolSize, final int maximumPoolSize, final int activeThreadCount,
+        final int queueSize) {
+        this.stageName = stageName;
+        this.poolSize = poolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.activeThreadCount = activeThreadCount;
+        this.queueSize = queueSize;
+    }
+
+    /* package private */static StageStatistics of(final String stageName, final ExecutorService executorService, final int queueSize) {
+        if (executorService instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executorService;
+            return new StageStatistics(stageName, threadPoolExecutor.getPoolSize(), threadPoolExecutor.getMaximumPoolSize(),
+                threadPoolExecutor.getActiveCount(), queueSize);
+        }
+        return new StageStatistics(stageName, UNKNOWN, UNKNOWN, UNKNOWN, queueSize);
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    /**
+     * @return the current number of threads of the stage.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    /**
+     * @return the number of threads of the stage that are processing a
+     *         request.
+     */
+    public int getActiveThreadCount() {
+        return activeThreadCount;
+    }
+
+    /**
+     * @return the number of requests (or notifications for the dispatch stage)
+     *         waiting for a thread of the stage.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @Override
+    public String toString() {
+        return "StageStatistics [stageName=" + stageName + ", poolSize=" + poolSize + ", maximumPoolSize=" + maximumPoolSize
+            + ", activeThreadCount=" + activeThreadCount + ", queueSize=" + queueSize + "]";
+    }
+}
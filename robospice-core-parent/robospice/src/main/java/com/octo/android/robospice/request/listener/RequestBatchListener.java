@@ -0,0 +1,11 @@
+package com.octo.android.robospice.request.listener;
+
+/**
+ * Interface used to be notified, on the main thread, when all the requests of
+ * a batch have been processed and their listeners notified.
+ * @author sni
+ */
+public interface RequestBatchListener {
+
+    void onBatchComplete();
+}
@@ -0,0 +1,147 @@
+package com.octo.android.robospice.retry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link RetryPolicy} with exponential backoff and jitter. The delay before
+ * the n-th retry is <code>initialDelay * backoffMultiplier^(n-1)</code>,
+ * capped to a maximum delay. A random part of this delay, up to the jitter
+ * factor, is removed so that clients that failed together don't retry all at
+ * the same moment. By default, all exceptions are retried, except
+ * interruptions. Use {@link #addRetryableExceptionClass(Class)} or override
+ * {@link #isRetryable(Exception)} to restrict the exceptions that are
+ * retried.
+ * @author sni
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPT_COUNT = 3;
+    public static final long DEFAULT_INITIAL_DELAY = 1000;
+    public static final float DEFAULT_BACKOFF_MULTIPLIER = 2f;
+    public static final long DEFAULT_MAX_DELAY = 30 * 1000;
+    public static final float DEFAULT_JITTER_FACTOR = 0.5f;
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttemptCount;
+    private final long initialDelay;
+    private final float backoffMultiplier;
+    private final long maxDelay;
+    private final float jitterFactor;
+
+    private final List<Class<? extends Exception>> retryableExceptionClasses = new ArrayList<Class<? extends Exception>>();
+
+    public DefaultRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPT_COUNT, DEFAULT_INITIAL_DELAY, DEFAULT_BACKOFF_MULTIPLIER);
+    }
+
+    public DefaultRetryPolicy(final int maxAttemptCount, final long initialDelay, final float backoffMultiplier) {
+        this(maxAttemptCount, initialDelay, backoffMultiplier, DEFAULT_MAX_DELAY, DEFAULT_JITTER_FACTOR);
+    }
+
+    /**
+     * @param maxAttemptCount
+     *            the maximum number of attempts, including the first one.
+     * @param initialDelay
+     *            the delay in ms before the first retry.
+     * @param backoffMultiplier
+     *            the factor applied to the delay after each retry.
+     * @param maxDelay
+     *            the maximum delay in ms between two attempts.
+     * @param jitterFactor
+     *            the maximum part of a delay, between 0 and 1, that is
+     *            randomly removed from it. 0 means no jitter.
+     */
+    public DefaultRetryPolicy(final int maxAttemptCount, final long initialDelay, final float backoffMultiplier, final long maxDelay,
+        final float jitterFactor) {
+        if (maxAttemptCount <= 0) {
+            throw new IllegalArgumentException("Max attempt count must be >= 1");
+        }
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Delays must be >= 0 and max delay must be >= initial delay");
+        }
+        if (backoffMultiplier < 1) {
+            throw new IllegalArgumentException("Backoff multiplier must be >= 1");
+        }
+        if (jitterFactor < 0 || jitterFactor > 1) {
+            throw new IllegalArgumentException("Jitter factor must be between 0 and 1");
+        }
+        this.maxAttemptCount = maxAttemptCount;
+        this.initialDelay = initialDelay;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxDelay = maxDelay;
+        this.jitterFactor = jitterFactor;
+    }
+
+    /**
+     * Restrict the exceptions that are retried. Once a class is added, only
+     * exceptions that are instances of the added classes, or are caused by
+     * such exceptions, are retried.
+     * @param exceptionClass
+     *            a class of exceptions to retry.
+     * @return this policy.
+     */
+    public DefaultRetryPolicy addRetryableExceptionClass(final Class<? extends Exception> exceptionClass) {
+        synchronized (retryableExceptionClasses) {
+            retryableExceptionClasses.add(exceptionClass);
+        }
+        return this;
+    }
+
+    @Override
+    public long getDelayBeforeRetry(final int attemptCount, final Exception exception) {
+        if (attemptCount >= maxAttemptCount || !isRetryable(exception)) {
+            return NO_RETRY;
+        }
+        final double backoffDelay = initialDelay * Math.pow(backoffMultiplier, attemptCount - 1);
+        final long delay = (long) Math.min(maxDelay, backoffDelay);
+        return delay - (long) (delay * jitterFactor * RANDOM.nextFloat());
+    }
+
+    /**
+     * Determine whether an exception is worth retrying.
+     * @param exception
+     *            the exception thrown by the attempt that just failed.
+     * @return true if the request can be tried again.
+     */
+    protected boolean isRetryable(final Exception exception) {
+        if (exception instanceof InterruptedException) {
+            return false;
+        }
+        synchronized (retryableExceptionClasses) {
+            if (retryableExceptionClasses.isEmpty()) {
+                return true;
+            }
+            for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+                for (final Class<? extends Exception> retryableExceptionClass : retryableExceptionClasses) {
+                    if (retryableExceptionClass.isInstance(cause)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public int getMaxAttemptCount() {
+        return maxAttemptCount;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public float getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public float getJitterFactor() {
+        return jitterFactor;
+    }
+}
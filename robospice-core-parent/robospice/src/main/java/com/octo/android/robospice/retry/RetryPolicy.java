@@ -0,0 +1,28 @@
+package com.octo.android.robospice.retry;
+
+import com.octo.android.robospice.request.RequestProcessor;
+
+/**
+ * Defines when a request whose network call failed is tried again. It can be
+ * set on a request and is run by the {@link RequestProcessor}. Retries are
+ * scheduled on a timer shared by all requests, no worker thread is held
+ * during the delay before a retry.
+ * @author sni
+ */
+public interface RetryPolicy {
+
+    /** Returned by {@link #getDelayBeforeRetry(int, Exception)} not to retry. */
+    long NO_RETRY = -1;
+
+    /**
+     * Determine whether a request must be tried again, and when.
+     * @param attemptCount
+     *            the number of attempts made so far, including the one that
+     *            just failed. Starts at 1.
+     * @param exception
+     *            the exception thrown by the attempt that just failed.
+     * @return the delay in ms before the next attempt, or {@link #NO_RETRY}
+     *         if the request must fail.
+     */
+    long getDelayBeforeRetry(int attemptCount, Exception exception);
+}